@@ -59,6 +59,26 @@ CREATE TABLE IF NOT EXISTS `game_data` (
 
 -- Data exporting was unselected.
 
+-- Dumping structure for table gameserver_sql.game_state
+CREATE TABLE IF NOT EXISTS `game_state` (
+  `game_id` varchar(50) COLLATE utf8_unicode_ci NOT NULL,
+  `version` int(11) unsigned NOT NULL DEFAULT 0,
+  `data` mediumblob NOT NULL,
+  PRIMARY KEY (`game_id`),
+  CONSTRAINT `FK_game_state_games` FOREIGN KEY (`game_id`) REFERENCES `games` (`game_id`) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
+
+-- Data exporting was unselected.
+
+-- Dumping structure for table gameserver_sql.id_sequences
+CREATE TABLE IF NOT EXISTS `id_sequences` (
+  `name` varchar(50) COLLATE utf8_unicode_ci NOT NULL,
+  `next` bigint(20) unsigned NOT NULL DEFAULT 0,
+  PRIMARY KEY (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
+
+-- Data exporting was unselected.
+
 -- Dumping structure for table gameserver_sql.players
 CREATE TABLE IF NOT EXISTS `players` (
   `user_id` int(11) unsigned NOT NULL,
@@ -84,6 +104,17 @@ CREATE TABLE IF NOT EXISTS `player_data` (
 
 -- Data exporting was unselected.
 
+-- Dumping structure for table gameserver_sql.player_state
+CREATE TABLE IF NOT EXISTS `player_state` (
+  `user_id` int(11) unsigned NOT NULL,
+  `version` int(11) unsigned NOT NULL DEFAULT 0,
+  `data` mediumblob NOT NULL,
+  PRIMARY KEY (`user_id`),
+  CONSTRAINT `FK_player_state_players` FOREIGN KEY (`user_id`) REFERENCES `players` (`user_id`) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
+
+-- Data exporting was unselected.
+
 -- Dumping structure for table gameserver_sql.users
 CREATE TABLE IF NOT EXISTS `users` (
   `user_id` int(11) unsigned NOT NULL AUTO_INCREMENT,
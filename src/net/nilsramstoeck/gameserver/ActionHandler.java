@@ -0,0 +1,23 @@
+package net.nilsramstoeck.gameserver;
+
+import net.nilsramstoeck.gameserver.client.Client;
+import net.nilsramstoeck.gameserver.message.InboundMessage;
+
+/**
+ * Handles one action of a message type
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+@FunctionalInterface
+public interface ActionHandler {
+
+	/**
+	 * Handles a message
+	 *
+	 * @param client  Client that send the message
+	 * @param message Received message
+	 * @throws GameServerException Any Error during the handling of the action
+	 */
+	public void handle(Client client, InboundMessage message) throws GameServerException;
+}
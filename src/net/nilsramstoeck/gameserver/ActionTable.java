@@ -0,0 +1,143 @@
+package net.nilsramstoeck.gameserver;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.nilsramstoeck.gameserver.client.Client;
+import net.nilsramstoeck.gameserver.message.InboundMessage;
+
+/**
+ * Maps the type and action of a message to its handler and the authentication
+ * a client needs to use it
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class ActionTable {
+
+	/**
+	 * Auth mask of actions that can be used by any client
+	 */
+	public static final int PUBLIC = 0;
+
+	/**
+	 * Actions by their type and action
+	 */
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, Action>> types = new ConcurrentHashMap<String, ConcurrentHashMap<String, Action>>();
+
+	/**
+	 * Registers an action
+	 *
+	 * @param type     Message type
+	 * @param action   Message action
+	 * @param authMask Bits the auth level of a client must have, {@link #PUBLIC}
+	 *                 for no authentication
+	 * @param handler  Handler of the action
+	 * @throws IllegalArgumentException the action is already registered
+	 */
+	public void register(String type, String action, int authMask, ActionHandler handler) {
+		this.registerAsync(type, action, authMask, (client, message) -> {
+			handler.handle(client, message);
+			return null;
+		});
+	}
+
+	/**
+	 * Registers an action that finishes asynchronously
+	 *
+	 * @param type     Message type
+	 * @param action   Message action
+	 * @param authMask Bits the auth level of a client must have, {@link #PUBLIC}
+	 *                 for no authentication
+	 * @param handler  Handler of the action
+	 * @throws IllegalArgumentException the action is already registered
+	 */
+	public void registerAsync(String type, String action, int authMask, AsyncActionHandler handler) {
+		ConcurrentHashMap<String, Action> actions = this.types.computeIfAbsent(type, t -> new ConcurrentHashMap<String, Action>());
+		if (actions.putIfAbsent(action, new Action(authMask, handler)) != null) {
+			throw new IllegalArgumentException("Action " + type + "/" + action + " is already registered");
+		}
+	}
+
+	/**
+	 * Looks up an action
+	 *
+	 * @param type   Message type
+	 * @param action Message action
+	 * @return Action or null if it is not registered
+	 */
+	public Action get(String type, String action) {
+		ConcurrentHashMap<String, Action> actions = this.types.get(type);
+		if (actions == null) return null;
+		return actions.get(action);
+	}
+
+	/**
+	 * Checks if any action of a type is registered
+	 *
+	 * @param type Message type
+	 * @return if the type is known
+	 */
+	public boolean hasType(String type) {
+		return this.types.containsKey(type);
+	}
+
+	/**
+	 * A registered action
+	 */
+	public static final class Action {
+
+		/**
+		 * Bits the auth level of a client must have
+		 */
+		private final int authMask;
+
+		/**
+		 * Handler of the action
+		 */
+		private final AsyncActionHandler handler;
+
+		/**
+		 * Creates an action
+		 *
+		 * @param _authMask Required auth bits
+		 * @param _handler  Handler of the action
+		 */
+		private Action(int _authMask, AsyncActionHandler _handler) {
+			this.authMask = _authMask;
+			this.handler = _handler;
+		}
+
+		/**
+		 * Checks if a client may use the action
+		 *
+		 * @param client Client to check
+		 * @return if the client is permitted
+		 */
+		public boolean isPermitted(Client client) {
+			return Client.matchMask(client.getAuthLevel(), this.authMask);
+		}
+
+		/**
+		 * authMask getter
+		 *
+		 * @return {@link #authMask}
+		 */
+		public int getAuthMask() {
+			return this.authMask;
+		}
+
+		/**
+		 * Handles a message with the handler of the action
+		 *
+		 * @param client  Client that send the message
+		 * @param message Received message
+		 * @return Future that completes once the action is done, null if it
+		 *         already is
+		 * @throws GameServerException Any Error during the handling of the action
+		 */
+		public CompletableFuture<?> handle(Client client, InboundMessage message) throws GameServerException {
+			return this.handler.handle(client, message);
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package net.nilsramstoeck.gameserver;
+
+import java.util.concurrent.CompletableFuture;
+
+import net.nilsramstoeck.gameserver.client.Client;
+import net.nilsramstoeck.gameserver.message.InboundMessage;
+
+/**
+ * Handles one action of a message type that finishes asynchronously. The next
+ * message of the connection is handled once the returned future completed.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+@FunctionalInterface
+public interface AsyncActionHandler {
+
+	/**
+	 * Handles a message
+	 *
+	 * @param client  Client that send the message
+	 * @param message Received message
+	 * @return Future that completes once the action is done and answered
+	 * @throws GameServerException Any Error during the handling of the action
+	 */
+	public CompletableFuture<?> handle(Client client, InboundMessage message) throws GameServerException;
+}
@@ -0,0 +1,117 @@
+package net.nilsramstoeck.gameserver;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed size worker pool with a bounded queue. Tasks that do not fit into the
+ * queue fail immediately instead of piling up.
+ * 
+ * @author Nils Ramstoeck
+ *
+ */
+public class BoundedExecutor {
+
+	/**
+	 * Name of the pool, used for its threads and errors
+	 */
+	private final String name;
+
+	/**
+	 * Underlying executor
+	 */
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Error code of rejected tasks
+	 */
+	private final int busyCode;
+
+	/**
+	 * Creates a new pool
+	 * 
+	 * @param _name     Name of the pool
+	 * @param threads   Number of worker threads
+	 * @param queueSize Maximum number of waiting tasks
+	 * @param _busyCode Error code of rejected tasks
+	 */
+	public BoundedExecutor(String _name, int threads, int queueSize, int _busyCode) {
+		this(_name, threads, queueSize, _busyCode, BoundedExecutor.daemonThreads(_name));
+	}
+
+	/**
+	 * Creates a new pool with custom threads, e.g. virtual threads
+	 * 
+	 * @param _name     Name of the pool
+	 * @param threads   Number of worker threads
+	 * @param queueSize Maximum number of waiting tasks
+	 * @param _busyCode Error code of rejected tasks
+	 * @param factory   Factory of the worker threads
+	 */
+	public BoundedExecutor(String _name, int threads, int queueSize, int _busyCode, ThreadFactory factory) {
+		this.name = _name;
+		this.busyCode = _busyCode;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), factory, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * Creates a factory of daemon threads named after the pool
+	 * 
+	 * @param name Name of the pool
+	 * @return ThreadFactory
+	 */
+	private static ThreadFactory daemonThreads(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Runs a task on the pool
+	 * 
+	 * @param <T>  Type of the result
+	 * @param task Task to run
+	 * @return Future that completes with the result of the task. Fails with a
+	 *         {@link GameServerException} if the task threw one or the pool is
+	 *         busy
+	 */
+	public <T> CompletableFuture<T> submit(GameServerTask<T> task) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		try {
+			this.executor.execute(() -> {
+				try {
+					future.complete(task.run());
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(new GameServerException(this.name + " is busy", this.busyCode));
+		}
+		return future;
+	}
+
+	/**
+	 * Number of tasks waiting for a worker
+	 * 
+	 * @return queue size
+	 */
+	public int getQueueSize() {
+		return this.executor.getQueue().size();
+	}
+
+	/**
+	 * Stops accepting new tasks
+	 */
+	public void shutdown() {
+		this.executor.shutdown();
+	}
+}
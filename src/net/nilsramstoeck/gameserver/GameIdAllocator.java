@@ -0,0 +1,200 @@
+package net.nilsramstoeck.gameserver;
+
+import java.util.concurrent.CompletableFuture;
+
+import net.nilsramstoeck.gameserver.storage.Storage;
+
+/**
+ * Hands out unique GameIDs without asking the storage for every game. Each
+ * server node has its own prefix character and reserves blocks of sequence
+ * numbers from the storage. A sequence number is scrambled with a bijective
+ * mix, so consecutive games get unrelated looking IDs, and written with a
+ * Crockford Base32 alphabet that avoids characters that are easily confused.
+ * The next block is reserved in the background before the current one runs
+ * out.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class GameIdAllocator {
+
+	/**
+	 * Crockford Base32 alphabet, without I, L, O and U
+	 */
+	private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+	/**
+	 * Bits of one character
+	 */
+	private static final int BITS_PER_CHAR = 5;
+
+	/**
+	 * Maximum number of characters after the prefix, so the sequence fits into
+	 * a long
+	 */
+	private static final int MAX_BODY_LENGTH = 12;
+
+	/**
+	 * Odd multipliers of the scramble, every odd number is invertible modulo a
+	 * power of two
+	 */
+	private static final long MIX_1 = 0x9E3779B97F4A7C15L;
+	private static final long MIX_2 = 0xC2B2AE3D27D4EB4FL;
+
+	/**
+	 * Storage that reserves the blocks
+	 */
+	private final Storage storage;
+
+	/**
+	 * Executor that reserves the next block in the background
+	 */
+	private final BoundedExecutor executor;
+
+	/**
+	 * Name of the sequence of this node in the storage
+	 */
+	private final String sequence;
+
+	/**
+	 * First character of every ID of this node
+	 */
+	private final char prefix;
+
+	/**
+	 * Number of characters after the prefix
+	 */
+	private final int bodyLength;
+
+	/**
+	 * Number of bits of a sequence number
+	 */
+	private final int bits;
+
+	/**
+	 * Mask of the bits of a sequence number
+	 */
+	private final long mask;
+
+	/**
+	 * Key of the scramble, so IDs can't be predicted from the sequence
+	 */
+	private final long secret;
+
+	/**
+	 * Number of IDs reserved at once
+	 */
+	private final int blockSize;
+
+	/**
+	 * Next sequence number of the current block, guarded by this
+	 */
+	private long next = 0;
+
+	/**
+	 * End of the current block, guarded by this
+	 */
+	private long end = 0;
+
+	/**
+	 * Reservation of the next block or null, guarded by this
+	 */
+	private CompletableFuture<Long> prefetched = null;
+
+	/**
+	 * Creates an allocator
+	 *
+	 * @param _storage   Storage that reserves the blocks
+	 * @param _executor  Executor that reserves the next block in the background
+	 * @param node       Number of this server node, 0 to 31
+	 * @param length     Length of the IDs including the prefix
+	 * @param _blockSize Number of IDs reserved at once
+	 * @param _secret    Key of the scramble
+	 */
+	public GameIdAllocator(Storage _storage, BoundedExecutor _executor, int node, int length, int _blockSize, long _secret) {
+		if (node < 0 || node >= ALPHABET.length) throw new IllegalArgumentException("Node must be between 0 and " + (ALPHABET.length - 1));
+		if (length < 2 || length > MAX_BODY_LENGTH + 1) throw new IllegalArgumentException("GameID length must be between 2 and " + (MAX_BODY_LENGTH + 1));
+		if (_blockSize < 1) throw new IllegalArgumentException("Block size must be positive");
+		this.storage = _storage;
+		this.executor = _executor;
+		this.sequence = "game_id/" + node;
+		this.prefix = ALPHABET[node];
+		this.bodyLength = length - 1;
+		this.bits = this.bodyLength * BITS_PER_CHAR;
+		this.mask = (1L << this.bits) - 1;
+		this.secret = _secret & this.mask;
+		this.blockSize = _blockSize;
+	}
+
+	/**
+	 * Gets a new GameID
+	 *
+	 * @return GameID
+	 * @throws GameServerException No block could be reserved or all IDs are used
+	 */
+	public synchronized String next() throws GameServerException {
+		if (this.next == this.end) this.takeBlock();
+		long id = this.next++;
+		// reserve the next block once a quarter of this one is left
+		if (this.prefetched == null && this.end - this.next <= this.blockSize / 4) {
+			this.prefetched = this.executor.submit(() -> this.storage.reserveIds(this.sequence, this.blockSize));
+		}
+		return this.encode(this.scramble(id));
+	}
+
+	/**
+	 * Switches to the next block. A prefetched block is only used if it is
+	 * already reserved, waiting for it could block the executor that reserves
+	 * it.
+	 *
+	 * @throws GameServerException No block could be reserved or all IDs are used
+	 */
+	private void takeBlock() throws GameServerException {
+		long start;
+		if (this.prefetched != null && this.prefetched.isDone() && !this.prefetched.isCompletedExceptionally()) {
+			start = this.prefetched.join();
+			this.prefetched = null;
+		} else {
+			// a failed prefetch is retried right here
+			if (this.prefetched != null && this.prefetched.isCompletedExceptionally()) this.prefetched = null;
+			start = this.storage.reserveIds(this.sequence, this.blockSize);
+		}
+		if (start < 0 || start + this.blockSize - 1 > this.mask) {
+			throw new GameServerException("All GameIDs of node " + this.prefix + " are used", GameServerException.SQL_ERROR);
+		}
+		this.next = start;
+		this.end = start + this.blockSize;
+	}
+
+	/**
+	 * Mixes a sequence number. Every step is invertible on numbers of
+	 * {@link #bits} bits, so different sequence numbers give different results.
+	 *
+	 * @param x Sequence number
+	 * @return scrambled number
+	 */
+	private long scramble(long x) {
+		x ^= this.secret;
+		x = (x * MIX_1) & this.mask;
+		x ^= x >>> (this.bits / 2 + 1);
+		x = (x * MIX_2) & this.mask;
+		x ^= x >>> (this.bits / 2);
+		return x;
+	}
+
+	/**
+	 * Writes the prefix and a number with a fixed number of characters
+	 *
+	 * @param x Number of {@link #bits} bits
+	 * @return GameID
+	 */
+	private String encode(long x) {
+		char[] id = new char[this.bodyLength + 1];
+		id[0] = this.prefix;
+		for (int i = this.bodyLength; i > 0; i--) {
+			id[i] = ALPHABET[(int) (x & 0x1F)];
+			x >>>= BITS_PER_CHAR;
+		}
+		return new String(id);
+	}
+}
@@ -5,27 +5,47 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
+import java.nio.ByteBuffer;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map.Entry;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import org.java_websocket.WebSocket;
 import org.java_websocket.drafts.Draft;
 import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.handshake.ServerHandshakeBuilder;
 import org.java_websocket.server.WebSocketServer;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
 
-import com.mysql.cj.exceptions.MysqlErrorNumbers;
-import net.nilsramstoeck.util.debug.Debugger;
 import net.nilsramstoeck.gameserver.client.Client;
+import net.nilsramstoeck.gameserver.client.OutboundQueue;
+import net.nilsramstoeck.gameserver.client.OutboundQueue.OverflowPolicy;
+import net.nilsramstoeck.gameserver.game.GameData;
+import net.nilsramstoeck.gameserver.game.Room;
+import net.nilsramstoeck.gameserver.game.RoomRegistry;
+import net.nilsramstoeck.gameserver.log.Logger;
+import net.nilsramstoeck.gameserver.message.InboundMessage;
 import net.nilsramstoeck.gameserver.message.Message;
+import net.nilsramstoeck.gameserver.message.MessageCodec;
+import net.nilsramstoeck.gameserver.sql.ConnectionPool;
+import net.nilsramstoeck.gameserver.sql.PooledConnection;
+import net.nilsramstoeck.gameserver.sql.ResultMapper;
+import net.nilsramstoeck.gameserver.storage.MySQLStorage;
+import net.nilsramstoeck.gameserver.storage.Storage;
+import net.nilsramstoeck.gameserver.storage.StorageProvider;
 import net.nilsramstoeck.security.PasswordManager;
 
 /**
@@ -36,15 +56,97 @@ import net.nilsramstoeck.security.PasswordManager;
  */
 abstract public class GameServer extends WebSocketServer implements GameServerErrorCode {
 
+	/**
+	 * Logger of the server
+	 */
+	private static final Logger LOG = Logger.getLogger(GameServer.class);
+
 	/**
 	 * Contains all connected clients
 	 */
-	private static HashMap<WebSocket, Client> conns;
+	private static ConcurrentHashMap<WebSocket, Client> conns;
 
 	/**
 	 * Contains all games and their connected clients
 	 */
-	private static HashMap<String, HashSet<Client>> games;
+	private static RoomRegistry games;
+
+	/**
+	 * Returned for games without connected clients
+	 */
+	private static final Client[] NO_CLIENTS = new Client[0];
+
+	/**
+	 * Index of all active sessions, their users and games
+	 */
+	private static SessionIndex sessions;
+
+	/**
+	 * Pending last_access updates of sessions and games
+	 */
+	private static LastAccessBuffer lastAccess;
+
+	/**
+	 * Expiry of all sessions, extended by every message of the session
+	 */
+	private static TimingWheel<String> sessionExpiry;
+
+	/**
+	 * Expiry of all games, extended by every game message
+	 */
+	private static TimingWheel<String> gameExpiry;
+
+	/**
+	 * Connected clients by their session ID
+	 */
+	private static ConcurrentHashMap<String, Client> sessionClients;
+
+	/**
+	 * Time in milliseconds a session lives without messages
+	 */
+	private static long sessionTimeout;
+
+	/**
+	 * Time in milliseconds a game lives without game messages
+	 */
+	private static long gameTimeout;
+
+	/**
+	 * Length of a tick of the expiry wheels in milliseconds
+	 */
+	private static final long EXPIRY_TICK = 1000;
+
+	/**
+	 * Ticks all games with a room
+	 */
+	private static TickScheduler ticks;
+
+	/**
+	 * Ticks per second of new games, 0 if games don't tick by default
+	 */
+	private static int tickRate;
+
+	/**
+	 * Runs messages and ticks of each game one at a time, null if they run
+	 * directly on the WebSocket and tick threads
+	 */
+	private static MailboxExecutor actors;
+
+	/**
+	 * Creates the virtual threads that handle messages, null if messages are
+	 * handled on the WebSocket threads
+	 */
+	private static ThreadFactory handlerThreads;
+
+	/**
+	 * Handles the messages of each connection in order on virtual threads
+	 */
+	private static ConcurrentHashMap<WebSocket, SerialExecutor> lanes;
+
+	/**
+	 * Hashes and validates passwords off the WebSocket threads
+	 */
+	private static BoundedExecutor authExecutor;
 
 	/**
 	 * Name of the Server
@@ -66,23 +168,89 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	 */
 	private final Thread SQL_GBC_THREAD;
 
+	/**
+	 * Thread that writes buffered last_access updates to the database
+	 */
+	private final Thread SQL_LAST_ACCESS_THREAD;
+
+	/**
+	 * Thread that expires sessions and games
+	 */
+	private final Thread EXPIRY_THREAD;
+
+	/**
+	 * Thread that sends the waiting messages of slow clients
+	 */
+	private final Thread OUTBOUND_THREAD;
+
+	/**
+	 * Handlers of all actions by message type and action
+	 */
+	private final ActionTable actions = new ActionTable();
+
 	/**
 	 * Sets up the WebSocketServer
 	 * 
 	 */
 	public GameServer() {
-		super(new InetSocketAddress(GameServer.getPortProperty()));
+		super(new InetSocketAddress(GameServer.getPortProperty()), GameServer.getDecoderProperty());
 
 		// Load configuration file
 		if (GameServer.properties == null) {
 			GameServer.properties = GameServer.loadProperties();
 		}
+		Logger.configure(GameServer.properties);
+
+		// socket options of the listening socket and all connections
+		int receiveBuffer = Integer.parseInt(GameServer.properties.getProperty("server.socket.receive_buffer", "0"));
+		int sendBuffer = Integer.parseInt(GameServer.properties.getProperty("server.socket.send_buffer", "0"));
+		// SO_RCVBUF and SO_SNDBUF are set on every accepted connection
+		this.setWebSocketFactory(new SocketOptionsFactory(receiveBuffer, sendBuffer));
+		this.setTcpNoDelay(Boolean.parseBoolean(GameServer.properties.getProperty("server.socket.tcp_no_delay", "true")));
+		this.setReuseAddr(Boolean.parseBoolean(GameServer.properties.getProperty("server.socket.reuse_address", "true")));
+		OutboundQueue.configure(GameServer.properties);
 
 		// Initialize properties
-		GameServer.conns = new HashMap<WebSocket, Client>();
-		GameServer.games = new HashMap<String, HashSet<Client>>();
+		GameServer.conns = new ConcurrentHashMap<WebSocket, Client>();
+		GameServer.games = new RoomRegistry();
+		GameServer.sessions = new SessionIndex();
+		GameServer.lastAccess = new LastAccessBuffer();
+		GameServer.sessionExpiry = new TimingWheel<String>(GameServer.EXPIRY_TICK);
+		GameServer.gameExpiry = new TimingWheel<String>(GameServer.EXPIRY_TICK);
+		GameServer.sessionClients = new ConcurrentHashMap<String, Client>();
+		GameServer.sessionTimeout = TimeUnit.MINUTES.toMillis(Integer.parseInt(GameServer.properties.getProperty("server.session.timeout")));
+		GameServer.gameTimeout = TimeUnit.MINUTES.toMillis(Integer.parseInt(GameServer.properties.getProperty("server.game.timeout")));
+		GameServer.lanes = new ConcurrentHashMap<WebSocket, SerialExecutor>();
+		GameServer.handlerThreads = null;
+		if (GameServer.properties.getProperty("server.handler.mode", "direct").equalsIgnoreCase("virtual")) {
+			GameServer.handlerThreads = VirtualThreads.factory("Handler-");
+			if (GameServer.handlerThreads == null) {
+				LOG.warn("Virtual threads need Java 21 or newer, messages are handled on the WebSocket threads");
+			}
+		}
+		GameServer.tickRate = Integer.parseInt(GameServer.properties.getProperty("server.tick.rate", "0"));
+		int tickThreads = Integer.parseInt(GameServer.properties.getProperty("server.tick.threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+		if (GameServer.properties.getProperty("server.execution", "direct").equalsIgnoreCase("actor")) {
+			int actorThreads = Integer.parseInt(GameServer.properties.getProperty("server.actor.threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+			int mailboxSize = Integer.parseInt(GameServer.properties.getProperty("server.actor.mailbox_size", "1000"));
+			GameServer.actors = new MailboxExecutor("Game", actorThreads, mailboxSize);
+			// tick threads only hand the tick to the mailbox of the game
+			GameServer.ticks = new TickScheduler("Tick", tickThreads, (gameID, deltaNanos) -> GameServer.actors.tick(gameID, deltaNanos, this::onTick));
+		} else {
+			GameServer.actors = null;
+			GameServer.ticks = new TickScheduler("Tick", tickThreads, this::onTick);
+		}
+		if (GameServer.authExecutor == null) {
+			int authThreads = Integer.parseInt(GameServer.properties.getProperty("server.auth.threads", Integer.toString(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
+			int authQueueSize = Integer.parseInt(GameServer.properties.getProperty("server.auth.queue_size", "100"));
+			GameServer.authExecutor = new BoundedExecutor("Authentication", authThreads, authQueueSize, GameServer.SERVER_BUSY);
+		}
 		this.NAME = GameServer.properties.getProperty("server.name");
 		this.SQL_GBC_THREAD = this.createGarbageCollectionThread();
+		this.SQL_LAST_ACCESS_THREAD = this.createLastAccessThread();
+		this.EXPIRY_THREAD = this.createExpiryThread();
+		this.OUTBOUND_THREAD = this.createOutboundThread();
+		this.registerBaseActions();
 	}
 
 	/**
@@ -90,27 +258,54 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	 */
 	@Override
 	public void onStart() {
-		// read properties from the config file
-		String dbUser = GameServer.properties.getProperty("sql.user");
-		String dbPass = GameServer.properties.getProperty("sql.pass", "");
-		String dbUrl = GameServer.properties.getProperty("sql.url");
-		String dbPort = GameServer.properties.getProperty("sql.port");
-		String gamedb = GameServer.properties.getProperty("sql.database");
-		String logindb = GameServer.properties.getProperty("sql.login_database");
-
-		// connect to database
-		if (!GameServerSQL.connect(dbUser, dbPass, dbUrl + ":" + dbPort, gamedb, logindb)) {
-			Debugger.debugln("Could not connect to database: " + dbUrl + ":" + gamedb + " login: " + logindb);
+		// without a secret GameIDs follow a public scramble and can be guessed
+		if (GameServer.gameIdSecret() == 0) {
+			LOG.error("server.game.id_secret must be set to a private number other than 0");
 			System.exit(1);
 		}
 
+		// open the configured storage
+		if (!GameServerSQL.connect()) {
+			LOG.error("Could not open storage: " + GameServer.properties.getProperty("storage.backend", "mysql"));
+			System.exit(1);
+		}
+
+		// rebuild the session index from the database (example: server reboot)
+		if (!GameServerSQL.loadSessionIndex(GameServer.sessions)) {
+			LOG.error("Could not load session index from database");
+			System.exit(1);
+		}
+
+		// restored sessions and games get a full timeout from now on
+		for (String sessionID : GameServer.sessions.getSessionIDs()) {
+			GameServer.sessionExpiry.schedule(sessionID, System.currentTimeMillis() + GameServer.sessionTimeout);
+		}
+		for (String gameID : GameServer.sessions.getGameIDs()) {
+			GameServer.gameExpiry.schedule(gameID, System.currentTimeMillis() + GameServer.gameTimeout);
+		}
+
+		// start expiry thread if its not already running
+		if (!this.EXPIRY_THREAD.isAlive()) {
+			this.EXPIRY_THREAD.start();
+		}
+
+		// start sending waiting messages if its not already running
+		if (!this.OUTBOUND_THREAD.isAlive()) {
+			this.OUTBOUND_THREAD.start();
+		}
+
 		// start garbage collection thread if its not already running
 		if (!this.SQL_GBC_THREAD.isAlive()) {
 			this.SQL_GBC_THREAD.start();
 		}
 
-		Debugger.debugln("Connected to database: " + dbUrl + ":" + gamedb + " login: " + logindb);
-		Debugger.debugln("Server started: " + this.getAddress().getHostName() + ":" + this.getPort());
+		// start last access flushing if its not already running
+		if (!this.SQL_LAST_ACCESS_THREAD.isAlive()) {
+			this.SQL_LAST_ACCESS_THREAD.start();
+		}
+
+		LOG.info("Connected to storage: " + GameServerSQL.getStorage());
+		LOG.info("Server started: " + this.getAddress().getHostName() + ":" + this.getPort());
 
 	}
 
@@ -119,8 +314,18 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	 */
 	@Override
 	public void onOpen(WebSocket conn, ClientHandshake handshake) {
-		Debugger.debugln("New Connection from: " + GameServer.getClientIP(conn));
-		conns.put(conn, new Client(conn));
+		LOG.info(() -> "New Connection from: " + GameServer.getClientIP(conn));
+		Client client = new Client(conn);
+		// codec was negotiated during the handshake
+		MessageCodec codec = conn.getAttachment();
+		if (codec != null) {
+			client.setCodec(codec);
+		}
+		conns.put(conn, client);
+		if (GameServer.handlerThreads != null) {
+			// one virtual thread at a time per connection keeps its messages in order
+			GameServer.lanes.put(conn, new SerialExecutor(task -> GameServer.handlerThreads.newThread(task).start()));
+		}
 	}
 
 	/**
@@ -131,12 +336,12 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	 */
 	@Override
 	public void onError(WebSocket conn, Exception ex) {
-		Debugger.debugln("ERROR from " + GameServer.getClientIP(conn));
-		ex.printStackTrace();
+		LOG.error("ERROR from " + GameServer.getClientIP(conn), ex);
 
 		if (conn != null) {
 			conn.close(1011, "Internal Server Error");
 			conns.remove(conn);
+			GameServer.lanes.remove(conn);
 		}
 	}
 
@@ -145,15 +350,154 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	 */
 	@Override
 	public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-		Debugger.debugln("Closed connection to " + GameServer.getClientIP(conn) + ":" + code + (reason.isEmpty() ? "" : " : " + reason));
+		LOG.info(() -> "Closed connection to " + GameServer.getClientIP(conn) + ":" + code + (reason.isEmpty() ? "" : " : " + reason));
 
 		// remove connection from game if it is in one
-		Client client = conns.get(conn);
-		String gameID = GameServerSQL.getGameOfClient(client);
+		GameServer.lanes.remove(conn);
+		Client client = conns.remove(conn);
+		if (client == null) return;
+		// the session lives on until it expires, the client may reconnect
+		if (client.getSessionID() != null) {
+			GameServer.sessionClients.remove(client.getSessionID(), client);
+		}
+		String gameID = GameServer.sessions.getGameOfSession(client.getSessionID());
 		if (gameID != null) {
-			GameServer.games.get(gameID).remove(client);
+			Room game = GameServer.games.get(gameID);
+			if (game != null) {
+				game.remove(client);
+				GameServer.closeGameDataIfEmpty(game);
+			}
 		}
-		conns.remove(conn);
+	}
+
+	/**
+	 * Records an access of a session and extends its expiry
+	 * 
+	 * @param sessionID Session ID
+	 */
+	private static void touchSession(String sessionID) {
+		if (sessionID == null) return;
+		GameServer.lastAccess.touchSession(sessionID);
+		GameServer.sessionExpiry.schedule(sessionID, System.currentTimeMillis() + GameServer.sessionTimeout);
+	}
+
+	/**
+	 * Records an access of a game and extends its expiry
+	 * 
+	 * @param gameID ID of the game
+	 */
+	private static void touchGame(String gameID) {
+		if (gameID == null) return;
+		GameServer.lastAccess.touchGame(gameID);
+		GameServer.gameExpiry.schedule(gameID, System.currentTimeMillis() + GameServer.gameTimeout);
+	}
+
+	/**
+	 * Removes all sessions and games whose expiry passed and deletes them from
+	 * the storage in one batch each
+	 */
+	private static void expire() {
+		long now = System.currentTimeMillis();
+
+		List<String> expiredSessions = GameServer.sessionExpiry.advance(now);
+		for (String sessionID : expiredSessions) {
+			GameServer.evictSession(sessionID, "Session Timeout");
+		}
+
+		List<String> expiredGames = GameServer.gameExpiry.advance(now);
+		for (String gameID : expiredGames) {
+			GameServer.evictGame(gameID);
+		}
+
+		if (expiredSessions.isEmpty() && expiredGames.isEmpty()) return;
+		LOG.debug(() -> "Expired " + expiredSessions.size() + " sessions and " + expiredGames.size() + " games");
+		GameServerSQL.async(() -> {
+			GameServerSQL.removeSessions(expiredSessions);
+			GameServerSQL.removeGames(expiredGames);
+			return null;
+		}).exceptionally(error -> {
+			// the garbage collection deletes them later on
+			LOG.error("Could not delete expired sessions and games", error);
+			return null;
+		});
+	}
+
+	/**
+	 * Removes a session from memory and disconnects its client. The storage is
+	 * cleaned up by the caller
+	 * 
+	 * @param sessionID Session ID
+	 * @param reason    Reason sent to the client of the session
+	 */
+	private static void evictSession(String sessionID, String reason) {
+		Integer userID = GameServer.sessions.getUserId(sessionID);
+		if (userID != null) {
+			// player data is deleted with the player
+			GameData.discardPlayer(userID);
+		}
+		Client client = GameServer.sessionClients.remove(sessionID);
+		if (client != null) {
+			Room game = GameServer.games.get(GameServer.sessions.getGameOfSession(sessionID));
+			if (game != null) {
+				game.remove(client);
+				GameServer.closeGameDataIfEmpty(game);
+			}
+			client.disconnect(reason, 1000);
+		}
+		GameServer.sessions.removeSession(sessionID);
+		GameServer.lastAccess.removeSession(sessionID);
+		GameServer.sessionExpiry.cancel(sessionID);
+	}
+
+	/**
+	 * Removes a game and its players from memory. The storage is cleaned up by
+	 * the caller
+	 * 
+	 * @param gameID ID of the game
+	 */
+	private static void evictGame(String gameID) {
+		GameServer.games.remove(gameID);
+		GameServer.ticks.stop(gameID);
+		if (GameServer.actors != null) GameServer.actors.remove(gameID);
+		GameServer.sessions.removeGame(gameID);
+		GameServer.lastAccess.removeGame(gameID);
+		GameServer.gameExpiry.cancel(gameID);
+		GameData.discardGame(gameID);
+	}
+
+	/**
+	 * Gets the room of a game and creates it if it does not exist. Games start
+	 * ticking at the default rate once they have a room
+	 * 
+	 * @param gameID ID of the game
+	 * @return Room of the game
+	 */
+	private static Room openRoom(String gameID) {
+		Room room = GameServer.games.getOrCreate(gameID);
+		GameServer.ticks.startIfAbsent(gameID, GameServer.tickRate);
+		return room;
+	}
+
+	/**
+	 * Gets the key that scrambles GameIDs
+	 * 
+	 * @return configured secret, 0 if it is not set
+	 */
+	private static long gameIdSecret() {
+		return Long.parseLong(GameServer.properties.getProperty("server.game.id_secret", "0").trim());
+	}
+
+	/**
+	 * Writes the cached data of a game once its last client left
+	 * 
+	 * @param game Room of the game
+	 */
+	private static void closeGameDataIfEmpty(Room game) {
+		if (game.size() > 0) return;
+		GameServerSQL.async(() -> GameData.closeGame(game.getGameID())).exceptionally(error -> {
+			LOG.error("Could not close the data of game " + game.getGameID(), error);
+			return false;
+		});
 	}
 
 	/**
@@ -168,200 +512,235 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 		// get client and check authentication
 		Client client = conns.get(conn);
 
-		Message jsonMessage;
-		String messageID;
-		Debugger.debugln("Message from " + GameServer.getClientIP(conn) + ": " + message);
+		InboundMessage inbound;
+		if (LOG.isDebugEnabled()) LOG.debug("Message from " + GameServer.getClientIP(conn) + ": " + message);
 		try {
-			// Try to parse message as JSON
-			jsonMessage = new Message(message);
-			messageID = jsonMessage.getString(Message.MESSAGE_ID);
+			// only read the header, the body is parsed when a handler needs it
+			inbound = InboundMessage.fromJSON(message);
 		} catch (Exception e) {
 			// tell client that the message could not be parsed
 			GameServer.sendErrorMessage(client, "Message could not be parsed (Invalid Format)", null, GameServer.INVALID_FORMAT);
 			return;
 		}
+		this.handle(conn, client, inbound);
+	}
+
+	/**
+	 * 
+	 * Parses incoming binary messages and redirects them to their handlers
+	 * 
+	 * @param conn    Connection that send the message
+	 * @param message Received message
+	 */
+	@Override
+	public void onMessage(WebSocket conn, ByteBuffer message) {
+		Client client = conns.get(conn);
 
+		InboundMessage inbound;
 		try {
-			// update last access. If user is not authenticated, this will do nothing
-			GameServerSQL.updateUserLastAccess(client);
+			inbound = InboundMessage.fromBinary(message);
+		} catch (Exception e) {
+			// tell client that the message could not be parsed
+			GameServer.sendErrorMessage(client, "Message could not be parsed (Invalid Format)", null, GameServer.INVALID_FORMAT);
+			return;
+		}
+		if (LOG.isDebugEnabled()) LOG.debug("Message from " + GameServer.getClientIP(conn) + ": " + inbound);
+		this.handle(conn, client, inbound);
+	}
 
-			// handle public messages
-			if (this.handlePublicActions(client, jsonMessage)) {
-				// if command was handled, return
-				return;
+	/**
+	 * Dispatches a parsed message on the WebSocket thread or on the virtual
+	 * thread of its connection
+	 * 
+	 * @param conn    Connection that send the message
+	 * @param client  Client that send the message
+	 * @param message Received message
+	 */
+	private void handle(WebSocket conn, Client client, InboundMessage message) {
+		SerialExecutor lane = GameServer.handlerThreads == null ? null : GameServer.lanes.get(conn);
+		if (lane == null) {
+			this.dispatch(client, message);
+			return;
+		}
+		lane.execute(() -> {
+			CompletableFuture<?> pending = this.dispatch(client, message);
+			// the next message of the connection waits until this one is answered
+			if (pending != null) {
+				pending.exceptionally(error -> null).join();
 			}
+		});
+	}
 
-			// handle commands for authenticated clients
-			if (client.checkAuth(Client.AUTHENTICATED)) {
-				// handle basic commands like getValue
-				if (this.handleBaseActions(client, jsonMessage)) {
-					// if command was handled, return
-					return;
-				}
+	/**
+	 * Redirects a received message to its handlers
+	 * 
+	 * @param client  Client that send the message
+	 * @param message Received message
+	 * @return Future of an asynchronous action that is still running, null if the
+	 *         message was handled
+	 */
+	private CompletableFuture<?> dispatch(Client client, InboundMessage message) {
+		String messageID = message.getMessageID();
+		if (messageID == null) {
+			GameServer.sendErrorMessage(client, "Message could not be parsed (Invalid Format)", null, GameServer.INVALID_FORMAT);
+			return null;
+		}
 
-				// handle authLevel specific commands
-				if (client.checkAuth(Client.ROOT)) {
-					// handle root messages
-				}
+		try {
+			// get type and action from the header
+			String type = message.getType();
+			String action = message.getAction();
+			if (type == null || action == null) {
+				// throw missing value exception if they can't be found
+				throw new GameServerException("Could not parse message", GameServer.MSG_MISSING_VALUE);
+			}
 
-				if (client.checkAuth(Client.MANAGER)) {
-					// handle manager messages
-				}
+			// update last access. If user is not authenticated, this will do nothing
+			boolean authenticated = client.checkAuth(Client.AUTHENTICATED);
+			if (authenticated) {
+				GameServer.touchSession(client.getSessionID());
+			}
 
-				if (client.checkAuth(Client.REGISTERED)) {
-					// handle messages of registered users
+			// handle registered actions
+			ActionTable.Action handler = this.actions.get(type, action);
+			if (handler != null) {
+				if (!handler.isPermitted(client)) {
+					if (!authenticated) {
+						throw new GameServerException("New clients must request authenticaton or register", GameServer.ACTION_NOT_PERMITTED);
+					}
+					throw new GameServerException("Action not permitted", GameServer.ACTION_NOT_PERMITTED);
 				}
+				return handler.handle(client, message);
+			}
 
-				// handle game messages
-				String gameId = GameServerSQL.getGameOfClient(client);
-				if (client.checkAuth(Client.PLAYER) && gameId != null) {
-					GameServerSQL.updateGameLastAccess(gameId);
-					jsonMessage.put(Message.GAME_ID, gameId);
-					this.onMessage(client, jsonMessage);
-				}
-			} else {
+			if (!this.actions.hasType(type) && !type.equals(Message.RESPONSE)) {
+				throw new GameServerException("Invalid message type", GameServer.INVALID_TYPE);
+			}
+
+			if (!authenticated) {
 				// if an unauthorized client send a message that is not a public function, error
 				throw new GameServerException("New clients must request authenticaton or register", GameServer.ACTION_NOT_PERMITTED);
 			}
 
+			// handle game messages
+			String gameId = GameServer.sessions.getGameOfUser(client.getUserID());
+			if (client.checkAuth(Client.PLAYER) && gameId != null) {
+				GameServer.touchGame(gameId);
+				// game messages need the full body
+				Message gameMessage = message.getMessage();
+				gameMessage.put(Message.GAME_ID, gameId);
+				if (GameServer.actors == null) {
+					this.onMessage(client, gameMessage);
+				} else if (!GameServer.actors.execute(gameId, () -> this.onMessage(client, gameMessage))) {
+					throw new GameServerException("Game is busy", GameServer.SERVER_BUSY);
+				}
+			}
 		} catch (GameServerException e) {
 			// send error messages
 			GameServer.sendErrorMessage(client, e.getMessage(), messageID, e.getErrorCode());
-			return;
+		} catch (IllegalArgumentException e) {
+			// the body of the message could not be decoded
+			GameServer.sendErrorMessage(client, "Message could not be parsed (Invalid Format)", messageID, GameServer.INVALID_FORMAT);
 		}
+		return null;
 	}
 
 	/**
-	 * Handles all basic actions
+	 * Registers an action in the dispatch table. Registered actions are handled
+	 * before a message is passed to {@link #onMessage(Client, Message)}. The game
+	 * of the client can be looked up with {@link #getGameOfClient(Client)}.
+	 * Actions should be registered before the server is started.
 	 * 
-	 * @param client  Client that send the message
-	 * @param message Message sent
-	 * @return If an action has been processed
-	 * @throws GameServerException Any Error during the handling of an action
+	 * @param type     Message type
+	 * @param action   Message action
+	 * @param authMask Bits the auth level of a client must have, e.g.
+	 *                 {@code Client.AUTHENTICATED | Client.MANAGER} or
+	 *                 {@link ActionTable#PUBLIC}
+	 * @param handler  Handler of the action
+	 * @throws IllegalArgumentException the action is already registered
 	 */
-	private boolean handlePublicActions(Client client, Message message) throws GameServerException {
-
-		String type;
-		String action;
+	protected void registerAction(String type, String action, int authMask, ActionHandler handler) {
+		this.actions.register(type, action, authMask, handler);
+	}
 
-		// get type and action
-		try {
-			type = message.getString(Message.TYPE);
-			action = message.getString(Message.ACTION);
-		} catch (Exception e) {
-			// throw missing value exception if they can't be found
-			throw new GameServerException("Could not parse message", GameServer.MSG_MISSING_VALUE);
-		}
+	/**
+	 * Registers an action that finishes asynchronously. When messages are handled
+	 * on virtual threads, the next message of the connection waits for the
+	 * returned future.
+	 * 
+	 * @param type     Message type
+	 * @param action   Message action
+	 * @param authMask Bits the auth level of a client must have
+	 * @param handler  Handler of the action
+	 * @throws IllegalArgumentException the action is already registered
+	 * @see #registerAction(String, String, int, ActionHandler)
+	 */
+	protected void registerAsyncAction(String type, String action, int authMask, AsyncActionHandler handler) {
+		this.actions.registerAsync(type, action, authMask, handler);
+	}
 
-		if (type.equals(Message.AUTHENTICATE)) {
-			// handle auth actions
-			boolean result;
-			switch (action) {
-			case Message.REGISTER:
-				result = this.handleRegisterAction(client, message);
-				break;
-			case Message.LOGIN:
-				result = this.handleLoginAction(client, message);
-				break;
-			case Message.LOGIN_GUEST:
-				result = this.handleLoginGuestAction(client, message);
-				break;
-			case Message.SESS_AUTH:
-				result = this.handleSessAuthAction(client, message);
-				break;
-			default:
-				return false;
+	/**
+	 * Registers the actions every GameServer supports
+	 */
+	private void registerBaseActions() {
+		// authentication, available to everyone
+		this.registerAsyncAction(Message.AUTHENTICATE, Message.REGISTER, ActionTable.PUBLIC, (client, message) -> this.completeAuthentication(client, message, this.handleRegisterAction(client, message)));
+		this.registerAsyncAction(Message.AUTHENTICATE, Message.LOGIN, ActionTable.PUBLIC, (client, message) -> this.completeAuthentication(client, message, this.handleLoginAction(client, message)));
+		this.registerAsyncAction(Message.AUTHENTICATE, Message.LOGIN_GUEST, ActionTable.PUBLIC, (client, message) -> this.completeAuthentication(client, message, this.handleLoginGuestAction(client, message)));
+		this.registerAsyncAction(Message.AUTHENTICATE, Message.SESS_AUTH, ActionTable.PUBLIC, (client, message) -> this.completeAuthentication(client, message, this.handleSessAuthAction(client, message)));
+
+		// value requests, unauthenticated clients only get public values
+		this.registerAction(Message.REQUEST, Message.VALUE, ActionTable.PUBLIC, (client, message) -> {
+			if (client.checkAuth(Client.AUTHENTICATED)) {
+				this.handleValueRequest(client, message);
+			} else {
+				this.handlePublicValueRequest(client, message);
 			}
+		});
 
-			// Build response message
-			Message response = Message.buildResponseMessage(message);
-			response.put(Message.SUCCESS, result);
-
-			// if client was authenticated, add to active and create a session ID
-			if (result) {
-				String sessionID = GameServerSQL.addUserToActive(client);
-				response.put(Message.GS_SESS_ID, sessionID);
-				client.setSessionID(sessionID);
-				int userID = GameServerSQL.getUserId(client);
-				client.setUserID(userID);
-			}
-			// Send response
-			client.send(response);
-			return true;
-		} else if (type.equals(Message.RESPONSE)) {
-			// handle responses
-			switch (action) {
-			default:
-				return false;
-			}
-		} else if (type.equals(Message.REQUEST)) {
-			// handle requests that can be performed by anyone
-			boolean result = false;
-			;
-			switch (action) {
-			case Message.VALUE:
-				result = this.handlePublicValueRequest(client, message);
-				break;
-			}
-			return result;
-		} else {
-			throw new GameServerException("Invalid message type", GameServer.INVALID_TYPE);
-		}
+		// requests of authenticated clients
+		this.registerAction(Message.REQUEST, Message.SIGN_OUT, Client.AUTHENTICATED, this::handleSignOutAction);
+		// TODO: make sure clients that already are in a room get rejected
+		this.registerAsyncAction(Message.REQUEST, Message.ENTER_GAME, Client.AUTHENTICATED, this::handleEnterGameAction);
+		this.registerAsyncAction(Message.REQUEST, Message.CREATE_GAME, Client.AUTHENTICATED, this::handleCreateGameAction);
 	}
 
 	/**
-	 * Handles all basic actions
+	 * Creates a session for a client once an authentication action succeeded and
+	 * sends the response
 	 * 
-	 * @param client      Client that send the message
-	 * @param message Message sent
-	 * @return If an action has been processed
-	 * @throws GameServerException Any Error during the handling of an action
+	 * @param client  Client that sent the message
+	 * @param message Message sent by client
+	 * @param result  Future that completes with if the client was authenticated
+	 * @return Future that completes once the response was sent
 	 */
-	private boolean handleBaseActions(Client client, Message message) throws GameServerException {
-		String type;
-		String action;
-
-		// get type and action
-		try {
-			type = message.getString(Message.TYPE);
-			action = message.getString(Message.ACTION);
-		} catch (Exception e) {
-			// throw missing value exception if they can't be found
-			throw new GameServerException("Could not parse message", GameServer.MSG_MISSING_VALUE);
-		}
-
-		if (type.equals(Message.REQUEST)) {
-			// handle requests
-			boolean result = false;
-			switch (action) {
-			case Message.SIGN_OUT:
-				result = this.handleSignOutAction(client, message);
-				break;
-			case Message.VALUE:
-				result = this.handleValueRequest(client, message);
-				break;
-
-			// TODO: make sure clients that already are in a room get rejected
-			case Message.ENTER_GAME:
-				result = this.handleEnterGameAction(client, message);
-				break;
-			case Message.CREATE_GAME:
-				result = this.handleCreateGameAction(client, message);
-				break;
-			default:
-				return false;
+	private CompletableFuture<?> completeAuthentication(Client client, InboundMessage message, CompletableFuture<Boolean> result) {
+		// if client was authenticated, add to active and create a session ID
+		return result.thenCompose(success -> {
+			if (!success) return CompletableFuture.completedFuture(false);
+			return GameServerSQL.async(() -> {
+				String sessionID = GameServerSQL.addUserToActive(client);
+				client.setSessionID(sessionID);
+				int userID = GameServerSQL.getUserId(client);
+				client.setUserID(userID);
+				GameServer.sessions.putSession(sessionID, userID);
+				GameServer.sessionClients.put(sessionID, client);
+				GameServer.touchSession(sessionID);
+				return true;
+			});
+		}).whenComplete((success, error) -> {
+			if (error != null) {
+				GameServer.sendErrorMessage(client, error, message.getMessageID());
+				return;
 			}
-
-			return result;
-		} else if (type.equals(Message.RESPONSE)) {
-			// handle responses
-			switch (action) {
-			default:
-				return false;
+			// Build and send response message
+			Message response = Message.buildResponseMessage(message);
+			response.put(Message.SUCCESS, success);
+			if (success) {
+				response.put(Message.GS_SESS_ID, client.getSessionID());
 			}
-		} else {
-			return false;
-		}
+			client.send(response);
+		});
 	}
 
 	/**
@@ -369,30 +748,27 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	 * 
 	 * @param client  Client that requested a value
 	 * @param message Message sent
-	 * @return if request was successful
 	 * @throws GameServerException Any Error during the handling of an action
 	 */
-	private boolean handlePublicValueRequest(Client client, Message message) throws GameServerException {
+	private void handlePublicValueRequest(Client client, InboundMessage message) throws GameServerException {
 		String requestedValue;
 
 		// get wanted value identifier
 		try {
-			requestedValue = message.getString(Message.VALUE);
+			requestedValue = message.getMessage().getString(Message.VALUE);
 		} catch (Exception e) {
 			// throw missing value exception if it can't be found
 			throw new GameServerException("Could not parse message", GameServer.MSG_MISSING_VALUE);
 		}
 
 		// pipes all publicly allowed value requests to the value request handler
-		boolean result = false;
 		switch (requestedValue) {
 		case Message.AUTHENTICATED:
-			result = this.handleValueRequest(client, message);
+			this.handleValueRequest(client, message);
 			break;
 		default:
 			throw new GameServerException("Invalid Value", GameServer.ACTION_NOT_PERMITTED);
 		}
-		return result;
 	}
 
 	/**
@@ -400,17 +776,16 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	 * 
 	 * @param client  Client that requested a value
 	 * @param message Message sent
-	 * @return if request was successful
 	 * @throws GameServerException Any Error during the handling of an action
 	 */
-	private boolean handleValueRequest(Client client, Message message) throws GameServerException {
+	private void handleValueRequest(Client client, InboundMessage message) throws GameServerException {
 		// prebuild response
 		Message response = Message.buildResponseMessage(message);
 		String requestedValue;
 
 		// get wanted value identifier
 		try {
-			requestedValue = message.getString(Message.VALUE);
+			requestedValue = message.getMessage().getString(Message.VALUE);
 		} catch (Exception e) {
 			// throw missing value exception if it can't be found
 			throw new GameServerException("Could not parse message", GameServer.MSG_MISSING_VALUE);
@@ -424,7 +799,6 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 			throw new GameServerException("Invalid Value", GameServer.INVALID_ACTION);
 		}
 		client.send(response);
-		return true;
 	}
 
 	/**
@@ -432,26 +806,41 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	 * 
 	 * @param client  Client that sent the message
 	 * @param message Message sent by client
-	 * @return if request was successful
 	 * @throws GameServerException Any Error during the handling of an action
 	 */
-	private boolean handleSignOutAction(Client client, Message message) throws GameServerException {
+	private void handleSignOutAction(Client client, InboundMessage message) throws GameServerException {
 		WebSocket conn = client.getSocket();
 		try {
 			Message response = Message.buildResponseMessage(message);
 			client.send(response);
 			conn.close(1000, "User signed out");
 			conns.remove(conn);
-			GameServer.games.get(GameServerSQL.getGameOfClient(client)).remove(client);
-			GameServerSQL.removePlayerFromGame(client);
-			GameServerSQL.removeUserFromActive(client);
-			return true;
+			String gameID = GameServer.sessions.getGameOfUser(client.getUserID());
+			Room game = GameServer.games.get(gameID);
+			if (game != null) {
+				game.remove(client);
+				GameServer.closeGameDataIfEmpty(game);
+			}
+			GameServer.sessions.removeSession(client.getSessionID());
+			GameServer.lastAccess.removeSession(client.getSessionID());
+			GameServer.sessionExpiry.cancel(client.getSessionID());
+			GameServer.sessionClients.remove(client.getSessionID(), client);
+
+			// the client is gone, so only log if the database can't be cleaned up
+			GameServerSQL.async(() -> {
+				GameServerSQL.removePlayerFromGame(client);
+				GameServerSQL.removeUserFromActive(client);
+				// player data is deleted with the player
+				GameData.discardPlayer(client.getUserID());
+				return null;
+			}).exceptionally(error -> {
+				LOG.error("Could not clean up the session of signed out " + client.getUsername(), error);
+				return null;
+			});
 		} catch (Exception e) {
 			if (!conn.isClosed()) throw new GameServerException("Server can't sign out client", GameServer.CLOSE_FAILED);
-			e.printStackTrace();
-			Debugger.debugln("SIGN OUT FAILED");
+			LOG.error("SIGN OUT FAILED", e);
 		}
-		return false;
 	}
 
 	/**
@@ -459,10 +848,10 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	 * 
 	 * @param client  Client that sent the message
 	 * @param message Message sent by client
-	 * @return if the client was authenticated
+	 * @return Future that completes with if the client was authenticated
 	 * @throws GameServerException Errors during the authentication
 	 */
-	private boolean handleLoginAction(Client client, Message message) throws GameServerException {
+	private CompletableFuture<Boolean> handleLoginAction(Client client, InboundMessage message) throws GameServerException {
 		if (client.checkAuth(Client.AUTHENTICATED)) {
 			throw new GameServerException("Client is already authenticated", GameServer.ALREADY_AUTHENTICATED);
 		}
@@ -472,8 +861,8 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 		String username;
 
 		try {
-			username = message.getString(Message.USERNAME);
-			password = message.getString(Message.PASSWORD);
+			username = message.getMessage().getString(Message.USERNAME);
+			password = message.getMessage().getString(Message.PASSWORD);
 		} catch (Exception e) {
 			// throw missing value exception if they can't be found
 			throw new GameServerException("Could not parse message", GameServer.MSG_MISSING_VALUE);
@@ -483,20 +872,24 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 			throw new GameServerException("Username and password cannot be empty", GameServer.MSG_MISSING_VALUE);
 		}
 
-		// check user authentication
-		boolean result = GameServerSQL.authenticateUser(username, password);
-		if (result) {
-			int authLevel = GameServerSQL.getAuthLevel(username);
-			// auth level is saved bitshifted to the right
-			client.setAuthLevel(authLevel << 1);
-			// set authenticated bit;
-			client.authenticate();
-		} else {
-			throw new GameServerException("Wrong Username or Password", GameServer.LOGIN_ERROR);
-		}
-
-		client.setUsername(username);
-		return result;
+		// check user authentication, the hash is validated on the auth workers
+		return GameServerSQL.async(() -> GameServerSQL.getPasswordHash(username)).thenCompose(goodHash -> {
+			if (goodHash == null) return CompletableFuture.completedFuture(false);
+			return GameServer.authExecutor.submit(() -> PasswordManager.validatePassword(password, goodHash));
+		}).thenCompose(result -> {
+			if (!result) {
+				return CompletableFuture.failedFuture(new GameServerException("Wrong Username or Password", GameServer.LOGIN_ERROR));
+			}
+			return GameServerSQL.async(() -> {
+				int authLevel = GameServerSQL.getAuthLevel(username);
+				// auth level is saved bitshifted to the right
+				client.setAuthLevel(authLevel << 1);
+				// set authenticated bit;
+				client.authenticate();
+				client.setUsername(username);
+				return result;
+			});
+		});
 	}
 
 	/**
@@ -504,10 +897,10 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	 * 
 	 * @param client  Client that sent the message
 	 * @param message Message sent by client
-	 * @return if the client was authenticated
+	 * @return Future that completes with if the client was registered
 	 * @throws GameServerException Errors during the authentication
 	 */
-	private boolean handleRegisterAction(Client client, Message message) throws GameServerException {
+	private CompletableFuture<Boolean> handleRegisterAction(Client client, InboundMessage message) throws GameServerException {
 		if (client.checkAuth(Client.AUTHENTICATED)) {
 			throw new GameServerException("Client is already authenticated", GameServer.ALREADY_AUTHENTICATED);
 		}
@@ -516,8 +909,8 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 		String password;
 		String username;
 		try {
-			username = message.getString(Message.USERNAME);
-			password = message.getString(Message.PASSWORD);
+			username = message.getMessage().getString(Message.USERNAME);
+			password = message.getMessage().getString(Message.PASSWORD);
 		} catch (Exception e) {
 			// throw missing value exception if they can't be found
 			throw new GameServerException("Could not parse message", GameServer.MSG_MISSING_VALUE);
@@ -528,10 +921,11 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 			throw new GameServerException("Username and password cannot be empty", GameServer.MSG_MISSING_VALUE);
 		}
 
-		// enter username, password an type(player) into database
-		boolean result = GameServerSQL.registerUser(username, password);
-
-		return result;
+		// hash password on the auth workers, then enter username, password an
+		// type(player) into database
+		return GameServer.authExecutor.submit(() -> PasswordManager.hashPassword(password)).thenCompose(hashedPassword -> {
+			return GameServerSQL.async(() -> GameServerSQL.registerUser(username, hashedPassword));
+		});
 	}
 
 	/**
@@ -539,54 +933,54 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	 * 
 	 * @param client  Client that sent the message
 	 * @param message Message sent by client
-	 * @return if the client was authenticated
+	 * @return Future that completes with if the client was authenticated
 	 * @throws GameServerException Errors during the authentication
 	 */
-	private boolean handleSessAuthAction(Client client, Message message) throws GameServerException {
+	private CompletableFuture<Boolean> handleSessAuthAction(Client client, InboundMessage message) throws GameServerException {
 		if (client.checkAuth(Client.AUTHENTICATED)) {
 			throw new GameServerException("Client is already authenticated", GameServer.ALREADY_AUTHENTICATED);
 		}
 
-		String sessionID = message.getString(Message.GS_SESS_ID);
-		boolean result = GameServerSQL.authSession(sessionID);
+		String sessionID;
+		try {
+			sessionID = message.getMessage().getString(Message.GS_SESS_ID);
+		} catch (Exception e) {
+			// throw missing value exception if it can't be found
+			throw new GameServerException("Could not parse message", GameServer.MSG_MISSING_VALUE);
+		}
+		boolean result = GameServer.sessions.hasSession(sessionID);
 
-		// get username from Session
-		GameServerSQL.changeDatabase(GameServerSQL.gameDatabase);
-		String query = "SELECT username FROM users WHERE session_id=?";
-		ResultSet sqlResult;
-		if (result) {
-			try {
-				// TODO: check if user is registered
-				sqlResult = GameServerSQL.preparedQuery(query, sessionID);
-				sqlResult.next();
-				// set Username
-				client.setUsername(sqlResult.getString("username"));
-				client.setSessionID(sessionID);
+		if (!result) {
+			return CompletableFuture.completedFuture(false);
+		}
 
-				int userID = GameServerSQL.getUserId(client);
-				client.setUserID(userID);
+		return GameServerSQL.async(() -> {
+			// the session may have expired since it was checked
+			Integer userID = GameServer.sessions.getUserId(sessionID);
+			if (userID == null) return false;
 
-				int host = GameServerSQL.isUserHost(client) ? Client.HOST : 0;
-				client.setAuthLevel(Client.PLAYER | host);
-				client.authenticate();
+			// TODO: check if user is registered
+			// get username from Session
+			client.setUsername(GameServerSQL.getUsername(sessionID));
+			client.setSessionID(sessionID);
+			client.setUserID(userID);
 
-				// add client to game/create game of client that doesn't exists (example: server
-				// reboot)
-				String gameID = GameServerSQL.getGameOfClient(client);
-				if (gameID != null) {
-					HashSet<Client> game = GameServer.games.get(gameID);
-					if (game == null) {
-						GameServer.games.put(gameID, new HashSet<Client>());
-					}
-					GameServer.games.get(gameID).add(client);
-				}
+			boolean isHost = GameServerSQL.isUserHost(client);
+			client.setAuthLevel(Client.PLAYER | (isHost ? Client.HOST : 0));
+			client.authenticate();
 
-			} catch (SQLException e) {
-				e.printStackTrace();
-				throw new GameServerException("SQL Query failed", GameServer.SQL_ERROR);
+			// add client to game/create game of client that doesn't exists (example: server
+			// reboot)
+			String gameID = GameServer.sessions.getGameOfUser(userID);
+			if (gameID != null) {
+				Room game = GameServer.openRoom(gameID);
+				game.add(client);
+				if (isHost) {
+					game.setHost(client);
+				}
 			}
-		}
-		return result;
+			return true;
+		});
 	}
 
 	/**
@@ -594,17 +988,17 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	 * 
 	 * @param client  Client that sent the message
 	 * @param message Message sent by client
-	 * @return if the client was authenticated
+	 * @return Future that completes with if the client was authenticated
 	 * @throws GameServerException Errors during the authentication
 	 */
-	private boolean handleLoginGuestAction(Client client, Message message) throws GameServerException {
+	private CompletableFuture<Boolean> handleLoginGuestAction(Client client, InboundMessage message) throws GameServerException {
 		if (client.checkAuth(Client.AUTHENTICATED)) {
 			throw new GameServerException("Client is already authenticated", GameServer.ALREADY_AUTHENTICATED);
 		}
 		// get username
 		String username;
 		try {
-			username = message.getString(Message.USERNAME);
+			username = message.getMessage().getString(Message.USERNAME);
 		} catch (Exception e) {
 			// throw missing value exception if they can't be found
 			throw new GameServerException("Could not parse message", GameServer.MSG_MISSING_VALUE);
@@ -616,16 +1010,18 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 		}
 
 		// check user authentication
-		boolean result = GameServerSQL.authenticateGuestUser(username);
-		if (result) {
-			// set authenticated;
-			client.setAuthLevel(Client.PLAYER | Client.AUTHENTICATED);
-		} else {
-			throw new GameServerException("Wrong Username or Password", GameServer.LOGIN_ERROR);
-		}
-		// set username
-		client.setUsername(username);
-		return result;
+		return GameServerSQL.async(() -> {
+			boolean result = GameServerSQL.authenticateGuestUser(username);
+			if (result) {
+				// set authenticated;
+				client.setAuthLevel(Client.PLAYER | Client.AUTHENTICATED);
+			} else {
+				throw new GameServerException("Wrong Username or Password", GameServer.LOGIN_ERROR);
+			}
+			// set username
+			client.setUsername(username);
+			return result;
+		});
 	}
 
 	/**
@@ -633,27 +1029,51 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	 * 
 	 * @param client  Client that sent the message
 	 * @param message Message sent by client
-	 * @return if game was created
+	 * @return Future that completes once the response was sent
 	 * @throws GameServerException Any Error during the creating of the game
 	 */
-	private boolean handleCreateGameAction(Client client, Message message) throws GameServerException {
-		// create a new game
-		String gameId = GameServerSQL.createGame(client);
-		GameServer.games.put(gameId, new HashSet<Client>());
-		// add client as player
-		GameServer.games.get(gameId).add(client);
-		GameServerSQL.addPlayerToGame(client, gameId);
-		// set client as host
-		client.setAuthLevel(client.getAuthLevel() | Client.HOST);
-
-		// send response to client
-		Message response = Message.buildResponseMessage(message);
-		response.put("game_id", gameId);
-		client.send(response);
+	private CompletableFuture<?> handleCreateGameAction(Client client, InboundMessage message) throws GameServerException {
+		// create a new game and add client as player
+		return GameServerSQL.async(() -> {
+			String gameId = GameServerSQL.createGame(client);
+			GameServerSQL.addPlayerToGame(client, gameId);
+			return gameId;
+		}).whenComplete((gameId, error) -> {
+			if (error != null) {
+				GameServer.sendErrorMessage(client, error, message.getMessageID());
+				return;
+			}
+			Room game = GameServer.openRoom(gameId);
+			game.add(client);
+			GameServer.sessions.putPlayer(client.getUserID(), gameId);
+			GameServer.touchGame(gameId);
+			// set client as host
+			client.grantAuthLevel(Client.HOST);
+			game.setHost(client);
+
+			// trigger onGameOpen event before the response, the client can only send
+			// game messages once it has the response, so they are queued after it
+			if (GameServer.actors == null) {
+				this.onGameOpen(client, gameId);
+			} else if (!GameServer.actors.execute(gameId, () -> this.onGameOpen(client, gameId))) {
+				// the game would start without its open event, take the client out again
+				game.remove(client);
+				GameServer.sessions.removePlayer(client.getUserID());
+				client.setAuthLevel(client.getAuthLevel() & ~Client.HOST);
+				GameServer.closeGameDataIfEmpty(game);
+				GameServerSQL.removePlayerFromGameAsync(client).exceptionally(e -> {
+					LOG.error("Could not remove " + client.getUsername() + " from game " + gameId, e);
+					return null;
+				});
+				GameServer.sendErrorMessage(client, "Game is busy", message.getMessageID(), GameServer.SERVER_BUSY);
+				return;
+			}
 
-		// trigger onGameOpen event
-		this.onGameOpen(client, gameId);
-		return true;
+			// send response to client
+			Message response = Message.buildResponseMessage(message);
+			response.put("game_id", gameId);
+			client.send(response);
+		});
 	}
 
 	/**
@@ -661,27 +1081,31 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	 * 
 	 * @param client  Client that sent the message
 	 * @param message Message sent by client
-	 * @return if the client entered the game
+	 * @return Future that completes once the response was sent
 	 * @throws GameServerException Any Error during the entering of the game
 	 */
-	private boolean handleEnterGameAction(Client client, Message message) throws GameServerException {
-
-		String gameId;
-		try {
-			gameId = message.getString(Message.GAME_ID);
-		} catch (Exception e) {
-			// throw missing value exception if they can't be found
+	private CompletableFuture<?> handleEnterGameAction(Client client, InboundMessage message) throws GameServerException {
+		String gameId = message.getGameID();
+		if (gameId == null) {
+			// throw missing value exception if it can't be found
 			throw new GameServerException("Could not parse message", GameServer.MSG_MISSING_VALUE);
 		}
 
-		GameServer.games.get(gameId).add(client);
-		GameServerSQL.addPlayerToGame(client, gameId);
+		// persist first, fails if the game does not exist
+		return GameServerSQL.addPlayerToGameAsync(client, gameId).whenComplete((v, error) -> {
+			if (error != null) {
+				GameServer.sendErrorMessage(client, error, message.getMessageID());
+				return;
+			}
+			GameServer.openRoom(gameId).add(client);
+			GameServer.sessions.putPlayer(client.getUserID(), gameId);
+			GameServer.touchGame(gameId);
 
-		// send response to client
-		Message response = Message.buildResponseMessage(message);
-		response.put("game_id", gameId);
-		client.send(response);
-		return true;
+			// send response to client
+			Message response = Message.buildResponseMessage(message);
+			response.put("game_id", gameId);
+			client.send(response);
+		});
 	}
 
 	/**
@@ -698,13 +1122,36 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	}
 
 	/**
-	 * Gets all clients in a game
+	 * Sends the cause of a failed asynchronous action to a client
+	 * 
+	 * @param client    Client to send the message to
+	 * @param error     Error the action failed with
+	 * @param messageID Message that caused the error
+	 */
+	public static void sendErrorMessage(Client client, Throwable error, String messageID) {
+		Throwable cause = error;
+		if (cause instanceof CompletionException && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		if (cause instanceof GameServerException) {
+			GameServer.sendErrorMessage(client, cause.getMessage(), messageID, ((GameServerException) cause).getErrorCode());
+		} else {
+			LOG.error("Action " + messageID + " of " + client.getUsername() + " failed", cause);
+			GameServer.sendErrorMessage(client, "Internal Server Error", messageID, GameServer.SQL_ERROR);
+		}
+	}
+
+	/**
+	 * Gets all clients in a game. The array is a shared snapshot and must not be
+	 * modified
 	 * 
 	 * @param gameID ID of the game
 	 * @return Array of all clients in the game
 	 */
 	public static Client[] getClientsInGame(String gameID) {
-		return (Client[]) GameServer.games.get(gameID).toArray(new Client[0]);
+		Room game = GameServer.games.get(gameID);
+		if (game == null) return GameServer.NO_CLIENTS;
+		return game.getClients();
 	}
 
 	/**
@@ -714,10 +1161,110 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	 * @return Host client of the game
 	 */
 	public static Client getHostOfGame(String gameID) {
-		for (Client c : GameServer.getClientsInGame(gameID)) {
-			if (c.isHost()) return c;
+		Room game = GameServer.games.get(gameID);
+		if (game == null) return null;
+		return game.getHost();
+	}
+
+	/**
+	 * Sends a message to all clients in a game
+	 * 
+	 * @param gameID  ID of the game
+	 * @param message Message to send
+	 */
+	public static void broadcastToGame(String gameID, Message message) {
+		GameServer.broadcastToGame(gameID, message, c -> true);
+	}
+
+	/**
+	 * Sends a message to all clients in a game except one, usually the sender
+	 * 
+	 * @param gameID  ID of the game
+	 * @param message Message to send
+	 * @param except  Client that does not receive the message
+	 */
+	public static void broadcastToGame(String gameID, Message message, Client except) {
+		GameServer.broadcastToGame(gameID, message, c -> c != except);
+	}
+
+	/**
+	 * Sends a message to all clients in a game that match a filter. The message is
+	 * serialized and framed once per codec and WebSocket draft and the same frames
+	 * are handed to every recipient.
+	 * 
+	 * @param gameID  ID of the game
+	 * @param message Message to send
+	 * @param filter  Decides which clients receive the message
+	 */
+	public static void broadcastToGame(String gameID, Message message, Predicate<Client> filter) {
+		GameServer.broadcastToGame(gameID, message, null, filter);
+	}
+
+	/**
+	 * Sends a state update to all clients in a game. Slow clients that use
+	 * {@link OverflowPolicy#COALESCE} only get the latest waiting update of a key.
+	 * 
+	 * @param gameID  ID of the game
+	 * @param key     Key of the state, a newer update of the key makes this one
+	 *                obsolete
+	 * @param message Message to send
+	 */
+	public static void broadcastStateToGame(String gameID, String key, Message message) {
+		GameServer.broadcastToGame(gameID, message, key, c -> true);
+	}
+
+	/**
+	 * Sends a message to all clients in a game that match a filter, see
+	 * {@link #broadcastToGame(String, Message, Predicate)}
+	 * 
+	 * @param gameID  ID of the game
+	 * @param message Message to send
+	 * @param key     Key of the message or null
+	 * @param filter  Decides which clients receive the message
+	 */
+	private static void broadcastToGame(String gameID, Message message, String key, Predicate<Client> filter) {
+		Client[] clients = GameServer.getClientsInGame(gameID);
+		if (clients.length == 0) return;
+
+		if (LOG.isDebugEnabled()) LOG.debug("Broadcast to " + gameID + ": " + message);
+		// in practice all clients share one draft, so there is one entry per codec
+		HashMap<MessageCodec, HashMap<Draft, List<Framedata>>> frames = new HashMap<MessageCodec, HashMap<Draft, List<Framedata>>>(4);
+		for (Client client : clients) {
+			if (!filter.test(client)) continue;
+			MessageCodec codec = client.getCodec();
+			Draft draft = client.getSocket().getDraft();
+			HashMap<Draft, List<Framedata>> codecFrames = frames.get(codec);
+			if (codecFrames == null) {
+				codecFrames = new HashMap<Draft, List<Framedata>>(2);
+				frames.put(codec, codecFrames);
+			}
+			List<Framedata> clientFrames = codecFrames.get(draft);
+			if (clientFrames == null) {
+				clientFrames = codec.encode(message, draft);
+				codecFrames.put(draft, clientFrames);
+			}
+			client.sendFrames(clientFrames, key);
 		}
-		return null;
+	}
+
+	/**
+	 * Gets the game a client is playing in
+	 * 
+	 * @param client Client
+	 * @return game ID or null if the client is not in a game
+	 */
+	public static String getGameOfClient(Client client) {
+		return GameServer.sessions.getGameOfUser(client.getUserID());
+	}
+
+	/**
+	 * Gets the room of a game
+	 * 
+	 * @param gameID ID of the game
+	 * @return Room or null if the game has no connected clients
+	 */
+	public static Room getRoom(String gameID) {
+		return GameServer.games.get(gameID);
 	}
 
 	/**
@@ -728,19 +1275,23 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 		try {
 			super.run();
 		} catch (Exception e) {
-			e.printStackTrace();
-			Debugger.debugln("Failed to start server, shutting down...");
+			LOG.error("Failed to start server, shutting down...", e);
 			System.exit(1);
 		}
 	}
 
 	/**
-	 * Adds server name to handshake header
+	 * Adds server name to handshake header and negotiates the message codec
 	 */
 	@Override
 	public ServerHandshakeBuilder onWebsocketHandshakeReceivedAsServer(WebSocket conn, Draft draft, ClientHandshake request) throws InvalidDataException {
 		ServerHandshakeBuilder builder = super.onWebsocketHandshakeReceivedAsServer(conn, draft, request);
 		builder.put("name", this.NAME); // add server name to handshake
+
+		// clients that don't ask for a codec get JSON
+		MessageCodec codec = MessageCodec.forName(request.getFieldValue(MessageCodec.HEADER));
+		builder.put(MessageCodec.HEADER, codec.getName());
+		conn.setAttachment(codec);
 		return builder;
 	}
 
@@ -751,9 +1302,10 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	 * @param code    Closing code
 	 */
 	public void disconnectAll(int code, String message) {
-		for (Entry<WebSocket, Client> e : conns.entrySet()) {
-			e.getKey().close(code, message);
-			conns.remove(e.getKey());
+		// iterating a ConcurrentHashMap while removing entries is safe
+		for (WebSocket conn : conns.keySet()) {
+			conn.close(code, message);
+			conns.remove(conn);
 		}
 	}
 
@@ -767,29 +1319,131 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 		return new Thread() {
 			@Override
 			public void run() {
-				long interval = Integer.parseInt(GameServer.properties.getProperty("server.garbage_collection.interval")) * 60 * 1000;
-//				interval = 5 * 1000;
+				long interval = Integer.parseInt(GameServer.properties.getProperty("server.garbage_collection.interval")) * 60 * 1000;
+//				interval = 5 * 1000;
+				while (true) {
+					// stop on interrupt
+					if (this.isInterrupted()) break;
+
+					// collect garbage
+					try {
+						LOG.info("RUN GARBAGE COLLECTION");
+						GameServerSQL.collectGarbage();
+					} catch (Exception e) {
+						LOG.error("Garbage collection failed", e);
+					}
+
+					// sleep
+					try {
+						Thread.sleep(interval);
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Creates the thread that expires sessions and games every tick
+	 * 
+	 * @return Expiry thread
+	 */
+	private Thread createExpiryThread() {
+		Thread thread = new Thread("Expiry") {
+			@Override
+			public void run() {
+				while (true) {
+					// stop on interrupt
+					if (this.isInterrupted()) break;
+
+					// sleep
+					try {
+						Thread.sleep(GameServer.EXPIRY_TICK);
+					} catch (InterruptedException e) {
+						break;
+					}
+
+					// expire sessions and games
+					try {
+						GameServer.expire();
+					} catch (Exception e) {
+						LOG.error("Could not expire sessions and games", e);
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * Creates the thread that sends the waiting messages of slow clients once
+	 * their connection caught up
+	 * 
+	 * @return Outbound thread
+	 */
+	private Thread createOutboundThread() {
+		Thread thread = new Thread("Outbound") {
+			@Override
+			public void run() {
+				long interval = Integer.parseInt(GameServer.properties.getProperty("server.outbound.flush_interval", "10"));
+				while (true) {
+					// stop on interrupt
+					if (this.isInterrupted()) break;
+
+					// sleep
+					try {
+						Thread.sleep(interval);
+					} catch (InterruptedException e) {
+						break;
+					}
+
+					// send waiting messages
+					try {
+						OutboundQueue.flushAll();
+					} catch (Exception e) {
+						LOG.error("Could not send waiting messages", e);
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * Creates the thread that periodically flushes buffered last_access updates
+	 * 
+	 * @return Last access flush thread
+	 */
+	private Thread createLastAccessThread() {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				long interval = Integer.parseInt(GameServer.properties.getProperty("sql.last_access.flush_interval", "5")) * 1000;
 				while (true) {
 					// stop on interrupt
 					if (this.isInterrupted()) break;
 
-					// collect garbage
-					try {
-						Debugger.debugln("RUN GARBAGE COLLECTION");
-						GameServerSQL.collectGarbage();
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
-
 					// sleep
 					try {
 						Thread.sleep(interval);
 					} catch (InterruptedException e) {
 						break;
 					}
+
+					// flush buffered accesses
+					try {
+						GameServerSQL.flushLastAccess(GameServer.lastAccess);
+					} catch (Exception e) {
+						LOG.error("Could not flush buffered accesses", e);
+					}
 				}
 			}
 		};
+		thread.setDaemon(true);
+		return thread;
 	}
 
 	/**
@@ -823,6 +1477,23 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 		}
 	}
 
+	/**
+	 * Reads the decoder count property of the configuration file, by default one
+	 * decoder per core
+	 * 
+	 * @return number of decoder threads
+	 */
+	private static int getDecoderProperty() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		try {
+			Properties config = GameServer.properties != null ? GameServer.properties : GameServer.loadProperties();
+			int decoders = Integer.parseInt(config.getProperty("server.decoders", Integer.toString(cores)));
+			return decoders > 0 ? decoders : cores;
+		} catch (Exception e) {
+			return cores;
+		}
+	}
+
 	/**
 	 * Loads server properties from the configuration file
 	 * @return Server Properties
@@ -833,18 +1504,20 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 		try {
 			is = new FileInputStream(GameServer.CONFIG_LOCATION);
 		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			LOG.error("Config file not found: " + GameServer.CONFIG_LOCATION, e);
 		}
 		try {
 			properties.load(is);
 		} catch (IOException e) {
-			e.printStackTrace();
+			LOG.error("Could not read config file " + GameServer.CONFIG_LOCATION, e);
 		}
 		return properties;
 	}
 
 	/**
-	 * Gets called when a {@code Client} sends a message to the GameServer
+	 * Gets called when a {@code Client} sends a message to the GameServer. Runs
+	 * on the WebSocket thread of the client, or in the mailbox of the game when
+	 * server.execution is actor
 	 * 
 	 * @param client  Client that send the message
 	 * @param message Message
@@ -860,210 +1533,343 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 	protected abstract void onGameOpen(Client client, String gameID);
 
 	/**
-	 * Server SQL Connection subclass
+	 * Gets called at the tick rate of a game on one of the tick threads. Ticks
+	 * of one game never overlap, but they run alongside
+	 * {@link #onMessage(Client, Message)} of the same game unless
+	 * server.execution is actor, then both run one at a time in the mailbox of
+	 * the game. Does nothing unless overridden
+	 * 
+	 * @param gameID     ID of the game
+	 * @param deltaNanos Nanoseconds since the previous tick of the game
+	 */
+	protected void onTick(String gameID, long deltaNanos) {
+	}
+
+	/**
+	 * Sets the tick rate of a game, replacing the default rate
+	 * 
+	 * @param gameID         ID of the game
+	 * @param ticksPerSecond Ticks per second, 0 stops ticking the game
+	 */
+	protected void setTickRate(String gameID, int ticksPerSecond) {
+		GameServer.ticks.start(gameID, ticksPerSecond);
+	}
+
+	/**
+	 * Gets the scheduler that ticks all games, e.g. to read its overruns
+	 * 
+	 * @return Tick scheduler
+	 */
+	protected static TickScheduler getTickScheduler() {
+		return GameServer.ticks;
+	}
+
+	/**
+	 * Server storage subclass. Forwards all persistence of the server to the
+	 * configured {@link Storage} and keeps the SQL helpers for games that query
+	 * a MySQL storage directly.
 	 * 
 	 * @author Nils Ramstoeck
 	 *
 	 */
 	protected static class GameServerSQL {
 		/**
-		 * Connection to the SQL database
+		 * Logger of the database layer
+		 */
+		private static final Logger LOG = Logger.getLogger(GameServerSQL.class);
+
+		/**
+		 * Storage of the server
+		 */
+		private static Storage storage = null;
+
+		/**
+		 * Executes database tasks off the WebSocket threads
+		 */
+		private static BoundedExecutor executor = null;
+
+		/**
+		 * Creates the IDs of new sessions
+		 */
+		private static SessionIdGenerator sessionIds = null;
+
+		/**
+		 * Creates the IDs of new games
 		 */
-		private static Connection conn = null;
+		private static GameIdAllocator gameIds = null;
 
 		/**
-		 * Database that stores login information
+		 * Attempts to store a new session before giving up. A collision of random
+		 * IDs is practically impossible, so one attempt is enough in practice
 		 */
-		private static String loginDatabase;
+		private static final int SESSION_ID_ATTEMPTS = 3;
 
 		/**
-		 * Database that stores game data
+		 * Last session ID checked by the garbage collection, empty to start at the
+		 * beginning. Only used by the garbage collection thread
 		 */
-		private static String gameDatabase;
+		private static String gcSessionCursor = "";
 
 		/**
-		 * SQL Update Queries
+		 * Last GameID checked by the garbage collection, empty to start at the
+		 * beginning. Only used by the garbage collection thread
 		 */
-		private static final String SQL_UPDATE_CMD = "insert update delete";
+		private static String gcGameCursor = "";
 
 		/**
-		 * Connects to a database
+		 * Opens the configured storage and checks that it can be used
 		 * 
-		 * @param username       db username
-		 * @param password       db password
-		 * @param url            db url
-		 * @param _gameDatabase  database that contains game data
-		 * @param _loginDatabase database that contains login info
 		 * @return if connection was successfull
 		 */
-		private static boolean connect(String username, String password, String url, String _gameDatabase, String _loginDatabase) {
-			loginDatabase = _loginDatabase;
-			gameDatabase = _gameDatabase;
-			String fullUrl = "jdbc:MySQL://" + url;
+		private static boolean connect() {
+			if (executor == null) {
+				// by default one worker per pooled connection
+				int threads = Integer.parseInt(GameServer.properties.getProperty("sql.executor.threads", GameServer.properties.getProperty("sql.pool.size", "10")));
+				int queueSize = Integer.parseInt(GameServer.properties.getProperty("sql.executor.queue_size", "1000"));
+				// blocking JDBC calls don't hold platform threads when virtual threads are used
+				ThreadFactory virtual = GameServer.handlerThreads == null ? null : VirtualThreads.factory("Database-");
+				if (virtual != null) {
+					executor = new BoundedExecutor("Database", threads, queueSize, GameServer.SERVER_BUSY, virtual);
+				} else {
+					executor = new BoundedExecutor("Database", threads, queueSize, GameServer.SERVER_BUSY);
+				}
+			}
+			if (sessionIds == null) {
+				sessionIds = new SessionIdGenerator(Integer.parseInt(GameServer.properties.getProperty("server.session.id_bytes", "24")));
+			}
 			try {
-				conn = DriverManager.getConnection(fullUrl, username, password);
-				conn.setCatalog(gameDatabase);
-			} catch (SQLException e) {
-				e.printStackTrace();
+				storage = StorageProvider.getStorage();
+				if (gameIds == null) {
+					int node = Integer.parseInt(GameServer.properties.getProperty("server.node_id", "0"));
+					int length = Integer.parseInt(GameServer.properties.getProperty("server.game.id_length", "10"));
+					int blockSize = Integer.parseInt(GameServer.properties.getProperty("server.game.id_block_size", "100"));
+					gameIds = new GameIdAllocator(storage, executor, node, length, blockSize, GameServer.gameIdSecret());
+				}
+				return true;
+			} catch (GameServerException e) {
+				LOG.error("Could not connect to the storage", e);
 				return false;
 			}
-			return true;
 		}
 
 		/**
-		 * Changes the database. Returns true if change was successful or if the new
-		 * database equals the old one
+		 * Storage getter
 		 * 
-		 * @param database new database
-		 * @return if change was successful
+		 * @return {@link #storage}
 		 */
-		private static boolean changeDatabase(String database) {
-			try {
-				if (!conn.getCatalog().equals(database)) {
-					conn.setCatalog(database);
-				}
-			} catch (Exception e) {
-				return false;
+		public static Storage getStorage() {
+			return storage;
+		}
+
+		/**
+		 * Runs a task on the database executor. Use it to call any of the blocking
+		 * methods of {@code GameServerSQL} without stalling the WebSocket threads.
+		 * 
+		 * @param <T>  Type of the result
+		 * @param task Task to run
+		 * @return Future that completes with the result of the task
+		 */
+		public static <T> CompletableFuture<T> async(GameServerTask<T> task) {
+			if (executor == null) {
+				return CompletableFuture.failedFuture(new GameServerException("No database connection", GameServer.SQL_ERROR));
 			}
-			return true;
+			return executor.submit(task);
 		}
 
 		/**
-		 * Executes an SQL query and returns the result
+		 * Creates a new Game without blocking the calling thread
 		 * 
-		 * @deprecated use {@link #preparedQuery(String, Object...)}
+		 * @param host Host of the game
+		 * @return Future that completes with the GameID of the created game
+		 */
+		public static CompletableFuture<String> createGameAsync(Client host) {
+			return GameServerSQL.async(() -> GameServerSQL.createGame(host));
+		}
+
+		/**
+		 * Adds a player to an existing game without blocking the calling thread
+		 * 
+		 * @param client Client to be added to the game
+		 * @param gameId GameID of the game
+		 * @return Future that completes once the player was added
+		 */
+		public static CompletableFuture<Void> addPlayerToGameAsync(Client client, String gameId) {
+			return GameServerSQL.async(() -> {
+				GameServerSQL.addPlayerToGame(client, gameId);
+				return null;
+			});
+		}
+
+		/**
+		 * Removes a player from a game without blocking the calling thread
+		 * 
+		 * @param client Client to be removed from the game
+		 * @return Future that completes once the player was removed
+		 */
+		public static CompletableFuture<Void> removePlayerFromGameAsync(Client client) {
+			return GameServerSQL.async(() -> {
+				GameServerSQL.removePlayerFromGame(client);
+				return null;
+			});
+		}
+
+		/**
+		 * Gets Authentication level of a client without blocking the calling thread
+		 * 
+		 * @param username Username of the client
+		 * @return Future that completes with the authentication level of the client
+		 */
+		public static CompletableFuture<Integer> getAuthLevelAsync(String username) {
+			return GameServerSQL.async(() -> GameServerSQL.getAuthLevel(username));
+		}
+
+		/**
+		 * Gets the connections to the game database
+		 * 
+		 * @return Connection pool
+		 * @throws SQLException The server does not use a MySQL storage
+		 */
+		private static ConnectionPool getGamePool() throws SQLException {
+			if (!(storage instanceof MySQLStorage)) throw new SQLException("No SQL Connection", "08003");
+			return ((MySQLStorage) storage).getGamePool();
+		}
+
+		/**
+		 * Executes an SQL query on the game database and returns the result
+		 * 
+		 * @deprecated use {@link #preparedQuery(ConnectionPool, String, ResultMapper, Object...)}
 		 * @param query query to be executed
-		 * @return result of the query
-		 * @throws SQLException No SQL Connection
+		 * @return result of the query, detached from its connection
+		 * @throws SQLException SQLException or no MySQL storage
 		 */
 		@Deprecated
 		public static ResultSet query(String query) throws SQLException {
-			if (!isConnected()) throw new SQLException("No SQL Connection", "08003");
-			Statement stmt = conn.createStatement();
-			if (!stmt.execute(query)) {
-				Debugger.debugln(stmt.getWarnings().getMessage());
+			PooledConnection conn = GameServerSQL.getGamePool().borrow();
+			try (Statement stmt = conn.getConnection().createStatement()) {
+				if (!stmt.execute(query)) {
+					if (stmt.getWarnings() != null) LOG.warn(stmt.getWarnings().getMessage());
+					return null;
+				}
+				return GameServerSQL.detach(stmt.getResultSet());
+			} catch (SQLException e) {
+				conn.invalidateOn(e);
+				throw e;
+			} finally {
+				conn.close();
 			}
-			return stmt.getResultSet();
 		}
 
 		/**
-		 * Uses a prepared statement to execute a query
+		 * Executes a query and maps its result while the connection is borrowed
 		 * 
+		 * @param <T>    Type of the mapped result
+		 * @param pool   Pool of the database to query
 		 * @param query  Query to be executed with '?' place holders
+		 * @param mapper Maps the {@code ResultSet} to a value
 		 * @param params Values to replace the place holders
-		 * @return used statement
+		 * @return mapped result
 		 * @throws SQLException SQLException
 		 */
-		private static PreparedStatement prepareAndExecuteStatement(String query, Object... params) throws SQLException {
-			if (!isConnected()) return null;
-			PreparedStatement stmt = null;
-			// build prepared statement
-			stmt = conn.prepareStatement(query);
-			int i = 0;
-			// fill in placeholders
-			for (Object p : params) {
-				stmt.setString(++i, p.toString());
-			}
-
-			Debugger.debugln("GameServerSQL: " + stmt.toString().split(": ", 2)[1]);
-
-			// execute query
-			stmt.execute();
+		public static <T> T preparedQuery(ConnectionPool pool, String query, ResultMapper<T> mapper, Object... params) throws SQLException {
+			return MySQLStorage.preparedQuery(pool, query, mapper, params);
+		}
 
-			return stmt;
+		/**
+		 * Executes an update query and returns the number of affected rows
+		 * 
+		 * @param pool   Pool of the database to update
+		 * @param query  Query to be executed with '?' place holders
+		 * @param params Values to replace the place holders
+		 * @return number of affected rows
+		 * @throws SQLException SQLException
+		 */
+		public static int preparedUpdateQuery(ConnectionPool pool, String query, Object... params) throws SQLException {
+			return MySQLStorage.preparedUpdateQuery(pool, query, params);
 		}
 
 		/**
-		 * Executes a query and returns a {@code ResultSet} using
-		 * {@link #prepareAndExecuteStatement(String, Object...)}
+		 * Executes a query on the game database and returns a {@code ResultSet}
+		 * that is detached from its connection
 		 * 
+		 * @deprecated use {@link #preparedQuery(ConnectionPool, String, ResultMapper, Object...)}
 		 * @param query  Query to be executed with '?' place holders
 		 * @param params Values to replace the place holders
 		 * @return SQL ResultSet
-		 * @throws SQLException SQLException
+		 * @throws SQLException SQLException or no MySQL storage
 		 */
+		@Deprecated
 		public static ResultSet preparedQuery(String query, Object... params) throws SQLException {
-			return GameServerSQL.prepareAndExecuteStatement(query, params).getResultSet();
+			return MySQLStorage.preparedQuery(GameServerSQL.getGamePool(), query, GameServerSQL::detach, params);
 		}
 
 		/**
-		 * Executes an update query and returns the number of affected rows using
-		 * {@link #prepareAndExecuteStatement(String, Object...)}
+		 * Executes an update query on the game database and returns the number of
+		 * affected rows
 		 * 
 		 * @param query  Query to be executed with '?' place holders
 		 * @param params Values to replace the place holders
-		 * @return SQL ResultSet
-		 * @throws SQLException SQLException
+		 * @return number of affected rows
+		 * @throws SQLException SQLException or no MySQL storage
 		 */
 		public static int preparedUpdateQuery(String query, Object... params) throws SQLException {
-			String sqlCmd = query.toLowerCase().split(" ")[0];
-			if (GameServerSQL.SQL_UPDATE_CMD.contains(sqlCmd)) {
-				return GameServerSQL.prepareAndExecuteStatement(query, params).getUpdateCount();
-			} else {
-				throw new SQLException("Not an Update Command: " + sqlCmd);
-			}
+			return MySQLStorage.preparedUpdateQuery(GameServerSQL.getGamePool(), query, params);
+		}
+
+		/**
+		 * Copies a {@code ResultSet} into memory so its connection can be returned
+		 * 
+		 * @param result ResultSet to copy
+		 * @return detached ResultSet
+		 * @throws SQLException SQLException
+		 */
+		private static ResultSet detach(ResultSet result) throws SQLException {
+			CachedRowSet rows = RowSetProvider.newFactory().createCachedRowSet();
+			rows.populate(result);
+			return rows;
 		}
 
 		/**
-		 * Check if database connection is open
+		 * Check if the storage is open
 		 * 
 		 * @return is connected
 		 */
 		private static boolean isConnected() {
-			try {
-				return !conn.isClosed();
-			} catch (SQLException e) {
-				e.printStackTrace();
-				return false;
-			}
+			return storage != null;
 		}
 
 		/**
-		 * Registers a new user into the login database. Password is hashed before entry
+		 * Registers a new user into the login database
 		 * 
-		 * @param username Username of the client
-		 * @param password Password in clear text
+		 * @param username       Username of the client
+		 * @param hashedPassword Password hashed by {@link PasswordManager}
 		 * @return if entry was successful
 		 * @throws GameServerException User can not be registered
 		 */
-		private static boolean registerUser(String username, String password) throws GameServerException {
+		private static boolean registerUser(String username, String hashedPassword) throws GameServerException {
 			if (!isConnected()) return false;
-			// hash password
-			String hashedPassword = PasswordManager.hashPassword(password);
-			String query = "INSERT INTO registered_users (username, password, auth_level) values (?, ?, ?)";
-			GameServerSQL.changeDatabase(loginDatabase);
 			try {
-				GameServerSQL.preparedUpdateQuery(query, username, hashedPassword, Client.REGISTERED | Client.PLAYER >> 1);
-			} catch (SQLException e) {
+				storage.registerUser(username, hashedPassword, Client.REGISTERED | Client.PLAYER >> 1);
+			} catch (GameServerException e) {
 				// if username already exists
-				if (e.getErrorCode() == MysqlErrorNumbers.ER_DUP_ENTRY) {
-					throw new GameServerException("username is already in use", GameServerErrorCode.DUP_USERNAME);
-				}
-				e.printStackTrace();
+				if (e.getErrorCode() == GameServerErrorCode.DUP_USERNAME) throw e;
 				return false;
 			}
-			return true; // this will probably break at some point
+			return true;
 		}
 
 		/**
-		 * Authenticates a user with the database
+		 * Gets the stored password hash of a registered user. The hash has to be
+		 * validated with {@link PasswordManager#validatePassword(String, String)}
 		 * 
 		 * @param username User to be authenticated
-		 * @param password Users password
-		 * @return if user was authenticated
+		 * @return password hash or null if the user is unknown
 		 */
-		private static boolean authenticateUser(String username, String password) {
-			if (!GameServerSQL.isConnected()) return false;
-			GameServerSQL.changeDatabase(loginDatabase);
-			String query = "SELECT password FROM registered_users WHERE username=?";
+		private static String getPasswordHash(String username) {
+			if (!GameServerSQL.isConnected()) return null;
 			try {
-				ResultSet result = GameServerSQL.preparedQuery(query, username);
-				result.next();
-				String goodHash = result.getString("password");
-				return PasswordManager.validatePassword(password, goodHash);
-			} catch (SQLException e) {
-				e.printStackTrace();
-				return false;
+				return storage.getPasswordHash(username);
+			} catch (GameServerException e) {
+				return null;
 			}
 		}
 
@@ -1077,84 +1883,15 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 
 		private static boolean authenticateGuestUser(String username) {
 			if (!GameServerSQL.isConnected()) return false;
-			GameServerSQL.changeDatabase(loginDatabase);
 
 			// check if username is already registered. guests can have duplicate usernames
-			String query = "SELECT COUNT(*) AS COUNT FROM registered_users WHERE username=?";
-			try {
-				ResultSet result = GameServerSQL.preparedQuery(query, username);
-				result.next();
-				int count = result.getInt("COUNT");
-				return count == 0;
-			} catch (SQLException e) {
-				e.printStackTrace();
-				return false;
-			}
-		}
-
-		/**
-		 * Authenticates a Session by its SessionID
-		 * 
-		 * @param sessionID SessionID to authenticate
-		 * @return if user was authenticated
-		 */
-		private static boolean authSession(String sessionID) {
-			if (!GameServerSQL.isConnected()) return false;
-			GameServerSQL.changeDatabase(gameDatabase);
-			String query = "SELECT COUNT(*) AS COUNT FROM users WHERE session_id=?";
 			try {
-				ResultSet result = GameServerSQL.preparedQuery(query, sessionID);
-				result.next();
-				return result.getInt("COUNT") == 1;
-			} catch (SQLException e) {
-				e.printStackTrace();
+				return !storage.isRegistered(username);
+			} catch (GameServerException e) {
 				return false;
 			}
 		}
 
-		/**
-		 * Returns a new, unique Game ID
-		 * 
-		 * @return Unique Game ID
-		 */
-		private static String getUniqueGameId() {
-			if (!GameServerSQL.isConnected()) return null;
-			String gameID = "";
-			int maxTrys = 100;
-			int curTry = 0;
-			boolean uniqueGameIDFound = false;
-			do {
-				// Create a new GameID
-				// Creates a String [a-zA-Z0-9]
-				String alphabet = "abcdefghijklmnopqrstuvwxyz";
-				alphabet += alphabet.toUpperCase();
-				alphabet += "1234567890";
-				int length = Integer.parseInt(GameServer.properties.getProperty("server.game.id_length"));
-				for (int i = 0; i < length; i++) {
-					int randomIndex = (int) (Math.floor(Math.random() * 10000) % alphabet.length());
-					gameID += alphabet.charAt(randomIndex);
-				}
-				// check if ID is unique
-				GameServerSQL.changeDatabase(GameServerSQL.gameDatabase);
-				String query = "SELECT COUNT(*) AS COUNT FROM games WHERE game_id=?";
-				try {
-					ResultSet result = GameServerSQL.preparedQuery(query, gameID);
-					result.next();
-					int count = result.getInt("COUNT");
-					uniqueGameIDFound = count == 0;
-				} catch (SQLException e) {
-					e.printStackTrace();
-					return null;
-				}
-				curTry++;
-			} while (!uniqueGameIDFound && curTry <= maxTrys);
-			// If failed to generate a unique ID, return null
-			if (curTry >= 100) {
-				return null;
-			}
-			return gameID;
-		}
-
 		/**
 		 * Creates a new Game
 		 * 
@@ -1164,15 +1901,8 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 		 */
 		public static String createGame(Client host) throws GameServerException {
 			if (!GameServerSQL.isConnected()) throw new GameServerException("No database connection", GameServer.SQL_ERROR);
-			GameServerSQL.changeDatabase(loginDatabase);
-			String gameId = GameServerSQL.getUniqueGameId();
-			String query = "INSERT INTO games SET game_id=?, host_id=?";
-			try {
-				GameServerSQL.preparedQuery(query, gameId, host.getUserID());
-			} catch (SQLException e) {
-				e.printStackTrace();
-				throw new GameServerException(e.getMessage(), GameServer.SQL_ERROR);
-			}
+			String gameId = gameIds.next();
+			storage.createGame(gameId, host.getUserID());
 			return gameId;
 		}
 
@@ -1185,19 +1915,7 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 		 */
 		public static void addPlayerToGame(Client client, String gameId) throws GameServerException {
 			if (!GameServerSQL.isConnected()) throw new GameServerException("No database connection", GameServer.SQL_ERROR);
-			GameServerSQL.changeDatabase(loginDatabase);
-			int userId = GameServerSQL.getUserId(client);
-			String query = "INSERT INTO players SET game_id=?, user_id=?";
-			try {
-				GameServerSQL.preparedQuery(query, gameId, userId);
-			} catch (SQLException e) {
-				e.printStackTrace();
-				if (e.getErrorCode() == 1452) {
-					throw new GameServerException("Game does not Exist", GameServer.GAME_NOT_FOUND);
-				} else {
-					throw new GameServerException(e.getMessage(), GameServer.SQL_ERROR);
-				}
-			}
+			storage.addPlayer(gameId, client.getUserID());
 		}
 
 		/**
@@ -1208,59 +1926,7 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 		 */
 		public static void removePlayerFromGame(Client client) throws GameServerException {
 			if (!GameServerSQL.isConnected()) throw new GameServerException("No database connection", GameServer.SQL_ERROR);
-			GameServerSQL.changeDatabase(gameDatabase);
-			int userId = GameServerSQL.getUserId(client);
-			String query = "DELETE FROM players WHERE user_id=?";
-			try {
-				GameServerSQL.preparedQuery(query, userId);
-			} catch (SQLException e) {
-				e.printStackTrace();
-				throw new GameServerException(e.getMessage(), GameServer.SQL_ERROR);
-			}
-		}
-
-		/**
-		 * Returns a new, unique Session ID
-		 * 
-		 * @return Unique Session ID
-		 */
-		private static String getUniqueSessionId() {
-			if (!GameServerSQL.isConnected()) return null;
-			String sessionID = "";
-			int maxTrys = 100;
-			int curTry = 0;
-			boolean uniqueGameIDFound = false;
-			do {
-				// Create a new SessionID
-				// Creates a String [a-zA-Z0-9]
-				String alphabet = "abcdefghijklmnopqrstuvwxyz";
-				alphabet += alphabet.toUpperCase();
-				alphabet += "1234567890";
-				int length = Integer.parseInt(GameServer.properties.getProperty("server.session.id_length"));
-				for (int i = 0; i < length; i++) {
-					int randomIndex = (int) (Math.floor(Math.random() * 10000) % alphabet.length());
-					sessionID += alphabet.charAt(randomIndex);
-				}
-				// check if ID is unique
-				GameServerSQL.changeDatabase(GameServerSQL.gameDatabase);
-				String query = "SELECT COUNT(*) AS COUNT FROM users WHERE session_id=?";
-				try {
-					ResultSet result = GameServerSQL.preparedQuery(query, sessionID);
-					result.next();
-					int count = result.getInt("COUNT");
-					uniqueGameIDFound = count == 0;
-				} catch (SQLException e) {
-					e.printStackTrace();
-					return null;
-				}
-				curTry++;
-			} while (!uniqueGameIDFound && curTry <= maxTrys);
-			// If failed to generate a unique ID, return null
-			if (curTry >= 100) {
-				return null;
-			}
-			return sessionID;
-
+			storage.removePlayer(client.getUserID());
 		}
 
 		/**
@@ -1272,40 +1938,23 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 		 */
 		public static int getAuthLevel(String username) throws GameServerException {
 			if (!GameServerSQL.isConnected()) throw new GameServerException("No database connection", GameServer.SQL_ERROR);
-			GameServerSQL.changeDatabase(loginDatabase);
-			String query = "SELECT auth_level FROM registered_users WHERE username=?";
-			try {
-				ResultSet result = GameServerSQL.preparedQuery(query, username);
-				result.next();
-				int authLevel = result.getInt("auth_level");
-				return authLevel;
-			} catch (SQLException e) {
-				e.printStackTrace();
-				throw new GameServerException(e.getMessage(), GameServer.SQL_ERROR);
-			}
+			return storage.getAuthLevel(username);
 		}
 
 		/**
-		 * Gets the game a player is in
+		 * Loads all active sessions and their games into a {@link SessionIndex}
 		 * 
-		 * @param client Client to get the game of
-		 * @return GameID of the clients game
+		 * @param index Index to fill
+		 * @return if the index could be loaded
 		 */
-		private static String getGameOfClient(Client client) {
-			if (!GameServerSQL.isConnected() || client == null) return null;
-			GameServerSQL.changeDatabase(gameDatabase);
-			String query = "SELECT game_id FROM players INNER JOIN users ON users.user_id=players.user_id WHERE session_id=?";
+		private static boolean loadSessionIndex(SessionIndex index) {
+			if (!GameServerSQL.isConnected()) return false;
 			try {
-				ResultSet result = GameServerSQL.preparedQuery(query, client.getSessionID());
-				if (result.next()) {
-					String gameId = result.getString("game_id");
-					return gameId;
-				} else {
-					return null;
-				}
-			} catch (SQLException e) {
-				e.printStackTrace();
-				return null;
+				index.clear();
+				storage.loadSessions(index);
+				return true;
+			} catch (GameServerException e) {
+				return false;
 			}
 		}
 
@@ -1318,17 +1967,19 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 		 */
 		private static int getUserId(Client client) throws GameServerException {
 			if (!GameServerSQL.isConnected()) throw new GameServerException("No database connection", GameServer.SQL_ERROR);
-			GameServerSQL.changeDatabase(gameDatabase);
-			String query = "SELECT user_id FROM users WHERE session_id=?";
-			try {
-				ResultSet result = GameServerSQL.preparedQuery(query, client.getSessionID());
-				result.next();
-				int userId = result.getInt("user_id");
-				return userId;
-			} catch (SQLException e) {
-				e.printStackTrace();
-				throw new GameServerException(e.getMessage(), GameServer.SQL_ERROR);
-			}
+			return storage.getUserId(client.getSessionID());
+		}
+
+		/**
+		 * Gets the username of a session
+		 * 
+		 * @param sessionID Session ID
+		 * @return Username of the session
+		 * @throws GameServerException Username could not be loaded
+		 */
+		private static String getUsername(String sessionID) throws GameServerException {
+			if (!GameServerSQL.isConnected()) throw new GameServerException("No database connection", GameServer.SQL_ERROR);
+			return storage.getUsername(sessionID);
 		}
 
 		/**
@@ -1341,46 +1992,46 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 		private static String addUserToActive(Client client) throws GameServerException {
 			if (!isConnected()) throw new GameServerException("No Database Connection", GameServer.SQL_ERROR);
 
-			String sessionID;
-
-			// if client already has a SessionID, use it. Otherwise create new, unique
-			// SessionID
-			if (client.getSessionID() == null) {
-				sessionID = GameServerSQL.getUniqueSessionId();
-			} else {
-				sessionID = client.getSessionID();
+			// if client already has a SessionID, renew it
+			if (client.getSessionID() != null) {
+				storage.saveSession(client.getSessionID(), client.getUsername());
+				return client.getSessionID();
 			}
 
-			// change database to GameData database
-			GameServerSQL.changeDatabase(gameDatabase);
-
-			// Insert user into database, if SessionID already exists, update it
-			String query = "INSERT INTO users SET username=?, session_id=? ON DUPLICATE KEY UPDATE username=?, session_id=session_id, last_access=NOW()";
-			try {
-				GameServerSQL.preparedUpdateQuery(query, client.getUsername(), sessionID, client.getUsername());
-			} catch (SQLException e) {
-				throw new GameServerException(e.getMessage(), GameServer.SQL_ERROR);
+			// otherwise create a new SessionID, the storage rejects duplicates
+			for (int i = 0; i < SESSION_ID_ATTEMPTS; i++) {
+				String sessionID = sessionIds.next();
+				if (storage.createSession(sessionID, client.getUsername())) {
+					return sessionID;
+				}
+				LOG.warn("Session ID collision, retrying");
 			}
-			return sessionID;
+			throw new GameServerException("Could not create a unique session ID", GameServer.SQL_ERROR);
 		}
 
 		/**
-		 * Updates the last_access field of a user
+		 * Writes all buffered last_access updates to the storage
 		 * 
-		 * @param client Client that sent a message
-		 * @throws GameServerException User could not be updated
+		 * @param buffer Buffer to flush
+		 * @throws GameServerException Accesses could not be written
 		 */
-		private static void updateUserLastAccess(Client client) throws GameServerException {
+		private static void flushLastAccess(LastAccessBuffer buffer) throws GameServerException {
 			if (!isConnected()) throw new GameServerException("No Database Connection", GameServer.SQL_ERROR);
-			if (!client.checkAuth(Client.AUTHENTICATED)) return;
-
-			String query = "UPDATE users SET last_access=NOW() WHERE session_id=?";
-			GameServerSQL.changeDatabase(gameDatabase);
+			Map<String, Long> sessionAccesses = buffer.drainSessions();
+			Map<String, Long> gameAccesses = buffer.drainGames();
+			// accesses that could not be written are kept, so their sessions and games don't expire early
 			try {
-				GameServerSQL.preparedUpdateQuery(query, client.getSessionID());
-			} catch (SQLException e) {
-				e.printStackTrace();
-				throw new GameServerException(e.getMessage(), GameServer.SQL_ERROR);
+				storage.touchSessions(sessionAccesses);
+			} catch (GameServerException e) {
+				buffer.restoreSessions(sessionAccesses);
+				buffer.restoreGames(gameAccesses);
+				throw e;
+			}
+			try {
+				storage.touchGames(gameAccesses);
+			} catch (GameServerException e) {
+				buffer.restoreGames(gameAccesses);
+				throw e;
 			}
 		}
 
@@ -1393,152 +2044,106 @@ abstract public class GameServer extends WebSocketServer implements GameServerEr
 		 */
 		private static boolean isUserHost(Client client) throws GameServerException {
 			if (!isConnected()) throw new GameServerException("No Database Connection", GameServer.SQL_ERROR);
-
-			String query = "SELECT COUNT(*) AS COUNT FROM games WHERE host_id=?";
-			GameServerSQL.changeDatabase(gameDatabase);
-			try {
-				ResultSet result = GameServerSQL.preparedQuery(query, client.getUserID());
-				result.next();
-				return result.getInt("COUNT") == 1;
-			} catch (SQLException e) {
-				e.printStackTrace();
-				throw new GameServerException(e.getMessage(), GameServer.SQL_ERROR);
-			}
+			return storage.isHost(client.getUserID());
 		}
 
 		/**
-		 * Updates the last_access field of a game
+		 * Removes a user from the list of active sessions
 		 * 
-		 * @param gameId Game to update
-		 * @throws GameServerException Game could not be updated
+		 * @param client Client to be removed
+		 * @throws GameServerException User could not be removed from Active
 		 */
-		private static void updateGameLastAccess(String gameId) throws GameServerException {
+		private static void removeUserFromActive(Client client) throws GameServerException {
 			if (!isConnected()) throw new GameServerException("No Database Connection", GameServer.SQL_ERROR);
+			storage.removeSession(client.getSessionID());
+		}
 
-			String query = "UPDATE games SET last_access=NOW() WHERE game_id=?";
-			GameServerSQL.changeDatabase(gameDatabase);
-			try {
-				GameServerSQL.preparedUpdateQuery(query, gameId);
-			} catch (SQLException e) {
-				e.printStackTrace();
-				throw new GameServerException(e.getMessage(), GameServer.SQL_ERROR);
-			}
+		/**
+		 * Deletes expired sessions and removes their users from their games
+		 * 
+		 * @param sessionIDs Session IDs
+		 * @throws GameServerException Sessions could not be deleted
+		 */
+		private static void removeSessions(Collection<String> sessionIDs) throws GameServerException {
+			if (sessionIDs.isEmpty()) return;
+			if (!isConnected()) throw new GameServerException("No Database Connection", GameServer.SQL_ERROR);
+			storage.removeSessions(sessionIDs);
 		}
 
 		/**
-		 * Removes a user from the list of active sessions
+		 * Deletes expired games and removes their players
 		 * 
-		 * @param client Client to be removed
-		 * @throws GameServerException User could not be removed from Active
+		 * @param gameIDs GameIDs
+		 * @throws GameServerException Games could not be deleted
 		 */
-		private static void removeUserFromActive(Client client) throws GameServerException {
+		private static void removeGames(Collection<String> gameIDs) throws GameServerException {
+			if (gameIDs.isEmpty()) return;
 			if (!isConnected()) throw new GameServerException("No Database Connection", GameServer.SQL_ERROR);
-			String query = "DELETE FROM users WHERE session_id=?";
-			GameServerSQL.changeDatabase(gameDatabase);
-			try {
-				GameServerSQL.preparedUpdateQuery(query, client.getSessionID());
-			} catch (SQLException e) {
-				e.printStackTrace();
-				throw new GameServerException(e.getMessage(), GameServer.SQL_ERROR);
-			}
+			storage.removeGames(gameIDs);
 		}
 
 		/**
-		 * Collects all Garbage in the SQL Database
+		 * Collects all Garbage in the storage. Sessions and games normally expire
+		 * through the expiry wheels, this catches rows the wheels don't know of.
+		 * Expired rows are found and deleted in small pages until the time budget
+		 * of a run is used up, the next run continues where this one stopped.
 		 * 
 		 * @throws GameServerException Garbage could not be collected
 		 */
 		private static void collectGarbage() throws GameServerException {
 			if (!isConnected()) throw new GameServerException("No Database Connection", GameServer.SQL_ERROR);
-			GameServerSQL.changeDatabase(gameDatabase);
-
-			// get all players who's session is timed out and close their connection
-			try {
-				// SQL query to get all timed out clients
-				String query = "SELECT session_id FROM users WHERE last_access<=DATE_SUB(NOW(), INTERVAL ? MINUTE)";
-				String interval = GameServer.properties.getProperty("server.session.timeout");
-				ResultSet result = GameServerSQL.preparedQuery(query, interval);
-
-				// get session ID set
-				HashSet<String> sidSet = new HashSet<String>();
-				while (result.next()) {
-					sidSet.add(result.getString("session_id"));
-				}
 
-				// get all clients
-				HashSet<Client> clientSet = new HashSet<Client>();
-				// for all connections
-				for (Entry<WebSocket, Client> entry : GameServer.conns.entrySet()) {
-					Client client = entry.getValue();
-					String sessionId = client.getSessionID();
-					// if session ID set contains client sessionId
-					// add client to set and remove id from list
-					if (sidSet.contains(sessionId)) {
-						clientSet.add(client);
-						sidSet.remove(sessionId);
-					}
-					// if list is empty, stop
-					if (sidSet.isEmpty()) {
-						break;
-					}
+			// timeouts are based on last_access, so write pending accesses first
+			GameServerSQL.flushLastAccess(GameServer.lastAccess);
+
+			int sessionTimeout = Integer.parseInt(GameServer.properties.getProperty("server.session.timeout"));
+			int gameTimeout = Integer.parseInt(GameServer.properties.getProperty("server.game.timeout"));
+			int batchSize = Integer.parseInt(GameServer.properties.getProperty("server.garbage_collection.batch_size", "500"));
+			long budget = TimeUnit.MILLISECONDS.toNanos(Integer.parseInt(GameServer.properties.getProperty("server.garbage_collection.time_budget", "2000")));
+			long start = System.nanoTime();
+			int sessionCount = 0;
+			int gameCount = 0;
+			int deletedSessions = 0;
+			int deletedGames = 0;
+
+			// timed out sessions, page by page
+			while (System.nanoTime() - start < budget) {
+				List<String> page = storage.findExpiredSessions(sessionTimeout, gcSessionCursor, batchSize);
+				// sessions accessed since they were found survive the delete, only the deleted ones leave memory
+				List<String> deleted = storage.deleteExpiredSessions(page, sessionTimeout);
+				for (String sessionId : deleted) {
+					GameServer.evictSession(sessionId, "Session Timeout");
 				}
-
-				for (Client client : clientSet) {
-					client.disconnect("Session Timeout", 1000);
+				deletedSessions += deleted.size();
+				sessionCount += page.size();
+				if (page.size() < batchSize) {
+					// all sessions were checked, start over next time
+					gcSessionCursor = "";
+					break;
 				}
-
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-
-			// clean players table
-			try {
-				String query = "DELETE FROM players WHERE players.user_id IN (SELECT users.user_id FROM users WHERE users.last_access<=DATE_SUB(NOW(), INTERVAL ? MINUTE))";
-				String interval = GameServer.properties.getProperty("server.session.timeout");
-				GameServerSQL.preparedUpdateQuery(query, interval);
-			} catch (SQLException e) {
-				e.printStackTrace();
-				throw new GameServerException(e.getMessage(), GameServer.SQL_ERROR);
-			}
-
-			// clean users table
-			try {
-				String query = "DELETE FROM users WHERE last_access<=DATE_SUB(NOW(), INTERVAL ? MINUTE)";
-				String interval = GameServer.properties.getProperty("server.session.timeout");
-				GameServerSQL.preparedUpdateQuery(query, interval);
-			} catch (SQLException e) {
-				e.printStackTrace();
-				throw new GameServerException(e.getMessage(), GameServer.SQL_ERROR);
+				gcSessionCursor = page.get(page.size() - 1);
 			}
 
-			// clean up games table
-			try {
-				// get all players who's session is timed out and close their connection
-				// SQL query to get all timed out clients
-				String query = "SELECT game_id FROM games WHERE last_access<=DATE_SUB(NOW(), INTERVAL ? MINUTE)";
-				String interval = GameServer.properties.getProperty("server.game.timeout");
-				ResultSet result = GameServerSQL.preparedQuery(query, interval);
-
-				// get all timed out games and delete them
-				while (result.next()) {
-					String gameID = result.getString("game_id");
-					GameServer.games.remove(gameID);
+			// timed out games, page by page
+			while (System.nanoTime() - start < budget) {
+				List<String> page = storage.findExpiredGames(gameTimeout, gcGameCursor, batchSize);
+				List<String> deleted = storage.deleteExpiredGames(page, gameTimeout);
+				for (String gameID : deleted) {
+					GameServer.evictGame(gameID);
 				}
-
-			} catch (SQLException e) {
-				e.printStackTrace();
-				throw new GameServerException(e.getMessage(), GameServer.SQL_ERROR);
+				deletedGames += deleted.size();
+				gameCount += page.size();
+				if (page.size() < batchSize) {
+					// all games were checked, start over next time
+					gcGameCursor = "";
+					break;
+				}
+				gcGameCursor = page.get(page.size() - 1);
 			}
 
-			try {
-				// delete timed out games
-				String query = "DELETE FROM games WHERE last_access<=DATE_SUB(NOW(), INTERVAL ? MINUTE)";
-				String interval = GameServer.properties.getProperty("server.game.timeout");
-				GameServerSQL.preparedUpdateQuery(query, interval);
-			} catch (SQLException e) {
-				e.printStackTrace();
-				throw new GameServerException(e.getMessage(), GameServer.SQL_ERROR);
-			}
+			long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			boolean unfinished = !gcSessionCursor.isEmpty() || !gcGameCursor.isEmpty();
+			LOG.info("Garbage collection deleted " + deletedSessions + " of " + sessionCount + " expired sessions and " + deletedGames + " of " + gameCount + " expired games in " + millis + " ms" + (unfinished ? ", continuing next run" : ""));
 		}
 	}
 }
@@ -71,5 +71,10 @@ public interface GameServerErrorCode{
 	 */
 	public static final int GAME_NOT_FOUND = 0x1B;
 
+	/**
+	 * Server is too busy to handle the request, try again later
+	 */
+	public static final int SERVER_BUSY = 0x1D;
+
 	
 }
@@ -0,0 +1,20 @@
+package net.nilsramstoeck.gameserver;
+
+/**
+ * A unit of work that is executed off the WebSocket threads
+ * 
+ * @author Nils Ramstoeck
+ *
+ * @param <T> Type of the result
+ */
+@FunctionalInterface
+public interface GameServerTask<T> {
+
+	/**
+	 * Runs the task
+	 * 
+	 * @return result of the task
+	 * @throws GameServerException Any Error during the task
+	 */
+	public T run() throws GameServerException;
+}
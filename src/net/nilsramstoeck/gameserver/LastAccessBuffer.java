@@ -0,0 +1,136 @@
+package net.nilsramstoeck.gameserver;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Write-behind buffer for last_access timestamps of sessions and games. Only
+ * the latest access time per entity is kept until the buffer is drained.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class LastAccessBuffer {
+
+	/**
+	 * Latest access time per session ID
+	 */
+	private final ConcurrentHashMap<String, Long> sessions = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Latest access time per game ID
+	 */
+	private final ConcurrentHashMap<String, Long> games = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Records an access of a session
+	 *
+	 * @param sessionID Session ID
+	 */
+	public void touchSession(String sessionID) {
+		if (sessionID == null) return;
+		this.sessions.put(sessionID, System.currentTimeMillis());
+	}
+
+	/**
+	 * Records an access of a game
+	 *
+	 * @param gameID Game ID
+	 */
+	public void touchGame(String gameID) {
+		if (gameID == null) return;
+		this.games.put(gameID, System.currentTimeMillis());
+	}
+
+	/**
+	 * Discards a pending session access, e.g. when the session was removed
+	 *
+	 * @param sessionID Session ID
+	 */
+	public void removeSession(String sessionID) {
+		if (sessionID == null) return;
+		this.sessions.remove(sessionID);
+	}
+
+	/**
+	 * Discards a pending game access, e.g. when the game was removed
+	 *
+	 * @param gameID Game ID
+	 */
+	public void removeGame(String gameID) {
+		if (gameID == null) return;
+		this.games.remove(gameID);
+	}
+
+	/**
+	 * Removes and returns all pending session accesses
+	 *
+	 * @return Session ID to access time in milliseconds
+	 */
+	public Map<String, Long> drainSessions() {
+		return LastAccessBuffer.drain(this.sessions);
+	}
+
+	/**
+	 * Removes and returns all pending game accesses
+	 *
+	 * @return Game ID to access time in milliseconds
+	 */
+	public Map<String, Long> drainGames() {
+		return LastAccessBuffer.drain(this.games);
+	}
+
+	/**
+	 * Puts back session accesses that could not be written. Accesses recorded
+	 * since they were drained are newer and kept.
+	 *
+	 * @param accesses Session ID to access time in milliseconds
+	 */
+	public void restoreSessions(Map<String, Long> accesses) {
+		LastAccessBuffer.restore(this.sessions, accesses);
+	}
+
+	/**
+	 * Puts back game accesses that could not be written. Accesses recorded since
+	 * they were drained are newer and kept.
+	 *
+	 * @param accesses Game ID to access time in milliseconds
+	 */
+	public void restoreGames(Map<String, Long> accesses) {
+		LastAccessBuffer.restore(this.games, accesses);
+	}
+
+	/**
+	 * Merges drained entries back into a map, keeping the later access
+	 *
+	 * @param target   Map to restore into
+	 * @param accesses Drained entries
+	 */
+	private static void restore(ConcurrentHashMap<String, Long> target, Map<String, Long> accesses) {
+		for (Entry<String, Long> e : accesses.entrySet()) {
+			target.merge(e.getKey(), e.getValue(), Math::max);
+		}
+	}
+
+	/**
+	 * Moves all entries of a map into a new one. Entries that are updated while
+	 * draining stay in the source map for the next drain.
+	 *
+	 * @param source Map to drain
+	 * @return drained entries
+	 */
+	private static Map<String, Long> drain(ConcurrentHashMap<String, Long> source) {
+		HashMap<String, Long> drained = new HashMap<String, Long>();
+		Iterator<Entry<String, Long>> it = source.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry<String, Long> e = it.next();
+			if (source.remove(e.getKey(), e.getValue())) {
+				drained.put(e.getKey(), e.getValue());
+			}
+		}
+		return drained;
+	}
+}
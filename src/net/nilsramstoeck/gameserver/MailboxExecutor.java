@@ -0,0 +1,204 @@
+package net.nilsramstoeck.gameserver;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.nilsramstoeck.gameserver.log.Logger;
+
+/**
+ * Runs the tasks of every game one after another on a shared pool. Each game
+ * has a mailbox that is queued on the pool while it has tasks, so tasks of one
+ * game never run at the same time and see everything earlier tasks of the game
+ * wrote, while different games run in parallel. A mailbox gives up its thread
+ * after a few tasks, so a busy game can't starve the others.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class MailboxExecutor {
+
+	/**
+	 * Logger of the executor
+	 */
+	private static final Logger LOG = Logger.getLogger(MailboxExecutor.class);
+
+	/**
+	 * Tasks a mailbox runs before it gives up its thread
+	 */
+	private static final int BATCH_SIZE = 64;
+
+	/**
+	 * Threads that run the mailboxes
+	 */
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Mailboxes by GameID
+	 */
+	private final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<String, Mailbox>();
+
+	/**
+	 * Maximum number of waiting tasks of a game
+	 */
+	private final int capacity;
+
+	/**
+	 * Creates an executor
+	 *
+	 * @param name      Name of the executor, used for its threads
+	 * @param threads   Number of threads
+	 * @param _capacity Maximum number of waiting tasks of a game
+	 */
+	public MailboxExecutor(String name, int threads, int _capacity) {
+		this.capacity = _capacity;
+		AtomicInteger count = new AtomicInteger();
+		// every mailbox is queued at most once, so the queue is bounded by the games
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+			Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Queues a task of a game
+	 *
+	 * @param gameID ID of the game
+	 * @param task   Task to run
+	 * @return if the task was queued, false if the mailbox of the game is full
+	 */
+	public boolean execute(String gameID, Runnable task) {
+		Mailbox mailbox = this.mailbox(gameID);
+		if (mailbox.size.incrementAndGet() > this.capacity) {
+			mailbox.size.decrementAndGet();
+			return false;
+		}
+		mailbox.post(task);
+		return true;
+	}
+
+	/**
+	 * Queues a tick of a game. Ticks are never rejected, a tick that arrives
+	 * while the previous one still waits is merged into it and its time is added
+	 * to the delta of that tick.
+	 *
+	 * @param gameID     ID of the game
+	 * @param deltaNanos Nanoseconds since the previous tick
+	 * @param handler    Handler of the tick
+	 */
+	public void tick(String gameID, long deltaNanos, TickHandler handler) {
+		Mailbox mailbox = this.mailbox(gameID);
+		if (mailbox.tickDelta.getAndAdd(deltaNanos) != 0) return;
+		mailbox.size.incrementAndGet();
+		mailbox.post(() -> handler.onTick(gameID, mailbox.tickDelta.getAndSet(0)));
+	}
+
+	/**
+	 * Removes the mailbox of a game that ended. Tasks that are already queued
+	 * still run.
+	 *
+	 * @param gameID ID of the game
+	 */
+	public void remove(String gameID) {
+		if (gameID == null) return;
+		this.mailboxes.remove(gameID);
+	}
+
+	/**
+	 * Number of waiting tasks of a game
+	 *
+	 * @param gameID ID of the game
+	 * @return waiting tasks
+	 */
+	public int getQueueSize(String gameID) {
+		Mailbox mailbox = gameID == null ? null : this.mailboxes.get(gameID);
+		return mailbox == null ? 0 : mailbox.size.get();
+	}
+
+	/**
+	 * Stops accepting new tasks
+	 */
+	public void shutdown() {
+		this.executor.shutdown();
+	}
+
+	/**
+	 * Gets the mailbox of a game and creates it if it does not exist
+	 *
+	 * @param gameID ID of the game
+	 * @return Mailbox
+	 */
+	private Mailbox mailbox(String gameID) {
+		Mailbox mailbox = this.mailboxes.get(gameID);
+		if (mailbox != null) return mailbox;
+		return this.mailboxes.computeIfAbsent(gameID, Mailbox::new);
+	}
+
+	/**
+	 * Waiting tasks of one game
+	 */
+	private final class Mailbox implements Runnable {
+		private final String gameID;
+
+		/**
+		 * Waiting tasks
+		 */
+		private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+
+		/**
+		 * Number of waiting tasks, the queue can't count in constant time
+		 */
+		private final AtomicInteger size = new AtomicInteger();
+
+		/**
+		 * If the mailbox is queued on or running on the pool
+		 */
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+		/**
+		 * Time of the waiting tick, 0 if no tick waits
+		 */
+		private final AtomicLong tickDelta = new AtomicLong();
+
+		private Mailbox(String _gameID) {
+			this.gameID = _gameID;
+		}
+
+		/**
+		 * Adds a counted task and queues the mailbox if it is idle
+		 *
+		 * @param task Task to run
+		 */
+		private void post(Runnable task) {
+			this.queue.add(task);
+			if (this.scheduled.compareAndSet(false, true)) {
+				MailboxExecutor.this.executor.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				Runnable task = this.queue.poll();
+				if (task == null) break;
+				this.size.decrementAndGet();
+				try {
+					task.run();
+				} catch (Throwable e) {
+					LOG.error("Task of game " + this.gameID + " failed", e);
+				}
+			}
+			this.scheduled.set(false);
+			// tasks added after the last poll, or left over from a full batch
+			if (!this.queue.isEmpty() && this.scheduled.compareAndSet(false, true)) {
+				MailboxExecutor.this.executor.execute(this);
+			}
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package net.nilsramstoeck.gameserver;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.nilsramstoeck.gameserver.log.Logger;
+
+/**
+ * Runs tasks one after another in the order they were added, on threads of
+ * another executor. A thread is only taken while tasks are waiting.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class SerialExecutor implements Executor {
+
+	/**
+	 * Logger of the executor
+	 */
+	private static final Logger LOG = Logger.getLogger(SerialExecutor.class);
+
+	/**
+	 * Executor that runs the tasks
+	 */
+	private final Executor executor;
+
+	/**
+	 * Waiting tasks
+	 */
+	private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+
+	/**
+	 * If a thread is running the tasks
+	 */
+	private final AtomicBoolean running = new AtomicBoolean(false);
+
+	/**
+	 * Creates an executor
+	 *
+	 * @param _executor Executor that runs the tasks
+	 */
+	public SerialExecutor(Executor _executor) {
+		this.executor = _executor;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		this.queue.add(task);
+		this.schedule();
+	}
+
+	/**
+	 * Starts running the waiting tasks unless they already run
+	 */
+	private void schedule() {
+		if (this.running.compareAndSet(false, true)) {
+			this.executor.execute(this::drain);
+		}
+	}
+
+	/**
+	 * Runs all waiting tasks
+	 */
+	private void drain() {
+		Runnable task;
+		while ((task = this.queue.poll()) != null) {
+			try {
+				task.run();
+			} catch (Throwable e) {
+				LOG.error("Task failed", e);
+			}
+		}
+		this.running.set(false);
+		// tasks added after the last poll
+		if (!this.queue.isEmpty()) this.schedule();
+	}
+}
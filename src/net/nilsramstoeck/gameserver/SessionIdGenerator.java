@@ -0,0 +1,84 @@
+package net.nilsramstoeck.gameserver;
+
+import java.security.SecureRandom;
+
+/**
+ * Creates random session IDs. Every ID carries at least 128 random bits, so
+ * IDs don't collide in practice and don't have to be checked against the
+ * storage. The unique key of the session table still rejects a duplicate.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class SessionIdGenerator {
+
+	/**
+	 * Minimum number of random bytes of an ID
+	 */
+	public static final int MIN_BYTES = 16;
+
+	/**
+	 * URL safe Base64 alphabet without padding
+	 */
+	private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+	/**
+	 * Random generator of each thread, so threads don't contend for one lock
+	 */
+	private static final ThreadLocal<SecureRandom> random = ThreadLocal.withInitial(SecureRandom::new);
+
+	/**
+	 * Buffer of the random bytes of each thread
+	 */
+	private final ThreadLocal<byte[]> buffer;
+
+	/**
+	 * Creates a generator
+	 *
+	 * @param _bytes Number of random bytes of an ID, at least {@link #MIN_BYTES}
+	 */
+	public SessionIdGenerator(int _bytes) {
+		if (_bytes < MIN_BYTES) throw new IllegalArgumentException("Session IDs need at least " + MIN_BYTES + " random bytes");
+		this.buffer = ThreadLocal.withInitial(() -> new byte[_bytes]);
+	}
+
+	/**
+	 * Creates a new session ID
+	 *
+	 * @return Session ID
+	 */
+	public String next() {
+		byte[] data = this.buffer.get();
+		random.get().nextBytes(data);
+		return new String(SessionIdGenerator.encode(data));
+	}
+
+	/**
+	 * Encodes bytes as URL safe Base64 without padding
+	 *
+	 * @param data Bytes to encode
+	 * @return encoded characters
+	 */
+	private static char[] encode(byte[] data) {
+		char[] out = new char[(data.length * 8 + 5) / 6];
+		int o = 0;
+		int i = 0;
+		// three bytes make four characters
+		for (; i + 2 < data.length; i += 3) {
+			int bits = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF);
+			out[o++] = ALPHABET[bits >>> 18];
+			out[o++] = ALPHABET[bits >>> 12 & 0x3F];
+			out[o++] = ALPHABET[bits >>> 6 & 0x3F];
+			out[o++] = ALPHABET[bits & 0x3F];
+		}
+		// remaining one or two bytes
+		if (i < data.length) {
+			int bits = (data[i] & 0xFF) << 16;
+			if (i + 1 < data.length) bits |= (data[i + 1] & 0xFF) << 8;
+			out[o++] = ALPHABET[bits >>> 18];
+			out[o++] = ALPHABET[bits >>> 12 & 0x3F];
+			if (i + 1 < data.length) out[o++] = ALPHABET[bits >>> 6 & 0x3F];
+		}
+		return out;
+	}
+}
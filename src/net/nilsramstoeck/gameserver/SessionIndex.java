@@ -0,0 +1,159 @@
+package net.nilsramstoeck.gameserver;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of all active sessions, their users and the games they are
+ * in. The index is authoritative while the server is running, the SQL database
+ * is only used to persist it and to rebuild it after a restart.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class SessionIndex {
+
+	/**
+	 * Maps session IDs to user IDs
+	 */
+	private final ConcurrentHashMap<String, Integer> users = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Maps user IDs to the ID of the game they are in
+	 */
+	private final ConcurrentHashMap<Integer, String> players = new ConcurrentHashMap<Integer, String>();
+
+	/**
+	 * Adds a session to the index
+	 *
+	 * @param sessionID Session ID
+	 * @param userID    User ID of the session
+	 */
+	public void putSession(String sessionID, int userID) {
+		if (sessionID == null) return;
+		this.users.put(sessionID, userID);
+	}
+
+	/**
+	 * Removes a session and its game membership from the index
+	 *
+	 * @param sessionID Session ID
+	 */
+	public void removeSession(String sessionID) {
+		if (sessionID == null) return;
+		Integer userID = this.users.remove(sessionID);
+		if (userID != null) {
+			this.players.remove(userID);
+		}
+	}
+
+	/**
+	 * Gets the user ID of a session
+	 *
+	 * @param sessionID Session ID
+	 * @return User ID or null if the session is unknown
+	 */
+	public Integer getUserId(String sessionID) {
+		if (sessionID == null) return null;
+		return this.users.get(sessionID);
+	}
+
+	/**
+	 * Checks if a session is known
+	 *
+	 * @param sessionID Session ID
+	 * @return if the session is in the index
+	 */
+	public boolean hasSession(String sessionID) {
+		return sessionID != null && this.users.containsKey(sessionID);
+	}
+
+	/**
+	 * Sets the game of a user
+	 *
+	 * @param userID User ID
+	 * @param gameID ID of the game the user is in
+	 */
+	public void putPlayer(int userID, String gameID) {
+		if (gameID == null) return;
+		this.players.put(userID, gameID);
+	}
+
+	/**
+	 * Removes a user from its game
+	 *
+	 * @param userID User ID
+	 */
+	public void removePlayer(int userID) {
+		this.players.remove(userID);
+	}
+
+	/**
+	 * Gets the game of a user
+	 *
+	 * @param userID User ID
+	 * @return GameID or null if the user is not in a game
+	 */
+	public String getGameOfUser(int userID) {
+		return this.players.get(userID);
+	}
+
+	/**
+	 * Gets the game of a session
+	 *
+	 * @param sessionID Session ID
+	 * @return GameID or null if the session is unknown or not in a game
+	 */
+	public String getGameOfSession(String sessionID) {
+		Integer userID = this.getUserId(sessionID);
+		if (userID == null) return null;
+		return this.players.get(userID);
+	}
+
+	/**
+	 * Removes all players of a game from the index
+	 *
+	 * @param gameID ID of the game
+	 */
+	public void removeGame(String gameID) {
+		if (gameID == null) return;
+		this.players.values().removeIf(gameID::equals);
+	}
+
+	/**
+	 * Gets the IDs of all indexed sessions
+	 *
+	 * @return unmodifiable view of the session IDs
+	 */
+	public Set<String> getSessionIDs() {
+		return Collections.unmodifiableSet(this.users.keySet());
+	}
+
+	/**
+	 * Gets the IDs of all games that have players
+	 *
+	 * @return GameIDs
+	 */
+	public Set<String> getGameIDs() {
+		return new HashSet<String>(this.players.values());
+	}
+
+	/**
+	 * Removes all entries from the index
+	 */
+	public void clear() {
+		this.users.clear();
+		this.players.clear();
+	}
+
+	/**
+	 * Number of indexed sessions
+	 *
+	 * @return number of sessions
+	 */
+	public int size() {
+		return this.users.size();
+	}
+}
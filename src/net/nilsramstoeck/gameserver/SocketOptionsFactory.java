@@ -0,0 +1,63 @@
+package net.nilsramstoeck.gameserver;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import org.java_websocket.server.DefaultWebSocketServerFactory;
+
+import net.nilsramstoeck.gameserver.log.Logger;
+
+/**
+ * Applies the configured buffer sizes to every accepted connection before it
+ * is handed to a decoder. TCP_NODELAY is set by the server itself. The read
+ * buffer of the decoders stays at WebSocketImpl.RCVBUF, which the library
+ * fixes at 16 KiB
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class SocketOptionsFactory extends DefaultWebSocketServerFactory {
+
+	/**
+	 * Logger of the factory
+	 */
+	private static final Logger LOG = Logger.getLogger(SocketOptionsFactory.class);
+
+	/**
+	 * Size of the receive buffer of a connection in bytes, 0 for the system
+	 * default
+	 */
+	private final int receiveBufferSize;
+
+	/**
+	 * Size of the send buffer of a connection in bytes, 0 for the system default
+	 */
+	private final int sendBufferSize;
+
+	/**
+	 * Creates a factory
+	 *
+	 * @param _receiveBufferSize Receive buffer size in bytes, 0 for the system
+	 *                           default
+	 * @param _sendBufferSize    Send buffer size in bytes, 0 for the system
+	 *                           default
+	 */
+	public SocketOptionsFactory(int _receiveBufferSize, int _sendBufferSize) {
+		this.receiveBufferSize = _receiveBufferSize;
+		this.sendBufferSize = _sendBufferSize;
+	}
+
+	@Override
+	public SocketChannel wrapChannel(SocketChannel channel, SelectionKey key) {
+		try {
+			if (this.receiveBufferSize > 0) channel.setOption(StandardSocketOptions.SO_RCVBUF, this.receiveBufferSize);
+			if (this.sendBufferSize > 0) channel.setOption(StandardSocketOptions.SO_SNDBUF, this.sendBufferSize);
+		} catch (IOException e) {
+			// the connection keeps the system defaults
+			LOG.warn("Could not set socket buffer sizes: " + e.getMessage());
+		}
+		return super.wrapChannel(channel, key);
+	}
+}
@@ -0,0 +1,19 @@
+package net.nilsramstoeck.gameserver;
+
+/**
+ * Advances the simulation of a game by one tick
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+@FunctionalInterface
+public interface TickHandler {
+
+	/**
+	 * Runs one tick of a game
+	 *
+	 * @param gameID     ID of the game
+	 * @param deltaNanos Nanoseconds since the previous tick of the game
+	 */
+	public void onTick(String gameID, long deltaNanos);
+}
@@ -0,0 +1,255 @@
+package net.nilsramstoeck.gameserver;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.nilsramstoeck.gameserver.log.Logger;
+
+/**
+ * Ticks games at a fixed rate on a fixed pool of threads. Every game has its
+ * own rate and is scheduled as a single task that reschedules itself, so
+ * thousands of games share a few threads and a game never ticks twice at the
+ * same time.
+ * <p>
+ * The next tick is planned from the planned time of the previous one, not from
+ * when it ran, so late ticks don't shift the rate. A slightly late tick runs
+ * right away, whole periods that were missed because a tick ran too long are
+ * skipped and counted as overruns instead of running back to back.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class TickScheduler {
+
+	/**
+	 * Logger of the scheduler
+	 */
+	private static final Logger LOG = Logger.getLogger(TickScheduler.class);
+
+	/**
+	 * Threads that run the ticks
+	 */
+	private final ScheduledThreadPoolExecutor executor;
+
+	/**
+	 * Handler of all ticks
+	 */
+	private final TickHandler handler;
+
+	/**
+	 * Tickers of all ticking games
+	 */
+	private final ConcurrentHashMap<String, Ticker> tickers = new ConcurrentHashMap<String, Ticker>();
+
+	/**
+	 * Ticks skipped by all games
+	 */
+	private final LongAdder overruns = new LongAdder();
+
+	/**
+	 * Creates a scheduler
+	 *
+	 * @param name     Name of the scheduler, used for its threads
+	 * @param threads  Number of threads
+	 * @param _handler Handler of all ticks
+	 */
+	public TickScheduler(String name, int threads, TickHandler _handler) {
+		this.handler = _handler;
+		AtomicInteger count = new AtomicInteger();
+		this.executor = new ScheduledThreadPoolExecutor(threads, r -> {
+			Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		// stopped games don't stay in the queue until their next tick
+		this.executor.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Starts ticking a game or changes its rate
+	 *
+	 * @param gameID         ID of the game
+	 * @param ticksPerSecond Ticks per second, 0 stops the game
+	 */
+	public void start(String gameID, int ticksPerSecond) {
+		if (gameID == null) return;
+		if (ticksPerSecond <= 0) {
+			this.stop(gameID);
+			return;
+		}
+		Ticker ticker = new Ticker(gameID, TimeUnit.SECONDS.toNanos(1) / ticksPerSecond);
+		Ticker previous = this.tickers.put(gameID, ticker);
+		if (previous != null) previous.cancel();
+		ticker.schedule();
+	}
+
+	/**
+	 * Starts ticking a game unless it already ticks
+	 *
+	 * @param gameID         ID of the game
+	 * @param ticksPerSecond Ticks per second
+	 */
+	public void startIfAbsent(String gameID, int ticksPerSecond) {
+		if (gameID == null || ticksPerSecond <= 0) return;
+		Ticker ticker = new Ticker(gameID, TimeUnit.SECONDS.toNanos(1) / ticksPerSecond);
+		if (this.tickers.putIfAbsent(gameID, ticker) == null) ticker.schedule();
+	}
+
+	/**
+	 * Stops ticking a game. A tick that is already running completes.
+	 *
+	 * @param gameID ID of the game
+	 */
+	public void stop(String gameID) {
+		if (gameID == null) return;
+		Ticker ticker = this.tickers.remove(gameID);
+		if (ticker != null) ticker.cancel();
+	}
+
+	/**
+	 * Checks if a game ticks
+	 *
+	 * @param gameID ID of the game
+	 * @return if the game ticks
+	 */
+	public boolean isTicking(String gameID) {
+		return gameID != null && this.tickers.containsKey(gameID);
+	}
+
+	/**
+	 * Number of ticking games
+	 *
+	 * @return number of games
+	 */
+	public int size() {
+		return this.tickers.size();
+	}
+
+	/**
+	 * Ticks skipped by all games since the scheduler was created
+	 *
+	 * @return skipped ticks
+	 */
+	public long getOverruns() {
+		return this.overruns.sum();
+	}
+
+	/**
+	 * Ticks skipped by a game since it started ticking
+	 *
+	 * @param gameID ID of the game
+	 * @return skipped ticks, 0 if the game does not tick
+	 */
+	public long getOverruns(String gameID) {
+		Ticker ticker = gameID == null ? null : this.tickers.get(gameID);
+		return ticker == null ? 0 : ticker.overruns;
+	}
+
+	/**
+	 * Stops all games and the threads
+	 */
+	public void shutdown() {
+		this.tickers.clear();
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * Ticks one game. Only one tick of a ticker is scheduled at a time, so its
+	 * fields are only used by one thread at a time.
+	 */
+	private final class Ticker implements Runnable {
+		private final String gameID;
+
+		/**
+		 * Nanoseconds between two ticks
+		 */
+		private final long period;
+
+		/**
+		 * Planned time of the next tick
+		 */
+		private long next;
+
+		/**
+		 * Time the previous tick started at
+		 */
+		private long last;
+
+		/**
+		 * Ticks skipped by this game
+		 */
+		private volatile long overruns = 0;
+
+		/**
+		 * If the game stopped ticking
+		 */
+		private volatile boolean cancelled = false;
+
+		/**
+		 * Scheduled next tick
+		 */
+		private volatile ScheduledFuture<?> future = null;
+
+		private Ticker(String _gameID, long _period) {
+			this.gameID = _gameID;
+			this.period = _period;
+			this.last = System.nanoTime();
+			this.next = this.last + this.period;
+		}
+
+		/**
+		 * Schedules the next tick
+		 */
+		private void schedule() {
+			if (this.cancelled) return;
+			try {
+				this.future = TickScheduler.this.executor.schedule(this, this.next - System.nanoTime(), TimeUnit.NANOSECONDS);
+			} catch (RejectedExecutionException e) {
+				// the scheduler was shut down
+				return;
+			}
+			// stopped while scheduling
+			if (this.cancelled) this.future.cancel(false);
+		}
+
+		/**
+		 * Stops the ticker
+		 */
+		private void cancel() {
+			this.cancelled = true;
+			ScheduledFuture<?> scheduled = this.future;
+			if (scheduled != null) scheduled.cancel(false);
+		}
+
+		@Override
+		public void run() {
+			if (this.cancelled) return;
+			long start = System.nanoTime();
+			long delta = start - this.last;
+			this.last = start;
+			try {
+				TickScheduler.this.handler.onTick(this.gameID, delta);
+			} catch (Throwable e) {
+				LOG.error("Tick of game " + this.gameID + " failed", e);
+			}
+
+			// plan from the previous plan, so late ticks don't shift the rate
+			this.next += this.period;
+			long late = System.nanoTime() - this.next;
+			if (late >= this.period) {
+				// skip whole ticks that were missed instead of running them back to back
+				long missed = late / this.period;
+				this.next += missed * this.period;
+				this.overruns += missed;
+				TickScheduler.this.overruns.add(missed);
+				LOG.debug(() -> "Game " + this.gameID + " skipped " + missed + " ticks");
+			}
+			this.schedule();
+		}
+	}
+}
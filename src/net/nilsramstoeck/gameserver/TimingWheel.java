@@ -0,0 +1,246 @@
+package net.nilsramstoeck.gameserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hierarchical timing wheel that tracks a deadline per key. Each level has 64
+ * slots, a slot of level 0 spans one tick and a slot of every further level
+ * spans a whole turn of the level below. Timers are moved down a level when
+ * their slot comes up and expire from level 0, so every timer costs constant
+ * time per level.
+ * <p>
+ * Extending a deadline only writes the new deadline into the timer. The timer
+ * stays in its slot and is moved to the new deadline when the slot comes up,
+ * so frequent refreshes don't touch the wheel at all.
+ *
+ * @author Nils Ramstoeck
+ *
+ * @param <K> Type of the keys
+ */
+public class TimingWheel<K> {
+
+	/**
+	 * Bits of the slot index of a level
+	 */
+	private static final int SLOT_BITS = 6;
+
+	/**
+	 * Slots per level
+	 */
+	private static final int SLOTS = 1 << SLOT_BITS;
+
+	/**
+	 * Mask of the slot index of a level
+	 */
+	private static final int SLOT_MASK = SLOTS - 1;
+
+	/**
+	 * Number of levels. Deadlines beyond 64^4 ticks are moved again once the
+	 * last level comes around
+	 */
+	private static final int LEVELS = 4;
+
+	/**
+	 * Length of a tick in milliseconds
+	 */
+	private final long tickMillis;
+
+	/**
+	 * Timers by their key
+	 */
+	private final ConcurrentHashMap<K, Timer<K>> timers = new ConcurrentHashMap<K, Timer<K>>();
+
+	/**
+	 * Timers of every slot of every level, guarded by this
+	 */
+	private final ArrayList<ArrayList<Timer<K>>> slots;
+
+	/**
+	 * Last processed tick, guarded by this
+	 */
+	private long currentTick;
+
+	/**
+	 * Creates a wheel that starts at the current time
+	 *
+	 * @param _tickMillis Length of a tick in milliseconds
+	 */
+	public TimingWheel(long _tickMillis) {
+		this.tickMillis = _tickMillis;
+		this.slots = new ArrayList<ArrayList<Timer<K>>>(LEVELS * SLOTS);
+		for (int i = 0; i < LEVELS * SLOTS; i++) {
+			this.slots.add(new ArrayList<Timer<K>>());
+		}
+		this.currentTick = System.currentTimeMillis() / this.tickMillis;
+	}
+
+	/**
+	 * Sets the deadline of a key. Extending the deadline of a tracked key does
+	 * not lock.
+	 *
+	 * @param key      Key
+	 * @param deadline Time in milliseconds the key expires at
+	 */
+	public void schedule(K key, long deadline) {
+		long tick = (deadline + this.tickMillis - 1) / this.tickMillis;
+		Timer<K> timer = this.timers.get(key);
+		if (timer != null && tick >= timer.slotTick) {
+			timer.deadline = tick;
+			// the timer was not expiring while the deadline was written
+			if (!timer.expiring) return;
+		}
+		synchronized (this) {
+			timer = this.timers.get(key);
+			if (timer == null) {
+				timer = new Timer<K>(key, tick);
+				this.timers.put(key, timer);
+				this.insert(timer);
+			} else if (tick < timer.slotTick) {
+				// earlier deadlines need a new slot
+				timer.cancelled = true;
+				Timer<K> replacement = new Timer<K>(key, tick);
+				this.timers.put(key, replacement);
+				this.insert(replacement);
+			} else {
+				timer.deadline = tick;
+			}
+		}
+	}
+
+	/**
+	 * Stops tracking a key
+	 *
+	 * @param key Key
+	 */
+	public synchronized void cancel(K key) {
+		Timer<K> timer = this.timers.remove(key);
+		// the timer is dropped when its slot comes up
+		if (timer != null) timer.cancelled = true;
+	}
+
+	/**
+	 * Number of tracked keys
+	 *
+	 * @return number of keys
+	 */
+	public int size() {
+		return this.timers.size();
+	}
+
+	/**
+	 * Processes all ticks up to a time and removes the keys that expired
+	 *
+	 * @param now Current time in milliseconds
+	 * @return expired keys
+	 */
+	public synchronized List<K> advance(long now) {
+		ArrayList<K> expired = new ArrayList<K>();
+		long target = now / this.tickMillis;
+		while (this.currentTick < target) {
+			this.currentTick++;
+			// move higher levels down first, their timers may end up in this tick
+			for (int level = LEVELS - 1; level > 0; level--) {
+				if ((this.currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+					this.process(this.take(level, this.currentTick), expired);
+				}
+			}
+			this.process(this.take(0, this.currentTick), expired);
+		}
+		return expired;
+	}
+
+	/**
+	 * Removes all timers of the slot of a tick
+	 *
+	 * @param level Level of the slot
+	 * @param tick  Tick
+	 * @return timers of the slot
+	 */
+	private ArrayList<Timer<K>> take(int level, long tick) {
+		int index = level * SLOTS + (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+		ArrayList<Timer<K>> slot = this.slots.get(index);
+		if (slot.isEmpty()) return slot;
+		this.slots.set(index, new ArrayList<Timer<K>>());
+		return slot;
+	}
+
+	/**
+	 * Expires due timers and moves all others to the slot of their deadline
+	 *
+	 * @param slot    Timers to process
+	 * @param expired Receives the expired keys
+	 */
+	private void process(List<Timer<K>> slot, List<K> expired) {
+		for (Timer<K> timer : slot) {
+			if (timer.cancelled) continue;
+			if (timer.deadline <= this.currentTick) {
+				// announce the expiry before reading the deadline again, so a
+				// concurrent refresh either is seen here or sees the flag
+				timer.expiring = true;
+				if (timer.deadline <= this.currentTick) {
+					this.timers.remove(timer.key, timer);
+					expired.add(timer.key);
+					continue;
+				}
+				timer.expiring = false;
+			}
+			this.insert(timer);
+		}
+	}
+
+	/**
+	 * Puts a timer into the slot of its deadline
+	 *
+	 * @param timer Timer
+	 */
+	private void insert(Timer<K> timer) {
+		long deadline = Math.max(timer.deadline, this.currentTick + 1);
+		long delta = deadline - this.currentTick;
+		int level = 0;
+		while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+			level++;
+		}
+		if (delta >= 1L << (SLOT_BITS * LEVELS)) {
+			// beyond the last level, come back once it went around
+			deadline = this.currentTick + (1L << (SLOT_BITS * LEVELS)) - 1;
+		}
+		timer.slotTick = deadline;
+		this.slots.get(level * SLOTS + (int) ((deadline >>> (SLOT_BITS * level)) & SLOT_MASK)).add(timer);
+	}
+
+	/**
+	 * Deadline of a key
+	 *
+	 * @param <K> Type of the key
+	 */
+	private static final class Timer<K> {
+		private final K key;
+
+		/**
+		 * Tick the key expires at
+		 */
+		private volatile long deadline;
+
+		/**
+		 * Tick of the slot the timer is in, guarded by the wheel
+		 */
+		private volatile long slotTick;
+
+		/**
+		 * If the timer was removed
+		 */
+		private volatile boolean cancelled = false;
+
+		/**
+		 * If the timer is about to expire
+		 */
+		private volatile boolean expiring = false;
+
+		private Timer(K _key, long _deadline) {
+			this.key = _key;
+			this.deadline = _deadline;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package net.nilsramstoeck.gameserver;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import net.nilsramstoeck.gameserver.log.Logger;
+
+/**
+ * Creates virtual threads on runtimes that have them. The server is built for
+ * older Java versions, so the builder API is looked up by reflection.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class VirtualThreads {
+
+	/**
+	 * Logger of the lookup
+	 */
+	private static final Logger LOG = Logger.getLogger(VirtualThreads.class);
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Creates a factory of virtual threads named prefix0, prefix1, ...
+	 *
+	 * @param prefix Prefix of the thread names
+	 * @return ThreadFactory or null if the runtime has no virtual threads
+	 */
+	public static ThreadFactory factory(String prefix) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			// the builder classes are internal, call through the public interface
+			Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			Method name = builderType.getMethod("name", String.class, long.class);
+			builder = name.invoke(builder, prefix, 0L);
+			return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOG.debug(() -> "Virtual threads are not available: " + e);
+			return null;
+		}
+	}
+}
@@ -1,16 +1,29 @@
 
 package net.nilsramstoeck.gameserver.client;
 
+import java.util.Collection;
+
 import org.java_websocket.WebSocket;
+import org.java_websocket.framing.Framedata;
+
+import net.nilsramstoeck.gameserver.client.OutboundQueue.OverflowPolicy;
+import net.nilsramstoeck.gameserver.log.Logger;
 import net.nilsramstoeck.gameserver.message.Message;
-import net.nilsramstoeck.util.debug.Debugger;
+import net.nilsramstoeck.gameserver.message.MessageCodec;
 
 /**
- * A Client that is connected to a GameServer
+ * A Client that is connected to a GameServer. Fields are set by the decoder,
+ * database and handler threads of the server, so they are volatile and the
+ * authentication level only changes under the lock of the client
  * @author Nils Ramstoeck
  *
  */
 public class Client {
+
+	/**
+	 * Logger of all clients
+	 */
+	private static final Logger LOG = Logger.getLogger(Client.class);
 	
 	/**
 	 * Bitmask for root authentication
@@ -45,30 +58,41 @@ public class Client {
 	/**
 	 * WebSocket connection of the client
 	 */
-	private WebSocket socket = null;
+	private final WebSocket socket;
 
 	/**
 	 * Username of the client
 	 */
-	private String username = null;
+	private volatile String username = null;
 
 	/**
 	 * Session ID
 	 */
-	private String sessionID = null;
+	private volatile String sessionID = null;
 	
 	/**
 	 * authentication level
 	 */
-	private int authLevel = 0x00;
+	private volatile int authLevel = 0x00;
 
 	/**
 	 * User ID
 	 */
-	private int userID;
+	private volatile int userID;
+
+	/**
+	 * Codec used to encode messages to the client
+	 */
+	private volatile MessageCodec codec = MessageCodec.JSON;
+
+	/**
+	 * Messages waiting for a slow connection
+	 */
+	private final OutboundQueue outbound;
 
 	public Client(WebSocket _socket) {
 		this.socket = _socket;
+		this.outbound = new OutboundQueue(_socket);
 	}
 
 	/**
@@ -77,8 +101,86 @@ public class Client {
 	 * @param message Message to be send
 	 */
 	public void send(Message message) {
-		Debugger.debugln("Message to " + this.username + ": " + message);
-		this.socket.send(message.toString());
+		this.send(message, null);
+	}
+
+	/**
+	 * Sends a message that a newer message with the same key makes obsolete,
+	 * like a state update. Waiting messages with the same key are replaced if the
+	 * client uses {@link OverflowPolicy#COALESCE}
+	 * 
+	 * @param message Message to be send
+	 * @param key     Key of the message or null
+	 */
+	public void send(Message message, String key) {
+		if (LOG.isDebugEnabled()) LOG.debug("Message to " + this.username + ": " + message);
+		this.outbound.send(this.codec.encode(message, this.socket.getDraft()), key);
+	}
+
+	/**
+	 * Sends already encoded frames, used to share one encoding between many
+	 * clients
+	 * 
+	 * @param frames Frames to be send
+	 */
+	public void sendFrames(Collection<Framedata> frames) {
+		this.outbound.send(frames, null);
+	}
+
+	/**
+	 * Sends already encoded frames with a key, see {@link #send(Message, String)}
+	 * 
+	 * @param frames Frames to be send
+	 * @param key    Key of the message or null
+	 */
+	public void sendFrames(Collection<Framedata> frames, String key) {
+		this.outbound.send(frames, key);
+	}
+
+	/**
+	 * Outbound queue getter
+	 * 
+	 * @return {@link #outbound}
+	 */
+	public OutboundQueue getOutbound() {
+		return this.outbound;
+	}
+
+	/**
+	 * Number of messages waiting for the client
+	 * 
+	 * @return queue depth
+	 */
+	public int getQueueDepth() {
+		return this.outbound.getDepth();
+	}
+
+	/**
+	 * Overflow policy setter
+	 * 
+	 * @param _policy What happens to messages when the queue of the client is
+	 *                full
+	 */
+	public void setOverflowPolicy(OverflowPolicy _policy) {
+		this.outbound.setPolicy(_policy);
+	}
+
+	/**
+	 * Codec getter
+	 * 
+	 * @return {@link #codec}
+	 */
+	public MessageCodec getCodec() {
+		return this.codec;
+	}
+
+	/**
+	 * Codec setter
+	 * 
+	 * @param _codec Codec negotiated for the connection
+	 */
+	public void setCodec(MessageCodec _codec) {
+		this.codec = _codec;
 	}
 
 	/**
@@ -120,18 +222,27 @@ public class Client {
 	 * Sets the authLevel of a client
 	 * @param authMasks Authentication masks to be set
 	 */
-	public void setAuthLevel(int... authMasks) {
-		this.authLevel = 0x00;
+	public synchronized void setAuthLevel(int... authMasks) {
+		int level = 0x00;
 		for(int m : authMasks) {
-			this.authLevel |= m;
+			level |= m;
 		}
+		this.authLevel = level;
+	}
+	
+	/**
+	 * Adds bits to the authLevel of a client
+	 * @param authMask Authentication mask to be added
+	 */
+	public synchronized void grantAuthLevel(int authMask) {
+		this.authLevel |= authMask;
 	}
 	
 	/**
 	 * Sets the authentication bit of {@link #authLevel}
 	 */
 	public void authenticate() {
-		this.authLevel |= Client.AUTHENTICATED;
+		this.grantAuthLevel(Client.AUTHENTICATED);
 	}
 	
 	/**
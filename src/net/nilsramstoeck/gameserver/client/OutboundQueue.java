@@ -0,0 +1,370 @@
+package net.nilsramstoeck.gameserver.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.FramedataImpl1;
+
+import net.nilsramstoeck.gameserver.log.Logger;
+
+/**
+ * Bounded queue of the messages to one client. Messages go straight to the
+ * socket while its write buffer is below the high watermark. Once it is above,
+ * messages wait here until the buffer drained below the low watermark, and a
+ * full queue is handled by the {@link OverflowPolicy} of the client, so a slow
+ * client can't buffer an unbounded amount of frames.
+ * <p>
+ * Only state updates, messages sent with a key, are ever dropped or replaced.
+ * Messages without a key, like responses and errors, are always delivered or
+ * the client is disconnected.
+ * <p>
+ * Watermarks count the buffers the WebSocket library has not written yet, one
+ * per frame, read from the public outQueue of WebSocketImpl. Other sockets only
+ * tell if anything is buffered, for them the frames written since the buffer
+ * was last seen empty are counted instead. That overestimates the buffer, so
+ * their messages only drain once the buffer is empty, as if the low watermark
+ * was 0.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class OutboundQueue {
+
+	/**
+	 * Logger of all queues
+	 */
+	private static final Logger LOG = Logger.getLogger(OutboundQueue.class);
+
+	/**
+	 * What happens to a message that does not fit into a full queue
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * The oldest waiting message with a key is dropped
+		 */
+		DROP_OLDEST,
+
+		/**
+		 * A message with a key replaces the waiting message with the same key at
+		 * any queue size, otherwise the oldest waiting message with a key is
+		 * dropped
+		 */
+		COALESCE,
+
+		/**
+		 * The client is disconnected with {@link OutboundQueue#closeCode}. This also
+		 * happens with the other policies if only messages without a key wait
+		 */
+		DISCONNECT
+	}
+
+	/**
+	 * Maximum number of waiting messages of a client
+	 */
+	private static volatile int capacity = 256;
+
+	/**
+	 * Buffered frames above which messages wait in the queue
+	 */
+	private static volatile int highWatermark = 64;
+
+	/**
+	 * Buffered frames below which waiting messages are sent again
+	 */
+	private static volatile int lowWatermark = 16;
+
+	/**
+	 * Policy of new clients
+	 */
+	private static volatile OverflowPolicy defaultPolicy = OverflowPolicy.DROP_OLDEST;
+
+	/**
+	 * Close code of clients disconnected by {@link OverflowPolicy#DISCONNECT},
+	 * 1013 is "try again later"
+	 */
+	private static volatile int closeCode = 1013;
+
+	/**
+	 * Queues with waiting messages
+	 */
+	private static final Set<OutboundQueue> backlogged = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Socket of the client
+	 */
+	private final WebSocket socket;
+
+	/**
+	 * Waiting messages, guarded by this
+	 */
+	private final ArrayDeque<Pending> queue = new ArrayDeque<Pending>();
+
+	/**
+	 * Overflow policy of the client
+	 */
+	private volatile OverflowPolicy policy = OutboundQueue.defaultPolicy;
+
+	/**
+	 * Number of waiting messages
+	 */
+	private volatile int depth = 0;
+
+	/**
+	 * Number of dropped messages
+	 */
+	private volatile long dropped = 0;
+
+	/**
+	 * If the client was disconnected for being too slow, guarded by this
+	 */
+	private boolean closed = false;
+
+	/**
+	 * Frames written since the buffer of a socket that can't count its buffers
+	 * was last seen empty, guarded by this
+	 */
+	private int unflushed = 0;
+
+	/**
+	 * Creates the queue of a client
+	 *
+	 * @param _socket Socket of the client
+	 */
+	public OutboundQueue(WebSocket _socket) {
+		this.socket = _socket;
+	}
+
+	/**
+	 * Reads the limits of all queues from the server properties
+	 *
+	 * @param properties Server properties
+	 */
+	public static void configure(Properties properties) {
+		OutboundQueue.capacity = Integer.parseInt(properties.getProperty("server.outbound.capacity", "256"));
+		OutboundQueue.highWatermark = Integer.parseInt(properties.getProperty("server.outbound.high_watermark", "64"));
+		OutboundQueue.lowWatermark = Math.min(OutboundQueue.highWatermark, Integer.parseInt(properties.getProperty("server.outbound.low_watermark", "16")));
+		OutboundQueue.defaultPolicy = OverflowPolicy.valueOf(properties.getProperty("server.outbound.policy", "drop_oldest").toUpperCase());
+		OutboundQueue.closeCode = Integer.parseInt(properties.getProperty("server.outbound.close_code", "1013"));
+	}
+
+	/**
+	 * Sends the waiting messages of all clients whose buffer drained
+	 */
+	public static void flushAll() {
+		for (OutboundQueue queue : OutboundQueue.backlogged) {
+			queue.flush();
+		}
+	}
+
+	/**
+	 * Number of clients with waiting messages
+	 *
+	 * @return number of clients
+	 */
+	public static int getBackloggedCount() {
+		return OutboundQueue.backlogged.size();
+	}
+
+	/**
+	 * Sends a message or queues it if the client is behind
+	 *
+	 * @param frames Frames of the message
+	 * @param key    Key for {@link OverflowPolicy#COALESCE} or null
+	 */
+	public void send(Collection<Framedata> frames, String key) {
+		synchronized (this) {
+			if (this.closed) return;
+			this.drain();
+			if (this.queue.isEmpty() && this.buffered() < OutboundQueue.highWatermark) {
+				this.write(frames);
+				return;
+			}
+			if (this.enqueue(frames, key)) {
+				OutboundQueue.backlogged.add(this);
+				return;
+			}
+			// too slow, stop sending
+			this.closed = true;
+			this.queue.clear();
+			this.depth = 0;
+			OutboundQueue.backlogged.remove(this);
+		}
+		LOG.warn("Disconnecting slow client " + this.socket.getRemoteSocketAddress());
+		this.socket.close(OutboundQueue.closeCode, "Client too slow");
+	}
+
+	/**
+	 * Sends waiting messages once the buffer of the socket drained
+	 */
+	public synchronized void flush() {
+		if (this.socket.isClosing() || this.socket.isClosed()) {
+			// the client is gone
+			this.queue.clear();
+			this.depth = 0;
+		} else {
+			this.drain();
+		}
+		if (this.queue.isEmpty()) OutboundQueue.backlogged.remove(this);
+	}
+
+	/**
+	 * Sends waiting messages while the buffer is below the high watermark, once
+	 * it drained below the low watermark. Caller holds the lock
+	 */
+	private void drain() {
+		if (this.queue.isEmpty() || this.buffered() > OutboundQueue.lowWatermark) return;
+		while (!this.queue.isEmpty() && this.buffered() < OutboundQueue.highWatermark) {
+			this.write(this.queue.pollFirst().frames);
+		}
+		this.depth = this.queue.size();
+	}
+
+	/**
+	 * Adds a message to the queue and applies the overflow policy. Caller holds
+	 * the lock
+	 *
+	 * @param frames Frames of the message
+	 * @param key    Key for {@link OverflowPolicy#COALESCE} or null
+	 * @return if the message was queued, false if the client has to be
+	 *         disconnected
+	 */
+	private boolean enqueue(Collection<Framedata> frames, String key) {
+		OverflowPolicy current = this.policy;
+		if (current == OverflowPolicy.COALESCE && key != null) {
+			// the newer message replaces the waiting one, it moves to the end to
+			// stay behind messages that were sent in between
+			if (this.removeFirst(key)) this.dropped++;
+		}
+		if (this.queue.size() >= OutboundQueue.capacity) {
+			if (current == OverflowPolicy.DISCONNECT || !this.removeFirst(null)) return false;
+			this.dropped++;
+		}
+		this.queue.addLast(new Pending(frames, key));
+		this.depth = this.queue.size();
+		return true;
+	}
+
+	/**
+	 * Removes the oldest waiting message with a key. Caller holds the lock
+	 *
+	 * @param key Key of the message, null for any key
+	 * @return if a message was removed
+	 */
+	private boolean removeFirst(String key) {
+		for (Iterator<Pending> it = this.queue.iterator(); it.hasNext();) {
+			Pending pending = it.next();
+			if (pending.key != null && (key == null || key.equals(pending.key))) {
+				it.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Hands frames to the socket. Broadcasts share their frames between clients
+	 * and the draft moves the position of a payload while framing it, so every
+	 * write frames its own view of the payloads. Caller holds the lock
+	 *
+	 * @param frames Frames to write
+	 */
+	private void write(Collection<Framedata> frames) {
+		List<Framedata> copies = new ArrayList<Framedata>(frames.size());
+		for (Framedata frame : frames) {
+			FramedataImpl1 copy = FramedataImpl1.get(frame.getOpcode());
+			copy.setPayload(frame.getPayloadData().duplicate());
+			copy.setFin(frame.isFin());
+			copy.setRSV1(frame.isRSV1());
+			copy.setRSV2(frame.isRSV2());
+			copy.setRSV3(frame.isRSV3());
+			copy.setTransferemasked(frame.getTransfereMasked());
+			copies.add(copy);
+		}
+		try {
+			this.socket.sendFrame(copies);
+			this.unflushed += copies.size();
+		} catch (WebsocketNotConnectedException e) {
+			// client disconnected while sending
+		}
+	}
+
+	/**
+	 * Number of buffers the socket has not written yet. Caller holds the lock
+	 *
+	 * @return buffered frames
+	 */
+	private int buffered() {
+		if (this.socket instanceof WebSocketImpl) return ((WebSocketImpl) this.socket).outQueue.size();
+		// the socket can only tell if anything is buffered, everything written since it was empty may be
+		if (!this.socket.hasBufferedData()) this.unflushed = 0;
+		return this.unflushed;
+	}
+
+	/**
+	 * Overflow policy setter
+	 *
+	 * @param _policy Policy of this client
+	 */
+	public void setPolicy(OverflowPolicy _policy) {
+		this.policy = _policy;
+	}
+
+	/**
+	 * Overflow policy getter
+	 *
+	 * @return {@link #policy}
+	 */
+	public OverflowPolicy getPolicy() {
+		return this.policy;
+	}
+
+	/**
+	 * Number of waiting messages
+	 *
+	 * @return {@link #depth}
+	 */
+	public int getDepth() {
+		return this.depth;
+	}
+
+	/**
+	 * Number of frames the socket has not written yet
+	 *
+	 * @return buffered frames
+	 */
+	public synchronized int getBufferedFrames() {
+		return this.buffered();
+	}
+
+	/**
+	 * Number of messages that were dropped or replaced
+	 *
+	 * @return {@link #dropped}
+	 */
+	public long getDropped() {
+		return this.dropped;
+	}
+
+	/**
+	 * A waiting message
+	 */
+	private static final class Pending {
+		private final Collection<Framedata> frames;
+		private final String key;
+
+		private Pending(Collection<Framedata> _frames, String _key) {
+			this.frames = _frames;
+			this.key = _key;
+		}
+	}
+}
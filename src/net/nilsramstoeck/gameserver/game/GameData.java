@@ -1,17 +1,23 @@
 package net.nilsramstoeck.gameserver.game;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import net.nilsramstoeck.gameserver.GameServer;
+import net.nilsramstoeck.gameserver.GameServerException;
 import net.nilsramstoeck.gameserver.client.Client;
+import net.nilsramstoeck.gameserver.log.Logger;
+import net.nilsramstoeck.gameserver.storage.Storage;
+import net.nilsramstoeck.gameserver.storage.Storage.Owner;
+import net.nilsramstoeck.gameserver.storage.StorageProvider;
 
 /**
- * Interface between the GameServer and in the SQL database stored Game and
- * Player data
+ * Interface between the GameServer and in the {@link Storage} stored Game and
+ * Player data. Values are cached per game and player and written back in
+ * batches.
  * 
  * @author Nils Ramstoeck
  *
@@ -19,24 +25,24 @@ import net.nilsramstoeck.gameserver.client.Client;
 public class GameData {
 
 	/**
-	 * Connection to the database
+	 * Logger of the game data
 	 */
-	static private Connection conn = null;
+	private static final Logger LOG = Logger.getLogger(GameData.class);
 
 	/**
-	 * Data identity
+	 * Storage of the values
 	 */
-	private String dataID;
+	static private Storage storage = null;
 
 	/**
-	 * Data identity field
+	 * Data identity
 	 */
-	private String IDField;
+	private String dataID;
 
 	/**
-	 * Data table
+	 * Owner of the data
 	 */
-	private String table;
+	private Owner owner;
 
 	/**
 	 * Connects to database
@@ -44,9 +50,8 @@ public class GameData {
 	 * @param _gameId ID off the game to get the data from
 	 */
 	public GameData(String _gameId) {
-		this.table = "game_data";
+		this.owner = Owner.GAME;
 		this.dataID = _gameId;
-		this.IDField = "game_id";
 		GameData.connect();
 	}
 
@@ -56,37 +61,50 @@ public class GameData {
 	 * @param client Client to get the player data from
 	 */
 	public GameData(Client client) {
-		this.table = "player_data";
+		this.owner = Owner.PLAYER;
 		this.dataID = Integer.toString(client.getUserID());
-		this.IDField = "user_id";
 		GameData.connect();
 	}
 
 	/**
-	 * Connects to the GameData database if not already connected
+	 * Gets the storage of the server and starts the flush thread if not already
+	 * done
 	 */
-	static private void connect() {
+	static synchronized void connect() {
+		if (storage != null) return;
 		try {
-			if (conn != null && !conn.isClosed()) return;
-		} catch (SQLException e1) {
-			e1.printStackTrace();
-		}
-		// read properties from the config file
-		String dbUser = GameServer.properties.getProperty("sql.user");
-		String dbPass = GameServer.properties.getProperty("sql.pass", "");
-		String dbUrl = GameServer.properties.getProperty("sql.url");
-		String dbPort = GameServer.properties.getProperty("sql.port");
-		String gamedb = GameServer.properties.getProperty("sql.database");
-
-		// connect to database
-		String fullUrl = "jdbc:MySQL://" + dbUrl + ":" + dbPort;
-		try {
-			conn = DriverManager.getConnection(fullUrl, dbUser, dbPass);
-			conn.setCatalog(gamedb);
-		} catch (SQLException e) {
-			e.printStackTrace();
+			storage = StorageProvider.getStorage();
+		} catch (GameServerException e) {
+			LOG.error("Could not connect to the storage", e);
+			return;
 		}
 
+		long interval = Long.parseLong(GameServer.properties.getProperty("sql.game_data.flush_interval", "5")) * 1000;
+		Thread flushThread = new Thread("GameData-Flush") {
+			@Override
+			public void run() {
+				while (!this.isInterrupted()) {
+					try {
+						Thread.sleep(interval);
+					} catch (InterruptedException e) {
+						break;
+					}
+					GameData.flushAll();
+				}
+			}
+		};
+		flushThread.setDaemon(true);
+		flushThread.start();
+		// write pending values when the server shuts down
+		Runtime.getRuntime().addShutdownHook(new Thread(GameData::flushAll, "GameData-Shutdown"));
+	}
+
+	/**
+	 * Storage getter
+	 * @return {@link #storage}
+	 */
+	static Storage getStorage() {
+		return storage;
 	}
 
 	/**
@@ -111,75 +129,138 @@ public class GameData {
 	}
 
 	/**
-	 * Overall method to enter a value into the database
+	 * Overall method to enter a value. The value is cached and written to the
+	 * database with the next flush.
 	 * @param key Name of the Value
 	 * @param value value to save
 	 * @return if the value could be saved
 	 */
 	protected boolean saveValue(String key, String value) {
-		if (!isConnected()) return false;
-		String query = "INSERT INTO " + this.table + " SET " + this.IDField + "=?, name=?, value=? ON DUPLICATE KEY UPDATE value=?";
-		try {
-
-			PreparedStatement stmt = null;
-			// build prepared statement
-			stmt = conn.prepareStatement(query);
-
-			// set parameters
-			stmt.setString(1, this.dataID);
-			stmt.setString(2, key);
-			stmt.setString(3, value);
-			stmt.setString(4, value);
-
-//			System.out.println(stmt.toString());
-
-			// execute query
-			stmt.execute();
-			return true;
-		} catch (SQLException e) {
-			e.printStackTrace();
-			return false;
-		}
+		if (!isConnected() || value == null) return false;
+		return GameDataCache.write(storage, this.owner, this.dataID, cache -> cache.put(key, value));
 	}
 
 
 	/**
-	 * Overall method to retrieve a value from the database
+	 * Overall method to retrieve a value. All values are loaded from the database
+	 * on first access and served from memory afterwards.
 	 * @param key Name of the value
 	 * @return Value of the key
 	 */
 	protected String getValue(String key) {
 		if (!isConnected()) return null;
-		String query = "SELECT value FROM " + this.table + " WHERE " + this.IDField + "=? AND name=?";
-		try {
+		return this.getCache().get(key);
+	}
 
-			PreparedStatement stmt = null;
-			// build prepared statement
-			stmt = conn.prepareStatement(query);
+	/**
+	 * Loads all values of this game or player with one query
+	 * @return copy of all values or null if they could not be loaded
+	 */
+	public Map<String, String> loadAll() {
+		if (!isConnected()) return null;
+		return this.getCache().getAll();
+	}
 
-			// set parameters
-			stmt.setString(1, this.dataID);
-			stmt.setString(2, key);
+	/**
+	 * Saves many values at once. The values are written in the same transaction
+	 * with the next flush.
+	 * @param values Values by their name
+	 * @return if the values could be saved
+	 */
+	public boolean saveAll(Map<String, String> values) {
+		if (!isConnected() || values.containsValue(null)) return false;
+		return GameDataCache.write(storage, this.owner, this.dataID, cache -> cache.apply(values, Collections.emptyList()));
+	}
 
-//			System.out.println(stmt.toString());
+	/**
+	 * Deletes values. The values are deleted in the same transaction with the
+	 * next flush.
+	 * @param keys Names of the values
+	 * @return if the values could be deleted
+	 */
+	public boolean deleteKeys(String... keys) {
+		if (!isConnected()) return false;
+		List<String> deletes = Arrays.asList(keys);
+		return GameDataCache.write(storage, this.owner, this.dataID, cache -> cache.apply(Collections.emptyMap(), deletes));
+	}
 
-			// execute query and get result
-			try {
-				stmt.execute();
-				ResultSet result = stmt.getResultSet();
-				result.next();
+	/**
+	 * Atomically updates related values. The updater gets a copy of all values,
+	 * its changes are applied together and written in the same transaction.
+	 * Entries the updater removes are deleted. Other writes to this game or
+	 * player wait while the updater runs.
+	 * @param updater Changes the values
+	 * @return if the values could be updated
+	 */
+	public boolean update(Consumer<Map<String, String>> updater) {
+		if (!isConnected()) return false;
+		try {
+			return GameDataCache.write(storage, this.owner, this.dataID, cache -> cache.update(updater));
+		} catch (IllegalStateException e) {
+			// values could not be loaded
+			return false;
+		}
+	}
 
-				// return value
-				return result.getString("value");
+	/**
+	 * Writes all changed values to the database
+	 * @return if all values could be written
+	 */
+	public boolean flush() {
+		if (!isConnected()) return false;
+		GameDataCache cache = GameDataCache.find(this.owner, this.dataID);
+		return cache == null || cache.flush();
+	}
 
-			} catch (Exception e) {
-				return null;
-			}
+	/**
+	 * Gets the cache of this game or player
+	 * @return Cache
+	 */
+	private GameDataCache getCache() {
+		return GameDataCache.get(storage, this.owner, this.dataID);
+	}
 
-		} catch (SQLException e) {
-			e.printStackTrace();
-			return null;
-		}
+	/**
+	 * Writes all changed values and states of all games and players to the
+	 * database
+	 * @return if all values could be written
+	 */
+	public static boolean flushAll() {
+		boolean result = GameDataCache.flushAll();
+		return GameState.saveAll() && result;
+	}
+
+	/**
+	 * Writes the changed values and state of a game and removes them from memory
+	 * @param gameID ID of the game
+	 * @return if all values could be written
+	 */
+	public static boolean closeGame(String gameID) {
+		GameDataCache cache = GameDataCache.find(Owner.GAME, gameID);
+		boolean result = cache == null || cache.close();
+		return GameState.close(Owner.GAME, gameID) && result;
+	}
+
+	/**
+	 * Removes the values and state of a deleted game from memory without writing
+	 * them
+	 * @param gameID ID of the game
+	 */
+	public static void discardGame(String gameID) {
+		GameDataCache cache = GameDataCache.find(Owner.GAME, gameID);
+		if (cache != null) cache.discard();
+		GameState.discard(Owner.GAME, gameID);
+	}
+
+	/**
+	 * Removes the values and state of a player that left its game from memory
+	 * without writing them
+	 * @param userID ID of the player
+	 */
+	public static void discardPlayer(int userID) {
+		GameDataCache cache = GameDataCache.find(Owner.PLAYER, Integer.toString(userID));
+		if (cache != null) cache.discard();
+		GameState.discard(Owner.PLAYER, Integer.toString(userID));
 	}
 
 	/**
@@ -201,16 +282,11 @@ public class GameData {
 	}
 
 	/**
-	 * Check if connection is open
-	 * @return if connection is open
+	 * Check if the storage is set up
+	 * @return if storage is set up
 	 */
 	public boolean isConnected() {
-		try {
-			return !conn.isClosed();
-		} catch (SQLException e) {
-			e.printStackTrace();
-			return false;
-		}
+		return storage != null;
 	}
 
 }
@@ -0,0 +1,447 @@
+package net.nilsramstoeck.gameserver.game;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import net.nilsramstoeck.gameserver.GameServerException;
+import net.nilsramstoeck.gameserver.log.Logger;
+import net.nilsramstoeck.gameserver.storage.Storage;
+import net.nilsramstoeck.gameserver.storage.Storage.Owner;
+
+/**
+ * Write-back cache of the values of one game or player. All values are loaded
+ * on first read, writes only mark the value as dirty. Dirty values are written
+ * in one transaction by the flush thread of {@link GameData}, when the cache
+ * is closed or when {@link #flush()} is called.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+class GameDataCache {
+
+	/**
+	 * Logger of the cache
+	 */
+	private static final Logger LOG = Logger.getLogger(GameDataCache.class);
+
+	/**
+	 * Milliseconds a write waits for a closing cache before it fails
+	 */
+	private static final long CLOSE_TIMEOUT = 5000;
+
+	/**
+	 * All open caches by owner and data ID
+	 */
+	private static final ConcurrentHashMap<String, GameDataCache> caches = new ConcurrentHashMap<String, GameDataCache>();
+
+	/**
+	 * Storage of the values
+	 */
+	private final Storage storage;
+
+	/**
+	 * Owner of the data
+	 */
+	private final Owner owner;
+
+	/**
+	 * Data identity
+	 */
+	private final String dataID;
+
+	/**
+	 * Cached values by their name
+	 */
+	private final ConcurrentHashMap<String, String> values = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Names of values that were changed since the last flush, names without a
+	 * value were deleted. Only changed while holding the lock of the cache
+	 */
+	private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * If all stored values were loaded
+	 */
+	private volatile boolean loaded = false;
+
+	/**
+	 * If the cache was closed, guarded by this
+	 */
+	private boolean closed = false;
+
+	/**
+	 * If the closed cache was removed from the open caches, guarded by this
+	 */
+	private boolean released = false;
+
+	/**
+	 * If the cache could not be written when it was closed. It stays open and
+	 * closes with the next flush that succeeds, guarded by this
+	 */
+	private boolean closing = false;
+
+	/**
+	 * Serializes flushes and loading, so an older value can't overwrite a newer
+	 * one. Must be taken before the lock of the cache itself
+	 */
+	private final Object flushLock = new Object();
+
+	/**
+	 * Creates a cache
+	 *
+	 * @param _storage Storage of the values
+	 * @param _owner   Owner of the data
+	 * @param _dataID  Data identity
+	 */
+	private GameDataCache(Storage _storage, Owner _owner, String _dataID) {
+		this.storage = _storage;
+		this.owner = _owner;
+		this.dataID = _dataID;
+	}
+
+	/**
+	 * Gets the open cache of a game or player and creates it if necessary
+	 *
+	 * @param storage Storage of the values
+	 * @param owner   Owner of the data
+	 * @param dataID  Data identity
+	 * @return Cache
+	 */
+	static GameDataCache get(Storage storage, Owner owner, String dataID) {
+		GameDataCache cache = caches.get(GameDataCache.key(owner, dataID));
+		if (cache != null) return cache;
+		return caches.computeIfAbsent(GameDataCache.key(owner, dataID), k -> new GameDataCache(storage, owner, dataID));
+	}
+
+	/**
+	 * Gets an open cache without creating it
+	 *
+	 * @param owner  Owner of the data
+	 * @param dataID Data identity
+	 * @return Cache or null
+	 */
+	static GameDataCache find(Owner owner, String dataID) {
+		return caches.get(GameDataCache.key(owner, dataID));
+	}
+
+	/**
+	 * Registry key of a cache
+	 *
+	 * @param owner  Owner of the data
+	 * @param dataID Data identity
+	 * @return key
+	 */
+	private static String key(Owner owner, String dataID) {
+		return owner + "/" + dataID;
+	}
+
+	/**
+	 * Writes to the open cache of a game or player. A cache that is being closed
+	 * rejects writes, the write then waits until it is closed and goes to its
+	 * successor.
+	 *
+	 * @param storage Storage of the values
+	 * @param owner   Owner of the data
+	 * @param dataID  Data identity
+	 * @param write   Writes to a cache, false if the cache was closed
+	 * @return if the write was done, false if a closing cache did not close in
+	 *         time
+	 */
+	static boolean write(Storage storage, Owner owner, String dataID, Predicate<GameDataCache> write) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT);
+		while (true) {
+			GameDataCache cache = GameDataCache.get(storage, owner, dataID);
+			if (write.test(cache)) return true;
+			if (!cache.awaitRelease(deadline)) {
+				LOG.error("Dropped write to " + owner + " " + dataID + ", its cache did not close in time");
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Waits until a closed cache was removed from the open caches
+	 *
+	 * @param deadline Time to give up at in nanoseconds
+	 * @return if the cache was removed before the deadline
+	 */
+	private synchronized boolean awaitRelease(long deadline) {
+		// a cache that could not be written is opened again
+		while (this.closed && !this.released) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) return false;
+			try {
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the closed cache from the open caches and wakes up waiting writes.
+	 * Caller holds the lock
+	 */
+	private void release() {
+		caches.remove(GameDataCache.key(this.owner, this.dataID), this);
+		this.released = true;
+		this.notifyAll();
+	}
+
+	/**
+	 * Flushes all open caches
+	 *
+	 * @return if all values could be written
+	 */
+	static boolean flushAll() {
+		boolean result = true;
+		for (GameDataCache cache : caches.values()) {
+			result &= cache.flush();
+		}
+		return result;
+	}
+
+	/**
+	 * Gets a value, all values are loaded on first access
+	 *
+	 * @param name Name of the value
+	 * @return Value or null if it does not exist or could not be loaded
+	 */
+	String get(String name) {
+		if (!this.loaded && !this.load()) return null;
+		return this.values.get(name);
+	}
+
+	/**
+	 * Gets all values
+	 *
+	 * @return copy of all values or null if they could not be loaded
+	 */
+	Map<String, String> getAll() {
+		if (!this.loaded && !this.load()) return null;
+		return new HashMap<String, String>(this.values);
+	}
+
+	/**
+	 * Sets a value and marks it as dirty
+	 *
+	 * @param name  Name of the value
+	 * @param value Value
+	 * @return false if the cache was closed and a new one has to be used
+	 */
+	synchronized boolean put(String name, String value) {
+		if (this.closed) return false;
+		this.values.put(name, value);
+		this.dirty.add(name);
+		return true;
+	}
+
+	/**
+	 * Sets and deletes values. All changes are written in the same transaction.
+	 *
+	 * @param changes Values to set
+	 * @param deletes Names of values to delete
+	 * @return false if the cache was closed and a new one has to be used
+	 */
+	synchronized boolean apply(Map<String, String> changes, Collection<String> deletes) {
+		if (this.closed) return false;
+		this.values.putAll(changes);
+		this.dirty.addAll(changes.keySet());
+		for (String name : deletes) {
+			this.values.remove(name);
+			this.dirty.add(name);
+		}
+		return true;
+	}
+
+	/**
+	 * Lets an updater change a copy of all values and applies the changes
+	 * atomically. The updater runs while writes to the cache are blocked, so it
+	 * should not wait for anything.
+	 *
+	 * @param updater Changes the values, removed entries are deleted
+	 * @return false if the cache was closed and a new one has to be used
+	 * @throws IllegalStateException the values could not be loaded
+	 */
+	boolean update(Consumer<Map<String, String>> updater) {
+		if (!this.loaded && !this.load()) throw new IllegalStateException("Could not load " + this.owner + " values of " + this.dataID);
+		synchronized (this) {
+			if (this.closed) return false;
+			HashMap<String, String> working = new HashMap<String, String>(this.values);
+			updater.accept(working);
+			HashMap<String, String> changes = new HashMap<String, String>();
+			for (Map.Entry<String, String> e : working.entrySet()) {
+				if (e.getValue() == null) continue;
+				if (!e.getValue().equals(this.values.get(e.getKey()))) changes.put(e.getKey(), e.getValue());
+			}
+			ArrayList<String> deletes = new ArrayList<String>();
+			for (String name : this.values.keySet()) {
+				if (working.get(name) == null) deletes.add(name);
+			}
+			return this.apply(changes, deletes);
+		}
+	}
+
+	/**
+	 * Loads all stored values at once. Values that were changed before are
+	 * kept.
+	 *
+	 * @return if the values could be loaded
+	 */
+	private boolean load() {
+		// no flush may run between reading the values and merging them
+		synchronized (this.flushLock) {
+			if (this.loaded) return true;
+			Map<String, String> stored;
+			try {
+				stored = this.storage.loadValues(this.owner, this.dataID);
+			} catch (GameServerException e) {
+				LOG.error("Could not load " + this.owner + " values of " + this.dataID, e);
+				return false;
+			}
+			synchronized (this) {
+				for (Map.Entry<String, String> e : stored.entrySet()) {
+					// dirty values are newer, including deletions
+					if (!this.dirty.contains(e.getKey())) this.values.putIfAbsent(e.getKey(), e.getValue());
+				}
+				this.loaded = true;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Writes all dirty values in one transaction. Closes the cache if an earlier
+	 * close could not write it.
+	 *
+	 * @return if all values could be written
+	 */
+	boolean flush() {
+		synchronized (this.flushLock) {
+			boolean retryClose;
+			synchronized (this) {
+				retryClose = this.closing;
+			}
+			if (retryClose) return this.close();
+			return this.write() == Flush.WRITTEN;
+		}
+	}
+
+	/**
+	 * Writes all dirty values in one transaction
+	 *
+	 * @return outcome of the write
+	 */
+	private Flush write() {
+		synchronized (this.flushLock) {
+			// take all changes at once, so changes applied together are written together
+			HashMap<String, String> upserts = new HashMap<String, String>();
+			ArrayList<String> deletes = new ArrayList<String>();
+			synchronized (this) {
+				if (this.dirty.isEmpty()) return Flush.WRITTEN;
+				for (String name : this.dirty) {
+					String value = this.values.get(name);
+					if (value == null) {
+						deletes.add(name);
+					} else {
+						upserts.put(name, value);
+					}
+				}
+				this.dirty.clear();
+			}
+
+			try {
+				if (!this.storage.writeValues(this.owner, this.dataID, upserts, deletes)) {
+					// the game or player was deleted, its values can't be stored anymore
+					LOG.warn("Dropped " + (upserts.size() + deletes.size()) + " changes of deleted " + this.owner + " " + this.dataID);
+					return Flush.DROPPED;
+				}
+				if (LOG.isDebugEnabled()) LOG.debug("Flushed " + upserts.size() + " values and " + deletes.size() + " deletions of " + this.owner + " " + this.dataID);
+				return Flush.WRITTEN;
+			} catch (GameServerException e) {
+				// keep the values dirty, the cache stays registered until a flush
+				// writes them
+				synchronized (this) {
+					this.dirty.addAll(upserts.keySet());
+					this.dirty.addAll(deletes);
+				}
+				LOG.error("Could not flush " + this.owner + " values of " + this.dataID, e);
+				return Flush.FAILED;
+			}
+		}
+	}
+
+	/**
+	 * Flushes and closes the cache. Writes wait until the cache is closed and
+	 * then go to a new cache. Reads are served from the cache while it is
+	 * written. If the values can't be written, the cache is opened again and
+	 * closes with the next flush that succeeds.
+	 *
+	 * @return if all values could be written
+	 */
+	boolean close() {
+		// lock order is always flushLock, then this
+		synchronized (this.flushLock) {
+			synchronized (this) {
+				if (this.released) return true;
+				this.closed = true;
+			}
+			// the write takes the dirty values under the lock and writes them after
+			// releasing it, the cache stays open until then so no successor loads
+			// older values
+			Flush result = this.write();
+			synchronized (this) {
+				if (result == Flush.FAILED) {
+					// releasing the cache would lose its changes, waiting writes go to it again
+					this.closed = false;
+					this.closing = true;
+					this.notifyAll();
+				} else {
+					this.closing = false;
+					this.release();
+				}
+			}
+			return result == Flush.WRITTEN;
+		}
+	}
+
+	/**
+	 * Closes the cache without writing dirty values, e.g. when the game or player
+	 * was deleted
+	 */
+	synchronized void discard() {
+		this.closed = true;
+		this.dirty.clear();
+		this.release();
+	}
+
+	/**
+	 * Outcome of writing the dirty values
+	 */
+	private enum Flush {
+		/**
+		 * All values were written
+		 */
+		WRITTEN,
+
+		/**
+		 * The game or player was deleted and the values were dropped
+		 */
+		DROPPED,
+
+		/**
+		 * The values could not be written and are still dirty
+		 */
+		FAILED
+	}
+}
@@ -0,0 +1,707 @@
+package net.nilsramstoeck.gameserver.game;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import net.nilsramstoeck.gameserver.GameServerException;
+import net.nilsramstoeck.gameserver.client.Client;
+import net.nilsramstoeck.gameserver.log.Logger;
+import net.nilsramstoeck.gameserver.storage.Storage;
+import net.nilsramstoeck.gameserver.storage.Storage.Owner;
+import net.nilsramstoeck.gameserver.storage.StoredState;
+
+/**
+ * State of a game or player that is stored as one compressed binary snapshot
+ * instead of one row per value. The snapshot is read at once on first access
+ * and written at once by {@link #save()}, the flush thread of
+ * {@link GameData} or when the game is closed. Every save increments the
+ * version of the stored snapshot. If it was changed by someone else in the
+ * meantime, the local changes are applied on top of the stored snapshot and
+ * saved again.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class GameState {
+
+	/**
+	 * Format of the snapshot, first byte of every stored blob
+	 */
+	public static final byte FORMAT_VERSION = 0x01;
+
+	private static final int INT = 0x01;
+	private static final int LONG = 0x02;
+	private static final int DOUBLE = 0x03;
+	private static final int BOOLEAN = 0x04;
+	private static final int STRING = 0x05;
+	private static final int BYTES = 0x06;
+
+	/**
+	 * Logger of the game states
+	 */
+	private static final Logger LOG = Logger.getLogger(GameState.class);
+
+	/**
+	 * Open snapshots by owner and data ID
+	 */
+	private static final ConcurrentHashMap<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+
+	/**
+	 * Snapshot of this game or player
+	 */
+	private final Snapshot snapshot;
+
+	/**
+	 * Gets the state of a game
+	 *
+	 * @param _gameId ID of the game
+	 */
+	public GameState(String _gameId) {
+		this.snapshot = GameState.open(Owner.GAME, _gameId);
+	}
+
+	/**
+	 * Gets the state of a player
+	 *
+	 * @param client Client to get the state from
+	 */
+	public GameState(Client client) {
+		this.snapshot = GameState.open(Owner.PLAYER, Integer.toString(client.getUserID()));
+	}
+
+	/**
+	 * Gets the open snapshot of a game or player and creates it if necessary
+	 *
+	 * @param owner  Owner of the state
+	 * @param dataID State identity
+	 * @return Snapshot
+	 */
+	private static Snapshot open(Owner owner, String dataID) {
+		GameData.connect();
+		if (GameData.getStorage() == null) throw new IllegalStateException("No storage");
+		Snapshot snapshot = snapshots.computeIfAbsent(owner + "/" + dataID, k -> new Snapshot(GameData.getStorage(), owner, dataID));
+		if (!snapshot.closing) return snapshot;
+		// a state that could not be written when it was closed is used again
+		return snapshots.compute(owner + "/" + dataID, (k, s) -> {
+			if (s == null) s = new Snapshot(GameData.getStorage(), owner, dataID);
+			s.closing = false;
+			return s;
+		});
+	}
+
+	/**
+	 * Gets an int value
+	 *
+	 * @param key          Name of the value
+	 * @param defaultValue Value if the key does not exist
+	 * @return Value
+	 */
+	public int getInt(String key, int defaultValue) {
+		Object value = this.snapshot.get(key);
+		return value == null ? defaultValue : ((Number) value).intValue();
+	}
+
+	/**
+	 * Gets a long value
+	 *
+	 * @param key          Name of the value
+	 * @param defaultValue Value if the key does not exist
+	 * @return Value
+	 */
+	public long getLong(String key, long defaultValue) {
+		Object value = this.snapshot.get(key);
+		return value == null ? defaultValue : ((Number) value).longValue();
+	}
+
+	/**
+	 * Gets a double value
+	 *
+	 * @param key          Name of the value
+	 * @param defaultValue Value if the key does not exist
+	 * @return Value
+	 */
+	public double getDouble(String key, double defaultValue) {
+		Object value = this.snapshot.get(key);
+		return value == null ? defaultValue : ((Number) value).doubleValue();
+	}
+
+	/**
+	 * Gets a boolean value
+	 *
+	 * @param key          Name of the value
+	 * @param defaultValue Value if the key does not exist
+	 * @return Value
+	 */
+	public boolean getBoolean(String key, boolean defaultValue) {
+		Object value = this.snapshot.get(key);
+		return value == null ? defaultValue : (Boolean) value;
+	}
+
+	/**
+	 * Gets a String value
+	 *
+	 * @param key Name of the value
+	 * @return Value or null
+	 */
+	public String getString(String key) {
+		return (String) this.snapshot.get(key);
+	}
+
+	/**
+	 * Gets a binary value
+	 *
+	 * @param key Name of the value
+	 * @return copy of the value or null
+	 */
+	public byte[] getBytes(String key) {
+		byte[] value = (byte[]) this.snapshot.get(key);
+		return value == null ? null : value.clone();
+	}
+
+	/**
+	 * Sets an int value
+	 *
+	 * @param key   Name of the value
+	 * @param value Value
+	 */
+	public void setInt(String key, int value) {
+		this.snapshot.put(key, value);
+	}
+
+	/**
+	 * Sets a long value
+	 *
+	 * @param key   Name of the value
+	 * @param value Value
+	 */
+	public void setLong(String key, long value) {
+		this.snapshot.put(key, value);
+	}
+
+	/**
+	 * Sets a double value
+	 *
+	 * @param key   Name of the value
+	 * @param value Value
+	 */
+	public void setDouble(String key, double value) {
+		this.snapshot.put(key, value);
+	}
+
+	/**
+	 * Sets a boolean value
+	 *
+	 * @param key   Name of the value
+	 * @param value Value
+	 */
+	public void setBoolean(String key, boolean value) {
+		this.snapshot.put(key, value);
+	}
+
+	/**
+	 * Sets a String value
+	 *
+	 * @param key   Name of the value
+	 * @param value Value, null removes the key
+	 */
+	public void setString(String key, String value) {
+		this.snapshot.put(key, value);
+	}
+
+	/**
+	 * Sets a binary value
+	 *
+	 * @param key   Name of the value
+	 * @param value Value, null removes the key
+	 */
+	public void setBytes(String key, byte[] value) {
+		this.snapshot.put(key, value == null ? null : value.clone());
+	}
+
+	/**
+	 * Removes a value
+	 *
+	 * @param key Name of the value
+	 */
+	public void remove(String key) {
+		this.snapshot.put(key, null);
+	}
+
+	/**
+	 * Names of all values
+	 *
+	 * @return copy of the names
+	 */
+	public Set<String> keys() {
+		return this.snapshot.keys();
+	}
+
+	/**
+	 * Version of the stored snapshot, 0 if it was never saved
+	 *
+	 * @return version
+	 */
+	public long getVersion() {
+		return this.snapshot.getVersion();
+	}
+
+	/**
+	 * Writes the state if it was changed
+	 *
+	 * @return if the state could be written
+	 */
+	public boolean save() {
+		return this.snapshot.save();
+	}
+
+	/**
+	 * Writes all changed states. Closed states that could not be written before
+	 * are removed from memory once they are.
+	 *
+	 * @return if all states could be written
+	 */
+	static boolean saveAll() {
+		boolean result = true;
+		for (Map.Entry<String, Snapshot> e : snapshots.entrySet()) {
+			Snapshot snapshot = e.getValue();
+			if (snapshot.closing) {
+				result &= GameState.close(e.getKey(), snapshot);
+			} else {
+				result &= snapshot.write() == Save.SAVED;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes a state and removes it from memory. A state that could not be
+	 * written stays in memory until the flush thread wrote it.
+	 *
+	 * @param owner  Owner of the state
+	 * @param dataID State identity
+	 * @return if the state could be written
+	 */
+	static boolean close(Owner owner, String dataID) {
+		Snapshot snapshot = snapshots.get(owner + "/" + dataID);
+		if (snapshot == null) return true;
+		return GameState.close(owner + "/" + dataID, snapshot);
+	}
+
+	/**
+	 * Writes a snapshot and removes it from memory unless the write failed
+	 *
+	 * @param key      Key of the snapshot
+	 * @param snapshot Snapshot
+	 * @return if the state could be written
+	 */
+	private static boolean close(String key, Snapshot snapshot) {
+		snapshot.closing = true;
+		Save result = snapshot.write();
+		if (result != Save.FAILED) {
+			// saved or dropped with its deleted owner, unless it was opened again
+			snapshots.computeIfPresent(key, (k, s) -> s == snapshot && s.closing ? null : s);
+		}
+		return result == Save.SAVED;
+	}
+
+	/**
+	 * Removes a state from memory without writing it
+	 *
+	 * @param owner  Owner of the state
+	 * @param dataID State identity
+	 */
+	static void discard(Owner owner, String dataID) {
+		snapshots.remove(owner + "/" + dataID);
+	}
+
+	/**
+	 * Encodes values as compressed snapshot
+	 *
+	 * @param values Values to encode
+	 * @return snapshot
+	 * @throws IOException unsupported value
+	 */
+	static byte[] encode(Map<String, Object> values) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.write(FORMAT_VERSION);
+		try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+			out.writeInt(values.size());
+			for (Map.Entry<String, Object> e : values.entrySet()) {
+				out.writeUTF(e.getKey());
+				Object value = e.getValue();
+				if (value instanceof Integer) {
+					out.writeByte(INT);
+					out.writeInt((Integer) value);
+				} else if (value instanceof Long) {
+					out.writeByte(LONG);
+					out.writeLong((Long) value);
+				} else if (value instanceof Double) {
+					out.writeByte(DOUBLE);
+					out.writeDouble((Double) value);
+				} else if (value instanceof Boolean) {
+					out.writeByte(BOOLEAN);
+					out.writeBoolean((Boolean) value);
+				} else if (value instanceof String) {
+					out.writeByte(STRING);
+					GameState.writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+				} else if (value instanceof byte[]) {
+					out.writeByte(BYTES);
+					GameState.writeBytes(out, (byte[]) value);
+				} else {
+					throw new IOException("Unsupported value type " + value.getClass().getName());
+				}
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a compressed snapshot
+	 *
+	 * @param data snapshot
+	 * @return values
+	 * @throws IOException invalid or unsupported snapshot
+	 */
+	static HashMap<String, Object> decode(byte[] data) throws IOException {
+		if (data.length == 0 || data[0] != FORMAT_VERSION) throw new IOException("Unsupported state format");
+		try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data, 1, data.length - 1)))) {
+			int size = in.readInt();
+			HashMap<String, Object> values = new HashMap<String, Object>(Math.max(16, size * 2));
+			for (int i = 0; i < size; i++) {
+				String key = in.readUTF();
+				int tag = in.readUnsignedByte();
+				switch (tag) {
+				case INT:
+					values.put(key, in.readInt());
+					break;
+				case LONG:
+					values.put(key, in.readLong());
+					break;
+				case DOUBLE:
+					values.put(key, in.readDouble());
+					break;
+				case BOOLEAN:
+					values.put(key, in.readBoolean());
+					break;
+				case STRING:
+					values.put(key, new String(GameState.readBytes(in), StandardCharsets.UTF_8));
+					break;
+				case BYTES:
+					values.put(key, GameState.readBytes(in));
+					break;
+				default:
+					throw new IOException("Unknown value type " + tag);
+				}
+			}
+			return values;
+		}
+	}
+
+	/**
+	 * Writes length prefixed bytes
+	 *
+	 * @param out   Output
+	 * @param bytes Bytes to write
+	 * @throws IOException IOException
+	 */
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads length prefixed bytes
+	 *
+	 * @param in Input
+	 * @return bytes
+	 * @throws IOException IOException
+	 */
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) throw new IOException("Invalid length");
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Shared in-memory state of one game or player
+	 */
+	private static final class Snapshot {
+
+		/**
+		 * Saves tried again after version conflicts before giving up until the
+		 * next save
+		 */
+		private static final int CONFLICT_RETRIES = 3;
+
+		/**
+		 * Marks a removed value in {@link #changes}
+		 */
+		private static final Object REMOVED = new Object();
+
+		/**
+		 * Storage of the state
+		 */
+		private final Storage storage;
+
+		/**
+		 * Owner of the state
+		 */
+		private final Owner owner;
+
+		/**
+		 * State identity
+		 */
+		private final String dataID;
+
+		/**
+		 * Values by their name, guarded by this
+		 */
+		private HashMap<String, Object> values = new HashMap<String, Object>();
+
+		/**
+		 * Values changed since the last successful save, {@link #REMOVED} for
+		 * removed values. They are applied again on top of the stored state after a
+		 * version conflict. Guarded by this
+		 */
+		private final HashMap<String, Object> changes = new HashMap<String, Object>();
+
+		/**
+		 * If the stored state was loaded
+		 */
+		private volatile boolean loaded = false;
+
+		/**
+		 * If the state was changed since it was saved, guarded by this
+		 */
+		private boolean dirty = false;
+
+		/**
+		 * Version of the stored snapshot, 0 if there is none, guarded by this
+		 */
+		private long version = 0;
+
+		/**
+		 * If the state was closed and is removed from memory once it was written
+		 */
+		private volatile boolean closing = false;
+
+		/**
+		 * Serializes saves
+		 */
+		private final Object saveLock = new Object();
+
+		/**
+		 * Serializes loading, the storage is read without holding the lock of the
+		 * snapshot
+		 */
+		private final Object loadLock = new Object();
+
+		private Snapshot(Storage _storage, Owner _owner, String _dataID) {
+			this.storage = _storage;
+			this.owner = _owner;
+			this.dataID = _dataID;
+		}
+
+		Object get(String key) {
+			this.ensureLoaded();
+			synchronized (this) {
+				return this.values.get(key);
+			}
+		}
+
+		void put(String key, Object value) {
+			this.ensureLoaded();
+			synchronized (this) {
+				if (value == null) {
+					if (this.values.remove(key) == null) return;
+					this.changes.put(key, REMOVED);
+				} else {
+					this.values.put(key, value);
+					this.changes.put(key, value);
+				}
+				this.dirty = true;
+			}
+		}
+
+		Set<String> keys() {
+			this.ensureLoaded();
+			synchronized (this) {
+				return new HashSet<String>(this.values.keySet());
+			}
+		}
+
+		long getVersion() {
+			this.ensureLoaded();
+			synchronized (this) {
+				return this.version;
+			}
+		}
+
+		/**
+		 * Loads the stored state on first access
+		 */
+		private void ensureLoaded() {
+			if (this.loaded) return;
+			synchronized (this.loadLock) {
+				if (this.loaded) return;
+				try {
+					StoredState stored = this.storage.loadState(this.owner, this.dataID);
+					HashMap<String, Object> decoded = stored == null ? null : GameState.decode(stored.getData());
+					synchronized (this) {
+						if (stored != null) {
+							this.version = stored.getVersion();
+							this.values = decoded;
+						}
+						this.loaded = true;
+					}
+				} catch (GameServerException | IOException e) {
+					throw new IllegalStateException("Could not load " + this.owner + " state of " + this.dataID, e);
+				}
+			}
+		}
+
+		/**
+		 * Writes the state if it was changed
+		 *
+		 * @return if the state could be written
+		 */
+		boolean save() {
+			return this.write() == Save.SAVED;
+		}
+
+		/**
+		 * Writes the state if it was changed
+		 *
+		 * @return outcome of the write
+		 */
+		private Save write() {
+			synchronized (this.saveLock) {
+				for (int attempt = 0; attempt <= CONFLICT_RETRIES; attempt++) {
+					HashMap<String, Object> copy;
+					HashMap<String, Object> saved;
+					long expected;
+					synchronized (this) {
+						if (!this.dirty) return Save.SAVED;
+						// values are immutable, so a shallow copy can be encoded outside the lock
+						copy = new HashMap<String, Object>(this.values);
+						saved = new HashMap<String, Object>(this.changes);
+						expected = this.version;
+						this.dirty = false;
+					}
+
+					byte[] data;
+					try {
+						data = GameState.encode(copy);
+					} catch (IOException e) {
+						synchronized (this) {
+							this.dirty = true;
+						}
+						LOG.error("Could not encode " + this.owner + " state of " + this.dataID, e);
+						return Save.FAILED;
+					}
+
+					try {
+						switch (this.storage.saveState(this.owner, this.dataID, expected, data)) {
+						case CONFLICT:
+							if (!this.rebase(expected)) return Save.FAILED;
+							continue;
+						case ORPHANED:
+							// the game or player was deleted, its state can't be stored anymore
+							LOG.warn("Dropped state of deleted " + this.owner + " " + this.dataID);
+							return Save.ORPHANED;
+						default:
+							break;
+						}
+						synchronized (this) {
+							this.version = expected + 1;
+							// changes made after the copy are still pending
+							this.changes.entrySet().removeIf(e -> saved.get(e.getKey()) == e.getValue());
+						}
+						if (LOG.isDebugEnabled()) LOG.debug("Saved " + data.length + " bytes of " + this.owner + " " + this.dataID + " at version " + (expected + 1));
+						return Save.SAVED;
+					} catch (GameServerException e) {
+						synchronized (this) {
+							this.dirty = true;
+						}
+						LOG.error("Could not save " + this.owner + " state of " + this.dataID, e);
+						return Save.FAILED;
+					}
+				}
+				LOG.warn("Gave up saving " + this.owner + " state of " + this.dataID + " after " + CONFLICT_RETRIES + " version conflicts, retrying with the next save");
+				return Save.FAILED;
+			}
+		}
+
+		/**
+		 * Handles a save that found another version than it expected. The stored
+		 * state is loaded without holding the lock and all local changes since the
+		 * last successful save are applied on top of it, so the next save
+		 * overwrites only the values this server changed. Caller holds the save
+		 * lock
+		 *
+		 * @param expected Version the save expected
+		 * @return if the stored state could be loaded
+		 */
+		private boolean rebase(long expected) {
+			LOG.warn("Version conflict while saving " + this.owner + " state of " + this.dataID + " at version " + expected + ", merging with the stored state");
+			StoredState stored;
+			HashMap<String, Object> decoded;
+			try {
+				stored = this.storage.loadState(this.owner, this.dataID);
+				decoded = stored == null ? new HashMap<String, Object>() : GameState.decode(stored.getData());
+			} catch (GameServerException | IOException e) {
+				synchronized (this) {
+					this.dirty = true;
+				}
+				LOG.error("Could not reload " + this.owner + " state of " + this.dataID + " after a version conflict", e);
+				return false;
+			}
+			synchronized (this) {
+				for (Map.Entry<String, Object> e : this.changes.entrySet()) {
+					if (e.getValue() == REMOVED) {
+						decoded.remove(e.getKey());
+					} else {
+						decoded.put(e.getKey(), e.getValue());
+					}
+				}
+				this.values = decoded;
+				this.version = stored == null ? 0 : stored.getVersion();
+				this.dirty = !this.changes.isEmpty();
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Outcome of writing a snapshot
+	 */
+	private enum Save {
+		/**
+		 * The state was written or had no changes
+		 */
+		SAVED,
+
+		/**
+		 * The game or player was deleted and the state was dropped
+		 */
+		ORPHANED,
+
+		/**
+		 * The state could not be written and is still changed
+		 */
+		FAILED
+	}
+}
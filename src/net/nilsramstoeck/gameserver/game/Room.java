@@ -0,0 +1,163 @@
+package net.nilsramstoeck.gameserver.game;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.nilsramstoeck.gameserver.client.Client;
+
+/**
+ * A game and its connected clients. Reads are lock-free, membership changes
+ * replace the member array (copy-on-write) with a CAS.
+ * 
+ * @author Nils Ramstoeck
+ *
+ */
+public class Room {
+
+	/**
+	 * Shared empty member array
+	 */
+	private static final Client[] EMPTY = new Client[0];
+
+	/**
+	 * ID of the game
+	 */
+	private final String gameID;
+
+	/**
+	 * Current member snapshot. Arrays are never modified once published
+	 */
+	private final AtomicReference<Client[]> clients = new AtomicReference<Client[]>(EMPTY);
+
+	/**
+	 * Host of the game, null if the host is not connected
+	 */
+	private volatile Client host = null;
+
+	/**
+	 * Creates an empty room
+	 * 
+	 * @param _gameID ID of the game
+	 */
+	public Room(String _gameID) {
+		this.gameID = _gameID;
+	}
+
+	/**
+	 * Adds a client to the room
+	 * 
+	 * @param client Client to add
+	 * @return if the client was added, false if it already was a member
+	 */
+	public boolean add(Client client) {
+		while (true) {
+			Client[] current = this.clients.get();
+			if (Room.indexOf(current, client) >= 0) return false;
+			Client[] next = new Client[current.length + 1];
+			System.arraycopy(current, 0, next, 0, current.length);
+			next[current.length] = client;
+			if (this.clients.compareAndSet(current, next)) return true;
+		}
+	}
+
+	/**
+	 * Removes a client from the room. If the client is the host, the room has no
+	 * connected host afterwards.
+	 * 
+	 * @param client Client to remove
+	 * @return if the client was removed
+	 */
+	public boolean remove(Client client) {
+		boolean removed = false;
+		while (true) {
+			Client[] current = this.clients.get();
+			int index = Room.indexOf(current, client);
+			if (index < 0) break;
+			Client[] next;
+			if (current.length == 1) {
+				next = EMPTY;
+			} else {
+				next = new Client[current.length - 1];
+				System.arraycopy(current, 0, next, 0, index);
+				System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+			}
+			if (this.clients.compareAndSet(current, next)) {
+				removed = true;
+				break;
+			}
+		}
+		if (this.host == client) {
+			this.host = null;
+		}
+		return removed;
+	}
+
+	/**
+	 * Gets a snapshot of all clients in the room. The array is shared and must not
+	 * be modified.
+	 * 
+	 * @return clients in the room
+	 */
+	public Client[] getClients() {
+		return this.clients.get();
+	}
+
+	/**
+	 * Checks if a client is in the room
+	 * 
+	 * @param client Client to check
+	 * @return if the client is a member
+	 */
+	public boolean contains(Client client) {
+		return Room.indexOf(this.clients.get(), client) >= 0;
+	}
+
+	/**
+	 * Number of clients in the room
+	 * 
+	 * @return number of clients
+	 */
+	public int size() {
+		return this.clients.get().length;
+	}
+
+	/**
+	 * Host getter
+	 * 
+	 * @return {@link #host}
+	 */
+	public Client getHost() {
+		return this.host;
+	}
+
+	/**
+	 * Host setter
+	 * 
+	 * @param _host new host
+	 */
+	public void setHost(Client _host) {
+		this.host = _host;
+	}
+
+	/**
+	 * GameID getter
+	 * 
+	 * @return {@link #gameID}
+	 */
+	public String getGameID() {
+		return this.gameID;
+	}
+
+	/**
+	 * Finds a client in a member array
+	 * 
+	 * @param clients Member array
+	 * @param client  Client to find
+	 * @return index of the client or -1
+	 */
+	private static int indexOf(Client[] clients, Client client) {
+		for (int i = 0; i < clients.length; i++) {
+			if (clients[i] == client) return i;
+		}
+		return -1;
+	}
+}
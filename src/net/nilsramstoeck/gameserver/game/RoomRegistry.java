@@ -0,0 +1,70 @@
+package net.nilsramstoeck.gameserver.game;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe registry of all rooms of a GameServer
+ * 
+ * @author Nils Ramstoeck
+ *
+ */
+public class RoomRegistry {
+
+	/**
+	 * Rooms by their game ID
+	 */
+	private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<String, Room>();
+
+	/**
+	 * Gets a room
+	 * 
+	 * @param gameID ID of the game
+	 * @return Room or null if it does not exist
+	 */
+	public Room get(String gameID) {
+		if (gameID == null) return null;
+		return this.rooms.get(gameID);
+	}
+
+	/**
+	 * Gets a room and creates it if it does not exist
+	 * 
+	 * @param gameID ID of the game
+	 * @return Room of the game
+	 */
+	public Room getOrCreate(String gameID) {
+		Room room = this.rooms.get(gameID);
+		if (room != null) return room;
+		return this.rooms.computeIfAbsent(gameID, Room::new);
+	}
+
+	/**
+	 * Removes a room
+	 * 
+	 * @param gameID ID of the game
+	 * @return removed Room or null
+	 */
+	public Room remove(String gameID) {
+		if (gameID == null) return null;
+		return this.rooms.remove(gameID);
+	}
+
+	/**
+	 * All rooms. The view is weakly consistent
+	 * 
+	 * @return rooms
+	 */
+	public Collection<Room> getRooms() {
+		return this.rooms.values();
+	}
+
+	/**
+	 * Number of rooms
+	 * 
+	 * @return number of rooms
+	 */
+	public int size() {
+		return this.rooms.size();
+	}
+}
@@ -0,0 +1,195 @@
+package net.nilsramstoeck.gameserver.log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import net.nilsramstoeck.util.debug.Debugger;
+
+/**
+ * Writes log events on a background thread. Events are handed over through a
+ * bounded ring buffer, so logging threads never wait for the output. If the
+ * buffer is full, events are dropped and counted.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class AsyncAppender {
+
+	/**
+	 * Time the writer sleeps when the buffer is empty
+	 */
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+	/**
+	 * Ring buffer of pending events, empty slots are null
+	 */
+	private final AtomicReferenceArray<Event> slots;
+
+	/**
+	 * Mask to map a sequence to a slot, the capacity is a power of two
+	 */
+	private final int mask;
+
+	/**
+	 * Sequence of the next slot a producer claims
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * Sequence of the next slot the writer reads. Only written by the writer
+	 */
+	private volatile long tail = 0;
+
+	/**
+	 * Number of events dropped because the buffer was full
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * If the appender was closed
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Thread that writes the events
+	 */
+	private final Thread writer;
+
+	/**
+	 * Creates an appender and starts its writer
+	 *
+	 * @param capacity Minimum number of buffered events, rounded up to a power of
+	 *                 two
+	 */
+	public AsyncAppender(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.slots = new AtomicReferenceArray<Event>(size);
+		this.mask = size - 1;
+		this.writer = new Thread(this::run, "Log-Writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close, "Log-Shutdown"));
+	}
+
+	/**
+	 * Queues an event without blocking
+	 *
+	 * @param level   Level of the event
+	 * @param name    Name of the logger
+	 * @param message Log message
+	 * @param error   Exception to print or null
+	 * @return if the event was queued
+	 */
+	public boolean append(LogLevel level, String name, String message, Throwable error) {
+		Event event = new Event(level, name, message, error);
+		while (true) {
+			long seq = this.head.get();
+			if (seq - this.tail >= this.slots.length()) {
+				this.dropped.incrementAndGet();
+				return false;
+			}
+			if (this.head.compareAndSet(seq, seq + 1)) {
+				this.slots.lazySet((int) seq & this.mask, event);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Number of events dropped so far
+	 *
+	 * @return dropped events
+	 */
+	public long getDropped() {
+		return this.dropped.get();
+	}
+
+	/**
+	 * Writes all queued events and stops the writer
+	 */
+	public void close() {
+		this.closed = true;
+		LockSupport.unpark(this.writer);
+		try {
+			this.writer.join(TimeUnit.SECONDS.toMillis(2));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writer loop
+	 */
+	private void run() {
+		long reportedDrops = 0;
+		while (true) {
+			boolean wrote = this.drain();
+			long drops = this.dropped.get();
+			if (drops != reportedDrops) {
+				Debugger.debugln("[" + LogLevel.WARN + "] " + (drops - reportedDrops) + " log messages dropped");
+				reportedDrops = drops;
+			}
+			if (!wrote) {
+				// claimed slots are written shortly after, so only stop once the buffer is empty
+				if (this.closed && this.head.get() == this.tail) return;
+				LockSupport.parkNanos(this, IDLE_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * Writes all events that are ready
+	 *
+	 * @return if any event was written
+	 */
+	private boolean drain() {
+		boolean wrote = false;
+		long seq = this.tail;
+		Event event;
+		while ((event = this.slots.get((int) seq & this.mask)) != null) {
+			this.slots.lazySet((int) seq & this.mask, null);
+			this.tail = ++seq;
+			try {
+				Debugger.debugln(event.format());
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+			wrote = true;
+		}
+		return wrote;
+	}
+
+	/**
+	 * A queued log message
+	 */
+	private static final class Event {
+		private final LogLevel level;
+		private final String name;
+		private final String message;
+		private final Throwable error;
+
+		private Event(LogLevel _level, String _name, String _message, Throwable _error) {
+			this.level = _level;
+			this.name = _name;
+			this.message = _message;
+			this.error = _error;
+		}
+
+		/**
+		 * Formats the event, stack traces are rendered on the writer thread
+		 *
+		 * @return formatted event
+		 */
+		private String format() {
+			String line = "[" + this.level + "] " + this.name + ": " + this.message;
+			if (this.error == null) return line;
+			StringWriter trace = new StringWriter();
+			this.error.printStackTrace(new PrintWriter(trace));
+			return line + System.lineSeparator() + trace;
+		}
+	}
+}
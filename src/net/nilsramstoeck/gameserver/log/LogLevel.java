@@ -0,0 +1,34 @@
+package net.nilsramstoeck.gameserver.log;
+
+/**
+ * Severity of a log message, ordered from most to least verbose
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public enum LogLevel {
+	/**
+	 * Per message and per query tracing
+	 */
+	DEBUG,
+
+	/**
+	 * Lifecycle events like server start and new connections
+	 */
+	INFO,
+
+	/**
+	 * Unexpected but recoverable conditions
+	 */
+	WARN,
+
+	/**
+	 * Failures
+	 */
+	ERROR,
+
+	/**
+	 * Disables logging
+	 */
+	OFF;
+}
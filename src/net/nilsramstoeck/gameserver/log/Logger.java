@@ -0,0 +1,214 @@
+package net.nilsramstoeck.gameserver.log;
+
+import java.util.Properties;
+import java.util.function.Supplier;
+
+/**
+ * Logging facade of the GameServer. Messages below the configured level are
+ * discarded before they are built, enabled messages are written by an
+ * {@link AsyncAppender}. Hot paths should check {@link #isDebugEnabled()} or
+ * pass a {@code Supplier} so disabled messages cost nothing.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class Logger {
+
+	/**
+	 * Default capacity of the log buffer
+	 */
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	/**
+	 * Minimum level of messages that are logged
+	 */
+	private static volatile LogLevel level = LogLevel.INFO;
+
+	/**
+	 * Appender of all loggers, created on first use
+	 */
+	private static volatile AsyncAppender appender = null;
+
+	/**
+	 * Capacity of the appender
+	 */
+	private static int bufferSize = DEFAULT_BUFFER_SIZE;
+
+	/**
+	 * Name of the logger
+	 */
+	private final String name;
+
+	/**
+	 * Creates a logger
+	 *
+	 * @param _name Name of the logger
+	 */
+	private Logger(String _name) {
+		this.name = _name;
+	}
+
+	/**
+	 * Gets a logger named after a class
+	 *
+	 * @param type Class that logs
+	 * @return Logger
+	 */
+	public static Logger getLogger(Class<?> type) {
+		return new Logger(type.getSimpleName());
+	}
+
+	/**
+	 * Reads the log level and buffer size from the server properties
+	 *
+	 * @param properties Server properties
+	 */
+	public static void configure(Properties properties) {
+		Logger.level = LogLevel.valueOf(properties.getProperty("log.level", LogLevel.INFO.name()).trim().toUpperCase());
+		synchronized (Logger.class) {
+			if (Logger.appender == null) {
+				Logger.bufferSize = Integer.parseInt(properties.getProperty("log.buffer_size", Integer.toString(DEFAULT_BUFFER_SIZE)));
+			}
+		}
+	}
+
+	/**
+	 * Sets the minimum level of logged messages
+	 *
+	 * @param _level Minimum level
+	 */
+	public static void setLevel(LogLevel _level) {
+		Logger.level = _level;
+	}
+
+	/**
+	 * Level getter
+	 *
+	 * @return {@link #level}
+	 */
+	public static LogLevel getLevel() {
+		return Logger.level;
+	}
+
+	/**
+	 * Checks if messages of a level are logged
+	 *
+	 * @param _level Level to check
+	 * @return if the level is enabled
+	 */
+	public boolean isEnabled(LogLevel _level) {
+		return _level.compareTo(Logger.level) >= 0 && _level != LogLevel.OFF;
+	}
+
+	/**
+	 * Checks if debug messages are logged
+	 *
+	 * @return if debug is enabled
+	 */
+	public boolean isDebugEnabled() {
+		return Logger.level == LogLevel.DEBUG;
+	}
+
+	/**
+	 * Logs a message
+	 *
+	 * @param _level  Level of the message
+	 * @param message Message
+	 * @param error   Exception to print or null
+	 */
+	public void log(LogLevel _level, String message, Throwable error) {
+		if (!this.isEnabled(_level)) return;
+		Logger.getAppender().append(_level, this.name, message, error);
+	}
+
+	/**
+	 * Logs a message that is only built if the level is enabled
+	 *
+	 * @param _level  Level of the message
+	 * @param message Supplier of the message
+	 */
+	public void log(LogLevel _level, Supplier<String> message) {
+		if (!this.isEnabled(_level)) return;
+		Logger.getAppender().append(_level, this.name, message.get(), null);
+	}
+
+	/**
+	 * Logs a debug message
+	 *
+	 * @param message Message
+	 */
+	public void debug(String message) {
+		this.log(LogLevel.DEBUG, message, null);
+	}
+
+	/**
+	 * Logs a debug message that is only built if debug is enabled
+	 *
+	 * @param message Supplier of the message
+	 */
+	public void debug(Supplier<String> message) {
+		this.log(LogLevel.DEBUG, message);
+	}
+
+	/**
+	 * Logs an info message
+	 *
+	 * @param message Message
+	 */
+	public void info(String message) {
+		this.log(LogLevel.INFO, message, null);
+	}
+
+	/**
+	 * Logs an info message that is only built if info is enabled
+	 *
+	 * @param message Supplier of the message
+	 */
+	public void info(Supplier<String> message) {
+		this.log(LogLevel.INFO, message);
+	}
+
+	/**
+	 * Logs a warning
+	 *
+	 * @param message Message
+	 */
+	public void warn(String message) {
+		this.log(LogLevel.WARN, message, null);
+	}
+
+	/**
+	 * Logs an error
+	 *
+	 * @param message Message
+	 */
+	public void error(String message) {
+		this.log(LogLevel.ERROR, message, null);
+	}
+
+	/**
+	 * Logs an error with its exception
+	 *
+	 * @param message Message
+	 * @param error   Exception to print
+	 */
+	public void error(String message, Throwable error) {
+		this.log(LogLevel.ERROR, message, error);
+	}
+
+	/**
+	 * Gets the shared appender and creates it on first use
+	 *
+	 * @return Appender
+	 */
+	private static AsyncAppender getAppender() {
+		AsyncAppender current = Logger.appender;
+		if (current != null) return current;
+		synchronized (Logger.class) {
+			if (Logger.appender == null) {
+				Logger.appender = new AsyncAppender(Logger.bufferSize);
+			}
+			return Logger.appender;
+		}
+	}
+}
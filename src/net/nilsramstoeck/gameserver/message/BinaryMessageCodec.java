@@ -0,0 +1,441 @@
+package net.nilsramstoeck.gameserver.message;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.framing.Framedata;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Encodes messages as compact binary frames. A frame starts with the
+ * {@link #VERSION} byte followed by the message as a map value. Every value
+ * starts with a tag byte:
+ * <ul>
+ * <li>{@code 0x00} null, {@code 0x01} false, {@code 0x02} true</li>
+ * <li>{@code 0x03} 32 bit integer, {@code 0x04} 64 bit integer,
+ * {@code 0x05} 64 bit float, all big endian</li>
+ * <li>{@code 0x06} string: varint length and UTF-8 bytes</li>
+ * <li>{@code 0x07} opcode: one byte index into {@link #OPCODES}</li>
+ * <li>{@code 0x08} map: varint size and key/value pairs, keys are strings or
+ * opcodes</li>
+ * <li>{@code 0x09} array: varint size and values</li>
+ * <li>{@code 0x80}-{@code 0xFF} integer 0-127 stored in the tag</li>
+ * </ul>
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class BinaryMessageCodec implements MessageCodec, MessageConstants {
+
+	/**
+	 * Name of the codec
+	 */
+	public static final String NAME = "binary";
+
+	/**
+	 * Format version, first byte of every frame
+	 */
+	public static final byte VERSION = 0x01;
+
+	/**
+	 * Strings that are sent as one byte opcodes. The index is the opcode, so new
+	 * strings may only be appended
+	 */
+	public static final String[] OPCODES = {
+			TYPE, ACTION, MESSAGE_ID, GAME_ID, ERROR_CODE, MESSAGE, SUCCESS, VALUE,
+			USERNAME, PASSWORD, GS_SESS_ID, AUTHENTICATED,
+			REQUEST, RESPONSE, ERROR, AUTHENTICATE,
+			REGISTER, LOGIN, LOGIN_GUEST, SESS_AUTH, ENTER_GAME, CREATE_GAME, SIGN_OUT,
+			ROOT, MANAGER, PLAYER
+	};
+
+	/**
+	 * Opcodes by their string
+	 */
+	private static final HashMap<String, Integer> OPCODE_INDEX = new HashMap<String, Integer>();
+
+	static {
+		for (int i = 0; i < OPCODES.length; i++) {
+			OPCODE_INDEX.put(OPCODES[i], i);
+		}
+	}
+
+	private static final int NULL = 0x00;
+	private static final int FALSE = 0x01;
+	private static final int TRUE = 0x02;
+	private static final int INT32 = 0x03;
+	private static final int INT64 = 0x04;
+	private static final int FLOAT64 = 0x05;
+	private static final int STRING = 0x06;
+	private static final int OPCODE = 0x07;
+	private static final int MAP = 0x08;
+	private static final int ARRAY = 0x09;
+	private static final int FIXINT = 0x80;
+
+	/**
+	 * Maximum nesting of maps and arrays, the top level map included. Deeper
+	 * messages are rejected before they can overflow the stack of the decoder
+	 */
+	public static final int MAX_DEPTH = 32;
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public Message decode(ByteBuffer data) {
+		try {
+			if (data.get() != VERSION) throw new IllegalArgumentException("Unsupported binary message version");
+			if ((data.get() & 0xFF) != MAP) throw new IllegalArgumentException("Binary message is not a map");
+			Message message = new Message();
+			BinaryMessageCodec.readEntries(data, message, 1);
+			if (data.hasRemaining()) throw new IllegalArgumentException("Trailing bytes after binary message");
+			return message;
+		} catch (RuntimeException e) {
+			if (e instanceof IllegalArgumentException) throw e;
+			throw new IllegalArgumentException("Malformed binary message", e);
+		}
+	}
+
+	@Override
+	public List<Framedata> encode(Message message, Draft draft) {
+		return draft.createFrames(this.encode(message), false);
+	}
+
+	/**
+	 * Encodes a message without framing it
+	 *
+	 * @param message Message to encode
+	 * @return encoded message, ready to be read
+	 */
+	public ByteBuffer encode(Message message) {
+		Writer out = new Writer();
+		out.write(VERSION);
+		out.writeValue(message);
+		return ByteBuffer.wrap(out.buffer, 0, out.size);
+	}
+
+	/**
+	 * Scans a binary message for the header fields without decoding it. Values of
+	 * all other entries are skipped.
+	 *
+	 * @param data   Binary message, its position is advanced
+	 * @param header Receives the string values of
+	 *               {@link InboundMessage#HEADER_FIELDS}
+	 * @throws IllegalArgumentException data is not a valid binary message
+	 */
+	static void scanHeader(ByteBuffer data, String[] header) {
+		try {
+			if (data.get() != VERSION) throw new IllegalArgumentException("Unsupported binary message version");
+			if ((data.get() & 0xFF) != MAP) throw new IllegalArgumentException("Binary message is not a map");
+			int size = BinaryMessageCodec.readVarint(data);
+			for (int i = 0; i < size; i++) {
+				int field = BinaryMessageCodec.readHeaderKey(data);
+				int tag = data.get(data.position()) & 0xFF;
+				if (field >= 0 && (tag == STRING || tag == OPCODE)) {
+					header[field] = (String) BinaryMessageCodec.readValue(data, 1);
+				} else {
+					BinaryMessageCodec.skipValue(data, 1);
+				}
+			}
+			if (data.hasRemaining()) throw new IllegalArgumentException("Trailing bytes after binary message");
+		} catch (RuntimeException e) {
+			if (e instanceof IllegalArgumentException) throw e;
+			throw new IllegalArgumentException("Malformed binary message", e);
+		}
+	}
+
+	/**
+	 * Reads a map key and finds it in {@link InboundMessage#HEADER_FIELDS}.
+	 * Header fields are always sent as opcodes, so string keys are skipped.
+	 *
+	 * @param in Input
+	 * @return index of the header field or -1
+	 */
+	private static int readHeaderKey(ByteBuffer in) {
+		int tag = in.get() & 0xFF;
+		if (tag == OPCODE) {
+			int opcode = in.get() & 0xFF;
+			if (opcode >= OPCODES.length) throw new IllegalArgumentException("Unknown opcode " + opcode);
+			// header fields are the first opcodes
+			return opcode < InboundMessage.HEADER_FIELDS.length ? opcode : -1;
+		}
+		if (tag != STRING) throw new IllegalArgumentException("Map key is not a string");
+		BinaryMessageCodec.skipBytes(in, BinaryMessageCodec.readVarint(in));
+		return -1;
+	}
+
+	/**
+	 * Skips a tagged value
+	 *
+	 * @param in    Input
+	 * @param depth Nesting of the enclosing map or array
+	 */
+	private static void skipValue(ByteBuffer in, int depth) {
+		int tag = in.get() & 0xFF;
+		if (tag >= FIXINT) return;
+		switch (tag) {
+		case NULL:
+		case FALSE:
+		case TRUE:
+			return;
+		case INT32:
+			BinaryMessageCodec.skipBytes(in, 4);
+			return;
+		case INT64:
+		case FLOAT64:
+			BinaryMessageCodec.skipBytes(in, 8);
+			return;
+		case STRING:
+			BinaryMessageCodec.skipBytes(in, BinaryMessageCodec.readVarint(in));
+			return;
+		case OPCODE:
+			BinaryMessageCodec.skipBytes(in, 1);
+			return;
+		case MAP: {
+			int nested = BinaryMessageCodec.nested(depth);
+			int size = BinaryMessageCodec.readVarint(in);
+			for (int i = 0; i < size; i++) {
+				BinaryMessageCodec.skipValue(in, nested);
+				BinaryMessageCodec.skipValue(in, nested);
+			}
+			return;
+		}
+		case ARRAY: {
+			int nested = BinaryMessageCodec.nested(depth);
+			int size = BinaryMessageCodec.readVarint(in);
+			for (int i = 0; i < size; i++) {
+				BinaryMessageCodec.skipValue(in, nested);
+			}
+			return;
+		}
+		default:
+			throw new IllegalArgumentException("Unknown tag " + tag);
+		}
+	}
+
+	/**
+	 * Advances the position of a buffer
+	 *
+	 * @param in    Input
+	 * @param count Number of bytes to skip
+	 */
+	private static void skipBytes(ByteBuffer in, int count) {
+		if (count > in.remaining()) throw new IllegalArgumentException("Value exceeds message");
+		in.position(in.position() + count);
+	}
+
+	/**
+	 * Reads the entries of a map into a JSONObject
+	 *
+	 * @param in     Input
+	 * @param target Object to fill
+	 * @param depth  Nesting of the map
+	 */
+	private static void readEntries(ByteBuffer in, JSONObject target, int depth) {
+		int size = BinaryMessageCodec.readVarint(in);
+		for (int i = 0; i < size; i++) {
+			Object key = BinaryMessageCodec.readValue(in, depth);
+			if (!(key instanceof String)) throw new IllegalArgumentException("Map key is not a string");
+			target.put((String) key, BinaryMessageCodec.readValue(in, depth));
+		}
+	}
+
+	/**
+	 * Reads a tagged value
+	 *
+	 * @param in    Input
+	 * @param depth Nesting of the enclosing map or array
+	 * @return value
+	 */
+	private static Object readValue(ByteBuffer in, int depth) {
+		int tag = in.get() & 0xFF;
+		if (tag >= FIXINT) return tag - FIXINT;
+		switch (tag) {
+		case NULL:
+			return JSONObject.NULL;
+		case FALSE:
+			return false;
+		case TRUE:
+			return true;
+		case INT32:
+			return in.getInt();
+		case INT64:
+			return in.getLong();
+		case FLOAT64:
+			return in.getDouble();
+		case STRING: {
+			int length = BinaryMessageCodec.readVarint(in);
+			if (length > in.remaining()) throw new IllegalArgumentException("String exceeds message");
+			if (in.hasArray()) {
+				String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+				in.position(in.position() + length);
+				return s;
+			}
+			byte[] bytes = new byte[length];
+			in.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+		case OPCODE: {
+			int opcode = in.get() & 0xFF;
+			if (opcode >= OPCODES.length) throw new IllegalArgumentException("Unknown opcode " + opcode);
+			return OPCODES[opcode];
+		}
+		case MAP: {
+			JSONObject map = new JSONObject();
+			BinaryMessageCodec.readEntries(in, map, BinaryMessageCodec.nested(depth));
+			return map;
+		}
+		case ARRAY: {
+			int nested = BinaryMessageCodec.nested(depth);
+			int size = BinaryMessageCodec.readVarint(in);
+			JSONArray array = new JSONArray();
+			for (int i = 0; i < size; i++) {
+				array.put(BinaryMessageCodec.readValue(in, nested));
+			}
+			return array;
+		}
+		default:
+			throw new IllegalArgumentException("Unknown tag " + tag);
+		}
+	}
+
+	/**
+	 * Nesting of a map or array inside a value of the given nesting
+	 *
+	 * @param depth Nesting of the enclosing map or array
+	 * @return nesting of the inner map or array
+	 */
+	private static int nested(int depth) {
+		if (depth >= MAX_DEPTH) throw new IllegalArgumentException("Binary message is nested deeper than " + MAX_DEPTH);
+		return depth + 1;
+	}
+
+	/**
+	 * Reads an unsigned LEB128 varint
+	 *
+	 * @param in Input
+	 * @return value
+	 */
+	private static int readVarint(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.get() & 0xFF;
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				if (value < 0) break;
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Invalid varint");
+	}
+
+	/**
+	 * Growable output buffer
+	 */
+	private static class Writer {
+		private byte[] buffer = new byte[128];
+		private int size = 0;
+
+		private void ensure(int extra) {
+			if (this.size + extra > this.buffer.length) {
+				this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.size + extra));
+			}
+		}
+
+		private void write(int b) {
+			this.ensure(1);
+			this.buffer[this.size++] = (byte) b;
+		}
+
+		private void writeLong(long v, int bytes) {
+			this.ensure(bytes);
+			for (int i = bytes - 1; i >= 0; i--) {
+				this.buffer[this.size++] = (byte) (v >>> (i * 8));
+			}
+		}
+
+		private void writeVarint(int v) {
+			while ((v & ~0x7F) != 0) {
+				this.write((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			this.write(v);
+		}
+
+		private void writeString(String s) {
+			Integer opcode = OPCODE_INDEX.get(s);
+			if (opcode != null) {
+				this.write(OPCODE);
+				this.write(opcode);
+				return;
+			}
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			this.write(STRING);
+			this.writeVarint(bytes.length);
+			this.ensure(bytes.length);
+			System.arraycopy(bytes, 0, this.buffer, this.size, bytes.length);
+			this.size += bytes.length;
+		}
+
+		private void writeInteger(long v) {
+			if (v >= 0 && v < 0x80) {
+				this.write(FIXINT | (int) v);
+			} else if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+				this.write(INT32);
+				this.writeLong(v, 4);
+			} else {
+				this.write(INT64);
+				this.writeLong(v, 8);
+			}
+		}
+
+		private void writeValue(Object value) {
+			if (value == null || value == JSONObject.NULL) {
+				this.write(NULL);
+			} else if (value instanceof Boolean) {
+				this.write((Boolean) value ? TRUE : FALSE);
+			} else if (value instanceof String) {
+				this.writeString((String) value);
+			} else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+				this.writeInteger(((Number) value).longValue());
+			} else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+				this.writeInteger(((BigInteger) value).longValue());
+			} else if (value instanceof BigDecimal && BigDecimal.valueOf(((BigDecimal) value).doubleValue()).compareTo((BigDecimal) value) == 0) {
+				this.write(FLOAT64);
+				this.writeLong(Double.doubleToLongBits(((BigDecimal) value).doubleValue()), 8);
+			} else if (value instanceof BigInteger || value instanceof BigDecimal) {
+				// keep precision that does not fit into 64 bit
+				this.writeString(value.toString());
+			} else if (value instanceof Number) {
+				this.write(FLOAT64);
+				this.writeLong(Double.doubleToLongBits(((Number) value).doubleValue()), 8);
+			} else if (value instanceof JSONObject) {
+				JSONObject map = (JSONObject) value;
+				this.write(MAP);
+				this.writeVarint(map.length());
+				for (String key : map.keySet()) {
+					this.writeString(key);
+					this.writeValue(map.opt(key));
+				}
+			} else if (value instanceof JSONArray) {
+				JSONArray array = (JSONArray) value;
+				this.write(ARRAY);
+				this.writeVarint(array.length());
+				for (int i = 0; i < array.length(); i++) {
+					this.writeValue(array.opt(i));
+				}
+			} else {
+				this.writeString(value.toString());
+			}
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package net.nilsramstoeck.gameserver.message;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A message received from a client. Only the header fields {@link #TYPE},
+ * {@link #ACTION}, {@link #MESSAGE_ID} and {@link #GAME_ID} are read when the
+ * message arrives, the body is decoded on the first call of
+ * {@link #getMessage()}.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class InboundMessage implements MessageConstants {
+
+	/**
+	 * Header fields in the order they are stored. The binary codec relies on them
+	 * being the first {@link BinaryMessageCodec#OPCODES}
+	 */
+	static final String[] HEADER_FIELDS = { TYPE, ACTION, MESSAGE_ID, GAME_ID };
+
+	/**
+	 * Header values, indexed like {@link #HEADER_FIELDS}
+	 */
+	private final String[] header;
+
+	/**
+	 * Raw JSON text, null for binary messages
+	 */
+	private final String text;
+
+	/**
+	 * Raw binary message, null for JSON messages
+	 */
+	private final ByteBuffer data;
+
+	/**
+	 * Decoded message
+	 */
+	private Message message;
+
+	/**
+	 * Creates an inbound message
+	 *
+	 * @param _header  Header values
+	 * @param _text    Raw JSON text
+	 * @param _data    Raw binary message
+	 * @param _message Already decoded message or null
+	 */
+	private InboundMessage(String[] _header, String _text, ByteBuffer _data, Message _message) {
+		this.header = _header;
+		this.text = _text;
+		this.data = _data;
+		this.message = _message;
+	}
+
+	/**
+	 * Reads the header of a JSON message
+	 *
+	 * @param text JSON text
+	 * @return Inbound message
+	 * @throws IllegalArgumentException text is not a JSON object
+	 */
+	public static InboundMessage fromJSON(String text) {
+		String[] header = new String[HEADER_FIELDS.length];
+		try {
+			JSONHeaderScanner.scan(text, header);
+			return new InboundMessage(header, text, null, null);
+		} catch (IllegalArgumentException e) {
+			// org.json also accepts lenient syntax, parse those messages right away
+			Message message;
+			try {
+				message = new Message(text);
+			} catch (RuntimeException parseError) {
+				throw new IllegalArgumentException("Malformed JSON message", parseError);
+			}
+			for (int i = 0; i < HEADER_FIELDS.length; i++) {
+				Object value = message.opt(HEADER_FIELDS[i]);
+				header[i] = value instanceof String ? (String) value : null;
+			}
+			return new InboundMessage(header, text, null, message);
+		}
+	}
+
+	/**
+	 * Reads the header of a binary message
+	 *
+	 * @param data Binary message, its position is not changed
+	 * @return Inbound message
+	 * @throws IllegalArgumentException data is not a valid binary message
+	 */
+	public static InboundMessage fromBinary(ByteBuffer data) {
+		String[] header = new String[HEADER_FIELDS.length];
+		BinaryMessageCodec.scanHeader(data.duplicate(), header);
+		return new InboundMessage(header, null, data.duplicate(), null);
+	}
+
+	/**
+	 * Gets the decoded message. The body is decoded on the first call.
+	 *
+	 * @return Message
+	 * @throws IllegalArgumentException the body could not be decoded
+	 */
+	public synchronized Message getMessage() {
+		if (this.message == null) {
+			try {
+				this.message = this.text != null ? new Message(this.text) : MessageCodec.BINARY.decode(this.data.duplicate());
+			} catch (IllegalArgumentException e) {
+				throw e;
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException("Malformed message", e);
+			}
+		}
+		return this.message;
+	}
+
+	/**
+	 * Checks if the body was already decoded
+	 *
+	 * @return if the body was decoded
+	 */
+	public synchronized boolean isDecoded() {
+		return this.message != null;
+	}
+
+	/**
+	 * Type getter
+	 *
+	 * @return type of the message or null
+	 */
+	public String getType() {
+		return this.header[0];
+	}
+
+	/**
+	 * Action getter
+	 *
+	 * @return action of the message or null
+	 */
+	public String getAction() {
+		return this.header[1];
+	}
+
+	/**
+	 * Message ID getter
+	 *
+	 * @return message ID or null
+	 */
+	public String getMessageID() {
+		return this.header[2];
+	}
+
+	/**
+	 * Game ID getter
+	 *
+	 * @return game ID or null
+	 */
+	public String getGameID() {
+		return this.header[3];
+	}
+
+	@Override
+	public String toString() {
+		return this.text != null ? this.text : this.getMessage().toString();
+	}
+}
@@ -0,0 +1,264 @@
+package net.nilsramstoeck.gameserver.message;
+
+/**
+ * Reads the header fields of a JSON message without building the message.
+ * Only the values of the header fields are materialized, everything else is
+ * skipped.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+class JSONHeaderScanner {
+
+	/**
+	 * JSON text
+	 */
+	private final String text;
+
+	/**
+	 * Current position in {@link #text}
+	 */
+	private int pos = 0;
+
+	/**
+	 * Creates a scanner
+	 *
+	 * @param _text JSON text
+	 */
+	private JSONHeaderScanner(String _text) {
+		this.text = _text;
+	}
+
+	/**
+	 * Scans the top level object of a JSON message for the header fields
+	 *
+	 * @param text   JSON text
+	 * @param header Receives the string values of
+	 *               {@link InboundMessage#HEADER_FIELDS}
+	 * @throws IllegalArgumentException text is not a strict JSON object
+	 */
+	static void scan(String text, String[] header) {
+		new JSONHeaderScanner(text).scanObject(header);
+	}
+
+	/**
+	 * Scans the top level object
+	 *
+	 * @param header Receives the header values
+	 */
+	private void scanObject(String[] header) {
+		this.skipWhitespace();
+		this.expect('{');
+		this.skipWhitespace();
+		if (this.peek() == '}') {
+			this.pos++;
+		} else {
+			while (true) {
+				this.skipWhitespace();
+				this.expect('"');
+				int field = this.readKey();
+				this.skipWhitespace();
+				this.expect(':');
+				this.skipWhitespace();
+				if (field >= 0 && this.peek() == '"') {
+					this.pos++;
+					header[field] = this.readString();
+				} else {
+					this.skipValue();
+				}
+				this.skipWhitespace();
+				char c = this.next();
+				if (c == '}') break;
+				if (c != ',') throw this.error();
+			}
+		}
+		this.skipWhitespace();
+		if (this.pos != this.text.length()) throw this.error();
+	}
+
+	/**
+	 * Reads a key after its opening quote
+	 *
+	 * @return index of the key in {@link InboundMessage#HEADER_FIELDS} or -1
+	 */
+	private int readKey() {
+		int start = this.pos;
+		int end = this.text.indexOf('"', start);
+		if (end < 0) throw this.error();
+		if (this.text.lastIndexOf('\\', end) >= start) {
+			// escaped keys are rare, decode them
+			return JSONHeaderScanner.indexOf(this.readString());
+		}
+		this.pos = end + 1;
+		int length = end - start;
+		String[] fields = InboundMessage.HEADER_FIELDS;
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].length() == length && this.text.regionMatches(start, fields[i], 0, length)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds a header field
+	 *
+	 * @param key Key to find
+	 * @return index of the key or -1
+	 */
+	private static int indexOf(String key) {
+		String[] fields = InboundMessage.HEADER_FIELDS;
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].equals(key)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads a string after its opening quote
+	 *
+	 * @return string value
+	 */
+	private String readString() {
+		int start = this.pos;
+		// fast path: no escapes
+		while (this.pos < this.text.length()) {
+			char c = this.text.charAt(this.pos);
+			if (c == '"') {
+				String s = this.text.substring(start, this.pos);
+				this.pos++;
+				return s;
+			}
+			if (c == '\\') break;
+			this.pos++;
+		}
+		StringBuilder sb = new StringBuilder(this.text.length() - start);
+		sb.append(this.text, start, this.pos);
+		while (true) {
+			char c = this.next();
+			if (c == '"') return sb.toString();
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			c = this.next();
+			switch (c) {
+			case 'b':
+				sb.append('\b');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'u':
+				if (this.pos + 4 > this.text.length()) throw this.error();
+				try {
+					sb.append((char) Integer.parseInt(this.text.substring(this.pos, this.pos + 4), 16));
+				} catch (NumberFormatException e) {
+					throw this.error();
+				}
+				this.pos += 4;
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Skips a value of any type
+	 */
+	private void skipValue() {
+		char c = this.next();
+		switch (c) {
+		case '"':
+			this.skipString();
+			break;
+		case '{':
+		case '[':
+			int depth = 1;
+			while (depth > 0) {
+				char n = this.next();
+				if (n == '"') {
+					this.skipString();
+				} else if (n == '{' || n == '[') {
+					depth++;
+				} else if (n == '}' || n == ']') {
+					depth--;
+				}
+			}
+			break;
+		default:
+			// number or literal
+			while (this.pos < this.text.length()) {
+				char n = this.text.charAt(this.pos);
+				if (n == ',' || n == '}' || n == ']' || Character.isWhitespace(n)) break;
+				this.pos++;
+			}
+		}
+	}
+
+	/**
+	 * Skips a string after its opening quote
+	 */
+	private void skipString() {
+		while (true) {
+			char c = this.next();
+			if (c == '"') return;
+			if (c == '\\') this.next();
+		}
+	}
+
+	/**
+	 * Skips whitespace
+	 */
+	private void skipWhitespace() {
+		while (this.pos < this.text.length() && Character.isWhitespace(this.text.charAt(this.pos))) {
+			this.pos++;
+		}
+	}
+
+	/**
+	 * Consumes an expected character
+	 *
+	 * @param c expected character
+	 */
+	private void expect(char c) {
+		if (this.next() != c) throw this.error();
+	}
+
+	/**
+	 * Gets the current character without consuming it
+	 *
+	 * @return current character
+	 */
+	private char peek() {
+		if (this.pos >= this.text.length()) throw this.error();
+		return this.text.charAt(this.pos);
+	}
+
+	/**
+	 * Consumes the current character
+	 *
+	 * @return consumed character
+	 */
+	private char next() {
+		if (this.pos >= this.text.length()) throw this.error();
+		return this.text.charAt(this.pos++);
+	}
+
+	/**
+	 * Creates a syntax error at the current position
+	 *
+	 * @return error
+	 */
+	private IllegalArgumentException error() {
+		return new IllegalArgumentException("Unexpected JSON at " + this.pos);
+	}
+}
@@ -0,0 +1,40 @@
+package net.nilsramstoeck.gameserver.message;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.framing.Framedata;
+
+/**
+ * Encodes messages as JSON text frames
+ * 
+ * @author Nils Ramstoeck
+ *
+ */
+public class JSONMessageCodec implements MessageCodec {
+
+	/**
+	 * Name of the codec
+	 */
+	public static final String NAME = "json";
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/**
+	 * Decodes UTF-8 encoded JSON
+	 */
+	@Override
+	public Message decode(ByteBuffer data) {
+		return new Message(StandardCharsets.UTF_8.decode(data).toString());
+	}
+
+	@Override
+	public List<Framedata> encode(Message message, Draft draft) {
+		return draft.createFrames(message.toString(), false);
+	}
+}
@@ -56,4 +56,19 @@ public class Message extends JSONObject implements MessageConstants {
 		response.put(Message.MESSAGE_ID, message.getString(Message.MESSAGE_ID));
 		return response;
 	}
+
+	/**
+	 * Builds the template for a response message from the header of a received
+	 * message, without decoding its body
+	 *
+	 * @param message Message to respond to
+	 * @return Response template
+	 */
+	public static Message buildResponseMessage(InboundMessage message) {
+		Message response = new Message();
+		response.put(Message.TYPE, Message.RESPONSE);
+		response.put(Message.ACTION, message.getAction());
+		response.put(Message.MESSAGE_ID, message.getMessageID());
+		return response;
+	}
 }
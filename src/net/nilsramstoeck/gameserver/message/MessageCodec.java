@@ -0,0 +1,69 @@
+package net.nilsramstoeck.gameserver.message;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.framing.Framedata;
+
+/**
+ * Encoding of {@link Message}s on the wire. The codec of a connection is
+ * negotiated during the handshake with the {@link #HEADER} header.
+ * 
+ * @author Nils Ramstoeck
+ *
+ */
+public interface MessageCodec {
+
+	/**
+	 * Handshake header a client uses to request a codec. The server answers with
+	 * the name of the selected codec
+	 */
+	public static final String HEADER = "codec";
+
+	/**
+	 * JSON text frames, the default
+	 */
+	public static final MessageCodec JSON = new JSONMessageCodec();
+
+	/**
+	 * Compact binary frames
+	 */
+	public static final MessageCodec BINARY = new BinaryMessageCodec();
+
+	/**
+	 * Name of the codec used during the handshake
+	 * 
+	 * @return name
+	 */
+	public String getName();
+
+	/**
+	 * Decodes a message
+	 * 
+	 * @param data Encoded message
+	 * @return decoded message
+	 * @throws IllegalArgumentException data is not a valid message
+	 */
+	public Message decode(ByteBuffer data);
+
+	/**
+	 * Encodes a message into frames of a WebSocket draft
+	 * 
+	 * @param message Message to encode
+	 * @param draft   Draft of the receiving connection
+	 * @return frames that can be send to the connection
+	 */
+	public List<Framedata> encode(Message message, Draft draft);
+
+	/**
+	 * Gets a codec by its name
+	 * 
+	 * @param name Name of the codec
+	 * @return Codec or {@link #JSON} if the name is unknown or null
+	 */
+	public static MessageCodec forName(String name) {
+		if (name != null && name.trim().equalsIgnoreCase(BINARY.getName())) return BINARY;
+		return JSON;
+	}
+}
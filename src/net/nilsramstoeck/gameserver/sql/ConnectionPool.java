@@ -0,0 +1,280 @@
+package net.nilsramstoeck.gameserver.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import net.nilsramstoeck.gameserver.GameServer;
+
+/**
+ * Bounded pool of connections to one database catalog. Idle connections are
+ * validated before they are handed out and replaced if they are broken.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class ConnectionPool {
+
+	/**
+	 * All pools by their catalog
+	 */
+	private static final ConcurrentHashMap<String, ConnectionPool> pools = new ConcurrentHashMap<String, ConnectionPool>();
+
+	/**
+	 * JDBC URL of the database server
+	 */
+	private final String url;
+
+	/**
+	 * Database user
+	 */
+	private final String user;
+
+	/**
+	 * Database password
+	 */
+	private final String password;
+
+	/**
+	 * Catalog all connections of this pool use
+	 */
+	private final String catalog;
+
+	/**
+	 * Limits the number of connections that can be borrowed at once
+	 */
+	private final Semaphore permits;
+
+	/**
+	 * Idle connections, most recently used first
+	 */
+	private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<PooledConnection>();
+
+	/**
+	 * Time in milliseconds to wait for a free connection
+	 */
+	private final long timeout;
+
+	/**
+	 * Time in milliseconds a connection can be idle before it is validated again
+	 */
+	private final long validationInterval;
+
+	/**
+	 * Time in seconds a validation may take
+	 */
+	private final int validationTimeout;
+
+	/**
+	 * Maximum number of cached prepared statements per connection
+	 */
+	private final int statementCacheSize;
+
+	/**
+	 * If the pool was closed
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a new connection pool
+	 *
+	 * @param _url                JDBC URL of the database server
+	 * @param _user               Database user
+	 * @param _password           Database password
+	 * @param _catalog            Catalog of the connections
+	 * @param size                Maximum number of connections
+	 * @param _timeout            Time in milliseconds to wait for a connection
+	 * @param _validationInterval Idle time in milliseconds before a validation
+	 * @param _validationTimeout  Time in seconds a validation may take
+	 * @param _statementCacheSize Cached prepared statements per connection
+	 */
+	public ConnectionPool(String _url, String _user, String _password, String _catalog, int size, long _timeout, long _validationInterval, int _validationTimeout, int _statementCacheSize) {
+		this.url = _url;
+		this.user = _user;
+		this.password = _password;
+		this.catalog = _catalog;
+		this.permits = new Semaphore(size, true);
+		this.timeout = _timeout;
+		this.validationInterval = _validationInterval;
+		this.validationTimeout = _validationTimeout;
+		this.statementCacheSize = _statementCacheSize;
+	}
+
+	/**
+	 * Gets the shared pool of a catalog. The pool is created from the server
+	 * properties on first use.
+	 *
+	 * @param catalog Catalog of the pool
+	 * @return Connection pool
+	 */
+	public static ConnectionPool forCatalog(String catalog) {
+		return pools.computeIfAbsent(catalog, ConnectionPool::fromProperties);
+	}
+
+	/**
+	 * Creates a pool from the server properties
+	 *
+	 * @param catalog Catalog of the pool
+	 * @return Connection pool
+	 */
+	private static ConnectionPool fromProperties(String catalog) {
+		Properties properties = GameServer.properties;
+		String dbUser = properties.getProperty("sql.user");
+		String dbPass = properties.getProperty("sql.pass", "");
+		int size = Integer.parseInt(properties.getProperty("sql.pool.size", "10"));
+		long timeout = Long.parseLong(properties.getProperty("sql.pool.timeout", "5000"));
+		long validationInterval = Long.parseLong(properties.getProperty("sql.pool.validation_interval", "30")) * 1000;
+		int validationTimeout = Integer.parseInt(properties.getProperty("sql.pool.validation_timeout", "2"));
+		int statementCacheSize = Integer.parseInt(properties.getProperty("sql.pool.statement_cache_size", "64"));
+
+		return new ConnectionPool(ConnectionPool.jdbcUrl(properties), dbUser, dbPass, catalog, size, timeout, validationInterval, validationTimeout, statementCacheSize);
+	}
+
+	/**
+	 * Gets the JDBC URL of the database server. A full URL can be configured
+	 * with {@code sql.jdbc_url}, otherwise a MySQL URL is built from
+	 * {@code sql.url} and {@code sql.port}. The built URL makes the driver
+	 * prepare statements on the server, so the statements cached per connection
+	 * are parsed once instead of on every execution.
+	 *
+	 * @param properties Server properties
+	 * @return JDBC URL
+	 */
+	private static String jdbcUrl(Properties properties) {
+		String url = properties.getProperty("sql.jdbc_url");
+		if (url != null && !url.isEmpty()) return url;
+		return "jdbc:mysql://" + properties.getProperty("sql.url") + ":" + properties.getProperty("sql.port") + "?useServerPrepStmts=true";
+	}
+
+	/**
+	 * Closes all shared pools
+	 */
+	public static void closeAll() {
+		for (ConnectionPool pool : pools.values()) {
+			pool.close();
+		}
+		pools.clear();
+	}
+
+	/**
+	 * Borrows a connection from the pool. The connection has to be returned by
+	 * closing it.
+	 *
+	 * @return Borrowed connection
+	 * @throws SQLException No connection could be established or the pool is
+	 *                      exhausted
+	 */
+	public PooledConnection borrow() throws SQLException {
+		if (this.closed) throw new SQLException("Connection pool is closed", "08003");
+		try {
+			if (!this.permits.tryAcquire(this.timeout, TimeUnit.MILLISECONDS)) {
+				throw new SQLException("Timed out waiting for a connection to " + this.catalog, "08004");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection", "08004", e);
+		}
+
+		try {
+			PooledConnection conn;
+			// reuse idle connections if they are still valid
+			while ((conn = this.idle.pollFirst()) != null) {
+				if (this.validate(conn)) {
+					conn.borrow();
+					return conn;
+				}
+				conn.closeConnection();
+			}
+			// otherwise (re)connect
+			conn = new PooledConnection(this, this.connect(), this.statementCacheSize);
+			conn.borrow();
+			return conn;
+		} catch (SQLException | RuntimeException e) {
+			this.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a connection to the pool
+	 *
+	 * @param conn Connection to return
+	 */
+	void release(PooledConnection conn) {
+		if (this.closed || conn.isBroken()) {
+			conn.closeConnection();
+		} else {
+			conn.touch();
+			this.idle.offerFirst(conn);
+		}
+		this.permits.release();
+	}
+
+	/**
+	 * Opens a new connection to the catalog of the pool
+	 *
+	 * @return new connection
+	 * @throws SQLException Connection failed
+	 */
+	private Connection connect() throws SQLException {
+		Connection conn = DriverManager.getConnection(this.url, this.user, this.password);
+		conn.setCatalog(this.catalog);
+		return conn;
+	}
+
+	/**
+	 * Checks if an idle connection can still be used
+	 *
+	 * @param conn Connection to check
+	 * @return if the connection is valid
+	 */
+	private boolean validate(PooledConnection conn) {
+		// recently used connections are assumed to be valid
+		if (System.currentTimeMillis() - conn.getLastUsed() < this.validationInterval) return true;
+		try {
+			return conn.getConnection().isValid(this.validationTimeout);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Closes all idle connections. Borrowed connections are closed when they are
+	 * returned.
+	 */
+	public void close() {
+		this.closed = true;
+		PooledConnection conn;
+		while ((conn = this.idle.pollFirst()) != null) {
+			conn.closeConnection();
+		}
+	}
+
+	/**
+	 * Catalog getter
+	 *
+	 * @return {@link #catalog}
+	 */
+	public String getCatalog() {
+		return this.catalog;
+	}
+
+	/**
+	 * Checks if an exception was caused by a broken connection
+	 *
+	 * @param e Exception to check
+	 * @return if the connection is broken
+	 */
+	public static boolean isConnectionError(SQLException e) {
+		if (e instanceof SQLNonTransientConnectionException || e instanceof SQLRecoverableException) return true;
+		String state = e.getSQLState();
+		return state != null && state.startsWith("08");
+	}
+}
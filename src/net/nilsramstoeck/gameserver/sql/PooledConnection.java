@@ -0,0 +1,254 @@
+package net.nilsramstoeck.gameserver.sql;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@code Connection} borrowed from a {@link ConnectionPool}. Closing it
+ * returns the connection to its pool. Prepared statements are cached per
+ * connection and stay open until the connection is discarded.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class PooledConnection implements AutoCloseable {
+
+	/**
+	 * Pool the connection belongs to
+	 */
+	private final ConnectionPool pool;
+
+	/**
+	 * Underlying connection
+	 */
+	private final Connection conn;
+
+	/**
+	 * Time the connection was last returned to the pool
+	 */
+	private long lastUsed;
+
+	/**
+	 * If the connection is broken and has to be discarded
+	 */
+	private boolean broken = false;
+
+	/**
+	 * If the connection is currently borrowed from the pool
+	 */
+	private boolean borrowed = false;
+
+	/**
+	 * Prepared statements by their SQL text, least recently used first
+	 */
+	private final LinkedHashMap<String, PreparedStatement> statements;
+
+	PooledConnection(ConnectionPool _pool, Connection _conn, int statementCacheSize) {
+		this.pool = _pool;
+		this.conn = _conn;
+		this.lastUsed = System.currentTimeMillis();
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (this.size() <= statementCacheSize) return false;
+				PooledConnection.closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Connection getter
+	 *
+	 * @return {@link #conn}
+	 */
+	public Connection getConnection() {
+		return this.conn;
+	}
+
+	/**
+	 * Gets a cached prepared statement for a query and binds its parameters. The
+	 * statement belongs to the connection and must not be closed by the caller,
+	 * only its {@code ResultSet}.
+	 *
+	 * @param query  Query with '?' place holders
+	 * @param params Values to replace the place holders
+	 * @return prepared statement
+	 * @throws SQLException SQLException
+	 */
+	public PreparedStatement prepare(String query, Object... params) throws SQLException {
+		PreparedStatement stmt = this.statements.get(query);
+		if (stmt == null || stmt.isClosed()) {
+			stmt = this.conn.prepareStatement(query);
+			this.statements.put(query, stmt);
+		} else {
+			stmt.clearParameters();
+		}
+		try {
+			PooledConnection.bind(stmt, params);
+		} catch (SQLException e) {
+			this.statements.remove(query);
+			PooledConnection.closeQuietly(stmt);
+			throw e;
+		}
+		return stmt;
+	}
+
+	/**
+	 * Prepares a statement without caching it and binds its parameters. Used for
+	 * generated SQL like multi-row statements, whose text changes with the number
+	 * of rows and would push the reused statements out of the cache. The caller
+	 * closes the statement.
+	 *
+	 * @param query  Query with '?' place holders
+	 * @param params Values to replace the place holders
+	 * @return prepared statement
+	 * @throws SQLException SQLException
+	 */
+	public PreparedStatement prepareUncached(String query, Object... params) throws SQLException {
+		PreparedStatement stmt = this.conn.prepareStatement(query);
+		try {
+			PooledConnection.bind(stmt, params);
+		} catch (SQLException e) {
+			PooledConnection.closeQuietly(stmt);
+			throw e;
+		}
+		return stmt;
+	}
+
+	/**
+	 * Binds parameters to a statement using their native SQL types
+	 *
+	 * @param stmt   Statement to bind the parameters to
+	 * @param params Values to replace the place holders
+	 * @throws SQLException SQLException
+	 */
+	public static void bind(PreparedStatement stmt, Object... params) throws SQLException {
+		int i = 0;
+		for (Object p : params) {
+			i++;
+			if (p == null) {
+				stmt.setNull(i, Types.NULL);
+			} else if (p instanceof String) {
+				stmt.setString(i, (String) p);
+			} else if (p instanceof Integer) {
+				stmt.setInt(i, (Integer) p);
+			} else if (p instanceof Long) {
+				stmt.setLong(i, (Long) p);
+			} else if (p instanceof Boolean) {
+				stmt.setBoolean(i, (Boolean) p);
+			} else if (p instanceof Double) {
+				stmt.setDouble(i, (Double) p);
+			} else if (p instanceof Float) {
+				stmt.setFloat(i, (Float) p);
+			} else if (p instanceof Short) {
+				stmt.setShort(i, (Short) p);
+			} else if (p instanceof BigDecimal) {
+				stmt.setBigDecimal(i, (BigDecimal) p);
+			} else if (p instanceof Timestamp) {
+				stmt.setTimestamp(i, (Timestamp) p);
+			} else if (p instanceof byte[]) {
+				stmt.setBytes(i, (byte[]) p);
+			} else {
+				stmt.setObject(i, p);
+			}
+		}
+	}
+
+	/**
+	 * Marks the connection as broken if the exception was caused by the
+	 * connection itself. Broken connections are discarded by the pool.
+	 *
+	 * @param e Exception thrown while using the connection
+	 */
+	public void invalidateOn(SQLException e) {
+		if (ConnectionPool.isConnectionError(e)) {
+			this.broken = true;
+		}
+	}
+
+	/**
+	 * Marks the connection as broken
+	 */
+	public void invalidate() {
+		this.broken = true;
+	}
+
+	/**
+	 * Checks if the connection is marked as broken
+	 *
+	 * @return if the connection is broken
+	 */
+	boolean isBroken() {
+		return this.broken;
+	}
+
+	/**
+	 * lastUsed getter
+	 *
+	 * @return {@link #lastUsed}
+	 */
+	long getLastUsed() {
+		return this.lastUsed;
+	}
+
+	/**
+	 * Marks the connection as borrowed
+	 */
+	void borrow() {
+		this.borrowed = true;
+	}
+
+	/**
+	 * Sets {@link #lastUsed} to now
+	 */
+	void touch() {
+		this.lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * Closes all cached statements and the underlying connection
+	 */
+	void closeConnection() {
+		for (PreparedStatement stmt : this.statements.values()) {
+			PooledConnection.closeQuietly(stmt);
+		}
+		this.statements.clear();
+		try {
+			this.conn.close();
+		} catch (SQLException e) {
+			// connection is discarded anyway
+		}
+	}
+
+	/**
+	 * Closes a statement, ignoring errors
+	 *
+	 * @param stmt Statement to close
+	 */
+	private static void closeQuietly(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+			// statement is discarded anyway
+		}
+	}
+
+	/**
+	 * Returns the connection to its pool
+	 */
+	@Override
+	public void close() {
+		if (!this.borrowed) return;
+		this.borrowed = false;
+		this.pool.release(this);
+	}
+}
@@ -0,0 +1,25 @@
+package net.nilsramstoeck.gameserver.sql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps a {@code ResultSet} to a value while its connection is still borrowed
+ * from the pool
+ * 
+ * @author Nils Ramstoeck
+ *
+ * @param <T> Type of the mapped value
+ */
+@FunctionalInterface
+public interface ResultMapper<T> {
+
+	/**
+	 * Maps the result of a query
+	 * 
+	 * @param result Result of the query
+	 * @return mapped value
+	 * @throws SQLException SQLException
+	 */
+	public T map(ResultSet result) throws SQLException;
+}
@@ -0,0 +1,179 @@
+package net.nilsramstoeck.gameserver.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.nilsramstoeck.gameserver.GameServerException;
+import net.nilsramstoeck.gameserver.log.Logger;
+
+/**
+ * {@link MemoryStorage} that is loaded from a local file on open and written
+ * back to it periodically and on close. The file is replaced atomically, so a
+ * crash loses at most the changes since the last write.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class FileStorage extends MemoryStorage {
+
+	/**
+	 * Logger of the file storage
+	 */
+	private static final Logger LOG = Logger.getLogger(FileStorage.class);
+
+	/**
+	 * File of the storage
+	 */
+	private final Path file;
+
+	/**
+	 * Time in milliseconds between two writes
+	 */
+	private final long interval;
+
+	/**
+	 * If the storage was changed since it was written, guarded by this
+	 */
+	private boolean dirty = false;
+
+	/**
+	 * Serializes writes of the file
+	 */
+	private final Object writeLock = new Object();
+
+	/**
+	 * Thread that writes the file
+	 */
+	private Thread syncThread = null;
+
+	/**
+	 * Creates a file storage
+	 *
+	 * @param _file     File of the storage
+	 * @param _interval Time in milliseconds between two writes
+	 */
+	public FileStorage(Path _file, long _interval) {
+		this.file = _file;
+		this.interval = _interval;
+	}
+
+	/**
+	 * Creates a file storage from the server properties
+	 *
+	 * @param properties Server properties
+	 * @return Storage
+	 */
+	public static FileStorage fromProperties(Properties properties) {
+		Path file = Paths.get(properties.getProperty("storage.file.path", "gameserver.db"));
+		long interval = Long.parseLong(properties.getProperty("storage.file.sync_interval", "10")) * 1000;
+		return new FileStorage(file, interval);
+	}
+
+	@Override
+	public synchronized void open() throws GameServerException {
+		if (this.syncThread != null) return;
+		if (Files.exists(this.file)) {
+			try (InputStream in = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(this.file)))) {
+				this.readFrom(new DataInputStream(in));
+			} catch (IOException e) {
+				throw new GameServerException("Could not read " + this.file + ": " + e.getMessage(), GameServerException.SQL_ERROR);
+			}
+			LOG.info("Loaded storage from " + this.file);
+		}
+
+		this.syncThread = new Thread("FileStorage-Sync") {
+			@Override
+			public void run() {
+				while (!this.isInterrupted()) {
+					try {
+						Thread.sleep(FileStorage.this.interval);
+					} catch (InterruptedException e) {
+						break;
+					}
+					FileStorage.this.sync();
+				}
+			}
+		};
+		this.syncThread.setDaemon(true);
+		this.syncThread.start();
+		// write pending changes when the server shuts down
+		Runtime.getRuntime().addShutdownHook(new Thread(this::sync, "FileStorage-Shutdown"));
+	}
+
+	@Override
+	public void close() {
+		Thread thread;
+		synchronized (this) {
+			thread = this.syncThread;
+			this.syncThread = null;
+		}
+		if (thread != null) thread.interrupt();
+		this.sync();
+	}
+
+	@Override
+	protected void changed() {
+		this.dirty = true;
+	}
+
+	/**
+	 * Writes the storage to its file if it was changed
+	 *
+	 * @return if the file is up to date
+	 */
+	public boolean sync() {
+		synchronized (this.writeLock) {
+			// take a consistent dump under the lock, write it outside of it
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			synchronized (this) {
+				if (!this.dirty) return true;
+				try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+					this.writeTo(out);
+				} catch (IOException e) {
+					LOG.error("Could not encode storage", e);
+					return false;
+				}
+				this.dirty = false;
+			}
+
+			Path temp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+			try {
+				try (OutputStream out = Files.newOutputStream(temp)) {
+					bytes.writeTo(out);
+				}
+				try {
+					Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING);
+				}
+				if (LOG.isDebugEnabled()) LOG.debug("Wrote " + bytes.size() + " bytes to " + this.file);
+				return true;
+			} catch (IOException e) {
+				// try again with the next sync
+				synchronized (this) {
+					this.dirty = true;
+				}
+				LOG.error("Could not write " + this.file, e);
+				return false;
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "file " + this.file.toAbsolutePath();
+	}
+}
@@ -0,0 +1,605 @@
+package net.nilsramstoeck.gameserver.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import net.nilsramstoeck.gameserver.GameServerException;
+import net.nilsramstoeck.gameserver.SessionIndex;
+
+/**
+ * Storage that keeps everything in the memory of the server. It follows the
+ * constraints of the SQL schema: players need an existing game, values and
+ * states need an existing game or player and are deleted with it. Reads don't
+ * lock, changes are serialized on the storage. Nothing survives a restart, use
+ * {@link FileStorage} for that.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class MemoryStorage implements Storage {
+
+	/**
+	 * Identifies a dump of the storage
+	 */
+	private static final int MAGIC = 0x47534442;
+
+	/**
+	 * Format of a dump of the storage
+	 */
+	private static final byte FORMAT_VERSION = 0x02;
+
+	/**
+	 * Registered users by their username
+	 */
+	private final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<String, User>();
+
+	/**
+	 * Active sessions by their session ID
+	 */
+	private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+
+	/**
+	 * Games by their GameID
+	 */
+	private final ConcurrentHashMap<String, Game> games = new ConcurrentHashMap<String, Game>();
+
+	/**
+	 * GameID of every player by UserID
+	 */
+	private final ConcurrentHashMap<Integer, String> players = new ConcurrentHashMap<Integer, String>();
+
+	/**
+	 * Values by owner key and name
+	 */
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, String>> values = new ConcurrentHashMap<String, ConcurrentHashMap<String, String>>();
+
+	/**
+	 * States by owner key
+	 */
+	private final ConcurrentHashMap<String, StoredState> states = new ConcurrentHashMap<String, StoredState>();
+
+	/**
+	 * Next number of every sequence by its name
+	 */
+	private final ConcurrentHashMap<String, Long> sequences = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * UserID of the next session, guarded by this
+	 */
+	private int nextUserID = 1;
+
+	@Override
+	public void open() throws GameServerException {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * Gets called after every change of the storage while its lock is held
+	 */
+	protected void changed() {
+	}
+
+	/**
+	 * Key of the values and state of an owner
+	 *
+	 * @param owner   Owner type
+	 * @param ownerID GameID or UserID
+	 * @return key
+	 */
+	private static String key(Owner owner, String ownerID) {
+		return owner + "/" + ownerID;
+	}
+
+	/**
+	 * Checks if the owner of values and states exists
+	 *
+	 * @param owner   Owner type
+	 * @param ownerID GameID or UserID
+	 * @return if the owner exists
+	 */
+	private boolean ownerExists(Owner owner, String ownerID) {
+		if (owner == Owner.GAME) return this.games.containsKey(ownerID);
+		try {
+			return this.players.containsKey(Integer.parseInt(ownerID));
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Deletes the values and state of an owner
+	 *
+	 * @param owner   Owner type
+	 * @param ownerID GameID or UserID
+	 */
+	private void deleteOwned(Owner owner, String ownerID) {
+		this.values.remove(MemoryStorage.key(owner, ownerID));
+		this.states.remove(MemoryStorage.key(owner, ownerID));
+	}
+
+	/**
+	 * Oldest access time that is not expired
+	 *
+	 * @param timeout Timeout in minutes
+	 * @return time in milliseconds
+	 */
+	private static long cutoff(int timeout) {
+		return System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(timeout);
+	}
+
+	@Override
+	public synchronized void registerUser(String username, String passwordHash, int authLevel) throws GameServerException {
+		if (this.users.putIfAbsent(username, new User(passwordHash, authLevel)) != null) {
+			throw new GameServerException("username is already in use", GameServerException.DUP_USERNAME);
+		}
+		this.changed();
+	}
+
+	@Override
+	public String getPasswordHash(String username) throws GameServerException {
+		User user = this.users.get(username);
+		return user == null ? null : user.passwordHash;
+	}
+
+	@Override
+	public boolean isRegistered(String username) throws GameServerException {
+		return this.users.containsKey(username);
+	}
+
+	@Override
+	public int getAuthLevel(String username) throws GameServerException {
+		User user = this.users.get(username);
+		if (user == null) throw new GameServerException("Unknown user", GameServerException.SQL_ERROR);
+		return user.authLevel;
+	}
+
+	@Override
+	public synchronized boolean createSession(String sessionID, String username) throws GameServerException {
+		if (this.sessions.containsKey(sessionID)) return false;
+		this.sessions.put(sessionID, new Session(this.nextUserID++, username, System.currentTimeMillis()));
+		this.changed();
+		return true;
+	}
+
+	@Override
+	public synchronized void saveSession(String sessionID, String username) throws GameServerException {
+		Session session = this.sessions.get(sessionID);
+		if (session == null) {
+			this.sessions.put(sessionID, new Session(this.nextUserID++, username, System.currentTimeMillis()));
+		} else {
+			session.username = username;
+			session.lastAccess = System.currentTimeMillis();
+		}
+		this.changed();
+	}
+
+	@Override
+	public int getUserId(String sessionID) throws GameServerException {
+		return this.getSession(sessionID).userID;
+	}
+
+	@Override
+	public String getUsername(String sessionID) throws GameServerException {
+		return this.getSession(sessionID).username;
+	}
+
+	/**
+	 * Gets an existing session
+	 *
+	 * @param sessionID Session ID
+	 * @return Session
+	 * @throws GameServerException the session is unknown
+	 */
+	private Session getSession(String sessionID) throws GameServerException {
+		Session session = this.sessions.get(sessionID);
+		if (session == null) throw new GameServerException("Unknown session", GameServerException.SQL_ERROR);
+		return session;
+	}
+
+	@Override
+	public synchronized void removeSession(String sessionID) throws GameServerException {
+		Session session = this.sessions.get(sessionID);
+		if (session == null) return;
+		// players reference their users
+		if (this.players.containsKey(session.userID)) {
+			throw new GameServerException("Session " + sessionID + " is still in a game", GameServerException.SQL_ERROR);
+		}
+		this.deleteSession(sessionID, session);
+		this.changed();
+	}
+
+	/**
+	 * Deletes a session that is not in a game
+	 *
+	 * @param sessionID Session ID
+	 * @param session   Session
+	 */
+	private void deleteSession(String sessionID, Session session) {
+		this.sessions.remove(sessionID);
+		// games of the user lose their host
+		for (Game game : this.games.values()) {
+			if (game.hostID == session.userID) game.hostID = 0;
+		}
+	}
+
+	@Override
+	public synchronized void loadSessions(SessionIndex index) throws GameServerException {
+		for (Entry<String, Session> e : this.sessions.entrySet()) {
+			int userID = e.getValue().userID;
+			index.putSession(e.getKey(), userID);
+			index.putPlayer(userID, this.players.get(userID));
+		}
+	}
+
+	@Override
+	public synchronized long reserveIds(String sequence, int count) throws GameServerException {
+		long start = this.sequences.getOrDefault(sequence, 0L);
+		this.sequences.put(sequence, start + count);
+		this.changed();
+		return start;
+	}
+
+	@Override
+	public synchronized void createGame(String gameID, int hostID) throws GameServerException {
+		if (this.games.containsKey(gameID)) throw new GameServerException("Duplicate game " + gameID, GameServerException.SQL_ERROR);
+		if (this.isHost(hostID)) throw new GameServerException("User " + hostID + " already hosts a game", GameServerException.SQL_ERROR);
+		this.games.put(gameID, new Game(hostID, System.currentTimeMillis()));
+		this.changed();
+	}
+
+	@Override
+	public boolean isHost(int userID) throws GameServerException {
+		for (Game game : this.games.values()) {
+			if (game.hostID == userID) return true;
+		}
+		return false;
+	}
+
+	@Override
+	public synchronized void addPlayer(String gameID, int userID) throws GameServerException {
+		if (!this.games.containsKey(gameID)) {
+			throw new GameServerException("Game does not Exist", GameServerException.GAME_NOT_FOUND);
+		}
+		if (this.players.putIfAbsent(userID, gameID) != null) {
+			throw new GameServerException("User " + userID + " is already in a game", GameServerException.SQL_ERROR);
+		}
+		this.changed();
+	}
+
+	@Override
+	public synchronized void removePlayer(int userID) throws GameServerException {
+		if (this.players.remove(userID) == null) return;
+		this.deleteOwned(Owner.PLAYER, Integer.toString(userID));
+		this.changed();
+	}
+
+	@Override
+	public synchronized void touchSessions(Map<String, Long> accesses) throws GameServerException {
+		for (Entry<String, Long> e : accesses.entrySet()) {
+			Session session = this.sessions.get(e.getKey());
+			if (session != null) session.lastAccess = e.getValue();
+		}
+		if (!accesses.isEmpty()) this.changed();
+	}
+
+	@Override
+	public synchronized void touchGames(Map<String, Long> accesses) throws GameServerException {
+		for (Entry<String, Long> e : accesses.entrySet()) {
+			Game game = this.games.get(e.getKey());
+			if (game != null) game.lastAccess = e.getValue();
+		}
+		if (!accesses.isEmpty()) this.changed();
+	}
+
+	@Override
+	public synchronized List<String> findExpiredSessions(int timeout, String after, int limit) throws GameServerException {
+		long cutoff = MemoryStorage.cutoff(timeout);
+		TreeSet<String> page = new TreeSet<String>();
+		for (Entry<String, Session> e : this.sessions.entrySet()) {
+			if (e.getValue().lastAccess > cutoff || e.getKey().compareTo(after) <= 0) continue;
+			MemoryStorage.addToPage(page, e.getKey(), limit);
+		}
+		return new ArrayList<String>(page);
+	}
+
+	@Override
+	public synchronized List<String> deleteExpiredSessions(Collection<String> sessionIDs, int timeout) throws GameServerException {
+		long cutoff = MemoryStorage.cutoff(timeout);
+		ArrayList<String> deleted = new ArrayList<String>();
+		for (String sessionID : sessionIDs) {
+			Session session = this.sessions.get(sessionID);
+			// sessions accessed since they were found are kept
+			if (session == null || session.lastAccess > cutoff) continue;
+			if (this.players.remove(session.userID) != null) {
+				this.deleteOwned(Owner.PLAYER, Integer.toString(session.userID));
+			}
+			this.deleteSession(sessionID, session);
+			deleted.add(sessionID);
+		}
+		if (!deleted.isEmpty()) this.changed();
+		return deleted;
+	}
+
+	@Override
+	public synchronized List<String> findExpiredGames(int timeout, String after, int limit) throws GameServerException {
+		long cutoff = MemoryStorage.cutoff(timeout);
+		TreeSet<String> page = new TreeSet<String>();
+		for (Entry<String, Game> e : this.games.entrySet()) {
+			if (e.getValue().lastAccess > cutoff || e.getKey().compareTo(after) <= 0) continue;
+			MemoryStorage.addToPage(page, e.getKey(), limit);
+		}
+		return new ArrayList<String>(page);
+	}
+
+	@Override
+	public synchronized List<String> deleteExpiredGames(Collection<String> gameIDs, int timeout) throws GameServerException {
+		long cutoff = MemoryStorage.cutoff(timeout);
+		ArrayList<String> deleted = new ArrayList<String>();
+		for (String gameID : gameIDs) {
+			Game game = this.games.get(gameID);
+			// games accessed since they were found are kept
+			if (game == null || game.lastAccess > cutoff) continue;
+			deleted.add(gameID);
+		}
+		if (!deleted.isEmpty()) this.removeGames(deleted);
+		return deleted;
+	}
+
+	/**
+	 * Adds an ID to a page of the smallest IDs
+	 *
+	 * @param page  Page of IDs
+	 * @param id    ID to add
+	 * @param limit Maximum size of the page
+	 */
+	private static void addToPage(TreeSet<String> page, String id, int limit) {
+		if (page.size() < limit) {
+			page.add(id);
+		} else if (limit > 0 && id.compareTo(page.last()) < 0) {
+			page.pollLast();
+			page.add(id);
+		}
+	}
+
+	@Override
+	public synchronized void removeSessions(Collection<String> sessionIDs) throws GameServerException {
+		for (String sessionID : sessionIDs) {
+			Session session = this.sessions.get(sessionID);
+			if (session == null) continue;
+			if (this.players.remove(session.userID) != null) {
+				this.deleteOwned(Owner.PLAYER, Integer.toString(session.userID));
+			}
+			this.deleteSession(sessionID, session);
+		}
+		this.changed();
+	}
+
+	@Override
+	public synchronized void removeGames(Collection<String> gameIDs) throws GameServerException {
+		HashSet<String> removed = new HashSet<String>();
+		for (String gameID : gameIDs) {
+			if (this.games.remove(gameID) == null) continue;
+			this.deleteOwned(Owner.GAME, gameID);
+			removed.add(gameID);
+		}
+		// players reference their game
+		for (Entry<Integer, String> e : this.players.entrySet()) {
+			if (!removed.contains(e.getValue())) continue;
+			this.players.remove(e.getKey());
+			this.deleteOwned(Owner.PLAYER, Integer.toString(e.getKey()));
+		}
+		this.changed();
+	}
+
+	@Override
+	public Map<String, String> loadValues(Owner owner, String ownerID) throws GameServerException {
+		Map<String, String> stored = this.values.get(MemoryStorage.key(owner, ownerID));
+		return stored == null ? new HashMap<String, String>() : new HashMap<String, String>(stored);
+	}
+
+	@Override
+	public synchronized boolean writeValues(Owner owner, String ownerID, Map<String, String> upserts, Collection<String> deletes) throws GameServerException {
+		if (!this.ownerExists(owner, ownerID)) return false;
+		ConcurrentHashMap<String, String> stored = this.values.computeIfAbsent(MemoryStorage.key(owner, ownerID), k -> new ConcurrentHashMap<String, String>());
+		stored.putAll(upserts);
+		stored.keySet().removeAll(deletes);
+		this.changed();
+		return true;
+	}
+
+	@Override
+	public StoredState loadState(Owner owner, String ownerID) throws GameServerException {
+		return this.states.get(MemoryStorage.key(owner, ownerID));
+	}
+
+	@Override
+	public synchronized SaveResult saveState(Owner owner, String ownerID, long expectedVersion, byte[] data) throws GameServerException {
+		if (!this.ownerExists(owner, ownerID)) return SaveResult.ORPHANED;
+		StoredState stored = this.states.get(MemoryStorage.key(owner, ownerID));
+		long version = stored == null ? 0 : stored.getVersion();
+		if (version != expectedVersion) return SaveResult.CONFLICT;
+		this.states.put(MemoryStorage.key(owner, ownerID), new StoredState(version + 1, data));
+		this.changed();
+		return SaveResult.SAVED;
+	}
+
+	/**
+	 * Writes the content of the storage
+	 *
+	 * @param out Output
+	 * @throws IOException IOException
+	 */
+	protected synchronized void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeByte(FORMAT_VERSION);
+		out.writeInt(this.nextUserID);
+
+		out.writeInt(this.users.size());
+		for (Entry<String, User> e : this.users.entrySet()) {
+			out.writeUTF(e.getKey());
+			out.writeUTF(e.getValue().passwordHash);
+			out.writeInt(e.getValue().authLevel);
+		}
+
+		out.writeInt(this.sessions.size());
+		for (Entry<String, Session> e : this.sessions.entrySet()) {
+			out.writeUTF(e.getKey());
+			out.writeInt(e.getValue().userID);
+			out.writeUTF(e.getValue().username);
+			out.writeLong(e.getValue().lastAccess);
+		}
+
+		out.writeInt(this.games.size());
+		for (Entry<String, Game> e : this.games.entrySet()) {
+			out.writeUTF(e.getKey());
+			out.writeInt(e.getValue().hostID);
+			out.writeLong(e.getValue().lastAccess);
+		}
+
+		out.writeInt(this.players.size());
+		for (Entry<Integer, String> e : this.players.entrySet()) {
+			out.writeInt(e.getKey());
+			out.writeUTF(e.getValue());
+		}
+
+		out.writeInt(this.values.size());
+		for (Entry<String, ConcurrentHashMap<String, String>> owned : this.values.entrySet()) {
+			out.writeUTF(owned.getKey());
+			out.writeInt(owned.getValue().size());
+			for (Entry<String, String> e : owned.getValue().entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeUTF(e.getValue());
+			}
+		}
+
+		out.writeInt(this.states.size());
+		for (Entry<String, StoredState> e : this.states.entrySet()) {
+			out.writeUTF(e.getKey());
+			out.writeLong(e.getValue().getVersion());
+			out.writeInt(e.getValue().getData().length);
+			out.write(e.getValue().getData());
+		}
+
+		out.writeInt(this.sequences.size());
+		for (Entry<String, Long> e : this.sequences.entrySet()) {
+			out.writeUTF(e.getKey());
+			out.writeLong(e.getValue());
+		}
+	}
+
+	/**
+	 * Replaces the content of the storage with a dump of {@link #writeTo}. Dumps
+	 * of format 1 have no sequences.
+	 *
+	 * @param in Input
+	 * @throws IOException invalid or unsupported dump
+	 */
+	protected synchronized void readFrom(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC) throw new IOException("Unsupported storage format");
+		byte format = in.readByte();
+		if (format < 0x01 || format > FORMAT_VERSION) throw new IOException("Unsupported storage format " + format);
+		this.users.clear();
+		this.sessions.clear();
+		this.games.clear();
+		this.players.clear();
+		this.values.clear();
+		this.states.clear();
+		this.sequences.clear();
+		this.nextUserID = in.readInt();
+
+		for (int i = in.readInt(); i > 0; i--) {
+			this.users.put(in.readUTF(), new User(in.readUTF(), in.readInt()));
+		}
+		for (int i = in.readInt(); i > 0; i--) {
+			String sessionID = in.readUTF();
+			this.sessions.put(sessionID, new Session(in.readInt(), in.readUTF(), in.readLong()));
+		}
+		for (int i = in.readInt(); i > 0; i--) {
+			String gameID = in.readUTF();
+			this.games.put(gameID, new Game(in.readInt(), in.readLong()));
+		}
+		for (int i = in.readInt(); i > 0; i--) {
+			this.players.put(in.readInt(), in.readUTF());
+		}
+		for (int i = in.readInt(); i > 0; i--) {
+			ConcurrentHashMap<String, String> owned = new ConcurrentHashMap<String, String>();
+			this.values.put(in.readUTF(), owned);
+			for (int j = in.readInt(); j > 0; j--) {
+				owned.put(in.readUTF(), in.readUTF());
+			}
+		}
+		for (int i = in.readInt(); i > 0; i--) {
+			String key = in.readUTF();
+			long version = in.readLong();
+			int length = in.readInt();
+			if (length < 0) throw new IOException("Invalid length");
+			byte[] data = new byte[length];
+			in.readFully(data);
+			this.states.put(key, new StoredState(version, data));
+		}
+		if (format < 0x02) return;
+		for (int i = in.readInt(); i > 0; i--) {
+			this.sequences.put(in.readUTF(), in.readLong());
+		}
+	}
+
+	/**
+	 * Registered user
+	 */
+	private static final class User {
+		private final String passwordHash;
+		private final int authLevel;
+
+		private User(String _passwordHash, int _authLevel) {
+			this.passwordHash = _passwordHash;
+			this.authLevel = _authLevel;
+		}
+	}
+
+	/**
+	 * Active session
+	 */
+	private static final class Session {
+		private final int userID;
+		private volatile String username;
+		private volatile long lastAccess;
+
+		private Session(int _userID, String _username, long _lastAccess) {
+			this.userID = _userID;
+			this.username = _username;
+			this.lastAccess = _lastAccess;
+		}
+	}
+
+	/**
+	 * Game, a host of 0 means the host is gone
+	 */
+	private static final class Game {
+		private volatile int hostID;
+		private volatile long lastAccess;
+
+		private Game(int _hostID, long _lastAccess) {
+			this.hostID = _hostID;
+			this.lastAccess = _lastAccess;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "memory";
+	}
+}
@@ -0,0 +1,836 @@
+package net.nilsramstoeck.gameserver.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import com.mysql.cj.exceptions.MysqlErrorNumbers;
+
+import net.nilsramstoeck.gameserver.GameServerException;
+import net.nilsramstoeck.gameserver.SessionIndex;
+import net.nilsramstoeck.gameserver.log.Logger;
+import net.nilsramstoeck.gameserver.sql.ConnectionPool;
+import net.nilsramstoeck.gameserver.sql.PooledConnection;
+import net.nilsramstoeck.gameserver.sql.ResultMapper;
+
+/**
+ * Storage in a MySQL server. Login information is kept in its own database,
+ * everything else in the game database.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class MySQLStorage implements Storage {
+
+	/**
+	 * Logger of the database layer
+	 */
+	private static final Logger LOG = Logger.getLogger(MySQLStorage.class);
+
+	/**
+	 * SQL Update Queries
+	 */
+	private static final String SQL_UPDATE_CMD = "insert update delete";
+
+	/**
+	 * Maximum number of rows per multi-row statement
+	 */
+	private static final int ROWS_PER_STATEMENT = 500;
+
+	/**
+	 * MySQL error of a failed foreign key check
+	 */
+	private static final int ER_NO_REFERENCED_ROW = 1452;
+
+	/**
+	 * Connections to the database that stores login information
+	 */
+	private final ConnectionPool loginPool;
+
+	/**
+	 * Connections to the database that stores game data
+	 */
+	private final ConnectionPool gamePool;
+
+	/**
+	 * Creates a MySQL storage
+	 *
+	 * @param _loginPool Connections to the login database
+	 * @param _gamePool  Connections to the game database
+	 */
+	public MySQLStorage(ConnectionPool _loginPool, ConnectionPool _gamePool) {
+		this.loginPool = _loginPool;
+		this.gamePool = _gamePool;
+	}
+
+	/**
+	 * Creates a MySQL storage from the server properties
+	 *
+	 * @param properties Server properties
+	 * @return Storage
+	 */
+	public static MySQLStorage fromProperties(Properties properties) {
+		ConnectionPool login = ConnectionPool.forCatalog(properties.getProperty("sql.login_database"));
+		ConnectionPool game = ConnectionPool.forCatalog(properties.getProperty("sql.database"));
+		return new MySQLStorage(login, game);
+	}
+
+	@Override
+	public void open() throws GameServerException {
+		try {
+			this.loginPool.borrow().close();
+			this.gamePool.borrow().close();
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		this.loginPool.close();
+		this.gamePool.close();
+	}
+
+	/**
+	 * LoginPool getter
+	 *
+	 * @return {@link #loginPool}
+	 */
+	public ConnectionPool getLoginPool() {
+		return this.loginPool;
+	}
+
+	/**
+	 * GamePool getter
+	 *
+	 * @return {@link #gamePool}
+	 */
+	public ConnectionPool getGamePool() {
+		return this.gamePool;
+	}
+
+	/**
+	 * Uses a prepared statement to execute a query. The statement is cached by
+	 * the connection and must not be closed, only its {@code ResultSet}.
+	 *
+	 * @param conn   Connection to execute the query on
+	 * @param query  Query to be executed with '?' place holders
+	 * @param params Values to replace the place holders
+	 * @return used statement
+	 * @throws SQLException SQLException
+	 */
+	private static PreparedStatement prepareAndExecuteStatement(PooledConnection conn, String query, Object... params) throws SQLException {
+		// get cached statement and fill in placeholders
+		PreparedStatement stmt = conn.prepare(query, params);
+
+		if (LOG.isDebugEnabled()) LOG.debug(MySQLStorage.describe(stmt));
+
+		// execute query
+		stmt.execute();
+
+		return stmt;
+	}
+
+	/**
+	 * Executes generated SQL like a multi-row statement. Its statement is not
+	 * cached, see {@link PooledConnection#prepareUncached(String, Object...)}
+	 *
+	 * @param conn   Connection to execute the query on
+	 * @param query  Query to be executed with '?' place holders
+	 * @param params Values to replace the place holders
+	 * @return number of affected rows
+	 * @throws SQLException SQLException
+	 */
+	private static int executeGenerated(PooledConnection conn, String query, Object... params) throws SQLException {
+		try (PreparedStatement stmt = conn.prepareUncached(query, params)) {
+			if (LOG.isDebugEnabled()) LOG.debug(MySQLStorage.describe(stmt));
+			return stmt.executeUpdate();
+		}
+	}
+
+	/**
+	 * Gets the SQL of a statement with its bound parameters, for logging
+	 *
+	 * @param stmt Statement to describe
+	 * @return SQL text
+	 */
+	private static String describe(PreparedStatement stmt) {
+		// the driver prefixes the SQL with the class name of the statement
+		String text = stmt.toString();
+		int start = text.indexOf(": ");
+		return start < 0 ? text : text.substring(start + 2);
+	}
+
+	/**
+	 * Executes a query and maps its result while the connection is borrowed
+	 *
+	 * @param <T>    Type of the mapped result
+	 * @param pool   Pool of the database to query
+	 * @param query  Query to be executed with '?' place holders
+	 * @param mapper Maps the {@code ResultSet} to a value
+	 * @param params Values to replace the place holders
+	 * @return mapped result
+	 * @throws SQLException SQLException
+	 */
+	public static <T> T preparedQuery(ConnectionPool pool, String query, ResultMapper<T> mapper, Object... params) throws SQLException {
+		PooledConnection conn = pool.borrow();
+		try (ResultSet result = MySQLStorage.prepareAndExecuteStatement(conn, query, params).getResultSet()) {
+			return mapper.map(result);
+		} catch (SQLException e) {
+			conn.invalidateOn(e);
+			throw e;
+		} finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Executes an update query and returns the number of affected rows
+	 *
+	 * @param pool   Pool of the database to update
+	 * @param query  Query to be executed with '?' place holders
+	 * @param params Values to replace the place holders
+	 * @return number of affected rows
+	 * @throws SQLException SQLException
+	 */
+	public static int preparedUpdateQuery(ConnectionPool pool, String query, Object... params) throws SQLException {
+		String sqlCmd = query.toLowerCase().split(" ")[0];
+		if (!MySQLStorage.SQL_UPDATE_CMD.contains(sqlCmd)) {
+			throw new SQLException("Not an Update Command: " + sqlCmd);
+		}
+		PooledConnection conn = pool.borrow();
+		try {
+			return MySQLStorage.prepareAndExecuteStatement(conn, query, params).getUpdateCount();
+		} catch (SQLException e) {
+			conn.invalidateOn(e);
+			throw e;
+		} finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Reads the COUNT column of the first row of a result
+	 *
+	 * @param result Result of a COUNT(*) AS COUNT query
+	 * @return count
+	 * @throws SQLException SQLException
+	 */
+	private static int readCount(ResultSet result) throws SQLException {
+		result.next();
+		return result.getInt("COUNT");
+	}
+
+	/**
+	 * Wraps a failed query
+	 *
+	 * @param e Exception of the query
+	 * @return GameServerException
+	 */
+	private static GameServerException error(SQLException e) {
+		LOG.error("Query failed", e);
+		return new GameServerException(e.getMessage(), GameServerException.SQL_ERROR);
+	}
+
+	@Override
+	public void registerUser(String username, String passwordHash, int authLevel) throws GameServerException {
+		String query = "INSERT INTO registered_users (username, password, auth_level) values (?, ?, ?)";
+		try {
+			MySQLStorage.preparedUpdateQuery(this.loginPool, query, username, passwordHash, authLevel);
+		} catch (SQLException e) {
+			// if username already exists
+			if (e.getErrorCode() == MysqlErrorNumbers.ER_DUP_ENTRY) {
+				throw new GameServerException("username is already in use", GameServerException.DUP_USERNAME);
+			}
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public String getPasswordHash(String username) throws GameServerException {
+		String query = "SELECT password FROM registered_users WHERE username=?";
+		try {
+			return MySQLStorage.preparedQuery(this.loginPool, query, result -> result.next() ? result.getString("password") : null, username);
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public boolean isRegistered(String username) throws GameServerException {
+		String query = "SELECT COUNT(*) AS COUNT FROM registered_users WHERE username=?";
+		try {
+			return MySQLStorage.preparedQuery(this.loginPool, query, MySQLStorage::readCount, username) > 0;
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public int getAuthLevel(String username) throws GameServerException {
+		String query = "SELECT auth_level FROM registered_users WHERE username=?";
+		try {
+			return MySQLStorage.preparedQuery(this.loginPool, query, result -> {
+				result.next();
+				return result.getInt("auth_level");
+			}, username);
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public boolean createSession(String sessionID, String username) throws GameServerException {
+		// the unique key on session_id rejects duplicates
+		String query = "INSERT INTO users SET username=?, session_id=?";
+		try {
+			MySQLStorage.preparedUpdateQuery(this.gamePool, query, username, sessionID);
+			return true;
+		} catch (SQLException e) {
+			if (e.getErrorCode() == MysqlErrorNumbers.ER_DUP_ENTRY) return false;
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public void saveSession(String sessionID, String username) throws GameServerException {
+		// Insert user into database, if SessionID already exists, update it
+		String query = "INSERT INTO users SET username=?, session_id=? ON DUPLICATE KEY UPDATE username=?, session_id=session_id, last_access=NOW()";
+		try {
+			MySQLStorage.preparedUpdateQuery(this.gamePool, query, username, sessionID, username);
+		} catch (SQLException e) {
+			throw new GameServerException(e.getMessage(), GameServerException.SQL_ERROR);
+		}
+	}
+
+	@Override
+	public int getUserId(String sessionID) throws GameServerException {
+		String query = "SELECT user_id FROM users WHERE session_id=?";
+		try {
+			return MySQLStorage.preparedQuery(this.gamePool, query, result -> {
+				result.next();
+				return result.getInt("user_id");
+			}, sessionID);
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public String getUsername(String sessionID) throws GameServerException {
+		String query = "SELECT username FROM users WHERE session_id=?";
+		try {
+			return MySQLStorage.preparedQuery(this.gamePool, query, result -> {
+				result.next();
+				return result.getString("username");
+			}, sessionID);
+		} catch (SQLException e) {
+			LOG.error("Could not get the username of a session", e);
+			throw new GameServerException("SQL Query failed", GameServerException.SQL_ERROR);
+		}
+	}
+
+	@Override
+	public void removeSession(String sessionID) throws GameServerException {
+		String query = "DELETE FROM users WHERE session_id=?";
+		try {
+			MySQLStorage.preparedUpdateQuery(this.gamePool, query, sessionID);
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public void loadSessions(SessionIndex index) throws GameServerException {
+		String query = "SELECT users.session_id, users.user_id, players.game_id FROM users LEFT JOIN players ON players.user_id=users.user_id";
+		try {
+			MySQLStorage.preparedQuery(this.gamePool, query, result -> {
+				while (result.next()) {
+					int userId = result.getInt("user_id");
+					index.putSession(result.getString("session_id"), userId);
+					index.putPlayer(userId, result.getString("game_id"));
+				}
+				return null;
+			});
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public long reserveIds(String sequence, int count) throws GameServerException {
+		// LAST_INSERT_ID(expr) remembers the new end of the sequence for this connection
+		String reserve = "INSERT INTO id_sequences SET name=?, next=LAST_INSERT_ID(?) ON DUPLICATE KEY UPDATE next=LAST_INSERT_ID(next+?)";
+		String read = "SELECT LAST_INSERT_ID() AS next";
+		try (PooledConnection conn = this.gamePool.borrow()) {
+			try {
+				conn.prepare(reserve, sequence, count, count).executeUpdate();
+				try (ResultSet result = conn.prepare(read).executeQuery()) {
+					result.next();
+					return result.getLong("next") - count;
+				}
+			} catch (SQLException e) {
+				conn.invalidateOn(e);
+				throw e;
+			}
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public void createGame(String gameID, int hostID) throws GameServerException {
+		String query = "INSERT INTO games SET game_id=?, host_id=?";
+		try {
+			MySQLStorage.preparedUpdateQuery(this.gamePool, query, gameID, hostID);
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public boolean isHost(int userID) throws GameServerException {
+		String query = "SELECT COUNT(*) AS COUNT FROM games WHERE host_id=?";
+		try {
+			return MySQLStorage.preparedQuery(this.gamePool, query, MySQLStorage::readCount, userID) == 1;
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public void addPlayer(String gameID, int userID) throws GameServerException {
+		String query = "INSERT INTO players SET game_id=?, user_id=?";
+		try {
+			MySQLStorage.preparedUpdateQuery(this.gamePool, query, gameID, userID);
+		} catch (SQLException e) {
+			if (e.getErrorCode() == ER_NO_REFERENCED_ROW) {
+				throw new GameServerException("Game does not Exist", GameServerException.GAME_NOT_FOUND);
+			} else {
+				LOG.error("Could not add user " + userID + " to game " + gameID, e);
+				throw new GameServerException(e.getMessage(), GameServerException.SQL_ERROR);
+			}
+		}
+	}
+
+	@Override
+	public void removePlayer(int userID) throws GameServerException {
+		String query = "DELETE FROM players WHERE user_id=?";
+		try {
+			MySQLStorage.preparedUpdateQuery(this.gamePool, query, userID);
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public void touchSessions(Map<String, Long> accesses) throws GameServerException {
+		try {
+			this.updateLastAccess("users", "session_id", accesses);
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public void touchGames(Map<String, Long> accesses) throws GameServerException {
+		try {
+			this.updateLastAccess("games", "game_id", accesses);
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	/**
+	 * Sets the last_access field of many rows with one multi-row update per
+	 * chunk
+	 *
+	 * @param table    Table to update
+	 * @param idField  Identity field of the table
+	 * @param accesses Identity to access time in milliseconds
+	 * @throws SQLException SQLException
+	 */
+	private void updateLastAccess(String table, String idField, Map<String, Long> accesses) throws SQLException {
+		if (accesses.isEmpty()) return;
+		ArrayList<Entry<String, Long>> entries = new ArrayList<Entry<String, Long>>(accesses.entrySet());
+		for (int from = 0; from < entries.size(); from += ROWS_PER_STATEMENT) {
+			List<Entry<String, Long>> chunk = entries.subList(from, Math.min(from + ROWS_PER_STATEMENT, entries.size()));
+
+			// UPDATE table SET last_access=CASE id WHEN ? THEN ? ... END WHERE id IN (?, ...)
+			StringBuilder query = new StringBuilder("UPDATE ").append(table).append(" SET last_access=CASE ").append(idField);
+			Object[] params = new Object[chunk.size() * 3];
+			int i = 0;
+			for (Entry<String, Long> e : chunk) {
+				query.append(" WHEN ? THEN ?");
+				params[i++] = e.getKey();
+				params[i++] = new Timestamp(e.getValue());
+			}
+			query.append(" ELSE last_access END WHERE ").append(idField).append(" IN (");
+			for (int j = 0; j < chunk.size(); j++) {
+				query.append(j == 0 ? "?" : ", ?");
+				params[i++] = chunk.get(j).getKey();
+			}
+			query.append(")");
+			PooledConnection conn = this.gamePool.borrow();
+			try {
+				MySQLStorage.executeGenerated(conn, query.toString(), params);
+			} catch (SQLException e) {
+				conn.invalidateOn(e);
+				throw e;
+			} finally {
+				conn.close();
+			}
+		}
+	}
+
+	@Override
+	public List<String> findExpiredSessions(int timeout, String after, int limit) throws GameServerException {
+		// keyset pagination on the unique session_id, every page is a short range scan
+		// and at most limit rows, so the result is buffered instead of streamed
+		String query = "SELECT session_id FROM users WHERE session_id>? AND last_access<=DATE_SUB(NOW(), INTERVAL ? MINUTE) ORDER BY session_id LIMIT ?";
+		try {
+			return MySQLStorage.preparedQuery(this.gamePool, query, result -> MySQLStorage.readStrings(result, "session_id"), after, timeout, limit);
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public List<String> deleteExpiredSessions(Collection<String> sessionIDs, int timeout) throws GameServerException {
+		try {
+			// sessions accessed since they were found are kept
+			String select = "SELECT session_id FROM users WHERE last_access<=DATE_SUB(NOW(), INTERVAL ? MINUTE) AND session_id IN ";
+			return this.deleteChunked(new ArrayList<String>(sessionIDs), select, timeout, "DELETE players FROM players JOIN users ON users.user_id=players.user_id WHERE users.session_id IN ", "DELETE FROM users WHERE session_id IN ");
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public List<String> findExpiredGames(int timeout, String after, int limit) throws GameServerException {
+		// keyset pagination on the primary key, every page is a short range scan
+		// and at most limit rows, so the result is buffered instead of streamed
+		String query = "SELECT game_id FROM games WHERE game_id>? AND last_access<=DATE_SUB(NOW(), INTERVAL ? MINUTE) ORDER BY game_id LIMIT ?";
+		try {
+			return MySQLStorage.preparedQuery(this.gamePool, query, result -> MySQLStorage.readStrings(result, "game_id"), after, timeout, limit);
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public List<String> deleteExpiredGames(Collection<String> gameIDs, int timeout) throws GameServerException {
+		try {
+			// games accessed since they were found are kept, players reference their games
+			String select = "SELECT game_id FROM games WHERE last_access<=DATE_SUB(NOW(), INTERVAL ? MINUTE) AND game_id IN ";
+			return this.deleteChunked(new ArrayList<String>(gameIDs), select, timeout, "DELETE FROM players WHERE game_id IN ", "DELETE FROM games WHERE game_id IN ");
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public void removeSessions(Collection<String> sessionIDs) throws GameServerException {
+		try {
+			// players reference their users
+			this.deleteChunked(new ArrayList<String>(sessionIDs), null, 0, "DELETE players FROM players JOIN users ON users.user_id=players.user_id WHERE users.session_id IN ", "DELETE FROM users WHERE session_id IN ");
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public void removeGames(Collection<String> gameIDs) throws GameServerException {
+		try {
+			// players reference their games
+			this.deleteChunked(new ArrayList<String>(gameIDs), null, 0, "DELETE FROM players WHERE game_id IN ", "DELETE FROM games WHERE game_id IN ");
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	/**
+	 * Deletes rows by their identity with one short transaction per chunk, so
+	 * locks are only held for a few rows at a time. With a select query only the
+	 * rows it locks in the transaction are deleted, otherwise all of them. The
+	 * rows referencing them are deleted first.
+	 *
+	 * @param ids         Identities of the rows
+	 * @param select      Query locking the rows to delete or null, its one
+	 *                    parameter is followed by the list of identities
+	 * @param selectParam Parameter of the select query
+	 * @param references  Query deleting the referencing rows, completed with
+	 *                    the list of identities
+	 * @param query       Query deleting the rows, completed with the list of
+	 *                    identities
+	 * @return identities of the deleted rows
+	 * @throws SQLException SQLException
+	 */
+	private List<String> deleteChunked(List<String> ids, String select, Object selectParam, String references, String query) throws SQLException {
+		ArrayList<String> deleted = new ArrayList<String>();
+		for (int start = 0; start < ids.size(); start += ROWS_PER_STATEMENT) {
+			List<String> chunk = ids.subList(start, Math.min(start + ROWS_PER_STATEMENT, ids.size()));
+
+			try (PooledConnection conn = this.gamePool.borrow()) {
+				Connection connection = conn.getConnection();
+				try {
+					connection.setAutoCommit(false);
+					if (select != null) {
+						Object[] params = new Object[chunk.size() + 1];
+						params[0] = selectParam;
+						for (int i = 0; i < chunk.size(); i++) {
+							params[i + 1] = chunk.get(i);
+						}
+						ArrayList<String> locked = new ArrayList<String>();
+						try (PreparedStatement stmt = conn.prepareUncached(select + MySQLStorage.placeholders(chunk.size()) + " FOR UPDATE", params); ResultSet result = stmt.executeQuery()) {
+							while (result.next()) {
+								locked.add(result.getString(1));
+							}
+						}
+						chunk = locked;
+					}
+					if (!chunk.isEmpty()) {
+						Object[] params = chunk.toArray();
+						String list = MySQLStorage.placeholders(chunk.size());
+						MySQLStorage.executeGenerated(conn, references + list, params);
+						MySQLStorage.executeGenerated(conn, query + list, params);
+						deleted.addAll(chunk);
+					}
+					connection.commit();
+				} catch (SQLException e) {
+					try {
+						connection.rollback();
+					} catch (SQLException rollbackError) {
+						e.addSuppressed(rollbackError);
+						conn.invalidate();
+					}
+					conn.invalidateOn(e);
+					throw e;
+				} finally {
+					connection.setAutoCommit(true);
+				}
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * Builds the parameter list of an IN clause
+	 *
+	 * @param count Number of parameters
+	 * @return list like (?, ?, ?)
+	 */
+	private static String placeholders(int count) {
+		StringBuilder list = new StringBuilder("(");
+		for (int i = 0; i < count; i++) {
+			list.append(i == 0 ? "?" : ", ?");
+		}
+		return list.append(")").toString();
+	}
+
+	/**
+	 * Reads one column of all rows of a result
+	 *
+	 * @param result Result to read
+	 * @param column Column to read
+	 * @return values of the column in the order of the rows
+	 * @throws SQLException SQLException
+	 */
+	private static List<String> readStrings(ResultSet result, String column) throws SQLException {
+		ArrayList<String> list = new ArrayList<String>();
+		while (result.next()) {
+			list.add(result.getString(column));
+		}
+		return list;
+	}
+
+	/**
+	 * Table of the values of an owner
+	 *
+	 * @param owner Owner type
+	 * @return table name
+	 */
+	private static String valueTable(Owner owner) {
+		return owner == Owner.GAME ? "game_data" : "player_data";
+	}
+
+	/**
+	 * Table of the state of an owner
+	 *
+	 * @param owner Owner type
+	 * @return table name
+	 */
+	private static String stateTable(Owner owner) {
+		return owner == Owner.GAME ? "game_state" : "player_state";
+	}
+
+	/**
+	 * Identity field of an owner
+	 *
+	 * @param owner Owner type
+	 * @return field name
+	 */
+	private static String idField(Owner owner) {
+		return owner == Owner.GAME ? "game_id" : "user_id";
+	}
+
+	@Override
+	public Map<String, String> loadValues(Owner owner, String ownerID) throws GameServerException {
+		String query = "SELECT name, value FROM " + MySQLStorage.valueTable(owner) + " WHERE " + MySQLStorage.idField(owner) + "=?";
+		try {
+			return MySQLStorage.preparedQuery(this.gamePool, query, result -> {
+				HashMap<String, String> stored = new HashMap<String, String>();
+				while (result.next()) {
+					stored.put(result.getString("name"), result.getString("value"));
+				}
+				return stored;
+			}, ownerID);
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public boolean writeValues(Owner owner, String ownerID, Map<String, String> upserts, Collection<String> deletes) throws GameServerException {
+		try (PooledConnection conn = this.gamePool.borrow()) {
+			Connection connection = conn.getConnection();
+			try {
+				connection.setAutoCommit(false);
+				this.writeUpserts(conn, owner, ownerID, upserts);
+				this.writeDeletes(conn, owner, ownerID, new ArrayList<String>(deletes));
+				connection.commit();
+			} catch (SQLException e) {
+				try {
+					connection.rollback();
+				} catch (SQLException rollbackError) {
+					e.addSuppressed(rollbackError);
+					conn.invalidate();
+				}
+				conn.invalidateOn(e);
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+			return true;
+		} catch (SQLException e) {
+			// the game or player was deleted, its values can't be stored anymore
+			if (MySQLStorage.isConstraintViolation(e)) return false;
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	/**
+	 * Upserts values with multi-row statements
+	 *
+	 * @param conn    Connection inside a transaction
+	 * @param owner   Owner type
+	 * @param ownerID GameID or UserID
+	 * @param upserts Values to write
+	 * @throws SQLException SQLException
+	 */
+	private void writeUpserts(PooledConnection conn, Owner owner, String ownerID, Map<String, String> upserts) throws SQLException {
+		ArrayList<Map.Entry<String, String>> entries = new ArrayList<Map.Entry<String, String>>(upserts.entrySet());
+		for (int start = 0; start < entries.size(); start += ROWS_PER_STATEMENT) {
+			int end = Math.min(start + ROWS_PER_STATEMENT, entries.size());
+			StringBuilder query = new StringBuilder("INSERT INTO ").append(MySQLStorage.valueTable(owner)).append(" (").append(MySQLStorage.idField(owner)).append(", name, value) VALUES ");
+			Object[] params = new Object[(end - start) * 3];
+			int p = 0;
+			for (int i = start; i < end; i++) {
+				query.append(i == start ? "(?, ?, ?)" : ", (?, ?, ?)");
+				params[p++] = ownerID;
+				params[p++] = entries.get(i).getKey();
+				params[p++] = entries.get(i).getValue();
+			}
+			query.append(" ON DUPLICATE KEY UPDATE value=VALUES(value)");
+			MySQLStorage.executeGenerated(conn, query.toString(), params);
+		}
+	}
+
+	/**
+	 * Deletes values with multi-row statements
+	 *
+	 * @param conn    Connection inside a transaction
+	 * @param owner   Owner type
+	 * @param ownerID GameID or UserID
+	 * @param deletes Names of values to delete
+	 * @throws SQLException SQLException
+	 */
+	private void writeDeletes(PooledConnection conn, Owner owner, String ownerID, List<String> deletes) throws SQLException {
+		for (int start = 0; start < deletes.size(); start += ROWS_PER_STATEMENT) {
+			int end = Math.min(start + ROWS_PER_STATEMENT, deletes.size());
+			StringBuilder query = new StringBuilder("DELETE FROM ").append(MySQLStorage.valueTable(owner)).append(" WHERE ").append(MySQLStorage.idField(owner)).append("=? AND name IN (");
+			Object[] params = new Object[end - start + 1];
+			params[0] = ownerID;
+			for (int i = start; i < end; i++) {
+				query.append(i == start ? "?" : ", ?");
+				params[i - start + 1] = deletes.get(i);
+			}
+			query.append(")");
+			MySQLStorage.executeGenerated(conn, query.toString(), params);
+		}
+	}
+
+	/**
+	 * Checks if an exception was caused by a violated constraint, batch
+	 * exceptions wrap the exception of the failed statement
+	 *
+	 * @param e Exception to check
+	 * @return if a constraint was violated
+	 */
+	private static boolean isConstraintViolation(SQLException e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (t instanceof SQLIntegrityConstraintViolationException) return true;
+			if (t instanceof SQLException) {
+				String state = ((SQLException) t).getSQLState();
+				if (state != null && state.startsWith("23")) return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public StoredState loadState(Owner owner, String ownerID) throws GameServerException {
+		String query = "SELECT version, data FROM " + MySQLStorage.stateTable(owner) + " WHERE " + MySQLStorage.idField(owner) + "=?";
+		try {
+			return MySQLStorage.preparedQuery(this.gamePool, query, result -> result.next() ? new StoredState(result.getLong("version"), result.getBytes("data")) : null, ownerID);
+		} catch (SQLException e) {
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public SaveResult saveState(Owner owner, String ownerID, long expectedVersion, byte[] data) throws GameServerException {
+		String table = MySQLStorage.stateTable(owner);
+		String idField = MySQLStorage.idField(owner);
+		try {
+			int updated;
+			if (expectedVersion == 0) {
+				String query = "INSERT INTO " + table + " SET " + idField + "=?, version=1, data=?";
+				updated = MySQLStorage.preparedUpdateQuery(this.gamePool, query, ownerID, data);
+			} else {
+				String query = "UPDATE " + table + " SET data=?, version=version+1 WHERE " + idField + "=? AND version=?";
+				updated = MySQLStorage.preparedUpdateQuery(this.gamePool, query, data, ownerID, expectedVersion);
+			}
+			return updated == 0 ? SaveResult.CONFLICT : SaveResult.SAVED;
+		} catch (SQLException e) {
+			if (e.getErrorCode() == MysqlErrorNumbers.ER_DUP_ENTRY) return SaveResult.CONFLICT;
+			if (e.getErrorCode() == ER_NO_REFERENCED_ROW) return SaveResult.ORPHANED;
+			throw MySQLStorage.error(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "MySQL " + this.gamePool.getCatalog() + " login: " + this.loginPool.getCatalog();
+	}
+}
@@ -0,0 +1,335 @@
+package net.nilsramstoeck.gameserver.storage;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import net.nilsramstoeck.gameserver.GameServerException;
+import net.nilsramstoeck.gameserver.SessionIndex;
+
+/**
+ * Persistence of the GameServer. Stores registered users, active sessions,
+ * games, their players and the data of games and players. Implementations have
+ * to be thread safe, all methods may block and are called off the WebSocket
+ * threads. Failures are reported as {@link GameServerException} with
+ * {@link GameServerException#SQL_ERROR} unless stated otherwise.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public interface Storage {
+
+	/**
+	 * Owner of stored values and states
+	 */
+	public enum Owner {
+		/**
+		 * Values of a game, identified by the GameID
+		 */
+		GAME,
+
+		/**
+		 * Values of a player, identified by the UserID. They are deleted when the
+		 * player leaves its game
+		 */
+		PLAYER
+	}
+
+	/**
+	 * Result of {@link Storage#saveState(Owner, String, long, byte[])}
+	 */
+	public enum SaveResult {
+		/**
+		 * The state was written
+		 */
+		SAVED,
+
+		/**
+		 * The stored state has another version than expected
+		 */
+		CONFLICT,
+
+		/**
+		 * The owner of the state does not exist anymore
+		 */
+		ORPHANED
+	}
+
+	/**
+	 * Opens the storage and checks that it can be used
+	 *
+	 * @throws GameServerException Storage can not be used
+	 */
+	public void open() throws GameServerException;
+
+	/**
+	 * Closes the storage and releases its resources
+	 */
+	public void close();
+
+	/**
+	 * Registers a new user
+	 *
+	 * @param username     Username
+	 * @param passwordHash Password hashed by the PasswordManager
+	 * @param authLevel    Authentication level of the user
+	 * @throws GameServerException {@link GameServerException#DUP_USERNAME} if the
+	 *                             username is already in use
+	 */
+	public void registerUser(String username, String passwordHash, int authLevel) throws GameServerException;
+
+	/**
+	 * Gets the password hash of a registered user
+	 *
+	 * @param username Username
+	 * @return password hash or null if the user is unknown
+	 * @throws GameServerException Storage failed
+	 */
+	public String getPasswordHash(String username) throws GameServerException;
+
+	/**
+	 * Checks if a username belongs to a registered user
+	 *
+	 * @param username Username
+	 * @return if the user is registered
+	 * @throws GameServerException Storage failed
+	 */
+	public boolean isRegistered(String username) throws GameServerException;
+
+	/**
+	 * Gets the authentication level of a registered user
+	 *
+	 * @param username Username
+	 * @return authentication level
+	 * @throws GameServerException Storage failed or the user is unknown
+	 */
+	public int getAuthLevel(String username) throws GameServerException;
+
+	/**
+	 * Creates a new session
+	 *
+	 * @param sessionID Session ID
+	 * @param username  Username of the session
+	 * @return false if the session ID is already taken and nothing was created
+	 * @throws GameServerException Storage failed
+	 */
+	public boolean createSession(String sessionID, String username) throws GameServerException;
+
+	/**
+	 * Creates a session or renews an existing one
+	 *
+	 * @param sessionID Session ID
+	 * @param username  Username of the session
+	 * @throws GameServerException Storage failed
+	 */
+	public void saveSession(String sessionID, String username) throws GameServerException;
+
+	/**
+	 * Gets the UserID of a session
+	 *
+	 * @param sessionID Session ID
+	 * @return UserID
+	 * @throws GameServerException Storage failed or the session is unknown
+	 */
+	public int getUserId(String sessionID) throws GameServerException;
+
+	/**
+	 * Gets the username of a session
+	 *
+	 * @param sessionID Session ID
+	 * @return Username
+	 * @throws GameServerException Storage failed or the session is unknown
+	 */
+	public String getUsername(String sessionID) throws GameServerException;
+
+	/**
+	 * Deletes a session
+	 *
+	 * @param sessionID Session ID
+	 * @throws GameServerException Storage failed
+	 */
+	public void removeSession(String sessionID) throws GameServerException;
+
+	/**
+	 * Adds all sessions and the games of their users to an index
+	 *
+	 * @param index Index to fill
+	 * @throws GameServerException Storage failed
+	 */
+	public void loadSessions(SessionIndex index) throws GameServerException;
+
+	/**
+	 * Reserves a block of numbers of a sequence. Every number is handed out only
+	 * once, also to other server processes that use the same storage.
+	 *
+	 * @param sequence Name of the sequence
+	 * @param count    Number of numbers to reserve
+	 * @return first reserved number, the sequence starts at 0
+	 * @throws GameServerException Storage failed
+	 */
+	public long reserveIds(String sequence, int count) throws GameServerException;
+
+	/**
+	 * Creates a game
+	 *
+	 * @param gameID GameID
+	 * @param hostID UserID of the host
+	 * @throws GameServerException Storage failed
+	 */
+	public void createGame(String gameID, int hostID) throws GameServerException;
+
+	/**
+	 * Checks if a user hosts a game
+	 *
+	 * @param userID UserID
+	 * @return if the user is a host
+	 * @throws GameServerException Storage failed
+	 */
+	public boolean isHost(int userID) throws GameServerException;
+
+	/**
+	 * Adds a user to a game
+	 *
+	 * @param gameID GameID
+	 * @param userID UserID
+	 * @throws GameServerException {@link GameServerException#GAME_NOT_FOUND} if
+	 *                             the game does not exist
+	 */
+	public void addPlayer(String gameID, int userID) throws GameServerException;
+
+	/**
+	 * Removes a user from its game, the values and state of the player are
+	 * deleted with it
+	 *
+	 * @param userID UserID
+	 * @throws GameServerException Storage failed
+	 */
+	public void removePlayer(int userID) throws GameServerException;
+
+	/**
+	 * Sets the last access time of sessions
+	 *
+	 * @param accesses Session ID to access time in milliseconds
+	 * @throws GameServerException Storage failed
+	 */
+	public void touchSessions(Map<String, Long> accesses) throws GameServerException;
+
+	/**
+	 * Sets the last access time of games
+	 *
+	 * @param accesses GameID to access time in milliseconds
+	 * @throws GameServerException Storage failed
+	 */
+	public void touchGames(Map<String, Long> accesses) throws GameServerException;
+
+	/**
+	 * Finds one page of sessions that were not accessed for a while, ordered by
+	 * their ID
+	 *
+	 * @param timeout Timeout in minutes
+	 * @param after   Only sessions with a greater ID are returned, empty to
+	 *                start at the beginning
+	 * @param limit   Maximum number of sessions
+	 * @return Session IDs in ascending order
+	 * @throws GameServerException Storage failed
+	 */
+	public List<String> findExpiredSessions(int timeout, String after, int limit) throws GameServerException;
+
+	/**
+	 * Deletes those of the given sessions that are still expired and removes
+	 * their users from their games
+	 *
+	 * @param sessionIDs Session IDs found by
+	 *                   {@link #findExpiredSessions(int, String, int)}
+	 * @param timeout    Timeout in minutes
+	 * @return Session IDs that were deleted
+	 * @throws GameServerException Storage failed
+	 */
+	public List<String> deleteExpiredSessions(Collection<String> sessionIDs, int timeout) throws GameServerException;
+
+	/**
+	 * Finds one page of games that were not accessed for a while, ordered by
+	 * their ID
+	 *
+	 * @param timeout Timeout in minutes
+	 * @param after   Only games with a greater ID are returned, empty to start at
+	 *                the beginning
+	 * @param limit   Maximum number of games
+	 * @return GameIDs in ascending order
+	 * @throws GameServerException Storage failed
+	 */
+	public List<String> findExpiredGames(int timeout, String after, int limit) throws GameServerException;
+
+	/**
+	 * Deletes those of the given games that are still expired and removes their
+	 * players, their values and state are deleted with them
+	 *
+	 * @param gameIDs GameIDs found by {@link #findExpiredGames(int, String, int)}
+	 * @param timeout Timeout in minutes
+	 * @return GameIDs that were deleted
+	 * @throws GameServerException Storage failed
+	 */
+	public List<String> deleteExpiredGames(Collection<String> gameIDs, int timeout) throws GameServerException;
+
+	/**
+	 * Deletes sessions and removes their users from their games
+	 *
+	 * @param sessionIDs Session IDs
+	 * @throws GameServerException Storage failed
+	 */
+	public void removeSessions(Collection<String> sessionIDs) throws GameServerException;
+
+	/**
+	 * Deletes games and removes their players, their values and state are deleted
+	 * with them
+	 *
+	 * @param gameIDs GameIDs
+	 * @throws GameServerException Storage failed
+	 */
+	public void removeGames(Collection<String> gameIDs) throws GameServerException;
+
+	/**
+	 * Loads all values of a game or player
+	 *
+	 * @param owner   Owner type
+	 * @param ownerID GameID or UserID
+	 * @return values by their name
+	 * @throws GameServerException Storage failed
+	 */
+	public Map<String, String> loadValues(Owner owner, String ownerID) throws GameServerException;
+
+	/**
+	 * Sets and deletes values of a game or player in one transaction
+	 *
+	 * @param owner   Owner type
+	 * @param ownerID GameID or UserID
+	 * @param upserts Values to set
+	 * @param deletes Names of values to delete
+	 * @return false if the owner does not exist anymore and nothing was written
+	 * @throws GameServerException Storage failed
+	 */
+	public boolean writeValues(Owner owner, String ownerID, Map<String, String> upserts, Collection<String> deletes) throws GameServerException;
+
+	/**
+	 * Loads the state snapshot of a game or player
+	 *
+	 * @param owner   Owner type
+	 * @param ownerID GameID or UserID
+	 * @return stored state or null if there is none
+	 * @throws GameServerException Storage failed
+	 */
+	public StoredState loadState(Owner owner, String ownerID) throws GameServerException;
+
+	/**
+	 * Writes the state snapshot of a game or player if the stored version
+	 * matches. The version of the written state is {@code expectedVersion + 1}.
+	 *
+	 * @param owner           Owner type
+	 * @param ownerID         GameID or UserID
+	 * @param expectedVersion Version of the stored state, 0 if there is none
+	 * @param data            Snapshot
+	 * @return result of the save
+	 * @throws GameServerException Storage failed
+	 */
+	public SaveResult saveState(Owner owner, String ownerID, long expectedVersion, byte[] data) throws GameServerException;
+}
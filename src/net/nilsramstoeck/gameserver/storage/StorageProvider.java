@@ -0,0 +1,67 @@
+package net.nilsramstoeck.gameserver.storage;
+
+import java.util.Properties;
+
+import net.nilsramstoeck.gameserver.GameServer;
+import net.nilsramstoeck.gameserver.GameServerException;
+
+/**
+ * Holds the storage shared by the whole server. The backend is chosen with the
+ * {@code storage.backend} property on first use, or set explicitly before the
+ * server starts, e.g. to run it against a {@link MemoryStorage}.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class StorageProvider {
+
+	/**
+	 * Shared storage, created on first use
+	 */
+	private static Storage storage = null;
+
+	/**
+	 * Gets the shared storage and opens it on first use
+	 *
+	 * @return Storage
+	 * @throws GameServerException Storage could not be opened
+	 */
+	public static synchronized Storage getStorage() throws GameServerException {
+		if (storage == null) {
+			Storage created = StorageProvider.create(GameServer.properties);
+			created.open();
+			storage = created;
+		}
+		return storage;
+	}
+
+	/**
+	 * Replaces the shared storage. The storage has to be open already.
+	 *
+	 * @param _storage Storage
+	 */
+	public static synchronized void setStorage(Storage _storage) {
+		storage = _storage;
+	}
+
+	/**
+	 * Creates the storage configured in the server properties
+	 *
+	 * @param properties Server properties
+	 * @return Storage
+	 * @throws GameServerException Unknown backend
+	 */
+	public static Storage create(Properties properties) throws GameServerException {
+		String backend = properties.getProperty("storage.backend", "mysql").trim().toLowerCase();
+		switch (backend) {
+		case "mysql":
+			return MySQLStorage.fromProperties(properties);
+		case "memory":
+			return new MemoryStorage();
+		case "file":
+			return FileStorage.fromProperties(properties);
+		default:
+			throw new GameServerException("Unknown storage backend: " + backend, GameServerException.SQL_ERROR);
+		}
+	}
+}
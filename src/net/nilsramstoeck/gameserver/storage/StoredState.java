@@ -0,0 +1,49 @@
+package net.nilsramstoeck.gameserver.storage;
+
+/**
+ * Versioned state snapshot of a game or player as it is stored
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class StoredState {
+
+	/**
+	 * Version of the snapshot, incremented with every save
+	 */
+	private final long version;
+
+	/**
+	 * Encoded snapshot
+	 */
+	private final byte[] data;
+
+	/**
+	 * Creates a stored state
+	 *
+	 * @param _version Version of the snapshot
+	 * @param _data    Encoded snapshot
+	 */
+	public StoredState(long _version, byte[] _data) {
+		this.version = _version;
+		this.data = _data;
+	}
+
+	/**
+	 * Version getter
+	 *
+	 * @return {@link #version}
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * Data getter
+	 *
+	 * @return {@link #data}
+	 */
+	public byte[] getData() {
+		return this.data;
+	}
+}
@@ -0,0 +1,95 @@
+package net.nilsramstoeck.gameserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import net.nilsramstoeck.gameserver.client.Client;
+import net.nilsramstoeck.gameserver.message.InboundMessage;
+
+/**
+ * Tests of the lookup and the permission checks of {@link ActionTable}
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class ActionTableTest {
+
+	/**
+	 * Creates a client without a connection
+	 *
+	 * @param authMasks Auth bits of the client
+	 * @return client
+	 */
+	private static Client client(int... authMasks) {
+		Client client = new Client(null);
+		client.setAuthLevel(authMasks);
+		return client;
+	}
+
+	@Test
+	public void looksUpActionsByTypeAndAction() throws GameServerException {
+		ActionTable table = new ActionTable();
+		List<String> handled = new ArrayList<String>();
+		table.register("request", "value", ActionTable.PUBLIC, (client, message) -> handled.add("value"));
+		table.register("request", "sign_out", Client.AUTHENTICATED, (client, message) -> handled.add("sign_out"));
+
+		assertTrue(table.hasType("request"));
+		assertFalse(table.hasType("game"));
+		assertNull(table.get("request", "missing"));
+		assertNull(table.get("game", "value"));
+
+		InboundMessage message = InboundMessage.fromJSON("{\"type\":\"request\",\"action\":\"value\"}");
+		assertNull(table.get("request", "value").handle(ActionTableTest.client(), message), "synchronous actions are done");
+		table.get("request", "sign_out").handle(ActionTableTest.client(), message);
+		assertEquals(List.of("value", "sign_out"), handled);
+	}
+
+	@Test
+	public void rejectsActionsThatAreRegisteredTwice() {
+		ActionTable table = new ActionTable();
+		table.register("request", "value", ActionTable.PUBLIC, (client, message) -> {});
+
+		assertThrows(IllegalArgumentException.class, () -> table.register("request", "value", Client.AUTHENTICATED, (client, message) -> {}));
+		assertThrows(IllegalArgumentException.class, () -> table.registerAsync("request", "value", ActionTable.PUBLIC, (client, message) -> null));
+		table.register("game", "value", ActionTable.PUBLIC, (client, message) -> {});
+	}
+
+	@Test
+	public void returnsTheFutureOfAsynchronousActions() throws GameServerException {
+		ActionTable table = new ActionTable();
+		CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+		table.registerAsync("authenticate", "login", ActionTable.PUBLIC, (client, message) -> result);
+
+		InboundMessage message = InboundMessage.fromJSON("{\"type\":\"authenticate\",\"action\":\"login\"}");
+		assertSame(result, table.get("authenticate", "login").handle(ActionTableTest.client(), message));
+	}
+
+	@Test
+	public void permitsClientsWithAllBitsOfTheMask() {
+		ActionTable table = new ActionTable();
+		table.register("request", "public", ActionTable.PUBLIC, (client, message) -> {});
+		table.register("request", "private", Client.AUTHENTICATED, (client, message) -> {});
+		table.register("request", "host", Client.AUTHENTICATED | Client.HOST, (client, message) -> {});
+
+		Client guest = ActionTableTest.client();
+		Client player = ActionTableTest.client(Client.AUTHENTICATED, Client.PLAYER);
+		Client host = ActionTableTest.client(Client.AUTHENTICATED, Client.PLAYER, Client.HOST);
+
+		assertTrue(table.get("request", "public").isPermitted(guest));
+		assertFalse(table.get("request", "private").isPermitted(guest));
+		assertTrue(table.get("request", "private").isPermitted(player));
+		assertFalse(table.get("request", "host").isPermitted(player));
+		assertTrue(table.get("request", "host").isPermitted(host));
+		assertEquals(Client.AUTHENTICATED | Client.HOST, table.get("request", "host").getAuthMask());
+	}
+}
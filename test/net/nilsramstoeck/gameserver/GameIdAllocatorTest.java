@@ -0,0 +1,116 @@
+package net.nilsramstoeck.gameserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.nilsramstoeck.gameserver.storage.MemoryStorage;
+
+/**
+ * Tests of {@link GameIdAllocator}
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class GameIdAllocatorTest {
+
+	private MemoryStorage storage;
+
+	private BoundedExecutor executor;
+
+	@BeforeEach
+	public void setUp() throws GameServerException {
+		this.storage = new MemoryStorage();
+		this.storage.open();
+		this.executor = new BoundedExecutor("GameIdAllocatorTest", 1, 16, GameServerErrorCode.SERVER_BUSY);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		this.executor.shutdown();
+		this.storage.close();
+	}
+
+	@Test
+	public void createsUniqueIDsAcrossBlocks() throws GameServerException {
+		GameIdAllocator allocator = new GameIdAllocator(this.storage, this.executor, 3, 6, 1000, 12345);
+		Set<String> ids = new HashSet<String>();
+		for (int i = 0; i < 100000; i++) {
+			String id = allocator.next();
+			assertEquals(6, id.length(), id);
+			assertTrue(id.matches("3[0-9ABCDEFGHJKMNPQRSTVWXYZ]{5}"), id);
+			assertTrue(ids.add(id), "duplicate " + id);
+		}
+	}
+
+	@Test
+	public void scramblesEveryIDOfTheSpaceOnce() throws GameServerException {
+		// 2 characters of 5 bits, one block covers the whole space
+		GameIdAllocator allocator = new GameIdAllocator(this.storage, this.executor, 0, 3, 1024, 99);
+		List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < 1024; i++) {
+			ids.add(allocator.next());
+		}
+
+		assertEquals(1024, new HashSet<String>(ids).size());
+		assertThrows(GameServerException.class, () -> allocator.next());
+
+		// consecutive IDs are not neighbours
+		int neighbours = 0;
+		for (int i = 1; i < ids.size(); i++) {
+			if (ids.get(i).regionMatches(0, ids.get(i - 1), 0, 2)) neighbours++;
+		}
+		assertTrue(neighbours < ids.size() / 10, "neighbours " + neighbours);
+	}
+
+	@Test
+	public void secretChangesTheOrder() throws GameServerException {
+		GameIdAllocator first = new GameIdAllocator(new MemoryStorage(), this.executor, 0, 8, 100, 1);
+		GameIdAllocator second = new GameIdAllocator(new MemoryStorage(), this.executor, 0, 8, 100, 2);
+		int equal = 0;
+		for (int i = 0; i < 100; i++) {
+			if (first.next().equals(second.next())) equal++;
+		}
+		assertTrue(equal < 5, "equal " + equal);
+	}
+
+	@Test
+	public void sharedSequenceNeverRepeatsIDs() throws GameServerException {
+		// two servers of the same node reserve their blocks from one storage
+		GameIdAllocator first = new GameIdAllocator(this.storage, this.executor, 1, 6, 10, 7);
+		GameIdAllocator second = new GameIdAllocator(this.storage, this.executor, 1, 6, 10, 7);
+		Set<String> ids = new HashSet<String>();
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(ids.add(first.next()));
+			assertTrue(ids.add(second.next()));
+		}
+	}
+
+	@Test
+	public void nodesUseTheirOwnPrefix() throws GameServerException {
+		String first = new GameIdAllocator(this.storage, this.executor, 0, 6, 10, 7).next();
+		String second = new GameIdAllocator(this.storage, this.executor, 31, 6, 10, 7).next();
+		assertEquals('0', first.charAt(0));
+		assertEquals('Z', second.charAt(0));
+		// each node has its own sequence, the prefix keeps their IDs apart
+		assertEquals(first.substring(1), second.substring(1));
+	}
+
+	@Test
+	public void rejectsInvalidSettings() {
+		assertThrows(IllegalArgumentException.class, () -> new GameIdAllocator(this.storage, this.executor, -1, 6, 10, 0));
+		assertThrows(IllegalArgumentException.class, () -> new GameIdAllocator(this.storage, this.executor, 32, 6, 10, 0));
+		assertThrows(IllegalArgumentException.class, () -> new GameIdAllocator(this.storage, this.executor, 0, 1, 10, 0));
+		assertThrows(IllegalArgumentException.class, () -> new GameIdAllocator(this.storage, this.executor, 0, 14, 10, 0));
+		assertThrows(IllegalArgumentException.class, () -> new GameIdAllocator(this.storage, this.executor, 0, 6, 0, 0));
+	}
+}
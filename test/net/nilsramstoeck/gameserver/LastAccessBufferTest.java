@@ -0,0 +1,111 @@
+package net.nilsramstoeck.gameserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link LastAccessBuffer}
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class LastAccessBufferTest {
+
+	@Test
+	public void drainsTheLatestAccesses() {
+		LastAccessBuffer buffer = new LastAccessBuffer();
+		long before = System.currentTimeMillis();
+		buffer.touchSession("s1");
+		buffer.touchSession("s2");
+		buffer.touchSession("s1");
+		buffer.touchGame("g1");
+		buffer.touchSession(null);
+		buffer.touchGame(null);
+
+		Map<String, Long> sessions = buffer.drainSessions();
+		Map<String, Long> games = buffer.drainGames();
+
+		assertEquals(2, sessions.size());
+		assertTrue(sessions.get("s1") >= before && sessions.get("s1") <= System.currentTimeMillis());
+		assertEquals(Collections.singleton("g1"), games.keySet());
+		assertTrue(buffer.drainSessions().isEmpty());
+		assertTrue(buffer.drainGames().isEmpty());
+	}
+
+	@Test
+	public void removedAccessesAreNotDrained() {
+		LastAccessBuffer buffer = new LastAccessBuffer();
+		buffer.touchSession("s1");
+		buffer.touchGame("g1");
+		buffer.removeSession("s1");
+		buffer.removeGame("g1");
+		buffer.removeSession(null);
+
+		assertTrue(buffer.drainSessions().isEmpty());
+		assertTrue(buffer.drainGames().isEmpty());
+	}
+
+	@Test
+	public void restoreKeepsNewerAccesses() throws InterruptedException {
+		LastAccessBuffer buffer = new LastAccessBuffer();
+		buffer.touchSession("s1");
+		buffer.touchSession("s2");
+		Map<String, Long> drained = buffer.drainSessions();
+		// s1 is touched again while the drained accesses are written
+		Thread.sleep(2);
+		buffer.touchSession("s1");
+
+		// the write failed, the drained accesses go back
+		buffer.restoreSessions(drained);
+
+		Map<String, Long> restored = buffer.drainSessions();
+		assertEquals(drained.get("s2"), restored.get("s2"));
+		assertTrue(restored.get("s1") > drained.get("s1"), "an older access overwrote a newer one");
+	}
+
+	@Test
+	public void restoredGamesAreDrainedAgain() {
+		LastAccessBuffer buffer = new LastAccessBuffer();
+		buffer.touchGame("g1");
+		Map<String, Long> drained = buffer.drainGames();
+		buffer.restoreGames(drained);
+		assertEquals(drained, buffer.drainGames());
+	}
+
+	@Test
+	public void drainLosesNoConcurrentAccess() throws InterruptedException {
+		LastAccessBuffer buffer = new LastAccessBuffer();
+		AtomicBoolean running = new AtomicBoolean(true);
+		int keys = 64;
+		Thread toucher = new Thread(() -> {
+			int i = 0;
+			while (running.get()) {
+				buffer.touchSession("s" + (i++ % keys));
+			}
+			// a final access of every key
+			for (int k = 0; k < keys; k++) {
+				buffer.touchSession("s" + k);
+			}
+		});
+		toucher.start();
+		Map<String, Long> latest = new HashMap<String, Long>();
+		for (int round = 0; round < 200; round++) {
+			latest.putAll(buffer.drainSessions());
+		}
+		running.set(false);
+		toucher.join();
+		Map<String, Long> last = buffer.drainSessions();
+		latest.putAll(last);
+
+		// the final accesses came after all other drains
+		assertEquals(keys, last.size());
+		assertEquals(keys, latest.size());
+	}
+}
@@ -0,0 +1,217 @@
+package net.nilsramstoeck.gameserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the per-game ordering, the capacity and the merged ticks of
+ * {@link MailboxExecutor}
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class MailboxExecutorTest {
+
+	private MailboxExecutor executor;
+
+	@BeforeEach
+	public void setUp() {
+		this.executor = new MailboxExecutor("Test", 4, 1000);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		this.executor.shutdown();
+	}
+
+	/**
+	 * Queues a task that blocks the mailbox of a game until the returned latch
+	 * is released, and waits until it runs
+	 *
+	 * @param gameID ID of the game
+	 * @return latch that releases the game
+	 * @throws InterruptedException InterruptedException
+	 */
+	private CountDownLatch block(String gameID) throws InterruptedException {
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		assertTrue(this.executor.execute(gameID, () -> {
+			running.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}));
+		assertTrue(running.await(5, TimeUnit.SECONDS));
+		return release;
+	}
+
+	/**
+	 * Waits until all tasks of a game that were queued so far have run
+	 *
+	 * @param gameID ID of the game
+	 * @throws InterruptedException InterruptedException
+	 */
+	private void drain(String gameID) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(1);
+		assertTrue(this.executor.execute(gameID, done::countDown));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void runsTheTasksOfAGameInOrder() throws InterruptedException {
+		// a plain list, the mailbox makes the writes of one task visible to the next
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < 500; i++) {
+			int n = i;
+			assertTrue(this.executor.execute("g1", () -> order.add(n)));
+		}
+		this.drain("g1");
+
+		assertEquals(500, order.size());
+		for (int i = 0; i < 500; i++) {
+			assertEquals(i, order.get(i));
+		}
+		assertEquals(0, this.executor.getQueueSize("g1"));
+	}
+
+	@Test
+	public void neverRunsTasksOfOneGameAtTheSameTime() throws InterruptedException {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger overlaps = new AtomicInteger();
+		AtomicInteger runs = new AtomicInteger();
+		Runnable task = () -> {
+			if (running.incrementAndGet() > 1) overlaps.incrementAndGet();
+			Thread.yield();
+			running.decrementAndGet();
+			runs.incrementAndGet();
+		};
+
+		// several producers post to the same game
+		List<Thread> producers = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			producers.add(new Thread(() -> {
+				for (int i = 0; i < 200; i++) {
+					while (!this.executor.execute("g1", task)) Thread.yield();
+				}
+			}));
+		}
+		for (Thread producer : producers) {
+			producer.start();
+		}
+		for (Thread producer : producers) {
+			producer.join(5000);
+		}
+		this.drain("g1");
+
+		assertEquals(800, runs.get());
+		assertEquals(0, overlaps.get());
+	}
+
+	@Test
+	public void runsDifferentGamesInParallel() throws InterruptedException {
+		CountDownLatch release = this.block("g1");
+		CountDownLatch other = new CountDownLatch(1);
+		this.executor.execute("g2", other::countDown);
+
+		assertTrue(other.await(5, TimeUnit.SECONDS), "a blocked game does not hold up others");
+		release.countDown();
+	}
+
+	@Test
+	public void rejectsTasksOfAFullMailbox() throws InterruptedException {
+		MailboxExecutor small = new MailboxExecutor("Small", 1, 3);
+		try {
+			CountDownLatch running = new CountDownLatch(1);
+			CountDownLatch release = new CountDownLatch(1);
+			assertTrue(small.execute("g1", () -> {
+				running.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}));
+			assertTrue(running.await(5, TimeUnit.SECONDS));
+
+			AtomicInteger runs = new AtomicInteger();
+			for (int i = 0; i < 3; i++) {
+				assertTrue(small.execute("g1", runs::incrementAndGet));
+			}
+			assertEquals(3, small.getQueueSize("g1"));
+			assertFalse(small.execute("g1", runs::incrementAndGet), "the mailbox is full");
+			assertEquals(3, small.getQueueSize("g1"));
+			CountDownLatch other = new CountDownLatch(1);
+			assertTrue(small.execute("g2", other::countDown), "other games have their own mailbox");
+
+			release.countDown();
+			CountDownLatch done = new CountDownLatch(1);
+			// the mailbox takes tasks again once the waiting ones ran
+			while (!small.execute("g1", done::countDown)) {
+				Thread.sleep(1);
+			}
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+			assertTrue(other.await(5, TimeUnit.SECONDS));
+			assertEquals(3, runs.get());
+		} finally {
+			small.shutdown();
+		}
+	}
+
+	@Test
+	public void mergesTicksThatWaitIntoOne() throws InterruptedException {
+		List<Long> deltas = Collections.synchronizedList(new ArrayList<Long>());
+		TickHandler handler = (gameID, deltaNanos) -> deltas.add(deltaNanos);
+
+		CountDownLatch release = this.block("g1");
+		this.executor.tick("g1", 10, handler);
+		this.executor.tick("g1", 20, handler);
+		this.executor.tick("g1", 30, handler);
+		assertEquals(1, this.executor.getQueueSize("g1"), "one waiting tick");
+		release.countDown();
+		this.drain("g1");
+		assertEquals(Collections.singletonList(60L), deltas, "the merged tick carries the whole time");
+
+		// the next tick is queued on its own
+		this.executor.tick("g1", 5, handler);
+		this.drain("g1");
+		assertEquals(List.of(60L, 5L), deltas);
+	}
+
+	@Test
+	public void runsTicksInOrderWithTasks() throws InterruptedException {
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch release = this.block("g1");
+		this.executor.execute("g1", () -> order.add("task 1"));
+		this.executor.tick("g1", 10, (gameID, deltaNanos) -> order.add("tick"));
+		this.executor.execute("g1", () -> order.add("task 2"));
+		release.countDown();
+		this.drain("g1");
+
+		assertEquals(List.of("task 1", "tick", "task 2"), order);
+	}
+
+	@Test
+	public void keepsRunningAfterATaskFailed() throws InterruptedException {
+		AtomicInteger runs = new AtomicInteger();
+		this.executor.execute("g1", () -> {
+			throw new IllegalStateException("Task failed on purpose");
+		});
+		this.executor.execute("g1", runs::incrementAndGet);
+		this.drain("g1");
+		assertEquals(1, runs.get());
+	}
+}
@@ -0,0 +1,154 @@
+package net.nilsramstoeck.gameserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link SerialExecutor}, the lane that keeps the messages of one
+ * connection in order
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class SerialExecutorTest {
+
+	private ExecutorService pool;
+
+	/**
+	 * Number of threads the lane took from the pool
+	 */
+	private final AtomicInteger taken = new AtomicInteger();
+
+	/**
+	 * Number of threads the lane gave back to the pool
+	 */
+	private final AtomicInteger returned = new AtomicInteger();
+
+	private SerialExecutor lane;
+
+	@BeforeEach
+	public void setUp() {
+		this.pool = Executors.newFixedThreadPool(4);
+		this.lane = new SerialExecutor(task -> {
+			this.taken.incrementAndGet();
+			this.pool.execute(() -> {
+				task.run();
+				this.returned.incrementAndGet();
+			});
+		});
+	}
+
+	@AfterEach
+	public void tearDown() {
+		this.pool.shutdownNow();
+	}
+
+	/**
+	 * Waits until all tasks added so far have run
+	 *
+	 * @throws InterruptedException InterruptedException
+	 */
+	private void drain() throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(1);
+		this.lane.execute(done::countDown);
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void runsTasksInOrderOneAtATime() throws InterruptedException {
+		List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger overlaps = new AtomicInteger();
+		for (int i = 0; i < 1000; i++) {
+			int n = i;
+			this.lane.execute(() -> {
+				if (running.incrementAndGet() > 1) overlaps.incrementAndGet();
+				order.add(n);
+				running.decrementAndGet();
+			});
+		}
+		this.drain();
+
+		assertEquals(0, overlaps.get());
+		assertEquals(1000, order.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i, order.get(i));
+		}
+	}
+
+	@Test
+	public void takesAThreadOnlyWhileTasksWait() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		this.lane.execute(() -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		for (int i = 0; i < 10; i++) {
+			this.lane.execute(() -> {});
+		}
+		assertEquals(1, this.taken.get(), "waiting tasks share the running thread");
+		release.countDown();
+		this.drain();
+
+		// once the lane gave up its thread, the next task takes a new one
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (this.returned.get() < this.taken.get()) {
+			assertTrue(System.nanoTime() < deadline, "the lane keeps its thread");
+			Thread.sleep(1);
+		}
+		int before = this.taken.get();
+		this.drain();
+		assertEquals(before + 1, this.taken.get());
+	}
+
+	@Test
+	public void waitsForTheFutureOfAnAsynchronousTask() throws InterruptedException {
+		// like a lane task of the GameServer that waits for its handler
+		CompletableFuture<Void> handler = new CompletableFuture<Void>();
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		this.lane.execute(() -> {
+			order.add("first");
+			handler.exceptionally(error -> null).join();
+			order.add("first answered");
+		});
+		CountDownLatch second = new CountDownLatch(1);
+		this.lane.execute(() -> {
+			order.add("second");
+			second.countDown();
+		});
+
+		assertFalse(second.await(100, TimeUnit.MILLISECONDS), "the second task waits for the first to be answered");
+		handler.completeExceptionally(new IllegalStateException("Handler failed on purpose"));
+		assertTrue(second.await(5, TimeUnit.SECONDS));
+		assertEquals(List.of("first", "first answered", "second"), order);
+	}
+
+	@Test
+	public void keepsRunningAfterATaskFailed() throws InterruptedException {
+		AtomicInteger runs = new AtomicInteger();
+		this.lane.execute(() -> {
+			throw new IllegalStateException("Task failed on purpose");
+		});
+		this.lane.execute(runs::incrementAndGet);
+		this.drain();
+		assertEquals(1, runs.get());
+	}
+}
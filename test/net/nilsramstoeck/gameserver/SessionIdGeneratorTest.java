@@ -0,0 +1,77 @@
+package net.nilsramstoeck.gameserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link SessionIdGenerator}
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class SessionIdGeneratorTest {
+
+	@Test
+	public void encodesTheRandomBytesAsURLSafeBase64() {
+		for (int bytes = SessionIdGenerator.MIN_BYTES; bytes <= SessionIdGenerator.MIN_BYTES + 3; bytes++) {
+			SessionIdGenerator generator = new SessionIdGenerator(bytes);
+			for (int i = 0; i < 100; i++) {
+				String id = generator.next();
+				assertEquals((bytes * 8 + 5) / 6, id.length(), id);
+				assertTrue(id.matches("[A-Za-z0-9_-]+"), id);
+				byte[] decoded = Base64.getUrlDecoder().decode(id);
+				assertEquals(bytes, decoded.length, id);
+				assertEquals(id, Base64.getUrlEncoder().withoutPadding().encodeToString(decoded));
+			}
+		}
+	}
+
+	@Test
+	public void createsUniqueIDs() {
+		SessionIdGenerator generator = new SessionIdGenerator(SessionIdGenerator.MIN_BYTES);
+		Set<String> ids = new HashSet<String>();
+		for (int i = 0; i < 100000; i++) {
+			assertTrue(ids.add(generator.next()));
+		}
+	}
+
+	@Test
+	public void createsUniqueIDsOnAllThreads() throws InterruptedException {
+		SessionIdGenerator generator = new SessionIdGenerator(SessionIdGenerator.MIN_BYTES);
+		Set<String> ids = ConcurrentHashMap.newKeySet();
+		List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				try {
+					for (int i = 0; i < 10000; i++) {
+						assertTrue(ids.add(generator.next()));
+					}
+				} catch (Throwable e) {
+					errors.add(e);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(errors.isEmpty(), errors.toString());
+		assertEquals(threads.length * 10000, ids.size());
+	}
+
+	@Test
+	public void rejectsTooFewBytes() {
+		assertThrows(IllegalArgumentException.class, () -> new SessionIdGenerator(SessionIdGenerator.MIN_BYTES - 1));
+	}
+}
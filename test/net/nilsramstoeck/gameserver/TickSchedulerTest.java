@@ -0,0 +1,149 @@
+package net.nilsramstoeck.gameserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the rates, the stopping and the overrun handling of
+ * {@link TickScheduler}. The timings are loose, so a busy machine does not
+ * fail them.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class TickSchedulerTest {
+
+	private TickScheduler scheduler;
+
+	@AfterEach
+	public void tearDown() {
+		if (this.scheduler != null) this.scheduler.shutdown();
+	}
+
+	/**
+	 * Counts the ticks of each game
+	 */
+	private static final class Counter implements TickHandler {
+		private final ConcurrentHashMap<String, AtomicInteger> ticks = new ConcurrentHashMap<String, AtomicInteger>();
+		private final AtomicInteger running = new AtomicInteger();
+		private final AtomicInteger overlaps = new AtomicInteger();
+		private volatile long sleepMillis = 0;
+
+		@Override
+		public void onTick(String gameID, long deltaNanos) {
+			if (this.running.incrementAndGet() > 1) this.overlaps.incrementAndGet();
+			try {
+				if (deltaNanos <= 0) throw new IllegalStateException("delta " + deltaNanos);
+				this.ticks.computeIfAbsent(gameID, g -> new AtomicInteger()).incrementAndGet();
+				if (this.sleepMillis > 0) Thread.sleep(this.sleepMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				this.running.decrementAndGet();
+			}
+		}
+
+		/**
+		 * Ticks of a game so far
+		 *
+		 * @param gameID ID of the game
+		 * @return ticks
+		 */
+		private int get(String gameID) {
+			AtomicInteger count = this.ticks.get(gameID);
+			return count == null ? 0 : count.get();
+		}
+	}
+
+	@Test
+	public void ticksAtTheConfiguredRate() throws InterruptedException {
+		Counter counter = new Counter();
+		this.scheduler = new TickScheduler("Test", 2, counter);
+		this.scheduler.start("fast", 100);
+		this.scheduler.start("slow", 10);
+		assertTrue(this.scheduler.isTicking("fast"));
+		assertEquals(2, this.scheduler.size());
+
+		Thread.sleep(500);
+		int fast = counter.get("fast");
+		int slow = counter.get("slow");
+		assertTrue(fast >= 20 && fast <= 60, "about 50 ticks: " + fast);
+		assertTrue(slow >= 2 && slow <= 7, "about 5 ticks: " + slow);
+	}
+
+	@Test
+	public void stopsTicking() throws InterruptedException {
+		Counter counter = new Counter();
+		this.scheduler = new TickScheduler("Test", 2, counter);
+		this.scheduler.start("g1", 100);
+		Thread.sleep(100);
+		this.scheduler.stop("g1");
+		assertFalse(this.scheduler.isTicking("g1"));
+		assertEquals(0, this.scheduler.size());
+
+		// a tick that already ran completes
+		Thread.sleep(20);
+		int stopped = counter.get("g1");
+		assertTrue(stopped > 0);
+		Thread.sleep(100);
+		assertEquals(stopped, counter.get("g1"), "no ticks after the stop");
+
+		// a rate of 0 stops as well
+		this.scheduler.start("g2", 100);
+		this.scheduler.start("g2", 0);
+		assertFalse(this.scheduler.isTicking("g2"));
+	}
+
+	@Test
+	public void keepsTheRateOfATickingGame() throws InterruptedException {
+		Counter counter = new Counter();
+		this.scheduler = new TickScheduler("Test", 2, counter);
+		this.scheduler.start("g1", 10);
+		this.scheduler.startIfAbsent("g1", 200);
+		Thread.sleep(300);
+		assertTrue(counter.get("g1") <= 5, "still about 10 ticks per second: " + counter.get("g1"));
+
+		// start replaces the rate
+		this.scheduler.start("g1", 200);
+		int before = counter.get("g1");
+		Thread.sleep(300);
+		assertTrue(counter.get("g1") - before >= 20, "about 60 more ticks: " + (counter.get("g1") - before));
+		assertEquals(1, this.scheduler.size());
+	}
+
+	@Test
+	public void skipsTicksInsteadOfOverlapping() throws InterruptedException {
+		Counter counter = new Counter();
+		counter.sleepMillis = 50;
+		this.scheduler = new TickScheduler("Test", 4, counter);
+		this.scheduler.start("g1", 100);
+
+		Thread.sleep(500);
+		this.scheduler.stop("g1");
+		Thread.sleep(60);
+		assertEquals(0, counter.overlaps.get(), "ticks of a game never overlap");
+		// about 10 ticks of 50ms ran, the missed periods were skipped, not replayed
+		assertTrue(counter.get("g1") <= 12, "no back to back ticks: " + counter.get("g1"));
+		assertTrue(this.scheduler.getOverruns() >= 20, "skipped ticks are counted: " + this.scheduler.getOverruns());
+	}
+
+	@Test
+	public void keepsTickingAfterATickFailed() throws InterruptedException {
+		CountDownLatch ticked = new CountDownLatch(3);
+		this.scheduler = new TickScheduler("Test", 1, (gameID, deltaNanos) -> {
+			ticked.countDown();
+			throw new IllegalStateException("Tick failed on purpose");
+		});
+		this.scheduler.start("g1", 100);
+		assertTrue(ticked.await(5, TimeUnit.SECONDS));
+	}
+}
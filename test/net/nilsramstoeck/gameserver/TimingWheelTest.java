@@ -0,0 +1,123 @@
+package net.nilsramstoeck.gameserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link TimingWheel}
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class TimingWheelTest {
+
+	@Test
+	public void expiresOnceTheDeadlinePassed() {
+		TimingWheel<String> wheel = new TimingWheel<String>(1000);
+		long base = System.currentTimeMillis();
+		wheel.schedule("a", base + 5000);
+
+		assertEquals(1, wheel.size());
+		assertTrue(wheel.advance(base + 4000).isEmpty());
+		assertEquals(Collections.singletonList("a"), wheel.advance(base + 6000));
+		assertEquals(0, wheel.size());
+		assertTrue(wheel.advance(base + 60000).isEmpty());
+	}
+
+	@Test
+	public void laterDeadlinePostponesTheExpiry() {
+		TimingWheel<String> wheel = new TimingWheel<String>(1000);
+		long base = System.currentTimeMillis();
+		wheel.schedule("a", base + 5000);
+		wheel.schedule("a", base + 20000);
+
+		assertEquals(1, wheel.size());
+		assertTrue(wheel.advance(base + 6000).isEmpty());
+		assertTrue(wheel.advance(base + 19000).isEmpty());
+		assertEquals(Collections.singletonList("a"), wheel.advance(base + 21000));
+	}
+
+	@Test
+	public void earlierDeadlineExpiresOnce() {
+		TimingWheel<String> wheel = new TimingWheel<String>(1000);
+		long base = System.currentTimeMillis();
+		wheel.schedule("a", base + 20000);
+		wheel.schedule("a", base + 5000);
+
+		assertEquals(1, wheel.size());
+		assertEquals(Collections.singletonList("a"), wheel.advance(base + 6000));
+		assertTrue(wheel.advance(base + 21000).isEmpty());
+	}
+
+	@Test
+	public void cancelledTimersNeverExpire() {
+		TimingWheel<String> wheel = new TimingWheel<String>(1000);
+		long base = System.currentTimeMillis();
+		wheel.schedule("a", base + 5000);
+		wheel.schedule("b", base + 5000);
+		wheel.cancel("a");
+		wheel.cancel("unknown");
+
+		assertEquals(1, wheel.size());
+		assertEquals(Collections.singletonList("b"), wheel.advance(base + 6000));
+	}
+
+	@Test
+	public void expiresDeadlinesOnEveryLevelOnTime() {
+		TimingWheel<Long> wheel = new TimingWheel<Long>(1);
+		long base = System.currentTimeMillis();
+		// first slot, each level boundary and beyond the last level
+		long[] delays = { 1, 63, 64, 65, 4095, 4096, 262143, 262144, 300000, (1L << 24) - 1, (1L << 24) + 100 };
+		for (long delay : delays) {
+			wheel.schedule(delay, base + delay);
+		}
+
+		for (long delay : delays) {
+			assertTrue(wheel.advance(base + delay - 1).isEmpty(), "early " + delay);
+			assertEquals(Collections.singletonList(delay), wheel.advance(base + delay), "delay " + delay);
+		}
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void expiresRandomDeadlinesExactlyOnce() {
+		TimingWheel<Integer> wheel = new TimingWheel<Integer>(1);
+		Random random = new Random(42);
+		long base = System.currentTimeMillis();
+		Map<Integer, Long> deadlines = new HashMap<Integer, Long>();
+		for (int key = 0; key < 2000; key++) {
+			long deadline = base + 1 + random.nextInt(100000);
+			wheel.schedule(key, deadline);
+			if (random.nextInt(4) == 0) {
+				// refresh some of them
+				deadline = base + 1 + random.nextInt(100000);
+				wheel.schedule(key, deadline);
+			}
+			deadlines.put(key, deadline);
+		}
+
+		long now = base;
+		while (!deadlines.isEmpty()) {
+			long previous = now;
+			now += 1 + random.nextInt(3000);
+			List<Integer> expired = wheel.advance(now);
+			for (Integer key : expired) {
+				Long deadline = deadlines.remove(key);
+				assertTrue(deadline != null, "expired twice " + key);
+				assertTrue(deadline > previous && deadline <= now, "expired late or early " + key);
+			}
+			for (long deadline : deadlines.values()) {
+				assertTrue(deadline > now, "missed deadline " + deadline);
+			}
+		}
+		assertEquals(0, wheel.size());
+	}
+}
@@ -0,0 +1,252 @@
+package net.nilsramstoeck.gameserver.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.framing.Framedata;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.nilsramstoeck.gameserver.client.OutboundQueue.OverflowPolicy;
+
+/**
+ * Tests of {@link OutboundQueue} with a socket whose write buffer is controlled
+ * by the test
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class OutboundQueueTest {
+
+	private FakeSocket client;
+
+	private OutboundQueue queue;
+
+	@BeforeEach
+	public void setUp() {
+		Properties properties = new Properties();
+		properties.setProperty("server.outbound.capacity", "3");
+		properties.setProperty("server.outbound.high_watermark", "2");
+		properties.setProperty("server.outbound.low_watermark", "0");
+		OutboundQueue.configure(properties);
+		this.client = new FakeSocket();
+		this.queue = new OutboundQueue(this.client.socket);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		this.client.closed = true;
+		this.queue.flush();
+		OutboundQueue.configure(new Properties());
+	}
+
+	/**
+	 * Frames of a text message
+	 *
+	 * @param text Text of the message
+	 * @return frames
+	 */
+	private static List<Framedata> frames(String text) {
+		return new Draft_6455().createFrames(text, false);
+	}
+
+	/**
+	 * Lets the client fall behind, the two messages sent fill the write buffer up
+	 * to the high watermark
+	 */
+	private void fallBehind() {
+		this.client.buffered = true;
+		this.queue.send(frames("w1"), null);
+		this.queue.send(frames("w2"), null);
+	}
+
+	@Test
+	public void writesDirectlyWhileTheBufferIsEmpty() {
+		for (int i = 0; i < 10; i++) {
+			this.queue.send(frames("m" + i), i % 2 == 0 ? "key" : null);
+		}
+		assertEquals(Arrays.asList("m0", "m1", "m2", "m3", "m4", "m5", "m6", "m7", "m8", "m9"), this.client.sent);
+		assertEquals(0, this.queue.getDepth());
+	}
+
+	@Test
+	public void queuesAboveTheHighWatermarkAndDrainsInOrder() {
+		int backlogged = OutboundQueue.getBackloggedCount();
+		this.fallBehind();
+		this.queue.send(frames("q1"), null);
+		this.queue.send(frames("q2"), "state");
+
+		assertEquals(Arrays.asList("w1", "w2"), this.client.sent);
+		assertEquals(2, this.queue.getDepth());
+		assertEquals(2, this.queue.getBufferedFrames());
+		assertEquals(backlogged + 1, OutboundQueue.getBackloggedCount());
+
+		// still buffered, nothing drains
+		OutboundQueue.flushAll();
+		assertEquals(2, this.client.sent.size());
+
+		this.client.buffered = false;
+		OutboundQueue.flushAll();
+		assertEquals(Arrays.asList("w1", "w2", "q1", "q2"), this.client.sent);
+		assertEquals(0, this.queue.getDepth());
+		assertEquals(backlogged, OutboundQueue.getBackloggedCount());
+	}
+
+	@Test
+	public void dropsOnlyTheOldestStateUpdate() {
+		this.fallBehind();
+		this.queue.send(frames("response"), null);
+		this.queue.send(frames("a"), "a");
+		this.queue.send(frames("b"), "b");
+		this.queue.send(frames("c"), "c");
+		// keyless messages never get dropped, they replace a state update too
+		this.queue.send(frames("error"), null);
+
+		assertEquals(2, this.queue.getDropped());
+		assertNull(this.client.closeCode);
+		this.client.buffered = false;
+		this.queue.flush();
+		assertEquals(Arrays.asList("w1", "w2", "response", "c", "error"), this.client.sent);
+	}
+
+	@Test
+	public void disconnectsInsteadOfDroppingResponses() {
+		this.fallBehind();
+		this.queue.send(frames("r1"), null);
+		this.queue.send(frames("r2"), null);
+		this.queue.send(frames("r3"), null);
+		assertNull(this.client.closeCode);
+
+		this.queue.send(frames("state"), "state");
+		assertEquals(Integer.valueOf(1013), this.client.closeCode);
+		assertEquals(0, this.queue.getDepth());
+		assertEquals(0, this.queue.getDropped());
+
+		// a closed queue sends nothing anymore
+		this.client.buffered = false;
+		this.queue.send(frames("late"), null);
+		assertEquals(Arrays.asList("w1", "w2"), this.client.sent);
+	}
+
+	@Test
+	public void coalescesStateUpdatesWithTheSameKey() {
+		this.queue.setPolicy(OverflowPolicy.COALESCE);
+		this.fallBehind();
+		this.queue.send(frames("a1"), "a");
+		this.queue.send(frames("b1"), "b");
+		this.queue.send(frames("a2"), "a");
+		this.queue.send(frames("response"), null);
+
+		assertEquals(3, this.queue.getDepth());
+		assertEquals(1, this.queue.getDropped());
+		this.client.buffered = false;
+		this.queue.flush();
+		assertEquals(Arrays.asList("w1", "w2", "b1", "a2", "response"), this.client.sent);
+	}
+
+	@Test
+	public void disconnectsAFullQueueWithPolicyDisconnect() {
+		this.queue.setPolicy(OverflowPolicy.DISCONNECT);
+		this.fallBehind();
+		this.queue.send(frames("a"), "a");
+		this.queue.send(frames("b"), "b");
+		this.queue.send(frames("c"), "c");
+		assertNull(this.client.closeCode);
+
+		this.queue.send(frames("d"), "d");
+		assertEquals(Integer.valueOf(1013), this.client.closeCode);
+	}
+
+	@Test
+	public void discardsTheQueueOfAClosedSocket() {
+		int backlogged = OutboundQueue.getBackloggedCount();
+		this.fallBehind();
+		this.queue.send(frames("q"), null);
+		this.client.closed = true;
+		this.queue.flush();
+
+		assertEquals(0, this.queue.getDepth());
+		assertEquals(backlogged, OutboundQueue.getBackloggedCount());
+		assertEquals(Arrays.asList("w1", "w2"), this.client.sent);
+	}
+
+	@Test
+	public void writesOwnCopiesOfSharedFrames() {
+		List<Framedata> broadcast = frames("shared");
+		ByteBuffer payload = broadcast.get(0).getPayloadData();
+		int remaining = payload.remaining();
+		FakeSocket other = new FakeSocket();
+
+		this.queue.send(broadcast, null);
+		new OutboundQueue(other.socket).send(broadcast, null);
+
+		assertEquals(Arrays.asList("shared"), this.client.sent);
+		assertEquals(Arrays.asList("shared"), other.sent);
+		assertNotSame(broadcast.get(0), this.client.frames.get(0));
+		// reading the written frames did not move the shared payload
+		assertEquals(0, payload.position());
+		assertEquals(remaining, payload.remaining());
+	}
+
+	/**
+	 * WebSocket that records the text of written messages
+	 */
+	private static final class FakeSocket implements InvocationHandler {
+		private final WebSocket socket = (WebSocket) Proxy.newProxyInstance(WebSocket.class.getClassLoader(), new Class<?>[] { WebSocket.class }, this);
+		private final List<String> sent = new ArrayList<String>();
+		private final List<Framedata> frames = new ArrayList<Framedata>();
+		private volatile boolean buffered = false;
+		private volatile boolean closed = false;
+		private volatile Integer closeCode = null;
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			switch (method.getName()) {
+			case "sendFrame":
+				@SuppressWarnings("unchecked")
+				Collection<Framedata> written = (Collection<Framedata>) args[0];
+				StringBuilder text = new StringBuilder();
+				for (Framedata frame : written) {
+					this.frames.add(frame);
+					ByteBuffer payload = frame.getPayloadData();
+					byte[] bytes = new byte[payload.remaining()];
+					payload.get(bytes);
+					text.append(new String(bytes, StandardCharsets.UTF_8));
+				}
+				this.sent.add(text.toString());
+				return null;
+			case "hasBufferedData":
+				return this.buffered;
+			case "isClosing":
+				return false;
+			case "isClosed":
+				return this.closed;
+			case "close":
+				this.closeCode = (Integer) args[0];
+				this.closed = true;
+				return null;
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "equals":
+				return proxy == args[0];
+			default:
+				return null;
+			}
+		}
+	}
+}
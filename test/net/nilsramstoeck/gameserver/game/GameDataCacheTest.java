@@ -0,0 +1,233 @@
+package net.nilsramstoeck.gameserver.game;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.nilsramstoeck.gameserver.GameServerException;
+import net.nilsramstoeck.gameserver.storage.MemoryStorage;
+import net.nilsramstoeck.gameserver.storage.Storage.Owner;
+
+/**
+ * Tests of {@link GameDataCache} on a memory storage whose writes can be held
+ * back or failed by the test
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class GameDataCacheTest {
+
+	private static final AtomicInteger games = new AtomicInteger();
+
+	private ControlledStorage storage;
+
+	private String gameID;
+
+	@BeforeEach
+	public void setUp() throws GameServerException {
+		this.storage = new ControlledStorage();
+		this.storage.open();
+		this.gameID = "cache-" + games.incrementAndGet();
+		this.storage.createSession("host", "host");
+		this.storage.createGame(this.gameID, this.storage.getUserId("host"));
+	}
+
+	/**
+	 * Gets the open cache of the test game
+	 *
+	 * @return Cache
+	 */
+	private GameDataCache cache() {
+		return GameDataCache.get(this.storage, Owner.GAME, this.gameID);
+	}
+
+	/**
+	 * Reads the stored values of the test game
+	 *
+	 * @return values
+	 * @throws GameServerException GameServerException
+	 */
+	private Map<String, String> stored() throws GameServerException {
+		return this.storage.loadValues(Owner.GAME, this.gameID);
+	}
+
+	@Test
+	public void writesChangesBackOnFlush() throws GameServerException {
+		this.storage.writeValues(Owner.GAME, this.gameID, Collections.singletonMap("old", "1"), Collections.<String>emptyList());
+		GameDataCache cache = this.cache();
+		assertEquals("1", cache.get("old"));
+
+		assertTrue(cache.put("a", "1"));
+		assertTrue(cache.apply(Collections.singletonMap("b", "2"), Collections.singletonList("old")));
+		assertEquals(Collections.singletonMap("old", "1"), this.stored(), "nothing written before the flush");
+		assertNull(cache.get("old"));
+		int writes = this.storage.writes.get();
+
+		assertTrue(cache.flush());
+		Map<String, String> expected = new HashMap<String, String>();
+		expected.put("a", "1");
+		expected.put("b", "2");
+		assertEquals(expected, this.stored());
+		assertEquals(writes + 1, this.storage.writes.get(), "all changes in one write");
+		assertTrue(cache.flush());
+		assertEquals(writes + 1, this.storage.writes.get(), "nothing to flush");
+		cache.close();
+	}
+
+	@Test
+	public void updatesValuesAtomically() throws GameServerException {
+		GameDataCache cache = this.cache();
+		cache.put("gold", "10");
+		cache.put("wood", "5");
+
+		assertTrue(cache.update(values -> {
+			values.put("gold", Integer.toString(Integer.parseInt(values.get("gold")) - 3));
+			values.remove("wood");
+			values.put("sword", "1");
+		}));
+		assertTrue(cache.flush());
+
+		Map<String, String> expected = new HashMap<String, String>();
+		expected.put("gold", "7");
+		expected.put("sword", "1");
+		assertEquals(expected, this.stored());
+		cache.close();
+	}
+
+	@Test
+	public void keepsValuesDirtyWhenAWriteFails() throws GameServerException {
+		GameDataCache cache = this.cache();
+		cache.put("a", "1");
+		this.storage.failures.set(1);
+
+		assertFalse(cache.flush());
+		assertTrue(this.stored().isEmpty());
+		assertTrue(cache.flush());
+		assertEquals(Collections.singletonMap("a", "1"), this.stored());
+		cache.close();
+	}
+
+	@Test
+	public void closeWritesOutsideTheMonitor() throws Exception {
+		GameDataCache cache = this.cache();
+		cache.put("a", "1");
+		assertEquals("1", cache.get("a"));
+		this.storage.hold = new CountDownLatch(1);
+
+		CompletableFuture<Boolean> closed = CompletableFuture.supplyAsync(cache::close);
+		assertTrue(this.storage.writing.await(5, TimeUnit.SECONDS));
+
+		// reads are served while the closing cache is written
+		CompletableFuture<String> read = CompletableFuture.supplyAsync(() -> cache.get("a"));
+		assertEquals("1", read.get(1, TimeUnit.SECONDS));
+		// the monitor is free, the closed cache rejects the put right away
+		CompletableFuture<Boolean> put = CompletableFuture.supplyAsync(() -> cache.put("c", "3"));
+		assertFalse(put.get(1, TimeUnit.SECONDS));
+		// writes wait for the cache to close and go to its successor
+		CompletableFuture<Boolean> write = CompletableFuture.supplyAsync(() -> GameDataCache.write(this.storage, Owner.GAME, this.gameID, c -> c.put("b", "2")));
+		Thread.sleep(100);
+		assertFalse(write.isDone());
+
+		this.storage.hold.countDown();
+		assertTrue(closed.get(5, TimeUnit.SECONDS));
+		assertTrue(write.get(5, TimeUnit.SECONDS));
+		GameDataCache successor = this.cache();
+		assertNotSame(cache, successor);
+		assertEquals("1", successor.get("a"));
+		assertEquals("2", successor.get("b"));
+		assertTrue(successor.close());
+		Map<String, String> expected = new HashMap<String, String>();
+		expected.put("a", "1");
+		expected.put("b", "2");
+		assertEquals(expected, this.stored());
+	}
+
+	@Test
+	public void staysOpenUntilAFailedCloseIsWritten() throws GameServerException {
+		GameDataCache cache = this.cache();
+		cache.put("a", "1");
+		this.storage.failures.set(1);
+
+		assertFalse(cache.close());
+		assertSame(cache, this.cache(), "the cache keeps its changes registered");
+		assertTrue(GameDataCache.write(this.storage, Owner.GAME, this.gameID, c -> c.put("b", "2")));
+		assertTrue(this.stored().isEmpty());
+
+		// the next flush writes the changes and finishes the close
+		assertTrue(GameDataCache.flushAll());
+		Map<String, String> expected = new HashMap<String, String>();
+		expected.put("a", "1");
+		expected.put("b", "2");
+		assertEquals(expected, this.stored());
+		assertFalse(cache.put("c", "3"));
+		assertNotSame(cache, this.cache());
+		this.cache().close();
+	}
+
+	@Test
+	public void writesToADiscardedCacheGoToItsSuccessor() throws GameServerException {
+		GameDataCache cache = this.cache();
+		assertSame(cache, this.cache());
+		cache.put("lost", "1");
+		cache.discard();
+
+		assertFalse(cache.put("late", "1"));
+		assertTrue(GameDataCache.write(this.storage, Owner.GAME, this.gameID, c -> c.put("b", "2")));
+		assertTrue(this.cache().close());
+		assertEquals(Collections.singletonMap("b", "2"), this.stored());
+	}
+
+	@Test
+	public void dropsChangesOfADeletedGame() throws GameServerException {
+		GameDataCache cache = this.cache();
+		cache.put("a", "1");
+		this.storage.removeGames(Collections.singletonList(this.gameID));
+
+		assertFalse(cache.flush());
+		assertTrue(cache.flush(), "the changes were dropped");
+		cache.close();
+	}
+
+	/**
+	 * Memory storage whose value writes can be held back or failed
+	 */
+	private static final class ControlledStorage extends MemoryStorage {
+		private final AtomicInteger writes = new AtomicInteger();
+		private final AtomicInteger failures = new AtomicInteger();
+		private final CountDownLatch writing = new CountDownLatch(1);
+		private volatile CountDownLatch hold = null;
+
+		@Override
+		public boolean writeValues(Owner owner, String ownerID, Map<String, String> upserts, Collection<String> deletes) throws GameServerException {
+			this.writing.countDown();
+			CountDownLatch latch = this.hold;
+			if (latch != null) {
+				try {
+					latch.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (this.failures.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+				throw new GameServerException("Write failed", GameServerException.SQL_ERROR);
+			}
+			this.writes.incrementAndGet();
+			return super.writeValues(owner, ownerID, upserts, deletes);
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package net.nilsramstoeck.gameserver.game;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import net.nilsramstoeck.gameserver.GameServer;
+import net.nilsramstoeck.gameserver.GameServerException;
+import net.nilsramstoeck.gameserver.storage.MemoryStorage;
+import net.nilsramstoeck.gameserver.storage.Storage;
+import net.nilsramstoeck.gameserver.storage.Storage.Owner;
+import net.nilsramstoeck.gameserver.storage.StorageProvider;
+import net.nilsramstoeck.gameserver.storage.StoredState;
+
+/**
+ * Tests of {@link GameState} on a memory storage
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class GameStateTest {
+
+	private static final AtomicInteger games = new AtomicInteger();
+
+	private static Storage storage;
+
+	/**
+	 * Games whose state can't be saved
+	 */
+	private static final Set<String> failing = ConcurrentHashMap.newKeySet();
+
+	@BeforeAll
+	public static void connect() throws GameServerException {
+		if (GameServer.properties == null) GameServer.properties = new Properties();
+		MemoryStorage memory = new MemoryStorage() {
+			@Override
+			public SaveResult saveState(Owner owner, String ownerID, long expectedVersion, byte[] data) throws GameServerException {
+				if (failing.contains(ownerID)) throw new GameServerException("Save failed", GameServerException.SQL_ERROR);
+				return super.saveState(owner, ownerID, expectedVersion, data);
+			}
+		};
+		memory.open();
+		StorageProvider.setStorage(memory);
+		GameData.connect();
+		GameStateTest.storage = GameData.getStorage();
+	}
+
+	@AfterAll
+	public static void flush() {
+		// loads the classes the shutdown hook of GameData flushes with
+		GameData.flushAll();
+	}
+
+	/**
+	 * Creates a game in the storage
+	 *
+	 * @return GameID
+	 * @throws GameServerException GameServerException
+	 */
+	private static String createGame() throws GameServerException {
+		String gameID = "state-" + games.incrementAndGet();
+		storage.createSession("host-" + gameID, "host");
+		storage.createGame(gameID, storage.getUserId("host-" + gameID));
+		return gameID;
+	}
+
+	/**
+	 * Writes the state of a game like another server would
+	 *
+	 * @param gameID  GameID
+	 * @param version Version the other server read
+	 * @param values  State to write
+	 * @throws Exception Exception
+	 */
+	private static void saveElsewhere(String gameID, long version, Map<String, Object> values) throws Exception {
+		assertEquals(Storage.SaveResult.SAVED, storage.saveState(Owner.GAME, gameID, version, GameState.encode(values)));
+	}
+
+	/**
+	 * Reads the stored state of a game
+	 *
+	 * @param gameID GameID
+	 * @return stored values
+	 * @throws Exception Exception
+	 */
+	private static Map<String, Object> stored(String gameID) throws Exception {
+		StoredState state = storage.loadState(Owner.GAME, gameID);
+		return state == null ? null : GameState.decode(state.getData());
+	}
+
+	@Test
+	public void encodesAllValueTypes() throws IOException {
+		HashMap<String, Object> values = new HashMap<String, Object>();
+		values.put("int", -7);
+		values.put("long", Long.MAX_VALUE);
+		values.put("double", 0.1);
+		values.put("boolean", true);
+		values.put("string", "h\u00e9llo");
+		values.put("empty", "");
+
+		Map<String, Object> decoded = GameState.decode(GameState.encode(values));
+		byte[] bytes = { 1, 2, 3 };
+		values.put("bytes", bytes);
+		Map<String, Object> withBytes = GameState.decode(GameState.encode(values));
+
+		assertEquals(6, decoded.size());
+		assertEquals(-7, decoded.get("int"));
+		assertEquals(Long.MAX_VALUE, decoded.get("long"));
+		assertEquals(0.1, decoded.get("double"));
+		assertEquals(true, decoded.get("boolean"));
+		assertEquals("h\u00e9llo", decoded.get("string"));
+		assertEquals("", decoded.get("empty"));
+		assertArrayEquals(bytes, (byte[]) withBytes.get("bytes"));
+	}
+
+	@Test
+	public void rejectsUnknownData() {
+		assertThrows(IOException.class, () -> GameState.decode(new byte[0]));
+		assertThrows(IOException.class, () -> GameState.decode(new byte[] { 0x7F, 0x00 }));
+		assertThrows(IOException.class, () -> GameState.encode(Map.of("object", new Object())));
+	}
+
+	@Test
+	public void savesAndReloadsVersions() throws Exception {
+		String gameID = GameStateTest.createGame();
+		GameState state = new GameState(gameID);
+		assertEquals(0, state.getVersion());
+		assertTrue(state.save(), "nothing to save");
+
+		state.setInt("score", 3);
+		state.setString("name", "test");
+		state.setBytes("board", new byte[] { 1, 0, 1 });
+		assertTrue(state.save());
+		assertEquals(1, state.getVersion());
+		state.remove("name");
+		assertTrue(state.save());
+		assertEquals(2, state.getVersion());
+
+		GameState.discard(Owner.GAME, gameID);
+		GameState reloaded = new GameState(gameID);
+		assertEquals(2, reloaded.getVersion());
+		assertEquals(3, reloaded.getInt("score", 0));
+		assertNull(reloaded.getString("name"));
+		assertArrayEquals(new byte[] { 1, 0, 1 }, reloaded.getBytes("board"));
+		assertEquals(42, reloaded.getInt("missing", 42));
+	}
+
+	@Test
+	public void mergesLocalChangesAfterAVersionConflict() throws Exception {
+		String gameID = GameStateTest.createGame();
+		GameState state = new GameState(gameID);
+		state.setInt("a", 1);
+		state.setInt("b", 2);
+		state.setInt("removed", 0);
+		assertTrue(state.save());
+
+		// another server saves version 2 in between
+		Map<String, Object> other = new HashMap<String, Object>();
+		other.put("a", 10);
+		other.put("b", 20);
+		other.put("removed", 0);
+		other.put("other", 30);
+		GameStateTest.saveElsewhere(gameID, 1, other);
+
+		state.setInt("b", 5);
+		state.setInt("c", 3);
+		state.remove("removed");
+		assertTrue(state.save());
+
+		Map<String, Object> expected = new HashMap<String, Object>();
+		expected.put("a", 10);
+		expected.put("b", 5);
+		expected.put("c", 3);
+		expected.put("other", 30);
+		assertEquals(expected, GameStateTest.stored(gameID));
+		assertEquals(3, state.getVersion());
+		assertEquals(10, state.getInt("a", 0));
+		assertEquals(30, state.getInt("other", 0));
+		assertFalse(state.keys().contains("removed"));
+	}
+
+	@Test
+	public void keepsChangesPendingUntilTheyAreSaved() throws Exception {
+		String gameID = GameStateTest.createGame();
+		GameState state = new GameState(gameID);
+		state.setInt("a", 1);
+		assertTrue(state.save());
+		GameStateTest.saveElsewhere(gameID, 1, Map.of("a", 10));
+		GameStateTest.saveElsewhere(gameID, 2, Map.of("a", 11));
+
+		// the merged change is saved on top of the latest version
+		state.setInt("b", 2);
+		assertTrue(state.save());
+		assertEquals(Map.of("a", 11, "b", 2), GameStateTest.stored(gameID));
+
+		// a later conflict does not bring back changes that were already saved
+		GameStateTest.saveElsewhere(gameID, 4, Map.of("a", 12));
+		state.setInt("c", 3);
+		assertTrue(state.save());
+		assertEquals(Map.of("a", 12, "c", 3), GameStateTest.stored(gameID));
+	}
+
+	@Test
+	public void dropsTheStateOfADeletedGame() throws Exception {
+		String gameID = GameStateTest.createGame();
+		GameState state = new GameState(gameID);
+		state.setInt("a", 1);
+		storage.removeGames(Collections.singletonList(gameID));
+		assertFalse(state.save());
+		assertNull(GameStateTest.stored(gameID));
+	}
+
+	@Test
+	public void keepsAStateThatCouldNotBeWrittenOnClose() throws Exception {
+		String gameID = GameStateTest.createGame();
+		GameState state = new GameState(gameID);
+		state.setInt("a", 1);
+		failing.add(gameID);
+
+		assertFalse(GameState.close(Owner.GAME, gameID));
+		assertNull(GameStateTest.stored(gameID));
+
+		// the flush writes the pending change and then removes the state
+		failing.remove(gameID);
+		assertTrue(GameState.saveAll());
+		assertEquals(Map.of("a", 1), GameStateTest.stored(gameID));
+		GameStateTest.saveElsewhere(gameID, 1, Map.of("a", 10));
+		assertEquals(10, new GameState(gameID).getInt("a", 0), "the closed state was reloaded");
+	}
+
+	@Test
+	public void removesTheStateOfADeletedGameOnClose() throws Exception {
+		String gameID = GameStateTest.createGame();
+		GameState state = new GameState(gameID);
+		state.setInt("a", 1);
+		storage.removeGames(Collections.singletonList(gameID));
+
+		assertFalse(GameState.close(Owner.GAME, gameID));
+		storage.createGame(gameID, storage.getUserId("host-" + gameID));
+		assertEquals(0, new GameState(gameID).getVersion(), "the dropped state was removed");
+	}
+}
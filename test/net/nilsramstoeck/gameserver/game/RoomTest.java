@@ -0,0 +1,210 @@
+package net.nilsramstoeck.gameserver.game;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.nilsramstoeck.gameserver.client.Client;
+
+/**
+ * Tests of the copy-on-write membership of {@link Room} and of
+ * {@link RoomRegistry} under concurrent use
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class RoomTest {
+
+	private static final int THREADS = 8;
+
+	private ExecutorService threads;
+
+	@BeforeEach
+	public void setUp() {
+		this.threads = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		this.threads.shutdownNow();
+	}
+
+	/**
+	 * Creates clients without a connection
+	 *
+	 * @param count Number of clients
+	 * @return clients
+	 */
+	private static Client[] clients(int count) {
+		Client[] clients = new Client[count];
+		for (int i = 0; i < count; i++) {
+			clients[i] = new Client(null);
+		}
+		return clients;
+	}
+
+	/**
+	 * Runs tasks on all threads at once and waits for them
+	 *
+	 * @param tasks Tasks to run
+	 * @return results of the tasks
+	 * @throws Exception a task failed
+	 */
+	private <T> List<T> runTogether(List<Callable<T>> tasks) throws Exception {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<T>> futures = new ArrayList<Future<T>>();
+		for (Callable<T> task : tasks) {
+			futures.add(this.threads.submit(() -> {
+				start.await();
+				return task.call();
+			}));
+		}
+		start.countDown();
+		List<T> results = new ArrayList<T>();
+		for (Future<T> future : futures) {
+			results.add(future.get(10, TimeUnit.SECONDS));
+		}
+		return results;
+	}
+
+	@Test
+	public void addsAndRemovesMembers() {
+		Room room = new Room("g1");
+		Client[] clients = RoomTest.clients(3);
+
+		assertTrue(room.add(clients[0]));
+		assertTrue(room.add(clients[1]));
+		assertFalse(room.add(clients[0]), "already a member");
+		Client[] snapshot = room.getClients();
+		assertTrue(room.add(clients[2]));
+		assertArrayEquals(new Client[] { clients[0], clients[1] }, snapshot, "published arrays are not changed");
+
+		room.setHost(clients[1]);
+		assertTrue(room.remove(clients[1]));
+		assertFalse(room.remove(clients[1]));
+		assertNull(room.getHost(), "the host left");
+		assertArrayEquals(new Client[] { clients[0], clients[2] }, room.getClients());
+		assertTrue(room.remove(clients[0]));
+		assertTrue(room.remove(clients[2]));
+		assertEquals(0, room.size());
+	}
+
+	@Test
+	public void keepsAllConcurrentJoins() throws Exception {
+		Room room = new Room("g1");
+		Client[] clients = RoomTest.clients(THREADS * 200);
+
+		List<Callable<Integer>> joins = new ArrayList<Callable<Integer>>();
+		for (int t = 0; t < THREADS; t++) {
+			int first = t * 200;
+			joins.add(() -> {
+				int added = 0;
+				for (int i = first; i < first + 200; i++) {
+					if (room.add(clients[i])) added++;
+				}
+				return added;
+			});
+		}
+		for (int added : this.runTogether(joins)) {
+			assertEquals(200, added);
+		}
+		assertEquals(clients.length, room.size());
+		assertEquals(new HashSet<Client>(Arrays.asList(clients)), new HashSet<Client>(Arrays.asList(room.getClients())));
+	}
+
+	@Test
+	public void keepsMembersWhileOthersJoinAndLeave() throws Exception {
+		Room room = new Room("g1");
+		Client[] stayers = RoomTest.clients(50);
+		for (Client client : stayers) {
+			room.add(client);
+		}
+		Client[] visitors = RoomTest.clients(THREADS - 1);
+
+		// every thread lets its own client join and leave, while one reads
+		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		for (Client visitor : visitors) {
+			tasks.add(() -> {
+				for (int i = 0; i < 2000; i++) {
+					if (!room.add(visitor) || !room.remove(visitor)) return false;
+				}
+				return true;
+			});
+		}
+		tasks.add(() -> {
+			for (int i = 0; i < 2000; i++) {
+				if (!Arrays.asList(room.getClients()).containsAll(Arrays.asList(stayers))) return false;
+			}
+			return true;
+		});
+		for (boolean consistent : this.runTogether(tasks)) {
+			assertTrue(consistent, "a join or leave was lost");
+		}
+		assertEquals(new HashSet<Client>(Arrays.asList(stayers)), new HashSet<Client>(Arrays.asList(room.getClients())));
+	}
+
+	@Test
+	public void removesEveryMemberOnceUnderContention() throws Exception {
+		Room room = new Room("g1");
+		Client[] clients = RoomTest.clients(500);
+		for (Client client : clients) {
+			room.add(client);
+		}
+
+		// all threads try to remove all clients, each removal succeeds once
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int t = 0; t < THREADS; t++) {
+			tasks.add(() -> {
+				int removed = 0;
+				for (Client client : clients) {
+					if (room.remove(client)) removed++;
+				}
+				return removed;
+			});
+		}
+		int removed = 0;
+		for (int count : this.runTogether(tasks)) {
+			removed += count;
+		}
+		assertEquals(clients.length, removed);
+		assertEquals(0, room.size());
+	}
+
+	@Test
+	public void createsOneRoomPerGame() throws Exception {
+		RoomRegistry registry = new RoomRegistry();
+		List<Callable<Room>> tasks = new ArrayList<Callable<Room>>();
+		for (int t = 0; t < THREADS; t++) {
+			tasks.add(() -> registry.getOrCreate("g1"));
+		}
+		List<Room> rooms = this.runTogether(tasks);
+		for (Room room : rooms) {
+			assertSame(rooms.get(0), room);
+		}
+		assertEquals(1, registry.size());
+		assertSame(rooms.get(0), registry.get("g1"));
+		assertNull(registry.get(null));
+
+		assertSame(rooms.get(0), registry.remove("g1"));
+		assertNull(registry.get("g1"));
+		assertEquals(0, registry.size());
+	}
+}
@@ -0,0 +1,211 @@
+package net.nilsramstoeck.gameserver.message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.framing.Framedata;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link BinaryMessageCodec}
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class BinaryMessageCodecTest {
+
+	private final BinaryMessageCodec codec = new BinaryMessageCodec();
+
+	/**
+	 * Encodes a message and decodes it again
+	 *
+	 * @param message Message to encode
+	 * @return decoded message
+	 */
+	private Message roundTrip(Message message) {
+		return this.codec.decode(this.codec.encode(message));
+	}
+
+	@Test
+	public void roundTripsAllValueTypes() {
+		Message message = new Message();
+		message.put(Message.TYPE, Message.REQUEST);
+		message.put(Message.ACTION, Message.CREATE_GAME);
+		message.put(Message.MESSAGE_ID, "m-1");
+		message.put("small", 5);
+		message.put("negative", -1);
+		message.put("int", 100000);
+		message.put("long", 1L << 40);
+		message.put("double", 1.25);
+		message.put("yes", true);
+		message.put("no", false);
+		message.put("null", JSONObject.NULL);
+		message.put("unicode", "gr\u00fc\u00dfe \u2603");
+		message.put("empty", "");
+		message.put("map", new JSONObject().put("a", 1).put("b", new JSONArray().put("x").put(2)));
+		message.put("array", new JSONArray().put(JSONObject.NULL).put(3.5).put(new JSONObject()));
+
+		Message decoded = this.roundTrip(message);
+
+		assertTrue(message.similar(decoded), decoded.toString());
+		assertEquals(Message.REQUEST, decoded.getString(Message.TYPE));
+		assertEquals(1L << 40, decoded.getLong("long"));
+		assertSame(JSONObject.NULL, decoded.get("null"));
+	}
+
+	@Test
+	public void keepsIntegerBoundaries() {
+		long[] values = { 0, 127, 128, -128, Integer.MAX_VALUE, Integer.MIN_VALUE, (long) Integer.MAX_VALUE + 1, Long.MIN_VALUE, Long.MAX_VALUE };
+		for (long value : values) {
+			Message message = new Message();
+			message.put(Message.VALUE, value);
+			assertEquals(value, this.roundTrip(message).getLong(Message.VALUE), "value " + value);
+		}
+	}
+
+	@Test
+	public void keepsPrecisionBeyond64Bit() {
+		BigInteger big = BigInteger.ONE.shiftLeft(80).add(BigInteger.ONE);
+		BigDecimal precise = new BigDecimal("0.1000000000000000000001");
+		Message message = new Message();
+		message.put("big", big);
+		message.put("precise", precise);
+
+		Message decoded = this.roundTrip(message);
+
+		assertEquals(big, decoded.getBigInteger("big"));
+		assertEquals(precise, decoded.getBigDecimal("precise"));
+	}
+
+	@Test
+	public void roundTripsParsedJSON() {
+		String json = "{\"type\":\"request\",\"action\":\"enter_game\",\"game_id\":\"0ABC\",\"value\":{\"list\":[1,2.5,\"three\",null,true]}}";
+		Message message = new Message(json);
+		// org.json parses decimals as BigDecimal, the codec decodes them as double
+		assertTrue(message.similar(new Message(this.roundTrip(message).toString())));
+	}
+
+	@Test
+	public void encodesKnownNamesAsOpcodes() {
+		Message known = new Message();
+		known.put(Message.TYPE, Message.RESPONSE);
+		Message unknown = new Message();
+		unknown.put("tppe", "respbnse");
+
+		assertTrue(this.codec.encode(known).remaining() < this.codec.encode(unknown).remaining());
+	}
+
+	@Test
+	public void encodesFramesOfTheDraft() {
+		Message message = new Message();
+		message.put(Message.TYPE, Message.RESPONSE);
+		message.put(Message.VALUE, "payload");
+
+		List<Framedata> frames = this.codec.encode(message, new Draft_6455());
+
+		assertEquals(1, frames.size());
+		assertEquals(Opcode.BINARY, frames.get(0).getOpcode());
+		assertTrue(message.similar(this.codec.decode(frames.get(0).getPayloadData())));
+	}
+
+	@Test
+	public void rejectsMalformedData() {
+		Message message = new Message();
+		message.put(Message.TYPE, Message.REQUEST);
+		byte[] valid = new byte[this.codec.encode(message).remaining()];
+		this.codec.encode(message).get(valid);
+
+		byte[] version = valid.clone();
+		version[0] = 0x7F;
+		assertThrows(IllegalArgumentException.class, () -> this.codec.decode(ByteBuffer.wrap(version)));
+
+		byte[] notMap = valid.clone();
+		notMap[1] = 0x09;
+		assertThrows(IllegalArgumentException.class, () -> this.codec.decode(ByteBuffer.wrap(notMap)));
+
+		byte[] trailing = Arrays.copyOf(valid, valid.length + 1);
+		assertThrows(IllegalArgumentException.class, () -> this.codec.decode(ByteBuffer.wrap(trailing)));
+
+		for (int length = 0; length < valid.length; length++) {
+			byte[] truncated = Arrays.copyOf(valid, length);
+			assertThrows(IllegalArgumentException.class, () -> this.codec.decode(ByteBuffer.wrap(truncated)), "length " + length);
+		}
+
+		// string length beyond the message
+		assertThrows(IllegalArgumentException.class, () -> this.codec.decode(ByteBuffer.wrap(new byte[] { 0x01, 0x08, 0x01, 0x06, 0x7F })));
+	}
+
+	/**
+	 * Frame of a map whose value is nested in arrays
+	 *
+	 * @param arrays Number of nested arrays
+	 * @return frame
+	 */
+	private static ByteBuffer nestedArrays(int arrays) {
+		ByteBuffer data = ByteBuffer.allocate(6 + arrays * 2);
+		// version, map of one entry with the opcode key "value"
+		data.put(new byte[] { 0x01, 0x08, 0x01, 0x07, 0x07 });
+		for (int i = 0; i < arrays; i++) {
+			data.put(new byte[] { 0x09, 0x01 });
+		}
+		data.put((byte) 0x00);
+		data.flip();
+		return data;
+	}
+
+	@Test
+	public void rejectsDeeplyNestedData() {
+		ByteBuffer deep = BinaryMessageCodecTest.nestedArrays(20000);
+		assertThrows(IllegalArgumentException.class, () -> InboundMessage.fromBinary(deep));
+		assertThrows(IllegalArgumentException.class, () -> this.codec.decode(deep.duplicate()));
+		ByteBuffer tooDeep = BinaryMessageCodecTest.nestedArrays(BinaryMessageCodec.MAX_DEPTH);
+		assertThrows(IllegalArgumentException.class, () -> this.codec.decode(tooDeep));
+
+		// the top level map and the arrays inside it reach the maximum depth
+		ByteBuffer deepest = BinaryMessageCodecTest.nestedArrays(BinaryMessageCodec.MAX_DEPTH - 1);
+		InboundMessage inbound = InboundMessage.fromBinary(deepest);
+		assertEquals(1, inbound.getMessage().length());
+	}
+
+	@Test
+	public void scansHeaderWithoutDecoding() {
+		Message message = new Message();
+		message.put(Message.TYPE, Message.REQUEST);
+		message.put(Message.ACTION, Message.ENTER_GAME);
+		message.put(Message.MESSAGE_ID, "42");
+		message.put(Message.GAME_ID, 7);
+		message.put(Message.VALUE, new JSONObject().put(Message.TYPE, "nested"));
+
+		InboundMessage inbound = InboundMessage.fromBinary(this.codec.encode(message));
+
+		assertEquals(Message.REQUEST, inbound.getType());
+		assertEquals(Message.ENTER_GAME, inbound.getAction());
+		assertEquals("42", inbound.getMessageID());
+		// only strings are header values
+		assertNull(inbound.getGameID());
+		assertFalse(inbound.isDecoded());
+		assertTrue(message.similar(inbound.getMessage()));
+	}
+
+	@Test
+	public void selectsCodecByName() {
+		assertSame(MessageCodec.BINARY, MessageCodec.forName(" Binary "));
+		assertSame(MessageCodec.JSON, MessageCodec.forName("json"));
+		assertSame(MessageCodec.JSON, MessageCodec.forName(null));
+		assertSame(MessageCodec.JSON, MessageCodec.forName("xml"));
+	}
+}
@@ -0,0 +1,117 @@
+package net.nilsramstoeck.gameserver.message;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link JSONHeaderScanner} against the headers org.json reads from the
+ * same text
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class JSONHeaderScannerTest {
+
+	/**
+	 * Messages the scanner has to read like org.json
+	 */
+	private static final String[] MESSAGES = {
+			"{}",
+			" { } ",
+			"{\"type\":\"request\",\"action\":\"login\",\"message_id\":\"1\",\"game_id\":\"0ABC\"}",
+			"{ \"type\" : \"request\" ,\n\t\"action\":\"enter_game\" }",
+			"{\"value\":{\"type\":\"nested\",\"list\":[{\"action\":\"x\"},\"]}\"]},\"type\":\"response\"}",
+			"{\"message_id\":\"quote \\\" and \\\\ backslash\",\"type\":\"a\\u00e4b\"}",
+			"{\"action\":\"tab\\tnew\\nline\\r\\b\\f\\/\"}",
+			"{\"ty\\u0070e\":\"escaped key\"}",
+			"{\"game_id\":7,\"message_id\":null,\"type\":true,\"action\":[\"login\"]}",
+			"{\"value\":-1.5e3,\"other\":false,\"type\":\"after literals\"}",
+			"{\"types\":\"no\",\"typ\":\"no\",\"type\":\"yes\"}",
+			"{\"value\":\"{\\\"type\\\":\\\"in string\\\"}\",\"action\":\"create_game\"}"
+	};
+
+	/**
+	 * Reads the header fields of a message with org.json
+	 *
+	 * @param text JSON message
+	 * @return header fields, null where the value is not a string
+	 */
+	private static String[] expected(String text) {
+		JSONObject json = new JSONObject(text);
+		String[] header = new String[InboundMessage.HEADER_FIELDS.length];
+		for (int i = 0; i < header.length; i++) {
+			Object value = json.opt(InboundMessage.HEADER_FIELDS[i]);
+			header[i] = value instanceof String ? (String) value : null;
+		}
+		return header;
+	}
+
+	@Test
+	public void readsHeaderLikeOrgJSON() {
+		for (String text : MESSAGES) {
+			String[] header = new String[InboundMessage.HEADER_FIELDS.length];
+			JSONHeaderScanner.scan(text, header);
+			assertArrayEquals(JSONHeaderScannerTest.expected(text), header, text);
+		}
+	}
+
+	@Test
+	public void keepsTheLastDuplicateHeader() {
+		String[] header = new String[InboundMessage.HEADER_FIELDS.length];
+		JSONHeaderScanner.scan("{\"value\":{},\"type\":\"request\"}", header);
+		assertEquals("request", header[0]);
+	}
+
+	@Test
+	public void rejectsMalformedJSON() {
+		String[] malformed = {
+				"",
+				"[]",
+				"{",
+				"{\"type\"}",
+				"{\"type\":\"request\"",
+				"{\"type\":\"request\"} trailing",
+				"{\"type\":\"unterminated}",
+				"{\"value\":[1,2}",
+				"{\"type\":\"request\";\"action\":\"login\"}",
+				"{\"type\":\"bad \\u12\"}"
+		};
+		for (String text : malformed) {
+			assertThrows(IllegalArgumentException.class, () -> JSONHeaderScanner.scan(text, new String[InboundMessage.HEADER_FIELDS.length]), text);
+		}
+	}
+
+	@Test
+	public void decodesBodiesLazily() {
+		String text = MESSAGES[4];
+		InboundMessage inbound = InboundMessage.fromJSON(text);
+
+		assertEquals("response", inbound.getType());
+		assertFalse(inbound.isDecoded());
+		assertTrue(new JSONObject(text).similar(inbound.getMessage()));
+		assertTrue(inbound.isDecoded());
+	}
+
+	@Test
+	public void fallsBackToOrgJSONForLenientSyntax() {
+		String text = "{type:'request', 'action':\"login\", message_id:1}";
+		InboundMessage inbound = InboundMessage.fromJSON(text);
+
+		assertEquals("request", inbound.getType());
+		assertEquals("login", inbound.getAction());
+		assertEquals(null, inbound.getMessageID());
+		assertTrue(inbound.isDecoded());
+	}
+
+	@Test
+	public void rejectsTextOrgJSONRejects() {
+		assertThrows(IllegalArgumentException.class, () -> InboundMessage.fromJSON("{\"type\":"));
+		assertThrows(IllegalArgumentException.class, () -> InboundMessage.fromJSON("not json"));
+	}
+}
@@ -0,0 +1,93 @@
+package net.nilsramstoeck.gameserver.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.nilsramstoeck.gameserver.GameServerException;
+import net.nilsramstoeck.gameserver.storage.Storage.Owner;
+import net.nilsramstoeck.gameserver.storage.Storage.SaveResult;
+
+/**
+ * Runs the {@link Storage} contract on a {@link FileStorage} and checks that
+ * its content survives a restart
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class FileStorageTest extends StorageContractTest {
+
+	@TempDir
+	Path directory;
+
+	/**
+	 * File of the storage under test
+	 *
+	 * @return path
+	 */
+	private Path file() {
+		return this.directory.resolve("gameserver.db");
+	}
+
+	@Override
+	protected Storage createStorage() {
+		// no periodic syncs during a test
+		return new FileStorage(this.file(), 3600000);
+	}
+
+	@Test
+	public void keepsItsContentAcrossRestarts() throws GameServerException {
+		this.storage.registerUser("alice", "hash", 1);
+		int host = this.session("host");
+		this.storage.createGame("g1", host);
+		this.storage.writeValues(Owner.GAME, "g1", Collections.singletonMap("k", "v"), Collections.<String>emptyList());
+		assertEquals(SaveResult.SAVED, this.storage.saveState(Owner.GAME, "g1", 0, new byte[] { 7 }));
+		assertEquals(0, this.storage.reserveIds("ids", 100));
+		this.storage.close();
+
+		assertTrue(Files.exists(this.file()));
+		assertFalse(Files.exists(this.file().resolveSibling("gameserver.db.tmp")));
+		this.storage = this.createStorage();
+		this.storage.open();
+
+		assertEquals("hash", this.storage.getPasswordHash("alice"));
+		assertEquals(host, this.storage.getUserId("host"));
+		assertTrue(this.storage.isHost(host));
+		assertEquals("v", this.storage.loadValues(Owner.GAME, "g1").get("k"));
+		assertArrayEquals(new byte[] { 7 }, this.storage.loadState(Owner.GAME, "g1").getData());
+		assertEquals(1, this.storage.loadState(Owner.GAME, "g1").getVersion());
+		assertEquals(100, this.storage.reserveIds("ids", 1));
+		// user IDs are not handed out twice after a restart
+		assertTrue(this.session("other") != host);
+	}
+
+	@Test
+	public void syncsOnlyChanges() throws GameServerException {
+		FileStorage fileStorage = (FileStorage) this.storage;
+		assertTrue(fileStorage.sync());
+		assertFalse(Files.exists(this.file()), "nothing changed");
+
+		this.session("s1");
+		assertTrue(fileStorage.sync());
+		assertTrue(Files.exists(this.file()));
+	}
+
+	@Test
+	public void refusesToOpenACorruptFile() throws Exception {
+		this.storage.close();
+		Files.write(this.file(), new byte[] { 1, 2, 3 });
+		Storage corrupt = this.createStorage();
+		assertThrows(GameServerException.class, corrupt::open);
+		// the test closes the storage that failed to open
+		this.storage = corrupt;
+	}
+}
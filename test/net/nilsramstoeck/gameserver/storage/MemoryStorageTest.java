@@ -0,0 +1,15 @@
+package net.nilsramstoeck.gameserver.storage;
+
+/**
+ * Runs the {@link Storage} contract on a {@link MemoryStorage}
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public class MemoryStorageTest extends StorageContractTest {
+
+	@Override
+	protected Storage createStorage() {
+		return new MemoryStorage();
+	}
+}
@@ -0,0 +1,291 @@
+package net.nilsramstoeck.gameserver.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.nilsramstoeck.gameserver.GameServerException;
+import net.nilsramstoeck.gameserver.SessionIndex;
+import net.nilsramstoeck.gameserver.storage.Storage.Owner;
+import net.nilsramstoeck.gameserver.storage.Storage.SaveResult;
+
+/**
+ * Behavior every {@link Storage} backend has to share. Subclasses create the
+ * backend under test.
+ *
+ * @author Nils Ramstoeck
+ *
+ */
+public abstract class StorageContractTest {
+
+	/**
+	 * Timeout of the expiry tests in minutes
+	 */
+	private static final int TIMEOUT = 5;
+
+	protected Storage storage;
+
+	/**
+	 * Creates the storage under test, it is opened by the test
+	 *
+	 * @return Storage
+	 * @throws Exception Exception
+	 */
+	protected abstract Storage createStorage() throws Exception;
+
+	@BeforeEach
+	public void open() throws Exception {
+		this.storage = this.createStorage();
+		this.storage.open();
+	}
+
+	@AfterEach
+	public void close() {
+		this.storage.close();
+	}
+
+	/**
+	 * Creates a session
+	 *
+	 * @param sessionID Session ID
+	 * @return UserID of the session
+	 * @throws GameServerException GameServerException
+	 */
+	protected int session(String sessionID) throws GameServerException {
+		assertTrue(this.storage.createSession(sessionID, "user-" + sessionID));
+		return this.storage.getUserId(sessionID);
+	}
+
+	/**
+	 * Access time that is expired for {@link #TIMEOUT}
+	 *
+	 * @return access time in milliseconds
+	 */
+	private static long expired() {
+		return System.currentTimeMillis() - (TIMEOUT + 1) * 60000L;
+	}
+
+	/**
+	 * Map of a single entry
+	 *
+	 * @param key   Key
+	 * @param value Value
+	 * @return map
+	 */
+	private static <V> Map<String, V> map(String key, V value) {
+		return Collections.singletonMap(key, value);
+	}
+
+	@Test
+	public void registersUsers() throws GameServerException {
+		assertFalse(this.storage.isRegistered("alice"));
+		assertNull(this.storage.getPasswordHash("alice"));
+		assertThrows(GameServerException.class, () -> this.storage.getAuthLevel("alice"));
+
+		this.storage.registerUser("alice", "hash", 2);
+
+		assertTrue(this.storage.isRegistered("alice"));
+		assertEquals("hash", this.storage.getPasswordHash("alice"));
+		assertEquals(2, this.storage.getAuthLevel("alice"));
+		GameServerException duplicate = assertThrows(GameServerException.class, () -> this.storage.registerUser("alice", "other", 1));
+		assertEquals(GameServerException.DUP_USERNAME, duplicate.getErrorCode());
+		assertEquals("hash", this.storage.getPasswordHash("alice"));
+	}
+
+	@Test
+	public void createsSessionsOnce() throws GameServerException {
+		int first = this.session("s1");
+		int second = this.session("s2");
+
+		assertNotEquals(first, second);
+		assertFalse(this.storage.createSession("s1", "someone else"));
+		assertEquals("user-s1", this.storage.getUsername("s1"));
+		assertEquals(first, this.storage.getUserId("s1"));
+		assertThrows(GameServerException.class, () -> this.storage.getUserId("unknown"));
+		assertThrows(GameServerException.class, () -> this.storage.getUsername("unknown"));
+	}
+
+	@Test
+	public void savesAndRemovesSessions() throws GameServerException {
+		this.storage.saveSession("s1", "guest");
+		int userID = this.storage.getUserId("s1");
+		this.storage.saveSession("s1", "alice");
+
+		assertEquals(userID, this.storage.getUserId("s1"));
+		assertEquals("alice", this.storage.getUsername("s1"));
+
+		this.storage.removeSession("s1");
+		this.storage.removeSession("unknown");
+		assertThrows(GameServerException.class, () -> this.storage.getUserId("s1"));
+	}
+
+	@Test
+	public void reservesDisjointBlocks() throws GameServerException {
+		assertEquals(0, this.storage.reserveIds("a", 10));
+		assertEquals(10, this.storage.reserveIds("a", 5));
+		assertEquals(0, this.storage.reserveIds("b", 3));
+		assertEquals(15, this.storage.reserveIds("a", 1));
+	}
+
+	@Test
+	public void managesGamesAndPlayers() throws GameServerException {
+		int host = this.session("host");
+		int player = this.session("player");
+		this.storage.createGame("g1", host);
+
+		assertTrue(this.storage.isHost(host));
+		assertFalse(this.storage.isHost(player));
+		GameServerException missing = assertThrows(GameServerException.class, () -> this.storage.addPlayer("unknown", player));
+		assertEquals(GameServerException.GAME_NOT_FOUND, missing.getErrorCode());
+
+		this.storage.addPlayer("g1", player);
+		this.storage.writeValues(Owner.PLAYER, Integer.toString(player), map("k", "v"), Collections.<String>emptyList());
+		assertEquals(SaveResult.SAVED, this.storage.saveState(Owner.PLAYER, Integer.toString(player), 0, new byte[] { 1 }));
+
+		SessionIndex index = new SessionIndex();
+		this.storage.loadSessions(index);
+		assertEquals(Integer.valueOf(player), index.getUserId("player"));
+		assertEquals("g1", index.getGameOfUser(player));
+		assertNull(index.getGameOfUser(host));
+
+		// the values and state of a player leave with it
+		this.storage.removePlayer(player);
+		this.storage.removePlayer(player);
+		assertTrue(this.storage.loadValues(Owner.PLAYER, Integer.toString(player)).isEmpty());
+		assertNull(this.storage.loadState(Owner.PLAYER, Integer.toString(player)));
+		assertFalse(this.storage.writeValues(Owner.PLAYER, Integer.toString(player), map("k", "v"), Collections.<String>emptyList()));
+	}
+
+	@Test
+	public void writesValuesOfExistingOwners() throws GameServerException {
+		this.storage.createGame("g1", this.session("host"));
+		Map<String, String> upserts = new HashMap<String, String>();
+		upserts.put("a", "1");
+		upserts.put("b", "2");
+
+		assertTrue(this.storage.writeValues(Owner.GAME, "g1", upserts, Collections.<String>emptyList()));
+		assertTrue(this.storage.writeValues(Owner.GAME, "g1", map("c", "3"), Arrays.asList("a", "unknown")));
+		Map<String, String> loaded = this.storage.loadValues(Owner.GAME, "g1");
+		loaded.put("changed", "locally");
+
+		Map<String, String> expected = new HashMap<String, String>();
+		expected.put("b", "2");
+		expected.put("c", "3");
+		assertEquals(expected, this.storage.loadValues(Owner.GAME, "g1"));
+		assertFalse(this.storage.writeValues(Owner.GAME, "unknown", upserts, Collections.<String>emptyList()));
+		assertTrue(this.storage.loadValues(Owner.GAME, "unknown").isEmpty());
+	}
+
+	@Test
+	public void savesStateWithVersions() throws GameServerException {
+		this.storage.createGame("g1", this.session("host"));
+		assertNull(this.storage.loadState(Owner.GAME, "g1"));
+
+		assertEquals(SaveResult.SAVED, this.storage.saveState(Owner.GAME, "g1", 0, new byte[] { 1 }));
+		assertEquals(SaveResult.CONFLICT, this.storage.saveState(Owner.GAME, "g1", 0, new byte[] { 2 }));
+		assertEquals(SaveResult.SAVED, this.storage.saveState(Owner.GAME, "g1", 1, new byte[] { 3 }));
+		assertEquals(SaveResult.ORPHANED, this.storage.saveState(Owner.GAME, "unknown", 0, new byte[] { 4 }));
+
+		StoredState stored = this.storage.loadState(Owner.GAME, "g1");
+		assertEquals(2, stored.getVersion());
+		assertArrayEquals(new byte[] { 3 }, stored.getData());
+		assertNull(this.storage.loadState(Owner.GAME, "unknown"));
+	}
+
+	@Test
+	public void findsExpiredSessionsInPages() throws GameServerException {
+		Map<String, Long> accesses = new HashMap<String, Long>();
+		for (String sessionID : Arrays.asList("s3", "s1", "s5", "s2", "s4")) {
+			this.session(sessionID);
+			accesses.put(sessionID, expired());
+		}
+		this.session("fresh");
+		this.storage.touchSessions(accesses);
+
+		assertEquals(Arrays.asList("s1", "s2"), this.storage.findExpiredSessions(TIMEOUT, "", 2));
+		assertEquals(Arrays.asList("s3", "s4"), this.storage.findExpiredSessions(TIMEOUT, "s2", 2));
+		assertEquals(Arrays.asList("s5"), this.storage.findExpiredSessions(TIMEOUT, "s4", 2));
+		assertTrue(this.storage.findExpiredSessions(TIMEOUT, "s5", 2).isEmpty());
+	}
+
+	@Test
+	public void deletesOnlySessionsThatAreStillExpired() throws GameServerException {
+		int host = this.session("host");
+		int player = this.session("player");
+		this.session("touched");
+		this.storage.createGame("g1", host);
+		this.storage.addPlayer("g1", player);
+		Map<String, Long> accesses = new HashMap<String, Long>();
+		accesses.put("player", expired());
+		accesses.put("touched", expired());
+		this.storage.touchSessions(accesses);
+		List<String> found = this.storage.findExpiredSessions(TIMEOUT, "", 10);
+		assertEquals(Arrays.asList("player", "touched"), found);
+
+		// accessed after it was found
+		this.storage.touchSessions(map("touched", System.currentTimeMillis()));
+
+		assertEquals(Arrays.asList("player"), this.storage.deleteExpiredSessions(found, TIMEOUT));
+		assertThrows(GameServerException.class, () -> this.storage.getUserId("player"));
+		assertEquals("user-touched", this.storage.getUsername("touched"));
+		SessionIndex index = new SessionIndex();
+		this.storage.loadSessions(index);
+		assertNull(index.getGameOfUser(player));
+	}
+
+	@Test
+	public void deletesExpiredGamesWithTheirPlayers() throws GameServerException {
+		this.storage.createGame("g1", this.session("host1"));
+		this.storage.createGame("g2", this.session("host2"));
+		int player = this.session("player");
+		this.storage.addPlayer("g1", player);
+		this.storage.writeValues(Owner.GAME, "g1", map("k", "v"), Collections.<String>emptyList());
+		Map<String, Long> accesses = new HashMap<String, Long>();
+		accesses.put("g1", expired());
+		accesses.put("g2", expired());
+		this.storage.touchGames(accesses);
+		List<String> found = this.storage.findExpiredGames(TIMEOUT, "", 10);
+		assertEquals(Arrays.asList("g1", "g2"), found);
+
+		this.storage.touchGames(map("g2", System.currentTimeMillis()));
+
+		assertEquals(Arrays.asList("g1"), this.storage.deleteExpiredGames(found, TIMEOUT));
+		assertTrue(this.storage.loadValues(Owner.GAME, "g1").isEmpty());
+		assertEquals(SaveResult.ORPHANED, this.storage.saveState(Owner.GAME, "g1", 0, new byte[0]));
+		assertEquals(SaveResult.SAVED, this.storage.saveState(Owner.GAME, "g2", 0, new byte[0]));
+		SessionIndex index = new SessionIndex();
+		this.storage.loadSessions(index);
+		assertNull(index.getGameOfUser(player));
+		assertEquals(Arrays.asList("g2"), this.storage.findExpiredGames(0, "", 10));
+	}
+
+	@Test
+	public void removesSessionsAndGames() throws GameServerException {
+		int host = this.session("host");
+		int player = this.session("player");
+		this.storage.createGame("g1", host);
+		this.storage.addPlayer("g1", player);
+
+		this.storage.removeSessions(Arrays.asList("player", "unknown"));
+		assertThrows(GameServerException.class, () -> this.storage.getUserId("player"));
+		this.storage.removeGames(Arrays.asList("g1", "unknown"));
+		assertFalse(this.storage.isHost(host));
+		assertFalse(this.storage.writeValues(Owner.GAME, "g1", map("k", "v"), Collections.<String>emptyList()));
+		GameServerException missing = assertThrows(GameServerException.class, () -> this.storage.addPlayer("g1", host));
+		assertEquals(GameServerException.GAME_NOT_FOUND, missing.getErrorCode());
+	}
+}